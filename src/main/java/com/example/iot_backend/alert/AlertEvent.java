@@ -0,0 +1,66 @@
+package com.example.iot_backend.alert;
+
+import java.time.Instant;
+
+/**
+ * Event khi một alert chuyển trạng thái (publish qua ApplicationEventPublisher)
+ */
+public class AlertEvent {
+
+    public enum Type {
+        FIRING, RESOLVED
+    }
+
+    private final Type type;
+    private final long ruleId;
+    private final String ruleName;
+    private final long deviceId;
+    private final String metric;
+    private final double value;
+    private final double threshold;
+    private final Instant ts;
+
+    public AlertEvent(Type type, long ruleId, String ruleName, long deviceId, String metric,
+            double value, double threshold, Instant ts) {
+        this.type = type;
+        this.ruleId = ruleId;
+        this.ruleName = ruleName;
+        this.deviceId = deviceId;
+        this.metric = metric;
+        this.value = value;
+        this.threshold = threshold;
+        this.ts = ts;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getRuleId() {
+        return ruleId;
+    }
+
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    public long getDeviceId() {
+        return deviceId;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public Instant getTs() {
+        return ts;
+    }
+}
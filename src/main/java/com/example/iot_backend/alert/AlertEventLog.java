@@ -0,0 +1,55 @@
+package com.example.iot_backend.alert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Ghi log và giữ các AlertEvent gần nhất cho REST API
+ */
+@Component
+public class AlertEventLog {
+    private static final Logger log = LoggerFactory.getLogger(AlertEventLog.class);
+
+    private static final int MAX_EVENTS = 500;
+
+    private final Deque<AlertEvent> recent = new ArrayDeque<>();
+
+    @EventListener
+    public void onAlert(AlertEvent event) {
+        if (event.getType() == AlertEvent.Type.FIRING) {
+            log.warn("🔥 ALERT FIRING [{}]: device {} {}={} (threshold {})", event.getRuleName(),
+                    event.getDeviceId(), event.getMetric(), event.getValue(), event.getThreshold());
+        } else {
+            log.info("✅ ALERT RESOLVED [{}]: device {} {}={}", event.getRuleName(),
+                    event.getDeviceId(), event.getMetric(), event.getValue());
+        }
+        synchronized (recent) {
+            recent.addFirst(event);
+            if (recent.size() > MAX_EVENTS) {
+                recent.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Các event mới nhất trước
+     */
+    public List<AlertEvent> getRecentEvents(int limit) {
+        synchronized (recent) {
+            List<AlertEvent> events = new ArrayList<>(Math.min(limit, recent.size()));
+            for (AlertEvent event : recent) {
+                if (events.size() >= limit)
+                    break;
+                events.add(event);
+            }
+            return events;
+        }
+    }
+}
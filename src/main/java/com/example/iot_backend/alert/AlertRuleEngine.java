@@ -0,0 +1,237 @@
+package com.example.iot_backend.alert;
+
+import com.example.iot_backend.ingest.PayloadEnvelope;
+import com.example.iot_backend.ingest.TelemetryRecord;
+import com.example.iot_backend.model.AlertRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đánh giá alert rule trên metric đã parse sẵn.
+ *
+ * Rule được compile thành bảng metric -> CompiledRule[]; mỗi giá trị metric chỉ duyệt các rule của metric đó,
+ * không parse chuỗi. Trạng thái (pending/firing) giữ theo từng (rule, device); chuyển trạng thái được
+ * publish thành AlertEvent.
+ */
+@Component
+public class AlertRuleEngine {
+    private static final Logger log = LoggerFactory.getLogger(AlertRuleEngine.class);
+
+    private static final CompiledRule[] NO_RULES = new CompiledRule[0];
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Bảng compile sẵn, thay toàn bộ (copy-on-write) khi rule thay đổi
+    private volatile Map<String, CompiledRule[]> rulesByMetric = Map.of();
+    private volatile int ruleCount;
+
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong resolved = new AtomicLong();
+
+    public AlertRuleEngine(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Compile lại bảng rule; trạng thái của rule còn tồn tại được giữ nguyên
+     */
+    public synchronized void compile(List<AlertRule> rules) {
+        Map<Long, CompiledRule> previous = new HashMap<>();
+        for (CompiledRule[] compiled : rulesByMetric.values()) {
+            for (CompiledRule rule : compiled) {
+                previous.put(rule.id, rule);
+            }
+        }
+
+        Map<String, List<CompiledRule>> grouped = new HashMap<>();
+        int count = 0;
+        for (AlertRule rule : rules) {
+            if (!rule.isEnabled())
+                continue;
+            CompiledRule old = previous.get(rule.getId());
+            CompiledRule compiled = new CompiledRule(rule, old != null ? old.states : new ConcurrentHashMap<>());
+            grouped.computeIfAbsent(rule.getMetric(), k -> new ArrayList<>()).add(compiled);
+            count++;
+        }
+
+        Map<String, CompiledRule[]> table = new HashMap<>();
+        grouped.forEach((metric, list) -> table.put(metric, list.toArray(NO_RULES)));
+        rulesByMetric = table;
+        ruleCount = count;
+        log.info("Compiled {} alert rules over {} metrics", count, table.size());
+    }
+
+    public void evaluate(TelemetryRecord record) {
+        Map<String, CompiledRule[]> table = rulesByMetric;
+        if (table.isEmpty())
+            return;
+        long tsMs = record.getTs().toEpochMilli();
+        for (int i = 0; i < record.getMetricCount(); i++) {
+            CompiledRule[] rules = table.get(record.getMetricName(i));
+            if (rules != null) {
+                evaluate(rules, record.getDeviceId(), tsMs, record.getMetricValue(i));
+            }
+        }
+    }
+
+    public void evaluate(long deviceId, Instant ts, PayloadEnvelope envelope) {
+        Map<String, CompiledRule[]> table = rulesByMetric;
+        if (table.isEmpty())
+            return;
+        long tsMs = ts.toEpochMilli();
+        for (int i = 0; i < envelope.getMetricCount(); i++) {
+            CompiledRule[] rules = table.get(envelope.getMetricName(i));
+            if (rules != null) {
+                evaluate(rules, deviceId, tsMs, envelope.getMetricValue(i));
+            }
+        }
+    }
+
+    private void evaluate(CompiledRule[] rules, long deviceId, long tsMs, double value) {
+        for (CompiledRule rule : rules) {
+            if (rule.deviceId != CompiledRule.ALL_DEVICES && rule.deviceId != deviceId)
+                continue;
+            evaluations.incrementAndGet();
+            AlertEvent.Type transition = rule.apply(deviceId, tsMs, value);
+            if (transition != null) {
+                if (transition == AlertEvent.Type.FIRING) {
+                    fired.incrementAndGet();
+                } else {
+                    resolved.incrementAndGet();
+                }
+                eventPublisher.publishEvent(new AlertEvent(transition, rule.id, rule.name, deviceId,
+                        rule.metric, value, rule.threshold, Instant.ofEpochMilli(tsMs)));
+            }
+        }
+    }
+
+    /**
+     * Các alert đang firing
+     */
+    public List<Map<String, Object>> getActiveAlerts() {
+        List<Map<String, Object>> active = new ArrayList<>();
+        for (CompiledRule[] rules : rulesByMetric.values()) {
+            for (CompiledRule rule : rules) {
+                rule.states.forEach((deviceId, state) -> {
+                    if (state.firing) {
+                        Map<String, Object> alert = new LinkedHashMap<>();
+                        alert.put("ruleId", rule.id);
+                        alert.put("ruleName", rule.name);
+                        alert.put("deviceId", deviceId);
+                        alert.put("metric", rule.metric);
+                        alert.put("threshold", rule.threshold);
+                        alert.put("lastValue", state.lastValue);
+                        alert.put("since", Instant.ofEpochMilli(state.firingSinceMs));
+                        active.add(alert);
+                    }
+                });
+            }
+        }
+        return active;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("rules", ruleCount);
+        metrics.put("metrics", rulesByMetric.size());
+        metrics.put("evaluations", evaluations.get());
+        metrics.put("fired", fired.get());
+        metrics.put("resolved", resolved.get());
+        return metrics;
+    }
+
+    /**
+     * Rule đã compile: comparator chuyển thành cờ above/inclusive, hysteresis thành ngưỡng resolve
+     */
+    private static final class CompiledRule {
+        static final long ALL_DEVICES = -1L;
+
+        final long id;
+        final String name;
+        final String metric;
+        final long deviceId;
+        final boolean above;
+        final boolean inclusive;
+        final double threshold;
+        final double hysteresis;
+        final long windowMs;
+        final ConcurrentHashMap<Long, State> states;
+
+        CompiledRule(AlertRule rule, ConcurrentHashMap<Long, State> states) {
+            this.id = rule.getId();
+            this.name = rule.getName();
+            this.metric = rule.getMetric();
+            this.deviceId = rule.getDeviceId() != null ? rule.getDeviceId() : ALL_DEVICES;
+            this.above = rule.getComparator() == AlertRule.Comparator.GT
+                    || rule.getComparator() == AlertRule.Comparator.GTE;
+            this.inclusive = rule.getComparator() == AlertRule.Comparator.GTE
+                    || rule.getComparator() == AlertRule.Comparator.LTE;
+            this.threshold = rule.getThreshold();
+            this.hysteresis = Math.max(0, rule.getHysteresis());
+            this.windowMs = Math.max(0, rule.getWindowSeconds()) * 1000L;
+            this.states = states;
+        }
+
+        boolean breached(double v) {
+            if (above)
+                return inclusive ? v >= threshold : v > threshold;
+            return inclusive ? v <= threshold : v < threshold;
+        }
+
+        boolean cleared(double v) {
+            if (hysteresis == 0)
+                return !breached(v);
+            return above ? v <= threshold - hysteresis : v >= threshold + hysteresis;
+        }
+
+        /**
+         * Cập nhật trạng thái của device, trả về loại chuyển trạng thái (null nếu không đổi)
+         */
+        AlertEvent.Type apply(long deviceId, long tsMs, double value) {
+            State state = states.computeIfAbsent(deviceId, k -> new State());
+            synchronized (state) {
+                state.lastValue = value;
+                if (!state.firing) {
+                    if (!breached(value)) {
+                        state.pendingSinceMs = -1;
+                        return null;
+                    }
+                    if (state.pendingSinceMs < 0) {
+                        state.pendingSinceMs = tsMs;
+                    }
+                    if (tsMs - state.pendingSinceMs >= windowMs) {
+                        state.firing = true;
+                        state.firingSinceMs = tsMs;
+                        return AlertEvent.Type.FIRING;
+                    }
+                    return null;
+                }
+                if (cleared(value)) {
+                    state.firing = false;
+                    state.pendingSinceMs = -1;
+                    return AlertEvent.Type.RESOLVED;
+                }
+                return null;
+            }
+        }
+    }
+
+    private static final class State {
+        boolean firing;
+        long pendingSinceMs = -1;
+        long firingSinceMs;
+        double lastValue;
+    }
+}
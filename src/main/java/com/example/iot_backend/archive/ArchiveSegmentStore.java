@@ -0,0 +1,272 @@
+package com.example.iot_backend.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tầng lưu archive trên đĩa local: các segment file append-only chứa dữ liệu nén của nhiều archive.
+ *
+ * Segment được ghi một lần (file .tmp), kết thúc bằng footer index rồi fsync và rename atomic thành .seg;
+ * sau đó không bao giờ sửa. Đọc qua FileChannel.map (READ_ONLY, map cả file một lần) nên dữ liệu đi thẳng từ
+ * page cache vào codec, không qua heap. telemetry_archive lưu (segment_id, segment_offset, segment_length);
+ * footer cho phép đối chiếu lại khi bước cập nhật DB sau khi ghi segment bị gián đoạn.
+ *
+ * Định dạng: MAGIC (8 byte), các block nối tiếp, footer gồm count entry (archiveId long, offset long,
+ * length int), trailer (footerOffset long, count int, TRAILER_MAGIC int).
+ *
+ * Thư mục chỉ được tạo khi ghi segment đầu tiên, nên app vẫn khởi động được khi tắt tiering và thư mục
+ * không ghi được.
+ */
+@Component
+public class ArchiveSegmentStore {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveSegmentStore.class);
+
+    private static final long MAGIC = 0x494f545345473031L; // "IOTSEG01"
+    private static final int TRAILER_MAGIC = 0x53454746; // "SEGF"
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 20;
+    private static final int TRAILER_SIZE = 16;
+    private static final Pattern FILE_NAME = Pattern.compile("segment-(\\d{10})\\.seg(\\.tmp)?");
+    // Một MappedByteBuffer chỉ địa chỉ hóa được tới 2 GB
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Path directory;
+    private final long segmentMaxBytes;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private volatile boolean initialized;
+    private final ConcurrentHashMap<Long, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+
+    /**
+     * Entry footer: vị trí dữ liệu nén của một archive trong segment
+     */
+    public record Entry(long archiveId, long offset, int length) {
+    }
+
+    public ArchiveSegmentStore(@Value("${app.archive.segments.dir:data/archive-segments}") String directory,
+            @Value("${app.archive.segments.max-bytes:268435456}") long segmentMaxBytes) {
+        this.directory = Paths.get(directory);
+        this.segmentMaxBytes = Math.max(HEADER_SIZE + TRAILER_SIZE + ENTRY_SIZE + 1,
+                Math.min(segmentMaxBytes, MAX_SEGMENT_BYTES));
+    }
+
+    /**
+     * Tạo thư mục (lần ghi đầu tiên), xóa segment ghi dở từ lần chạy trước và tiếp tục đánh số segment
+     */
+    private void ensureInitialized() throws IOException {
+        if (initialized)
+            return;
+        synchronized (this) {
+            if (initialized)
+                return;
+            Files.createDirectories(directory);
+            long maxId = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+                    if (!m.matches())
+                        continue;
+                    maxId = Math.max(maxId, Long.parseLong(m.group(1)));
+                    if (m.group(2) != null) {
+                        // Segment ghi dở từ lần chạy trước: chưa được DB tham chiếu
+                        Files.deleteIfExists(file);
+                        log.warn("Deleted unfinished archive segment {}", file);
+                    }
+                }
+            }
+            nextId.set(maxId + 1);
+            initialized = true;
+        }
+    }
+
+    public long getSegmentMaxBytes() {
+        return segmentMaxBytes;
+    }
+
+    /**
+     * Mở segment mới để ghi
+     */
+    public SegmentWriter create() throws IOException {
+        ensureInitialized();
+        return new SegmentWriter(nextId.getAndIncrement());
+    }
+
+    /**
+     * Dữ liệu [offset, offset + length) của segment, là view trên vùng map (không copy)
+     */
+    public ByteBuffer read(long segmentId, long offset, int length) {
+        MappedByteBuffer buffer = mapped.computeIfAbsent(segmentId, this::map);
+        if (offset < HEADER_SIZE || offset + length > buffer.capacity())
+            throw new IllegalArgumentException("Range " + offset + "+" + length + " is outside of segment "
+                    + segmentId);
+        return buffer.slice((int) offset, length);
+    }
+
+    /**
+     * Footer index của segment
+     */
+    public List<Entry> readIndex(long segmentId) {
+        ByteBuffer buffer = mapped.computeIfAbsent(segmentId, this::map);
+        int trailer = buffer.capacity() - TRAILER_SIZE;
+        long footerOffset = buffer.getLong(trailer);
+        int count = buffer.getInt(trailer + 8);
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int pos = (int) footerOffset + i * ENTRY_SIZE;
+            entries.add(new Entry(buffer.getLong(pos), buffer.getLong(pos + 8), buffer.getInt(pos + 16)));
+        }
+        return entries;
+    }
+
+    /**
+     * ID các segment đã hoàn tất trên đĩa
+     */
+    public List<Long> listSegments() {
+        List<Long> ids = new ArrayList<>();
+        if (!Files.isDirectory(directory))
+            return ids; // chưa ghi segment nào
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.seg")) {
+            for (Path file : files) {
+                Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+                if (m.matches() && m.group(2) == null) {
+                    ids.add(Long.parseLong(m.group(1)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list archive segments", e);
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    public long sizeOf(long segmentId) {
+        try {
+            return Files.size(pathOf(segmentId, false));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Xóa segment không còn archive nào tham chiếu. Vùng map đang được đọc vẫn hợp lệ tới khi bị GC
+     */
+    public void delete(long segmentId) throws IOException {
+        mapped.remove(segmentId);
+        Files.deleteIfExists(pathOf(segmentId, false));
+    }
+
+    private MappedByteBuffer map(long segmentId) {
+        try (FileChannel channel = FileChannel.open(pathOf(segmentId, false), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE || size > MAX_SEGMENT_BYTES)
+                throw new IOException("Invalid segment size " + size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getLong(0) != MAGIC || buffer.getInt((int) size - 4) != TRAILER_MAGIC)
+                throw new IOException("Bad segment magic");
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map archive segment " + segmentId, e);
+        }
+    }
+
+    private Path pathOf(long segmentId, boolean temporary) {
+        return directory.resolve(String.format("segment-%010d.seg%s", segmentId, temporary ? ".tmp" : ""));
+    }
+
+    /**
+     * Ghi một segment mới: append các block rồi seal() để ghi footer, fsync và công bố file.
+     * close() khi chưa seal sẽ xóa file tạm
+     */
+    public final class SegmentWriter implements Closeable {
+        private final long segmentId;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final List<Entry> entries = new ArrayList<>();
+        private long position;
+        private boolean sealed;
+
+        private SegmentWriter(long segmentId) throws IOException {
+            this.segmentId = segmentId;
+            this.temporary = pathOf(segmentId, true);
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(0, MAGIC);
+            writeFully(header);
+            this.position = HEADER_SIZE;
+        }
+
+        public long getSegmentId() {
+            return segmentId;
+        }
+
+        public int count() {
+            return entries.size();
+        }
+
+        /**
+         * Block có vừa segment không (tính cả footer)
+         */
+        public boolean fits(int length) {
+            long footer = (long) (entries.size() + 1) * ENTRY_SIZE + TRAILER_SIZE;
+            return position + length + footer <= segmentMaxBytes;
+        }
+
+        public Entry append(long archiveId, byte[] data) throws IOException {
+            Entry entry = new Entry(archiveId, position, data.length);
+            writeFully(ByteBuffer.wrap(data));
+            position += data.length;
+            entries.add(entry);
+            return entry;
+        }
+
+        /**
+         * Ghi footer, fsync và rename atomic thành segment hoàn tất; trả về các entry đã ghi
+         */
+        public List<Entry> seal() throws IOException {
+            ByteBuffer footer = ByteBuffer.allocate(entries.size() * ENTRY_SIZE + TRAILER_SIZE);
+            for (Entry entry : entries) {
+                footer.putLong(entry.archiveId()).putLong(entry.offset()).putInt(entry.length());
+            }
+            footer.putLong(position).putInt(entries.size()).putInt(TRAILER_MAGIC).flip();
+            writeFully(footer);
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, pathOf(segmentId, false), StandardCopyOption.ATOMIC_MOVE);
+            sealed = true;
+            return List.copyOf(entries);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (sealed)
+                return;
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
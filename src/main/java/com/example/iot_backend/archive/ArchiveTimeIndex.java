@@ -0,0 +1,142 @@
+package com.example.iot_backend.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Chỉ mục thời gian bên trong một archive.
+ *
+ * Archive được chia thành các chunk nén độc lập nối tiếp nhau; mỗi entry ghi độ dài byte nén của chunk và
+ * khoảng ts [min, max] (epoch millis, làm tròn xuống) của các record trong chunk. Khi đọc một khoảng thời
+ * gian chỉ cần tải và giải nén các chunk chạm khoảng đó.
+ *
+ * Định dạng: varint số chunk, rồi mỗi chunk: varint (length << 1 | bounded); nếu bounded thì zigzag
+ * (min - min chunk trước) và varint (max - min). Chunk không có ts nào (unbounded) luôn được đọc.
+ */
+public final class ArchiveTimeIndex {
+    private final int[] offsets; // offsets[i] = byte đầu chunk i, offsets[n] = tổng độ dài
+    private final long[] minMillis;
+    private final long[] maxMillis;
+
+    private ArchiveTimeIndex(int[] offsets, long[] minMillis, long[] maxMillis) {
+        this.offsets = offsets;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    public static ArchiveTimeIndex parse(byte[] data) {
+        BitInput in = new BitInput(new ByteArrayInputStream(data));
+        try {
+            int count = in.readVarInt();
+            int[] offsets = new int[count + 1];
+            long[] min = new long[count];
+            long[] max = new long[count];
+            long prevMin = 0;
+            for (int i = 0; i < count; i++) {
+                long header = in.readVarLong();
+                offsets[i + 1] = offsets[i] + (int) (header >>> 1);
+                if ((header & 1) != 0) {
+                    min[i] = prevMin + in.readZigZag();
+                    max[i] = min[i] + in.readVarLong();
+                    prevMin = min[i];
+                } else {
+                    min[i] = Long.MIN_VALUE;
+                    max[i] = Long.MAX_VALUE;
+                }
+            }
+            return new ArchiveTimeIndex(offsets, min, max);
+        } finally {
+            in.release();
+        }
+    }
+
+    public int size() {
+        return minMillis.length;
+    }
+
+    public int start(int chunk) {
+        return offsets[chunk];
+    }
+
+    public int end(int chunk) {
+        return offsets[chunk + 1];
+    }
+
+    /**
+     * Chunk có thể chứa record trong [from, to] không (null = không giới hạn). So sánh trên millis làm tròn
+     * xuống nên không bao giờ bỏ sót record, chỉ có thể đọc thừa chunk sát biên
+     */
+    public boolean overlaps(int chunk, Instant from, Instant to) {
+        if (from != null && maxMillis[chunk] < from.toEpochMilli())
+            return false;
+        return to == null || minMillis[chunk] <= to.toEpochMilli();
+    }
+
+    /**
+     * Khoảng byte [start, end) bao các chunk chạm [from, to]; null nếu không chunk nào chạm
+     */
+    public int[] byteRange(Instant from, Instant to) {
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < size(); i++) {
+            if (overlaps(i, from, to)) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        return first < 0 ? null : new int[] { start(first), end(last) };
+    }
+
+    /**
+     * Ghi index khi dựng archive, theo thứ tự chunk
+     */
+    public static final class Builder {
+        private int count;
+        private int[] lengths = new int[8];
+        private long[] min = new long[8];
+        private long[] max = new long[8];
+
+        /**
+         * Thêm chunk; minMillis > maxMillis nghĩa là chunk không có ts
+         */
+        public void add(int length, long minMillis, long maxMillis) {
+            if (count == lengths.length) {
+                lengths = Arrays.copyOf(lengths, count * 2);
+                min = Arrays.copyOf(min, count * 2);
+                max = Arrays.copyOf(max, count * 2);
+            }
+            lengths[count] = length;
+            min[count] = minMillis;
+            max[count] = maxMillis;
+            count++;
+        }
+
+        public byte[] toBytes() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + count * 8);
+            BitOutput out = new BitOutput(bytes);
+            out.writeVarInt(count);
+            long prevMin = 0;
+            for (int i = 0; i < count; i++) {
+                boolean bounded = min[i] <= max[i];
+                out.writeVarLong(((long) lengths[i] << 1) | (bounded ? 1 : 0));
+                if (bounded) {
+                    out.writeZigZag(min[i] - prevMin);
+                    out.writeVarLong(max[i] - min[i]);
+                    prevMin = min[i];
+                }
+            }
+            try {
+                out.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.iot_backend.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Đọc bit-level (MSB trước) từ InputStream, đối xứng với BitOutput. Dùng buffer
+ * từ BufferPool; release() khi đọc xong
+ */
+class BitInput {
+    private final InputStream in;
+    private byte[] buf;
+    private int limit;
+    private int pos;
+    private int bitPos; // bit kế tiếp trong buf[pos], 0 = MSB
+
+    BitInput(InputStream in) {
+        this.in = in;
+        this.buf = BufferPool.acquire();
+    }
+
+    private void ensureByte() {
+        if (pos < limit)
+            return;
+        try {
+            int n;
+            do {
+                n = in.read(buf, 0, buf.length);
+            } while (n == 0);
+            if (n < 0)
+                throw new IllegalStateException("Unexpected end of archive data");
+            limit = n;
+            pos = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    long readBits(int count) {
+        long value = 0;
+        while (count > 0) {
+            ensureByte();
+            // Lấy tối đa phần còn lại của byte hiện tại trong một lần
+            int available = 8 - bitPos;
+            int take = Math.min(available, count);
+            int bits = ((buf[pos] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+            value = (value << take) | bits;
+            count -= take;
+            bitPos += take;
+            if (bitPos == 8) {
+                bitPos = 0;
+                pos++;
+            }
+        }
+        return value;
+    }
+
+    long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            long b = readBits(8);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalStateException("Malformed varint in archive data");
+    }
+
+    int readVarInt() {
+        return (int) readVarLong();
+    }
+
+    long readZigZag() {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    String readString() {
+        int len = readVarInt();
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = (byte) readBits(8);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void release() {
+        BufferPool.release(buf);
+        buf = null;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.iot_backend.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ghi bit-level (MSB trước) ra OutputStream qua một buffer lấy từ BufferPool
+ */
+class BitOutput {
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos; // byte đang ghi trong buf
+    private long acc; // bit chờ ghi
+    private int accBits;
+
+    BitOutput(OutputStream out) {
+        this.out = out;
+        this.buf = BufferPool.acquire();
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Ghi count bit thấp của value (count <= 64)
+     */
+    void writeBits(long value, int count) {
+        if (count > 32) {
+            writeBits(value >>> 32, count - 32);
+            writeBits(value, 32);
+            return;
+        }
+        acc = (acc << count) | (value & ((1L << count) - 1));
+        accBits += count;
+        while (accBits >= 8) {
+            accBits -= 8;
+            put((byte) (acc >>> accBits));
+        }
+    }
+
+    void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeBits((value & 0x7F) | 0x80, 8);
+            value >>>= 7;
+        }
+        writeBits(value, 8);
+    }
+
+    void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    void writeZigZag(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        for (byte b : bytes) {
+            writeBits(b, 8);
+        }
+    }
+
+    private void put(byte b) {
+        if (pos == buf.length) {
+            flushBuffer();
+        }
+        buf[pos++] = b;
+    }
+
+    private void flushBuffer() {
+        try {
+            out.write(buf, 0, pos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pos = 0;
+    }
+
+    /**
+     * Kết thúc stream (pad bit 0 tới hết byte), ghi phần còn lại và trả buffer
+     * về pool
+     */
+    void finish() throws IOException {
+        if (accBits > 0) {
+            writeBits(0, 8 - accBits);
+        }
+        try {
+            out.write(buf, 0, pos);
+        } finally {
+            BufferPool.release(buf);
+            buf = null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.iot_backend.archive;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool buffer 64 KB dùng chung cho serialize / nén / giải nén archive, tránh cấp
+ * phát buffer lớn cho mỗi archive. Giữ tối đa MAX_POOLED buffer rảnh (4 MB)
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED = 64;
+
+    private static final ConcurrentLinkedQueue<byte[]> FREE = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger FREE_COUNT = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    public static byte[] acquire() {
+        byte[] buffer = FREE.poll();
+        if (buffer != null) {
+            FREE_COUNT.decrementAndGet();
+            return buffer;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length != BUFFER_SIZE)
+            return;
+        if (FREE_COUNT.incrementAndGet() <= MAX_POOLED) {
+            FREE.offer(buffer);
+        } else {
+            FREE_COUNT.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,830 @@
+package com.example.iot_backend.archive;
+
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Định dạng archive dạng cột kiểu Gorilla (Facebook, VLDB 2015).
+ *
+ * Mỗi archive được tách thành các cột: id / deviceId / ts (delta hoặc
+ * delta-of-delta theo bucket bit), deviceName (dictionary) và các cột giá trị
+ * theo từng key của payload JSON phẳng: số thực nén XOR (hoặc số thập phân đã
+ * scale), số nguyên delta, chuỗi dùng dictionary. Payload không tái tạo được chính xác
+ * từng byte (JSON lồng nhau, số viết kiểu khác, escape lạ...) được lưu nguyên
+ * văn (RAW) nên giải nén luôn trả lại đúng chuỗi gốc.
+ *
+ * Layout: magic "TSC" + version, số record, đơn vị ts, dictionary, bảng cột,
+ * bảng shape, rồi lần lượt các cột id, deviceId, deviceName, ts, shape, raw,
+ * giá trị.
+ */
+public final class ColumnarArchiveCodec {
+
+    private static final byte[] MAGIC = { 'T', 'S', 'C' };
+    private static final int VERSION = 1;
+
+    // Kiểu giá trị của một cột
+    private static final int TYPE_DOUBLE = 0;
+    private static final int TYPE_LONG = 1;
+    private static final int TYPE_STRING = 2;
+    private static final int TYPE_TRUE = 3;
+    private static final int TYPE_FALSE = 4;
+    private static final int TYPE_NULL = 5;
+
+    // Shape đặc biệt; shape thường bắt đầu từ FIRST_SHAPE
+    private static final int SHAPE_NULL_DATA = 0;
+    private static final int SHAPE_RAW = 1;
+    private static final int FIRST_SHAPE = 2;
+
+    // Khoảng trắng sau ':' và ',' (bit 0: ": ", bit 1: ", ")
+    private static final int SPACING_VARIANTS = 4;
+
+    // Đơn vị thời gian: chọn đơn vị thô nhất mà mọi ts chia hết
+    private static final long[] NANOS_PER_UNIT = { 1_000_000_000L, 1_000_000L, 1_000L, 1L };
+
+    // Số thực dạng thập phân: tối đa 6 chữ số lẻ, |v * 10^k| < 2^53
+    private static final int MAX_SCALE = 6;
+    private static final double[] POW10 = { 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000 };
+    private static final double MAX_EXACT_LONG = 9_007_199_254_740_992d;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ColumnarArchiveCodec() {
+    }
+
+    /**
+     * Writer nhận từng record; chỉ giữ các cột primitive đã tách nên nhỏ hơn
+     * nhiều so với giữ danh sách DTO
+     */
+    public static Writer newWriter() {
+        return new Writer();
+    }
+
+    /**
+     * Mã hóa danh sách record; ném IllegalArgumentException nếu record không hỗ
+     * trợ (ts null)
+     */
+    public static byte[] encode(List<TelemetryArchiveDTO> records) {
+        Writer writer = new Writer();
+        for (TelemetryArchiveDTO dto : records) {
+            writer.add(dto);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writer.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Giải mã archive dạng cột về danh sách record
+     */
+    public static List<TelemetryArchiveDTO> decode(byte[] data) {
+        List<TelemetryArchiveDTO> result = new ArrayList<>();
+        try (InputStream in = new ByteArrayInputStream(data)) {
+            decode(in, result::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Giải mã archive dạng cột từ stream (thường là stream giải nén của codec),
+     * trả từng record cho consumer thay vì dựng danh sách
+     */
+    public static void decode(InputStream source, Consumer<TelemetryArchiveDTO> consumer) throws IOException {
+        BitInput in = new BitInput(source);
+        for (byte b : MAGIC) {
+            if ((byte) in.readBits(8) != b)
+                throw new IllegalArgumentException("Not a columnar telemetry archive");
+        }
+        int version = (int) in.readBits(8);
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported columnar archive version " + version);
+
+        int count = in.readVarInt();
+        int unit = in.readVarInt();
+        if (unit < 0 || unit >= NANOS_PER_UNIT.length)
+            throw new IllegalStateException("Invalid timestamp unit " + unit);
+
+        String[] dict = new String[in.readVarInt()];
+        for (int i = 0; i < dict.length; i++) {
+            dict[i] = in.readString();
+        }
+
+        int columnCount = in.readVarInt();
+        int[] columnKeys = new int[columnCount];
+        int[] columnTypes = new int[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            columnKeys[c] = in.readVarInt();
+            columnTypes[c] = in.readVarInt();
+        }
+
+        int shapeCount = in.readVarInt();
+        int[] shapeSpacing = new int[shapeCount];
+        int[][] shapeColumns = new int[shapeCount][];
+        for (int s = 0; s < shapeCount; s++) {
+            shapeSpacing[s] = in.readVarInt();
+            int[] cols = new int[in.readVarInt()];
+            for (int f = 0; f < cols.length; f++) {
+                cols[f] = in.readVarInt();
+            }
+            shapeColumns[s] = cols;
+        }
+
+        Long[] ids = readNullableLongs(in, count);
+        Long[] deviceIds = readNullableLongs(in, count);
+        long[] deviceNameRefs = readLongs(in, count);
+        long[] ts = readLongs(in, count);
+
+        long[] shapes = readLongs(in, count);
+        int rawCount = 0;
+        int[] columnSizes = new int[columnCount];
+        for (int i = 0; i < count; i++) {
+            int shape = (int) shapes[i];
+            if (shape == SHAPE_RAW) {
+                rawCount++;
+            } else if (shape >= FIRST_SHAPE) {
+                for (int c : shapeColumns[shape - FIRST_SHAPE]) {
+                    columnSizes[c]++;
+                }
+            }
+        }
+        String[] raws = new String[rawCount];
+        for (int i = 0; i < rawCount; i++) {
+            raws[i] = in.readString();
+        }
+
+        // Đọc từng cột giá trị
+        double[][] doubles = new double[columnCount][];
+        long[][] longs = new long[columnCount][];
+        long[][] strings = new long[columnCount][];
+        for (int c = 0; c < columnCount; c++) {
+            int n = columnSizes[c];
+            switch (columnTypes[c]) {
+                case TYPE_DOUBLE -> doubles[c] = readDoubles(in, n);
+                case TYPE_LONG -> longs[c] = readLongs(in, n);
+                case TYPE_STRING -> strings[c] = readLongs(in, n);
+                default -> {
+                    // TRUE / FALSE / NULL không cần lưu giá trị
+                }
+            }
+        }
+
+        in.release();
+
+        // Ghép lại từng record theo shape
+        int[] cursors = new int[columnCount];
+        int rawCursor = 0;
+        long nanosPerUnit = NANOS_PER_UNIT[unit];
+        long perSecond = 1_000_000_000L / nanosPerUnit;
+        StringBuilder sb = new StringBuilder(128);
+        for (int i = 0; i < count; i++) {
+            String payload;
+            int shape = (int) shapes[i];
+            if (shape == SHAPE_NULL_DATA) {
+                payload = null;
+            } else if (shape == SHAPE_RAW) {
+                payload = raws[rawCursor++];
+            } else {
+                int s = shape - FIRST_SHAPE;
+                String colon = (shapeSpacing[s] & 1) != 0 ? ": " : ":";
+                String comma = (shapeSpacing[s] & 2) != 0 ? ", " : ",";
+                sb.setLength(0);
+                sb.append('{');
+                int[] cols = shapeColumns[s];
+                for (int f = 0; f < cols.length; f++) {
+                    int c = cols[f];
+                    if (f > 0)
+                        sb.append(comma);
+                    appendQuoted(sb, dict[columnKeys[c]]);
+                    sb.append(colon);
+                    switch (columnTypes[c]) {
+                        case TYPE_DOUBLE -> sb.append(Double.toString(doubles[c][cursors[c]++]));
+                        case TYPE_LONG -> sb.append(longs[c][cursors[c]++]);
+                        case TYPE_STRING -> appendQuoted(sb, dict[(int) strings[c][cursors[c]++]]);
+                        case TYPE_TRUE -> sb.append("true");
+                        case TYPE_FALSE -> sb.append("false");
+                        default -> sb.append("null");
+                    }
+                }
+                sb.append('}');
+                payload = sb.toString();
+            }
+            Instant instant = Instant.ofEpochSecond(Math.floorDiv(ts[i], perSecond),
+                    Math.floorMod(ts[i], perSecond) * nanosPerUnit);
+            int nameRef = (int) deviceNameRefs[i];
+            consumer.accept(new TelemetryArchiveDTO(ids[i], deviceIds[i], nameRef == 0 ? null : dict[nameRef - 1],
+                    instant, payload));
+        }
+    }
+
+    // ===== Writer =====
+
+    public static final class Writer {
+        private int count;
+        private final ValueColumn ids = new ValueColumn(-1, TYPE_LONG); // chỉ giá trị khác null
+        private final BitSet idNulls = new BitSet();
+        private final ValueColumn deviceIds = new ValueColumn(-1, TYPE_LONG);
+        private final BitSet deviceIdNulls = new BitSet();
+        private final ValueColumn epochSeconds = new ValueColumn(-1, TYPE_LONG);
+        private final ValueColumn nanos = new ValueColumn(-1, TYPE_LONG);
+        private final ValueColumn deviceNameRefs = new ValueColumn(-1, TYPE_LONG);
+        private final ValueColumn recordShapes = new ValueColumn(-1, TYPE_LONG);
+        private final Map<String, Integer> dictIndex = new HashMap<>();
+        private final List<String> dict = new ArrayList<>();
+        private final Map<Long, Integer> columnIndex = new HashMap<>();
+        private final List<ValueColumn> columns = new ArrayList<>();
+        private final Map<String, Integer> shapeIndex = new HashMap<>();
+        private final List<int[]> shapes = new ArrayList<>(); // [spacing, col...]
+        private final List<String> raws = new ArrayList<>();
+
+        // Bộ đệm tạm cho record đang phân tích
+        private final List<String> keys = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>(); // Double, Long, String, Boolean hoặc null
+        private final StringBuilder rebuilt = new StringBuilder(128);
+
+        private Writer() {
+        }
+
+        public void add(TelemetryArchiveDTO dto) {
+            if (dto.getTs() == null)
+                throw new IllegalArgumentException("Columnar archive requires non-null timestamps");
+            if (dto.getId() == null) {
+                idNulls.set(count);
+            } else {
+                ids.addLong(dto.getId());
+            }
+            if (dto.getDeviceId() == null) {
+                deviceIdNulls.set(count);
+            } else {
+                deviceIds.addLong(dto.getDeviceId());
+            }
+            epochSeconds.addLong(dto.getTs().getEpochSecond());
+            nanos.addLong(dto.getTs().getNano());
+            deviceNameRefs.addLong(dto.getDeviceName() == null ? 0 : intern(dto.getDeviceName()) + 1);
+            recordShapes.addLong(classify(dto.getData()));
+            count++;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Phân tích payload thành shape + giá trị cột; RAW nếu không tái tạo chính
+         * xác được
+         */
+        private int classify(String data) {
+            if (data == null)
+                return SHAPE_NULL_DATA;
+            int spacing = parseFlat(data);
+            if (spacing < 0) {
+                raws.add(data);
+                return SHAPE_RAW;
+            }
+
+            StringBuilder shapeKey = new StringBuilder().append(spacing);
+            int[] shape = new int[keys.size() + 1];
+            shape[0] = spacing;
+            for (int f = 0; f < keys.size(); f++) {
+                Object value = values.get(f);
+                int type = typeOf(value);
+                int col = column(intern(keys.get(f)), type);
+                shape[f + 1] = col;
+                shapeKey.append(',').append(col);
+                ValueColumn column = columns.get(col);
+                switch (type) {
+                    case TYPE_DOUBLE -> column.addDouble((Double) value);
+                    case TYPE_LONG -> column.addLong((Long) value);
+                    case TYPE_STRING -> column.addLong(intern((String) value));
+                    default -> {
+                    }
+                }
+            }
+            Integer id = shapeIndex.get(shapeKey.toString());
+            if (id == null) {
+                id = shapes.size();
+                shapes.add(shape);
+                shapeIndex.put(shapeKey.toString(), id);
+            }
+            return id + FIRST_SHAPE;
+        }
+
+        /**
+         * Parse object JSON phẳng vào keys/values và tìm kiểu khoảng trắng khớp
+         * chính xác chuỗi gốc; trả về -1 nếu không khớp
+         */
+        private int parseFlat(String data) {
+            keys.clear();
+            values.clear();
+            try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    return -1;
+                JsonToken token;
+                while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                    keys.add(parser.currentName());
+                    switch (parser.nextToken()) {
+                        case VALUE_NUMBER_INT -> {
+                            JsonParser.NumberType nt = parser.getNumberType();
+                            if (nt != JsonParser.NumberType.INT && nt != JsonParser.NumberType.LONG)
+                                return -1;
+                            values.add(parser.getLongValue());
+                        }
+                        case VALUE_NUMBER_FLOAT -> values.add(parser.getDoubleValue());
+                        case VALUE_STRING -> values.add(parser.getText());
+                        case VALUE_TRUE -> values.add(Boolean.TRUE);
+                        case VALUE_FALSE -> values.add(Boolean.FALSE);
+                        case VALUE_NULL -> values.add(null);
+                        default -> {
+                            return -1; // object/array lồng nhau
+                        }
+                    }
+                }
+                if (token != JsonToken.END_OBJECT || parser.nextToken() != null)
+                    return -1;
+            } catch (IOException | RuntimeException e) {
+                return -1;
+            }
+
+            for (int spacing = 0; spacing < SPACING_VARIANTS; spacing++) {
+                rebuild(spacing);
+                if (data.contentEquals(rebuilt))
+                    return spacing;
+            }
+            return -1;
+        }
+
+        private void rebuild(int spacing) {
+            String colon = (spacing & 1) != 0 ? ": " : ":";
+            String comma = (spacing & 2) != 0 ? ", " : ",";
+            rebuilt.setLength(0);
+            rebuilt.append('{');
+            for (int f = 0; f < keys.size(); f++) {
+                if (f > 0)
+                    rebuilt.append(comma);
+                appendQuoted(rebuilt, keys.get(f));
+                rebuilt.append(colon);
+                Object value = values.get(f);
+                if (value instanceof String s) {
+                    appendQuoted(rebuilt, s);
+                } else {
+                    rebuilt.append(value); // Double.toString / Long.toString / true / false / null
+                }
+            }
+            rebuilt.append('}');
+        }
+
+        private int typeOf(Object value) {
+            if (value == null)
+                return TYPE_NULL;
+            if (value instanceof Double)
+                return TYPE_DOUBLE;
+            if (value instanceof Long)
+                return TYPE_LONG;
+            if (value instanceof String)
+                return TYPE_STRING;
+            return (Boolean) value ? TYPE_TRUE : TYPE_FALSE;
+        }
+
+        private int intern(String s) {
+            Integer id = dictIndex.get(s);
+            if (id == null) {
+                id = dict.size();
+                dict.add(s);
+                dictIndex.put(s, id);
+            }
+            return id;
+        }
+
+        private int column(int keyId, int type) {
+            long key = ((long) keyId << 8) | type;
+            Integer id = columnIndex.get(key);
+            if (id == null) {
+                id = columns.size();
+                columns.add(new ValueColumn(keyId, type));
+                columnIndex.put(key, id);
+            }
+            return id;
+        }
+
+        /**
+         * Ghi archive ra stream (không đóng stream)
+         */
+        public void writeTo(OutputStream target) throws IOException {
+            int unit = timestampUnit();
+            long nanosPerUnit = NANOS_PER_UNIT[unit];
+
+            BitOutput out = new BitOutput(target);
+            for (byte b : MAGIC) {
+                out.writeBits(b, 8);
+            }
+            out.writeBits(VERSION, 8);
+            out.writeVarInt(count);
+            out.writeVarInt(unit);
+
+            out.writeVarInt(dict.size());
+            for (String s : dict) {
+                out.writeString(s);
+            }
+            out.writeVarInt(columns.size());
+            for (ValueColumn c : columns) {
+                out.writeVarInt(c.keyId);
+                out.writeVarInt(c.type);
+            }
+            out.writeVarInt(shapes.size());
+            for (int[] shape : shapes) {
+                out.writeVarInt(shape[0]);
+                out.writeVarInt(shape.length - 1);
+                for (int f = 1; f < shape.length; f++) {
+                    out.writeVarInt(shape[f]);
+                }
+            }
+
+            long perSecond = 1_000_000_000L / nanosPerUnit;
+            long[] ts = new long[count];
+            for (int i = 0; i < count; i++) {
+                ts[i] = Math.addExact(Math.multiplyExact(epochSeconds.longs[i], perSecond),
+                        nanos.longs[i] / nanosPerUnit);
+            }
+            writeNullableLongs(out, ids, idNulls, count);
+            writeNullableLongs(out, deviceIds, deviceIdNulls, count);
+            writeLongs(out, deviceNameRefs.longs, count);
+            writeLongs(out, ts, count);
+            writeLongs(out, recordShapes.longs, count);
+            for (String raw : raws) {
+                out.writeString(raw);
+            }
+            for (ValueColumn c : columns) {
+                switch (c.type) {
+                    case TYPE_DOUBLE -> writeDoubles(out, c.doubles, c.size);
+                    case TYPE_LONG, TYPE_STRING -> writeLongs(out, c.longs, c.size);
+                    default -> {
+                    }
+                }
+            }
+            out.finish();
+        }
+
+        private int timestampUnit() {
+            int unit = 0;
+            for (int i = 0; i < count; i++) {
+                long n = nanos.longs[i];
+                while (unit < NANOS_PER_UNIT.length - 1 && n % NANOS_PER_UNIT[unit] != 0) {
+                    unit++;
+                }
+            }
+            return unit;
+        }
+    }
+
+    /**
+     * Cột giá trị của một (key, kiểu); chuỗi lưu id dictionary trong longs
+     */
+    private static final class ValueColumn {
+        final int keyId;
+        final int type;
+        double[] doubles;
+        long[] longs;
+        int size;
+
+        ValueColumn(int keyId, int type) {
+            this.keyId = keyId;
+            this.type = type;
+            if (type == TYPE_DOUBLE) {
+                doubles = new double[16];
+            } else if (type == TYPE_LONG || type == TYPE_STRING) {
+                longs = new long[16];
+            }
+        }
+
+        void addDouble(double v) {
+            if (size == doubles.length)
+                doubles = Arrays.copyOf(doubles, size * 2);
+            doubles[size++] = v;
+        }
+
+        void addLong(long v) {
+            if (size == longs.length)
+                longs = Arrays.copyOf(longs, size * 2);
+            longs[size++] = v;
+        }
+    }
+
+    // ===== Các kỹ thuật mã hóa cột =====
+
+    /**
+     * Long nullable: 1 bit "có null", bitmap nếu có, rồi các giá trị có mặt
+     */
+    private static void writeNullableLongs(BitOutput out, ValueColumn present, BitSet nulls, int count) {
+        out.writeBit(!nulls.isEmpty());
+        if (!nulls.isEmpty()) {
+            for (int i = 0; i < count; i++) {
+                out.writeBit(!nulls.get(i));
+            }
+        }
+        writeLongs(out, present.longs, present.size);
+    }
+
+    private static Long[] readNullableLongs(BitInput in, int count) {
+        boolean[] present = new boolean[count];
+        int n = count;
+        if (in.readBit()) {
+            n = 0;
+            for (int i = 0; i < count; i++) {
+                present[i] = in.readBit();
+                if (present[i])
+                    n++;
+            }
+        } else {
+            Arrays.fill(present, true);
+        }
+        long[] packed = readLongs(in, n);
+        Long[] values = new Long[count];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (present[i])
+                values[i] = packed[j++];
+        }
+        return values;
+    }
+
+    /**
+     * Dãy long: giá trị đầu zigzag varint, sau đó mỗi phần tử là delta hoặc
+     * delta-of-delta (chọn cách rẻ hơn cho cả cột) theo bucket kiểu Gorilla: '0'
+     * = 0, '10'/'110'/'1110' + w1/w2/w3 bit, '1111' + 64 bit. Khác Gorilla, độ
+     * rộng bucket được tối ưu theo phân bố của từng cột và ghi ở đầu cột, nên
+     * cùng một cách mã hóa hợp cho ts (ms hay µs), id, id dictionary lẫn giá trị
+     * cảm biến
+     */
+    private static void writeLongs(BitOutput out, long[] values, int n) {
+        if (n == 0)
+            return;
+        out.writeZigZag(values[0]);
+        if (n == 1)
+            return;
+        int[] deltaWidths = new int[3];
+        int[] dodWidths = new int[3];
+        long deltaCost = optimizeWidths(values, n, false, deltaWidths);
+        long dodCost = optimizeWidths(values, n, true, dodWidths);
+        boolean dod = dodCost < deltaCost;
+        int[] widths = dod ? dodWidths : deltaWidths;
+        out.writeBit(dod);
+        for (int w : widths) {
+            out.writeBits(w - 1, 6);
+        }
+        long prevDelta = 0;
+        for (int i = 1; i < n; i++) {
+            long delta = values[i] - values[i - 1];
+            writeBucket(out, dod ? delta - prevDelta : delta, widths);
+            prevDelta = delta;
+        }
+    }
+
+    private static long[] readLongs(BitInput in, int n) {
+        long[] values = new long[n];
+        if (n == 0)
+            return values;
+        values[0] = in.readZigZag();
+        if (n == 1)
+            return values;
+        boolean dod = in.readBit();
+        int[] widths = new int[3];
+        for (int b = 0; b < widths.length; b++) {
+            widths[b] = (int) in.readBits(6) + 1;
+        }
+        long delta = 0;
+        for (int i = 1; i < n; i++) {
+            long residual = readBucket(in, widths);
+            delta = dod ? delta + residual : residual;
+            values[i] = values[i - 1] + delta;
+        }
+        return values;
+    }
+
+    /**
+     * Chọn w1 < w2 < w3 tối thiểu tổng số bit dựa trên histogram số bit cần của
+     * residual; trả về tổng số bit
+     */
+    private static long optimizeWidths(long[] values, int n, boolean dod, int[] widths) {
+        long[] cumulative = new long[65]; // cumulative[b] = số residual khác 0 cần <= b bit
+        long zeros = 0;
+        long prevDelta = 0;
+        for (int i = 1; i < n; i++) {
+            long delta = values[i] - values[i - 1];
+            long residual = dod ? delta - prevDelta : delta;
+            prevDelta = delta;
+            if (residual == 0) {
+                zeros++;
+            } else {
+                cumulative[bitsNeeded(residual)]++;
+            }
+        }
+        for (int b = 1; b <= 64; b++) {
+            cumulative[b] += cumulative[b - 1];
+        }
+        long total = cumulative[64];
+        long best = Long.MAX_VALUE;
+        for (int w1 = 1; w1 <= 62; w1++) {
+            long c1 = cumulative[w1] * (2 + w1);
+            for (int w2 = w1 + 1; w2 <= 63; w2++) {
+                long c2 = c1 + (cumulative[w2] - cumulative[w1]) * (3 + w2);
+                if (c2 >= best)
+                    break;
+                for (int w3 = w2 + 1; w3 <= 64; w3++) {
+                    long cost = c2 + (cumulative[w3] - cumulative[w2]) * (4 + w3)
+                            + (total - cumulative[w3]) * (4 + 64);
+                    if (cost < best) {
+                        best = cost;
+                        widths[0] = w1;
+                        widths[1] = w2;
+                        widths[2] = w3;
+                    }
+                }
+            }
+        }
+        return best + zeros;
+    }
+
+    /**
+     * Số bit bù 2 tối thiểu để biểu diễn v
+     */
+    private static int bitsNeeded(long v) {
+        return Math.min(64, 65 - Long.numberOfLeadingZeros(v ^ (v >> 63)));
+    }
+
+    private static void writeBucket(BitOutput out, long v, int[] widths) {
+        if (v == 0) {
+            out.writeBit(false);
+            return;
+        }
+        int bits = bitsNeeded(v);
+        if (bits <= widths[0]) {
+            out.writeBits(0b10, 2);
+            out.writeBits(v, widths[0]);
+        } else if (bits <= widths[1]) {
+            out.writeBits(0b110, 3);
+            out.writeBits(v, widths[1]);
+        } else if (bits <= widths[2]) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(v, widths[2]);
+        } else {
+            out.writeBits(0b1111, 4);
+            out.writeBits(v, 64);
+        }
+    }
+
+    private static long readBucket(BitInput in, int[] widths) {
+        if (!in.readBit())
+            return 0;
+        if (!in.readBit())
+            return signExtend(in.readBits(widths[0]), widths[0]);
+        if (!in.readBit())
+            return signExtend(in.readBits(widths[1]), widths[1]);
+        if (!in.readBit())
+            return signExtend(in.readBits(widths[2]), widths[2]);
+        return in.readBits(64);
+    }
+
+    /**
+     * Cột số thực: nếu mọi giá trị là số thập phân có tối đa MAX_SCALE chữ số lẻ
+     * (trường hợp phổ biến của cảm biến) thì lưu dạng long đã nhân 10^k, ngược
+     * lại dùng XOR
+     */
+    private static void writeDoubles(BitOutput out, double[] values, int n) {
+        int scale = decimalScale(values, n);
+        out.writeBit(scale >= 0);
+        if (scale < 0) {
+            writeXorDoubles(out, values, n);
+            return;
+        }
+        out.writeBits(scale, 3);
+        double pow = POW10[scale];
+        long[] scaled = new long[n];
+        for (int i = 0; i < n; i++) {
+            scaled[i] = Math.round(values[i] * pow);
+        }
+        writeLongs(out, scaled, n);
+    }
+
+    private static double[] readDoubles(BitInput in, int n) {
+        if (!in.readBit())
+            return readXorDoubles(in, n);
+        double pow = POW10[(int) in.readBits(3)];
+        long[] scaled = readLongs(in, n);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = scaled[i] / pow;
+        }
+        return values;
+    }
+
+    /**
+     * Số chữ số thập phân k nhỏ nhất để mọi v == round(v * 10^k) / 10^k (so sánh
+     * theo bit, giữ cả -0.0); -1 nếu không có
+     */
+    private static int decimalScale(double[] values, int n) {
+        for (int scale = 0; scale <= MAX_SCALE; scale++) {
+            double pow = POW10[scale];
+            boolean exact = true;
+            for (int i = 0; i < n && exact; i++) {
+                double v = values[i] * pow;
+                exact = Math.abs(v) < MAX_EXACT_LONG
+                        && Double.doubleToRawLongBits(Math.round(v) / pow) == Double.doubleToRawLongBits(values[i]);
+            }
+            if (exact)
+                return scale;
+        }
+        return -1;
+    }
+
+    private static long signExtend(long v, int bits) {
+        int shift = 64 - bits;
+        return (v << shift) >> shift;
+    }
+
+    /**
+     * XOR kiểu Gorilla: '0' = trùng giá trị trước, '10' = dùng lại cửa sổ bit
+     * cũ, '11' + 5 bit leading zero + 6 bit độ dài + các bit có nghĩa
+     */
+    private static void writeXorDoubles(BitOutput out, double[] values, int n) {
+        if (n == 0)
+            return;
+        long prev = Double.doubleToRawLongBits(values[0]);
+        out.writeBits(prev, 64);
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int i = 1; i < n; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ prev;
+            prev = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                continue;
+            }
+            out.writeBit(true);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                out.writeBit(false);
+                out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                out.writeBit(true);
+                out.writeBits(leading, 5);
+                out.writeBits(significant - 1, 6);
+                out.writeBits(xor >>> trailing, significant);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+    }
+
+    private static double[] readXorDoubles(BitInput in, int n) {
+        double[] values = new double[n];
+        if (n == 0)
+            return values;
+        long prev = in.readBits(64);
+        values[0] = Double.longBitsToDouble(prev);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < n; i++) {
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(5);
+                    int significant = (int) in.readBits(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                long xor = in.readBits(64 - leading - trailing) << trailing;
+                prev ^= xor;
+            }
+            values[i] = Double.longBitsToDouble(prev);
+        }
+        return values;
+    }
+
+    private static void appendQuoted(StringBuilder sb, String s) {
+        sb.append('"');
+        JsonStringEncoder.getInstance().quoteAsString(s, sb);
+        sb.append('"');
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.iot_backend.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * SPI cho codec nén archive. Mỗi implementation là một Spring bean, được
+ * CompressionCodecRegistry tra theo tên lưu trong telemetry_archive.codec
+ */
+public interface CompressionCodec {
+
+    /**
+     * Tên lưu trong DB (GZIP, DEFLATE, LZ4, ZSTD, NONE) - không được đổi
+     */
+    String getName();
+
+    /**
+     * Codec có dùng được dictionary đã train không
+     */
+    default boolean supportsDictionary() {
+        return false;
+    }
+
+    /**
+     * Bọc stream đích; dữ liệu nén chỉ hoàn chỉnh sau khi close()
+     */
+    OutputStream compress(OutputStream out, byte[] dictionary) throws IOException;
+
+    /**
+     * Bọc stream nguồn đã nén
+     */
+    InputStream decompress(InputStream in, byte[] dictionary) throws IOException;
+
+    default byte[] compress(byte[] data, byte[] dictionary) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream out = compress(baos, dictionary)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compress with " + getName(), e);
+        }
+        return baos.toByteArray();
+    }
+
+    default byte[] decompress(byte[] data, byte[] dictionary) {
+        try (InputStream in = decompress(new ByteArrayInputStream(data), dictionary)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decompress with " + getName(), e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.iot_backend.archive;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tra codec theo tên (không phân biệt hoa thường)
+ */
+@Component
+public class CompressionCodecRegistry {
+
+    private final Map<String, CompressionCodec> codecs = new LinkedHashMap<>();
+
+    public CompressionCodecRegistry(List<CompressionCodec> codecs) {
+        for (CompressionCodec codec : codecs) {
+            this.codecs.put(codec.getName(), codec);
+        }
+    }
+
+    public CompressionCodec get(String name) {
+        CompressionCodec codec = name == null ? null : codecs.get(name.trim().toUpperCase());
+        if (codec == null)
+            throw new IllegalArgumentException("Unknown compression codec: " + name);
+        return codec;
+    }
+
+    public Collection<CompressionCodec> getAll() {
+        return Collections.unmodifiableCollection(codecs.values());
+    }
+}
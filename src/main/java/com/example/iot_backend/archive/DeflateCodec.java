@@ -0,0 +1,70 @@
+package com.example.iot_backend.archive;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate (zlib) với level cấu hình được: 1 = nhanh nhất, 9 = nén tốt nhất
+ */
+@Component
+@Order(2)
+public class DeflateCodec implements CompressionCodec {
+
+    public static final String NAME = "DEFLATE";
+
+    private final int level;
+
+    public DeflateCodec(@Value("${app.archive.deflate-level:6}") int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("app.archive.deflate-level must be 1..9: " + level);
+        this.level = level;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, byte[] dictionary) {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end(); // giải phóng bộ nhớ native ngay, không chờ GC
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream in, byte[] dictionary) {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
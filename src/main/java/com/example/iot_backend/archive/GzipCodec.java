@@ -0,0 +1,35 @@
+package com.example.iot_backend.archive;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIP mức mặc định - codec của các archive cũ (codec = NULL)
+ */
+@Component
+@Order(1)
+public class GzipCodec implements CompressionCodec {
+
+    public static final String NAME = "GZIP";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, byte[] dictionary) throws IOException {
+        return new GZIPOutputStream(out, 8192);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in, byte[] dictionary) throws IOException {
+        return new GZIPInputStream(in, 8192);
+    }
+}
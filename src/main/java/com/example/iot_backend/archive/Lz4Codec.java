@@ -0,0 +1,36 @@
+package com.example.iot_backend.archive;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * LZ4 frame: tỷ lệ nén thấp hơn nhưng giải nén nhanh nhất, hợp với archive
+ * được đọc lại thường xuyên
+ */
+@Component
+@Order(3)
+public class Lz4Codec implements CompressionCodec {
+
+    public static final String NAME = "LZ4";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, byte[] dictionary) throws IOException {
+        return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_256KB);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in, byte[] dictionary) throws IOException {
+        return new LZ4FrameInputStream(in);
+    }
+}
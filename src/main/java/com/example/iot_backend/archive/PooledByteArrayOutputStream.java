@@ -0,0 +1,79 @@
+package com.example.iot_backend.archive;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OutputStream ghi vào các chunk lấy từ BufferPool: không copy lại khi lớn lên
+ * như ByteArrayOutputStream, chỉ copy một lần khi toByteArray().
+ *
+ * close() không trả chunk (codec đóng stream đích khi finish); gọi release()
+ * sau khi đã lấy dữ liệu
+ */
+public class PooledByteArrayOutputStream extends OutputStream {
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int position; // vị trí ghi trong current
+    private long size;
+
+    @Override
+    public void write(int b) {
+        if (current == null || position == current.length) {
+            nextChunk();
+        }
+        current[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (current == null || position == current.length) {
+                nextChunk();
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(b, off, current, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    private void nextChunk() {
+        current = BufferPool.acquire();
+        chunks.add(current);
+        position = 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Archive too large: " + size + " bytes");
+        byte[] result = new byte[(int) size];
+        int offset = 0;
+        for (byte[] chunk : chunks) {
+            int n = (int) Math.min(chunk.length, size - offset);
+            System.arraycopy(chunk, 0, result, offset, n);
+            offset += n;
+        }
+        return result;
+    }
+
+    /**
+     * Trả các chunk về pool; stream không dùng được nữa
+     */
+    public void release() {
+        for (byte[] chunk : chunks) {
+            BufferPool.release(chunk);
+        }
+        chunks.clear();
+        current = null;
+        size = 0;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.iot_backend.archive;
+
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Không nén - dùng cho archive dạng cột ghi trước khi có codec
+ */
+@Component
+@Order(0)
+public class StoredCodec implements CompressionCodec {
+
+    public static final String NAME = "NONE";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, byte[] dictionary) {
+        return out;
+    }
+
+    @Override
+    public InputStream decompress(InputStream in, byte[] dictionary) {
+        return in;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.iot_backend.archive;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Zstandard với level cấu hình được, hỗ trợ dictionary train theo loại thiết bị
+ */
+@Component
+@Order(4)
+public class ZstdCodec implements CompressionCodec {
+
+    public static final String NAME = "ZSTD";
+
+    private final int level;
+
+    public ZstdCodec(@Value("${app.archive.zstd-level:3}") int level) {
+        this.level = level;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supportsDictionary() {
+        return true;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, byte[] dictionary) throws IOException {
+        // RecyclingBufferPool: tái sử dụng buffer của zstd giữa các archive
+        ZstdOutputStream zstd = new ZstdOutputStream(out, RecyclingBufferPool.INSTANCE).setLevel(level);
+        if (dictionary != null) {
+            zstd.setDict(dictionary);
+        }
+        return zstd;
+    }
+
+    @Override
+    public InputStream decompress(InputStream in, byte[] dictionary) throws IOException {
+        ZstdInputStream zstd = new ZstdInputStream(in, RecyclingBufferPool.INSTANCE);
+        if (dictionary != null) {
+            zstd.setDict(dictionary);
+        }
+        return zstd;
+    }
+
+    /**
+     * Train dictionary từ các mẫu; zstd cần đủ nhiều mẫu (cỡ vài trăm) nếu không
+     * sẽ ném ZstdException
+     */
+    public byte[] trainDictionary(List<byte[]> samples, int dictionarySize) {
+        long total = 0;
+        for (byte[] sample : samples) {
+            total += sample.length;
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE, total), dictionarySize);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        return trainer.trainSamples();
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.iot_backend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IngestConfig {
+
+    @Value("${app.ingest.buffer-capacity:65536}")
+    private int bufferCapacity;
+
+    @Value("${app.ingest.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.ingest.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${app.ingest.flush-workers:2}")
+    private int flushWorkers;
+
+    // Backpressure (manual ack): giữ PUBACK khi queue vượt high-water, nhả lại khi xuống dưới low-water
+    @Value("${app.ingest.high-water-mark:49152}")
+    private int highWaterMark;
+
+    @Value("${app.ingest.low-water-mark:16384}")
+    private int lowWaterMark;
+
+    @Value("${app.ingest.flush-retries:3}")
+    private int flushRetries;
+
+    // Thư mục spill file cho telemetry chưa ghi được xuống DB (replay lại khi DB ghi được)
+    @Value("${app.ingest.spill.dir:data/ingest-spill}")
+    private String spillDir;
+
+    // Per-device lanes: 0 = số CPU core
+    @Value("${app.ingest.lanes:0}")
+    private int lanes;
+
+    @Value("${app.ingest.lane-queue-capacity:4096}")
+    private int laneQueueCapacity;
+
+    // Thời gian tối đa MQTT callback thread chờ khi lane đầy, sau đó message đi theo overflow handler
+    @Value("${app.ingest.lane-offer-timeout-ms:50}")
+    private long laneOfferTimeoutMs;
+
+    @Value("${app.ingest.lane-skew-warn-ratio:2.0}")
+    private double laneSkewWarnRatio;
+
+    // Dedupe telemetry trùng (device gửi lại QoS 1) theo device + định danh message (msgId/messageId/seq)
+    @Value("${app.ingest.dedupe.enabled:false}")
+    private boolean dedupeEnabled;
+
+    @Value("${app.ingest.dedupe.window-ms:10000}")
+    private long dedupeWindowMs;
+
+    @Value("${app.ingest.dedupe.capacity:131072}")
+    private int dedupeCapacity;
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public int getFlushWorkers() {
+        return flushWorkers;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    public int getFlushRetries() {
+        return flushRetries;
+    }
+
+    public String getSpillDir() {
+        return spillDir;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public int getLaneQueueCapacity() {
+        return laneQueueCapacity;
+    }
+
+    public long getLaneOfferTimeoutMs() {
+        return laneOfferTimeoutMs;
+    }
+
+    public double getLaneSkewWarnRatio() {
+        return laneSkewWarnRatio;
+    }
+
+    public boolean isDedupeEnabled() {
+        return dedupeEnabled;
+    }
+
+    public long getDedupeWindowMs() {
+        return dedupeWindowMs;
+    }
+
+    public int getDedupeCapacity() {
+        return dedupeCapacity;
+    }
+}
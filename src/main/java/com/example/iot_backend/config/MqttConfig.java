@@ -3,6 +3,9 @@ package com.example.iot_backend.config;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Configuration
 public class MqttConfig {
 
@@ -30,6 +33,23 @@ public class MqttConfig {
     @Value("${mqtt.keepAlive:30}")
     private int keepAlive;
 
+    // Flow control: chỉ gửi PUBACK sau khi telemetry đã được ghi xuống DB
+    @Value("${mqtt.manualAck:false}")
+    private boolean manualAck;
+
+    // Clustered ingest: subscribe qua $share/<group>/... để broker chia tải giữa các node
+    @Value("${mqtt.sharedSubscription:false}")
+    private boolean sharedSubscription;
+
+    @Value("${mqtt.sharedGroup:iot-backend}")
+    private String sharedGroup;
+
+    // Group riêng theo loại message, dạng "telemetry=ingest,status=monitor"
+    @Value("${mqtt.sharedGroups:}")
+    private String sharedGroups;
+
+    private Map<String, String> sharedGroupOverrides;
+
     public String getHost() {
         return host;
     }
@@ -61,4 +81,29 @@ public class MqttConfig {
     public int getKeepAlive() {
         return keepAlive;
     }
-}
\ No newline at end of file
+
+    public boolean isManualAck() {
+        return manualAck;
+    }
+
+    public boolean isSharedSubscription() {
+        return sharedSubscription;
+    }
+
+    /**
+     * Tên shared subscription group cho một loại message (telemetry, heartbeat, status...)
+     */
+    public String getSharedGroup(String kind) {
+        if (sharedGroupOverrides == null) {
+            Map<String, String> overrides = new HashMap<>();
+            for (String entry : sharedGroups.split(",")) {
+                int eq = entry.indexOf('=');
+                if (eq > 0) {
+                    overrides.put(entry.substring(0, eq).trim(), entry.substring(eq + 1).trim());
+                }
+            }
+            sharedGroupOverrides = overrides;
+        }
+        return sharedGroupOverrides.getOrDefault(kind, sharedGroup);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.iot_backend.controller;
+
+import com.example.iot_backend.alert.AlertEvent;
+import com.example.iot_backend.alert.AlertEventLog;
+import com.example.iot_backend.alert.AlertRuleEngine;
+import com.example.iot_backend.model.AlertRule;
+import com.example.iot_backend.service.AlertRuleService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/alerts")
+public class AlertController {
+
+    private final AlertRuleService ruleService;
+    private final AlertRuleEngine engine;
+    private final AlertEventLog eventLog;
+
+    public AlertController(AlertRuleService ruleService, AlertRuleEngine engine, AlertEventLog eventLog) {
+        this.ruleService = ruleService;
+        this.engine = engine;
+        this.eventLog = eventLog;
+    }
+
+    /**
+     * Lấy tất cả alert rules
+     */
+    @GetMapping("/rules")
+    public List<AlertRule> getRules() {
+        return ruleService.getAllRules();
+    }
+
+    /**
+     * Lấy alert rule theo ID
+     */
+    @GetMapping("/rules/{id}")
+    public ResponseEntity<AlertRule> getRule(@PathVariable Long id) {
+        return ruleService.getRule(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Tạo rule mới, ví dụ: {"name":"High temp","metric":"temp","comparator":"GT","threshold":30,
+     * "windowSeconds":60,"hysteresis":1.0}
+     */
+    @PostMapping("/rules")
+    public ResponseEntity<?> createRule(@RequestBody AlertRule rule) {
+        try {
+            return ResponseEntity.ok(ruleService.createRule(rule));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "error", "message", e.getMessage()));
+        }
+    }
+
+    /**
+     * Cập nhật rule
+     */
+    @PutMapping("/rules/{id}")
+    public ResponseEntity<?> updateRule(@PathVariable Long id, @RequestBody AlertRule rule) {
+        try {
+            return ruleService.updateRule(id, rule)
+                    .<ResponseEntity<?>>map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "error", "message", e.getMessage()));
+        }
+    }
+
+    /**
+     * Xóa rule
+     */
+    @DeleteMapping("/rules/{id}")
+    public ResponseEntity<Void> deleteRule(@PathVariable Long id) {
+        return ruleService.deleteRule(id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Các alert đang firing
+     */
+    @GetMapping("/active")
+    public List<Map<String, Object>> getActiveAlerts() {
+        return engine.getActiveAlerts();
+    }
+
+    /**
+     * Các alert event gần nhất (FIRING/RESOLVED)
+     */
+    @GetMapping("/events")
+    public List<AlertEvent> getRecentEvents(@RequestParam(defaultValue = "100") int limit) {
+        return eventLog.getRecentEvents(Math.max(1, limit));
+    }
+
+    /**
+     * Thống kê rule engine
+     */
+    @GetMapping("/metrics")
+    public Map<String, Object> getMetrics() {
+        return engine.getMetrics();
+    }
+}
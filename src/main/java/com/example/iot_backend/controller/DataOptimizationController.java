@@ -1,11 +1,27 @@
 package com.example.iot_backend.controller;
 
-import com.example.iot_backend.model.Telemetry;
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import com.example.iot_backend.dto.TelemetryArchiveSummary;
+import com.example.iot_backend.model.CompressionDictionary;
+import com.example.iot_backend.model.Device;
+import com.example.iot_backend.service.ArchiveExecutor;
+import com.example.iot_backend.service.ArchiveTieringService;
+import com.example.iot_backend.service.CompressionDictionaryService;
+import com.example.iot_backend.service.DataCompressionService;
+import com.example.iot_backend.service.DeviceService;
 import com.example.iot_backend.service.TelemetryArchiveService;
+import com.example.iot_backend.service.TelemetryPartitionManager;
+import com.example.iot_backend.service.TelemetryRollupService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
@@ -15,10 +31,33 @@ import java.util.Map;
 @RequestMapping("/api/data-optimization")
 public class DataOptimizationController {
 
+    private static final int MAX_BENCHMARK_RECORDS = 100_000;
+    private static final int MAX_BENCHMARK_ITERATIONS = 50;
+    private static final String NDJSON = "application/x-ndjson";
+
     private final TelemetryArchiveService archiveService;
+    private final ArchiveExecutor archiveExecutor;
+    private final ArchiveTieringService tieringService;
+    private final TelemetryPartitionManager partitionManager;
+    private final TelemetryRollupService rollupService;
+    private final DataCompressionService compressionService;
+    private final CompressionDictionaryService dictionaryService;
+    private final DeviceService deviceService;
+    private final ObjectMapper objectMapper;
 
-    public DataOptimizationController(TelemetryArchiveService archiveService) {
+    public DataOptimizationController(TelemetryArchiveService archiveService, ArchiveExecutor archiveExecutor,
+            ArchiveTieringService tieringService, TelemetryPartitionManager partitionManager, TelemetryRollupService rollupService,
+            DataCompressionService compressionService, CompressionDictionaryService dictionaryService,
+            DeviceService deviceService, ObjectMapper objectMapper) {
         this.archiveService = archiveService;
+        this.archiveExecutor = archiveExecutor;
+        this.tieringService = tieringService;
+        this.partitionManager = partitionManager;
+        this.rollupService = rollupService;
+        this.compressionService = compressionService;
+        this.dictionaryService = dictionaryService;
+        this.deviceService = deviceService;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -31,23 +70,90 @@ public class DataOptimizationController {
     }
 
     /**
-     * Retrieve archived data cho một device và khoảng thời gian
+     * Retrieve archived data cho một device và khoảng thời gian, trả về dạng NDJSON (mỗi dòng một record)
+     * được ghi dần khi giải nén, không dựng danh sách trong bộ nhớ. parallelism: số archive giải nén song song
+     * (1 = tuần tự, bỏ trống = mặc định của server)
      */
-    @GetMapping("/archive/data")
-    public ResponseEntity<List<Telemetry>> getArchivedData(
+    @GetMapping(value = "/archive/data", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> getArchivedData(
             @RequestParam Long deviceId,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startDate,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endDate) {
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endDate,
+            @RequestParam(required = false) Integer parallelism) {
+        if (endDate.isBefore(startDate)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                // Mặc định Jackson chèn dấu cách giữa các root value; dòng NDJSON chỉ phân tách bằng '\n'
+                generator.setRootValueSeparator(null);
+                archiveService.streamArchivedData(deviceId, startDate, endDate, parallelism, dto -> {
+                    try {
+                        generator.writeObject(dto);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    /**
+     * Danh sách archive của device (chỉ metadata, không kèm dữ liệu nén)
+     */
+    @GetMapping("/archive/list")
+    public ResponseEntity<List<TelemetryArchiveSummary>> listArchives(
+            @RequestParam Long deviceId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endDate) {
+        return ResponseEntity.ok(archiveService.listArchives(deviceId, startDate, endDate));
+    }
+
+    /**
+     * Thống kê cache archive đã giải nén (hit ratio, eviction, bộ nhớ ước tính)
+     */
+    @GetMapping("/archive/cache")
+    public ResponseEntity<Map<String, Object>> getArchiveCacheMetrics() {
+        return ResponseEntity.ok(archiveService.getCacheMetrics());
+    }
+
+    /**
+     * Xóa toàn bộ cache archive đã giải nén
+     */
+    @DeleteMapping("/archive/cache")
+    public ResponseEntity<Map<String, Object>> clearArchiveCache() {
+        archiveService.clearCache();
+        return ResponseEntity.ok(archiveService.getCacheMetrics());
+    }
+
+    /**
+     * Trạng thái các tầng lưu archive (bytea trong DB và segment file local)
+     */
+    @GetMapping("/archive/tiering")
+    public ResponseEntity<Map<String, Object>> getArchiveTieringStatus() {
+        return ResponseEntity.ok(tieringService.getStatus());
+    }
 
-        List<Telemetry> data = archiveService.retrieveArchivedData(deviceId, startDate, endDate);
-        return ResponseEntity.ok(data);
+    /**
+     * Chuyển ngay các archive đủ tuổi sang segment file
+     */
+    @PostMapping("/archive/tiering/run")
+    public ResponseEntity<?> runArchiveTiering() {
+        try {
+            return ResponseEntity.ok(tieringService.run());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
     }
 
     /**
      * Force archive data cho một device (for testing/manual operations)
      */
     @PostMapping("/archive/force")
-    public ResponseEntity<String> forceArchiveData(
+    public ResponseEntity<?> forceArchiveData(
             @RequestParam Long deviceId,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant startDate,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant endDate) {
@@ -61,10 +167,7 @@ public class DataOptimizationController {
                 endDate = Instant.now().minus(1, ChronoUnit.DAYS);
             }
 
-            archiveService.forceArchiveData(deviceId, startDate, endDate);
-
-            return ResponseEntity.ok("Archive process initiated for device " + deviceId +
-                    " from " + startDate + " to " + endDate);
+            return ResponseEntity.ok(archiveExecutor.archiveRange(deviceId, startDate, endDate));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body("Error: " + e.getMessage());
         }
@@ -74,17 +177,35 @@ public class DataOptimizationController {
      * Archive dữ liệu cũ hơn số ngày chỉ định
      */
     @PostMapping("/archive/old-data")
-    public ResponseEntity<String> archiveOldData(@RequestParam(defaultValue = "30") int daysOld) {
+    public ResponseEntity<?> archiveOldData(@RequestParam(defaultValue = "30") int daysOld) {
         try {
             Instant cutoffDate = Instant.now().minus(daysOld, ChronoUnit.DAYS);
-            archiveService.archiveOldTelemetryData(cutoffDate);
-
-            return ResponseEntity.ok("Archive process initiated for data older than " + daysOld + " days");
+            return ResponseEntity.ok(archiveExecutor.run(cutoffDate));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body("Error: " + e.getMessage());
         }
     }
 
+    /**
+     * Trạng thái archive executor: throughput, backlog checkpoint, số worker
+     */
+    @GetMapping("/archive/executor")
+    public ResponseEntity<Map<String, Object>> getArchiveExecutorStatus() {
+        return ResponseEntity.ok(archiveExecutor.getStatus());
+    }
+
+    /**
+     * Đổi số worker archive song song khi đang chạy
+     */
+    @PutMapping("/archive/executor/concurrency")
+    public ResponseEntity<Map<String, Object>> setArchiveConcurrency(@RequestParam int value) {
+        if (value < 1) {
+            return ResponseEntity.badRequest().body(Map.of("error", "concurrency must be >= 1"));
+        }
+        archiveExecutor.setConcurrency(value);
+        return ResponseEntity.ok(Map.of("concurrency", archiveExecutor.getConcurrency()));
+    }
+
     /**
      * Cleanup archives cũ
      */
@@ -98,6 +219,92 @@ public class DataOptimizationController {
         }
     }
 
+    /**
+     * Danh sách partition của bảng telemetry
+     */
+    @GetMapping("/partitions")
+    public ResponseEntity<Map<String, Object>> getPartitions() {
+        return ResponseEntity.ok(partitionManager.getStatus());
+    }
+
+    /**
+     * Chạy partition maintenance ngay (tạo partition tương lai, drop/detach partition hết hạn)
+     */
+    @PostMapping("/partitions/maintain")
+    public ResponseEntity<String> maintainPartitions() {
+        try {
+            partitionManager.maintain();
+            return ResponseEntity.ok("Partition maintenance completed");
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Watermark của rollup engine theo granularity
+     */
+    @GetMapping("/rollups/status")
+    public ResponseEntity<Map<String, Object>> getRollupStatus() {
+        return ResponseEntity.ok(rollupService.getStatus());
+    }
+
+    /**
+     * Chạy rollup ngay cho các bucket đã đóng
+     */
+    @PostMapping("/rollups/run")
+    public ResponseEntity<String> runRollups() {
+        try {
+            rollupService.runRollups();
+            return ResponseEntity.ok("Rollup completed");
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Danh sách dictionary nén đã train (không kèm nội dung)
+     */
+    @GetMapping("/compression/dictionaries")
+    public ResponseEntity<List<CompressionDictionary>> getCompressionDictionaries() {
+        return ResponseEntity.ok(dictionaryService.findAll());
+    }
+
+    /**
+     * Train dictionary mới cho một loại thiết bị (bỏ trống deviceType = thiết bị chưa có type)
+     */
+    @PostMapping("/compression/dictionaries/train")
+    public ResponseEntity<?> trainCompressionDictionary(@RequestParam(required = false) String deviceType) {
+        try {
+            return ResponseEntity.ok(dictionaryService.train(deviceType));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * So sánh tỷ lệ nén và throughput của các định dạng x codec trên telemetry gần nhất của device
+     */
+    @GetMapping("/compression/benchmark")
+    public ResponseEntity<?> benchmarkCompression(
+            @RequestParam Long deviceId,
+            @RequestParam(defaultValue = "5000") int limit,
+            @RequestParam(defaultValue = "5") int iterations) {
+        Device device = deviceService.findById(deviceId).orElse(null);
+        if (device == null) {
+            return ResponseEntity.notFound().build();
+        }
+        List<TelemetryArchiveDTO> samples = dictionaryService.loadRecentRecords(deviceId,
+                Math.max(1, Math.min(limit, MAX_BENCHMARK_RECORDS)));
+        List<Map<String, Object>> results = compressionService.benchmark(samples,
+                dictionaryService.findForDeviceType(device.getType()),
+                Math.max(1, Math.min(iterations, MAX_BENCHMARK_ITERATIONS)));
+        return ResponseEntity.ok(Map.of(
+                "deviceId", deviceId,
+                "deviceType", String.valueOf(device.getType()),
+                "records", samples.size(),
+                "results", results));
+    }
+
     /**
      * Lấy storage optimization recommendations
      */
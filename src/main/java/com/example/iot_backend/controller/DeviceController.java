@@ -58,6 +58,7 @@ public class DeviceController {
                     existing.setName(device.getName());
                     existing.setType(device.getType());
                     existing.setStatus(device.getStatus());
+                    existing.setTelemetryFormat(device.getTelemetryFormat());
                     return ResponseEntity.ok(service.save(existing));
                 })
                 .orElse(ResponseEntity.notFound().build());
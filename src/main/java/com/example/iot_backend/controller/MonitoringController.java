@@ -1,7 +1,11 @@
 package com.example.iot_backend.controller;
 
+import com.example.iot_backend.ingest.DeviceLaneExecutor;
+import com.example.iot_backend.ingest.TelemetryDeduplicator;
+import com.example.iot_backend.ingest.TelemetryIngestPipeline;
 import com.example.iot_backend.model.DeviceStatus;
 import com.example.iot_backend.model.DeviceStatusEnum;
+import com.example.iot_backend.mqtt.HiveMqttService;
 import com.example.iot_backend.service.DeviceMonitoringService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -15,9 +19,20 @@ import java.util.Optional;
 public class MonitoringController {
 
     private final DeviceMonitoringService monitoringService;
-
-    public MonitoringController(DeviceMonitoringService monitoringService) {
+    private final TelemetryIngestPipeline ingestPipeline;
+    private final HiveMqttService mqttService;
+    private final DeviceLaneExecutor lanes;
+    private final TelemetryDeduplicator deduplicator;
+
+    public MonitoringController(DeviceMonitoringService monitoringService,
+            TelemetryIngestPipeline ingestPipeline, HiveMqttService mqttService,
+            DeviceLaneExecutor lanes,
+            TelemetryDeduplicator deduplicator) {
         this.monitoringService = monitoringService;
+        this.ingestPipeline = ingestPipeline;
+        this.mqttService = mqttService;
+        this.lanes = lanes;
+        this.deduplicator = deduplicator;
     }
 
     /**
@@ -132,6 +147,38 @@ public class MonitoringController {
         }
     }
 
+    /**
+     * Thống kê telemetry ingest pipeline (queue depth, batch size, flush latency)
+     */
+    @GetMapping("/ingest")
+    public Map<String, Object> getIngestMetrics() {
+        return ingestPipeline.getMetrics();
+    }
+
+    /**
+     * Thống kê dedupe telemetry trùng (redelivery)
+     */
+    @GetMapping("/dedupe")
+    public Map<String, Object> getDedupeMetrics() {
+        return deduplicator.getMetrics();
+    }
+
+    /**
+     * Thống kê MQTT ingest của node hiện tại (messages theo kind, throughput)
+     */
+    @GetMapping("/mqtt")
+    public Map<String, Object> getMqttNodeMetrics() {
+        return mqttService.getNodeMetrics();
+    }
+
+    /**
+     * Thống kê per-device lanes (queue depth, processed, skew)
+     */
+    @GetMapping("/lanes")
+    public Map<String, Object> getLaneMetrics() {
+        return lanes.getMetrics();
+    }
+
     /**
      * Health check endpoint
      */
@@ -1,19 +1,32 @@
 package com.example.iot_backend.controller;
 
+import com.example.iot_backend.dto.MetricPointDTO;
+import com.example.iot_backend.model.Metric;
 import com.example.iot_backend.model.Telemetry;
+import com.example.iot_backend.model.TelemetryRollup;
+import com.example.iot_backend.service.MetricDictionary;
 import com.example.iot_backend.service.TelemetryService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/telemetry")
 public class TelemetryController {
 
+    private static final int MAX_SERIES_POINTS = 10000;
+
     private final TelemetryService telemetryService;
+    private final MetricDictionary metricDictionary;
 
-    public TelemetryController(TelemetryService telemetryService) {
+    public TelemetryController(TelemetryService telemetryService, MetricDictionary metricDictionary) {
         this.telemetryService = telemetryService;
+        this.metricDictionary = metricDictionary;
     }
 
     @GetMapping
@@ -25,4 +38,50 @@ public class TelemetryController {
     public List<Telemetry> getTelemetryByDevice(@PathVariable Long deviceId) {
         return telemetryService.getTelemetryByDeviceId(deviceId);
     }
-}
\ No newline at end of file
+
+    // Danh sách metric đã biết (metric dictionary)
+    @GetMapping("/metrics")
+    public List<Metric> getMetrics() {
+        return metricDictionary.findAll();
+    }
+
+    // Chuỗi giá trị của một metric, mặc định 24 giờ gần nhất
+    @GetMapping("/device/{deviceId}/metrics/{metric}")
+    public List<MetricPointDTO> getMetricSeries(@PathVariable Long deviceId, @PathVariable String metric,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(defaultValue = "1000") int limit) {
+        Instant end = to != null ? to : Instant.now();
+        Instant start = from != null ? from : end.minus(1, ChronoUnit.DAYS);
+        int size = Math.max(1, Math.min(limit, MAX_SERIES_POINTS));
+        return telemetryService.getMetricSeries(deviceId, metric, start, end, size);
+    }
+
+    // Thống kê count/min/max/avg của một metric
+    @GetMapping("/device/{deviceId}/metrics/{metric}/stats")
+    public Map<String, Object> getMetricStats(@PathVariable Long deviceId, @PathVariable String metric,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        Instant end = to != null ? to : Instant.now();
+        Instant start = from != null ? from : end.minus(1, ChronoUnit.DAYS);
+        return telemetryService.getMetricStats(deviceId, metric, start, end);
+    }
+
+    // Rollup count/min/max/sum/avg theo bucket, mặc định HOURLY trong 7 ngày gần nhất
+    @GetMapping("/device/{deviceId}/metrics/{metric}/rollups")
+    public ResponseEntity<?> getMetricRollups(@PathVariable Long deviceId, @PathVariable String metric,
+            @RequestParam(defaultValue = "HOURLY") String granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        TelemetryRollup.Granularity bucket;
+        try {
+            bucket = TelemetryRollup.Granularity.valueOf(granularity.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("status", "error",
+                    "message", "Invalid granularity: " + granularity + ". Valid values: HOURLY, DAILY, WEEKLY, MONTHLY"));
+        }
+        Instant end = to != null ? to : Instant.now();
+        Instant start = from != null ? from : end.minus(7, ChronoUnit.DAYS);
+        return ResponseEntity.ok(telemetryService.getMetricRollups(deviceId, metric, bucket, start, end));
+    }
+}
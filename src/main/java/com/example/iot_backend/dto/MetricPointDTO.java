@@ -0,0 +1,35 @@
+package com.example.iot_backend.dto;
+
+import java.time.Instant;
+
+/**
+ * Một điểm (ts, value) của metric time-series
+ */
+public class MetricPointDTO {
+    private Instant ts;
+    private double value;
+
+    public MetricPointDTO() {
+    }
+
+    public MetricPointDTO(Instant ts, double value) {
+        this.ts = ts;
+        this.value = value;
+    }
+
+    public Instant getTs() {
+        return ts;
+    }
+
+    public void setTs(Instant ts) {
+        this.ts = ts;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+}
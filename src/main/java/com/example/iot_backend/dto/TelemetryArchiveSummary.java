@@ -0,0 +1,28 @@
+package com.example.iot_backend.dto;
+
+import java.time.Instant;
+
+/**
+ * Projection metadata của TelemetryArchive (không kèm dữ liệu nén và time index) cho các truy vấn liệt kê
+ */
+public interface TelemetryArchiveSummary {
+    Long getId();
+
+    Long getDeviceId();
+
+    String getDeviceName();
+
+    Instant getStartDate();
+
+    Instant getEndDate();
+
+    Instant getArchivedDate();
+
+    Integer getOriginalCount();
+
+    Double getCompressionRatio();
+
+    String getCodec();
+
+    Long getSegmentId();
+}
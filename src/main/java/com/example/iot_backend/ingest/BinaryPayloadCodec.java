@@ -0,0 +1,107 @@
+package com.example.iot_backend.ingest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary telemetry payload (CBOR, topic iot/device/{id}/telemetry/bin).
+ * Device gửi map CBOR cùng cấu trúc với JSON, ví dụ {"temp": 26.5, "hum": 70}.
+ */
+public final class BinaryPayloadCodec {
+
+    public static final String FORMAT_JSON = "JSON";
+    public static final String FORMAT_BINARY = "BINARY";
+
+    // Factory thread-safe, dùng chung
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private BinaryPayloadCodec() {
+    }
+
+    /**
+     * Đọc CBOR payload trực tiếp vào envelope (không qua String trung gian)
+     */
+    static void decode(byte[] payload, PayloadEnvelope envelope) throws IOException {
+        try (JsonParser parser = CBOR_FACTORY.createParser(payload)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.FIELD_NAME) {
+                    continue;
+                }
+                // Tên field được Jackson canonicalize nên không tạo String mới cho mỗi message
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                int idPriority = PayloadEnvelope.messageIdPriority(name);
+                if (idPriority >= 0 && value != null && value.isScalarValue()) {
+                    // Định danh message không phải số đo: không đưa vào metric
+                    byte[] id = parser.getText().getBytes(StandardCharsets.UTF_8);
+                    envelope.setMessageId(idPriority, id, 0, id.length);
+                    continue;
+                }
+                if (PayloadEnvelope.TIMESTAMP_FIELD.equals(name)) {
+                    continue;
+                }
+                if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+                    applyNumber(envelope, name, parser.getDoubleValue());
+                } else if (value == JsonToken.VALUE_STRING) {
+                    applyText(envelope, name, parser.getText());
+                }
+                // Object/array lồng nhau: vòng lặp tiếp tục đọc field bên trong
+            }
+        }
+    }
+
+    private static void applyNumber(PayloadEnvelope envelope, String name, double value) {
+        switch (name) {
+            case "signal" -> {
+                if (value == Math.rint(value))
+                    envelope.setSignal((int) value);
+            }
+            case "battery" -> {
+                if (value == Math.rint(value))
+                    envelope.setBattery((int) value);
+            }
+            case "temp" -> envelope.setTemp(value);
+            case "firmware" -> envelope.setFirmware(Double.toString(value));
+            default -> {
+            }
+        }
+        if (!"firmware".equals(name)) {
+            envelope.addMetric(name, value);
+        }
+    }
+
+    private static void applyText(PayloadEnvelope envelope, String name, String text) {
+        switch (name) {
+            case "firmware" -> envelope.setFirmware(text.trim());
+            case "ip" -> envelope.setIp(text.trim());
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Chuyển CBOR payload sang JSON chuẩn (dùng khi device lưu dạng JSON hoặc khi đọc/archive)
+     */
+    public static String toJson(byte[] payload) {
+        try (JsonParser parser = CBOR_FACTORY.createParser(payload);
+                StringWriter out = new StringWriter(payload.length * 2);
+                JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            if (parser.nextToken() != null) {
+                generator.copyCurrentStructure(parser);
+            }
+            generator.flush();
+            return out.toString();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid CBOR payload: " + e.getMessage(), e);
+        }
+    }
+}
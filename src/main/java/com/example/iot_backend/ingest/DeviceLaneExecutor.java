@@ -0,0 +1,204 @@
+package com.example.iot_backend.ingest;
+
+import com.example.iot_backend.config.IngestConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Striped executor: mỗi device ID được hash vào một lane cố định, mỗi lane có một consumer thread duy nhất.
+ * Message của cùng một device luôn được xử lý đúng thứ tự, còn các device khác nhau chạy song song trên nhiều core.
+ * Thread gọi execute() là MQTT callback thread (Netty) nên chỉ chờ lane đầy trong app.ingest.lane-offer-timeout-ms;
+ * quá hạn thì task overflow của caller chạy ngay trên thread đó (không còn đảm bảo thứ tự với task trong lane).
+ */
+@Component
+@DependsOn("telemetryIngestPipeline") // lane phải dừng trước pipeline để không mất telemetry đang xử lý
+public class DeviceLaneExecutor {
+    private static final Logger log = LoggerFactory.getLogger(DeviceLaneExecutor.class);
+
+    // Lane rảnh ngủ tới khi có task; timeout chỉ là lưới an toàn
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final IngestConfig cfg;
+    private final boolean virtualThreads;
+    private final Lane[] lanes;
+    private volatile boolean running;
+
+    private final AtomicLong fullWaits = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    private final class Lane implements Runnable {
+        final int index;
+        final RingBuffer<Runnable> queue;
+        final ParkingQueue notEmpty = new ParkingQueue();
+        final ParkingQueue notFull = new ParkingQueue();
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        Thread thread;
+
+        Lane(int index, int capacity) {
+            this.index = index;
+            this.queue = new RingBuffer<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (running || queue.size() > 0) {
+                Runnable task = queue.poll();
+                if (task == null) {
+                    notEmpty.await(() -> queue.size() > 0 || !running, IDLE_PARK_NANOS);
+                    continue;
+                }
+                notFull.signalAll();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("Lane {} task failed: {}", index, e.getMessage(), e);
+                } finally {
+                    processed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public DeviceLaneExecutor(IngestConfig cfg, Environment env) {
+        this.cfg = cfg;
+        // spring.threads.virtual.enabled=true (Java 21+): lane chạy trên virtual thread
+        this.virtualThreads = Threading.VIRTUAL.isActive(env);
+        if (!virtualThreads && env.getProperty("spring.threads.virtual.enabled", Boolean.class, false)) {
+            log.warn("spring.threads.virtual.enabled=true requires Java 21+, running on Java {}: "
+                    + "using platform threads", Runtime.version().feature());
+        }
+        int laneCount = cfg.getLanes() > 0 ? cfg.getLanes() : Runtime.getRuntime().availableProcessors();
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, cfg.getLaneQueueCapacity());
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        ThreadFactory virtualFactory = virtualThreads
+                ? new VirtualThreadTaskExecutor("device-lane-").getVirtualThreadFactory()
+                : null;
+        for (Lane lane : lanes) {
+            if (virtualFactory != null) {
+                lane.thread = virtualFactory.newThread(lane);
+            } else {
+                lane.thread = new Thread(lane, "device-lane-" + lane.index);
+                lane.thread.setDaemon(true);
+            }
+            lane.thread.start();
+        }
+        log.info("Device lane executor started: lanes={}, queueCapacity={}, virtualThreads={}",
+                lanes.length, lanes[0].queue.capacity(), virtualThreads);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.notFull.signalAll();
+            LockSupport.unpark(lane.thread);
+            try {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("Device lane executor stopped");
+    }
+
+    /**
+     * Đưa task vào lane của device. Nếu lane đầy thì chờ tối đa app.ingest.lane-offer-timeout-ms; vẫn đầy
+     * (hoặc executor đã dừng) thì chạy overflow trên thread gọi thay vì chặn nó vô thời hạn.
+     */
+    public void execute(long deviceId, Runnable task, Runnable overflow) {
+        Lane lane = lanes[laneIndex(deviceId)];
+        if (!lane.queue.offer(task)) {
+            fullWaits.incrementAndGet();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cfg.getLaneOfferTimeoutMs());
+            do {
+                long remaining = deadline - System.nanoTime();
+                if (!running || remaining <= 0) {
+                    overflows.incrementAndGet();
+                    overflow.run();
+                    return;
+                }
+                lane.notFull.await(() -> lane.queue.size() < lane.queue.capacity() || !running, remaining);
+            } while (!lane.queue.offer(task));
+        }
+        lane.notEmpty.signalAll();
+    }
+
+    int laneIndex(long deviceId) {
+        // Trộn bit để các device ID liên tiếp không dồn vào vài lane
+        long h = deviceId * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 32);
+        return (int) Math.floorMod(h, (long) lanes.length);
+    }
+
+    /**
+     * Skew = số task lớn nhất của một lane / trung bình các lane (1.0 là chia đều)
+     */
+    public double getSkew() {
+        long total = 0;
+        long max = 0;
+        for (Lane lane : lanes) {
+            long processed = lane.processed.get() + lane.queue.size();
+            total += processed;
+            max = Math.max(max, processed);
+        }
+        return total == 0 ? 1.0 : max / ((double) total / lanes.length);
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void checkSkew() {
+        double skew = getSkew();
+        if (skew > cfg.getLaneSkewWarnRatio()) {
+            log.warn("Device lane skew {} exceeds {} (a few devices dominate their lanes)",
+                    String.format("%.2f", skew), cfg.getLaneSkewWarnRatio());
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        List<Map<String, Object>> laneStats = new ArrayList<>();
+        for (Lane lane : lanes) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("lane", lane.index);
+            stat.put("queueDepth", lane.queue.size());
+            stat.put("processed", lane.processed.get());
+            stat.put("failed", lane.failed.get());
+            laneStats.add(stat);
+        }
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("lanes", lanes.length);
+        metrics.put("virtualThreads", virtualThreads);
+        metrics.put("laneQueueCapacity", lanes[0].queue.capacity());
+        metrics.put("skew", getSkew());
+        metrics.put("skewWarnRatio", cfg.getLaneSkewWarnRatio());
+        metrics.put("fullWaits", fullWaits.get());
+        metrics.put("overflows", overflows.get());
+        metrics.put("laneStats", laneStats);
+        return metrics;
+    }
+}
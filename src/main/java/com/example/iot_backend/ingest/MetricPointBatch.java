@@ -0,0 +1,64 @@
+package com.example.iot_backend.ingest;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Các điểm (device_id, ts, metric_id, value) của một batch telemetry, lưu dạng mảng song song
+ * để writer ghi thẳng mà không tạo object cho từng điểm.
+ */
+public class MetricPointBatch {
+
+    private long[] deviceIds;
+    private Instant[] timestamps;
+    private int[] metricIds;
+    private double[] values;
+    private int size;
+
+    public MetricPointBatch(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        this.deviceIds = new long[capacity];
+        this.timestamps = new Instant[capacity];
+        this.metricIds = new int[capacity];
+        this.values = new double[capacity];
+    }
+
+    public void add(long deviceId, Instant ts, int metricId, double value) {
+        if (size == deviceIds.length) {
+            int capacity = size * 2;
+            deviceIds = Arrays.copyOf(deviceIds, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            metricIds = Arrays.copyOf(metricIds, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        deviceIds[size] = deviceId;
+        timestamps[size] = ts;
+        metricIds[size] = metricId;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getDeviceId(int i) {
+        return deviceIds[i];
+    }
+
+    public Instant getTs(int i) {
+        return timestamps[i];
+    }
+
+    public int getMetricId(int i) {
+        return metricIds[i];
+    }
+
+    public double getValue(int i) {
+        return values[i];
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.iot_backend.ingest;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Danh sách thread đang park chờ một điều kiện trên RingBuffer (có dữ liệu / còn chỗ).
+ * Thread đăng ký vào danh sách trước rồi mới kiểm tra lại điều kiện, nên tín hiệu gửi sau khi
+ * điều kiện thay đổi không bị lỡ; thread rảnh ngủ tới khi được signal thay vì thức dậy theo chu kỳ.
+ */
+final class ParkingQueue {
+
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Park tới khi ready đúng, được signal hoặc hết timeoutNanos (có thể thức sớm, caller phải kiểm tra lại)
+     */
+    void await(BooleanSupplier ready, long timeoutNanos) {
+        if (timeoutNanos <= 0 || ready.getAsBoolean()) {
+            return;
+        }
+        Thread self = Thread.currentThread();
+        waiters.add(self);
+        try {
+            if (!ready.getAsBoolean()) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+        } finally {
+            waiters.remove(self);
+        }
+    }
+
+    /**
+     * Đánh thức một thread đang chờ (nếu có)
+     */
+    void signalOne() {
+        Thread waiter = waiters.poll();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Đánh thức mọi thread đang chờ
+     */
+    void signalAll() {
+        Thread waiter;
+        while ((waiter = waiters.poll()) != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
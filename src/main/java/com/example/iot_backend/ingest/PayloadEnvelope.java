@@ -0,0 +1,189 @@
+package com.example.iot_backend.ingest;
+
+import java.util.Arrays;
+
+/**
+ * Kết quả parse một payload: metadata của device và các metric dạng số.
+ * Object được tái sử dụng giữa các lần parse (reset trước mỗi lần), nên không giữ tham chiếu lâu dài.
+ */
+public class PayloadEnvelope {
+    private static final int INITIAL_METRICS = 8;
+    private static final int NO_MESSAGE_ID = Integer.MAX_VALUE;
+
+    // Field định danh message do device gửi, theo thứ tự ưu tiên (dùng làm dedupe key)
+    static final String[] MESSAGE_ID_FIELDS = { "msgId", "messageId", "seq" };
+    // Thời điểm đo do device gửi: không dùng làm định danh (hai bản đo khác nhau có thể cùng ts, device
+    // không có đồng hồ gửi giá trị lặp lại) và cũng không phải metric
+    static final String TIMESTAMP_FIELD = "ts";
+
+    private String firmware;
+    private String ip;
+    private int signal;
+    private boolean hasSignal;
+    private int battery;
+    private boolean hasBattery;
+    private double temp;
+    private boolean hasTemp;
+
+    private String[] metricNames = new String[INITIAL_METRICS];
+    private double[] metricValues = new double[INITIAL_METRICS];
+    private int metricCount;
+
+    private long messageId;
+    private int messageIdPriority = NO_MESSAGE_ID;
+
+    public void reset() {
+        firmware = null;
+        ip = null;
+        hasSignal = false;
+        hasBattery = false;
+        hasTemp = false;
+        messageIdPriority = NO_MESSAGE_ID;
+        Arrays.fill(metricNames, 0, metricCount, null);
+        metricCount = 0;
+    }
+
+    void addMetric(String name, double value) {
+        if (metricCount == metricNames.length) {
+            metricNames = Arrays.copyOf(metricNames, metricCount * 2);
+            metricValues = Arrays.copyOf(metricValues, metricCount * 2);
+        }
+        metricNames[metricCount] = name;
+        metricValues[metricCount] = value;
+        metricCount++;
+    }
+
+    /**
+     * Trả về giá trị metric theo tên, NaN nếu không có
+     */
+    public double getMetric(String name) {
+        for (int i = 0; i < metricCount; i++) {
+            if (metricNames[i].equals(name)) {
+                return metricValues[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    public int getMetricCount() {
+        return metricCount;
+    }
+
+    public String getMetricName(int index) {
+        return metricNames[index];
+    }
+
+    public double getMetricValue(int index) {
+        return metricValues[index];
+    }
+
+    public String[] copyMetricNames() {
+        return Arrays.copyOf(metricNames, metricCount);
+    }
+
+    public double[] copyMetricValues() {
+        return Arrays.copyOf(metricValues, metricCount);
+    }
+
+    /**
+     * Vị trí của field trong MESSAGE_ID_FIELDS, -1 nếu không phải field định danh message
+     */
+    static int messageIdPriority(String field) {
+        for (int i = 0; i < MESSAGE_ID_FIELDS.length; i++) {
+            if (MESSAGE_ID_FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ghi nhận giá trị (dạng text) của field định danh message; field ưu tiên cao hơn được giữ lại
+     */
+    void setMessageId(int priority, byte[] buf, int start, int end) {
+        if (priority >= messageIdPriority) {
+            return;
+        }
+        // FNV-1a 64-bit trên giá trị
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            h ^= buf[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        messageId = h;
+        messageIdPriority = priority;
+    }
+
+    /**
+     * Payload có kèm định danh message (msgId, messageId hoặc seq) không
+     */
+    public boolean hasMessageId() {
+        return messageIdPriority != NO_MESSAGE_ID;
+    }
+
+    /**
+     * Hash của định danh message, chỉ có nghĩa khi hasMessageId()
+     */
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public boolean hasMetadata() {
+        return firmware != null || ip != null || hasSignal || hasBattery;
+    }
+
+    public String getFirmware() {
+        return firmware;
+    }
+
+    void setFirmware(String firmware) {
+        this.firmware = firmware;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    void setIp(String ip) {
+        this.ip = ip;
+    }
+
+    public boolean hasSignal() {
+        return hasSignal;
+    }
+
+    public int getSignal() {
+        return signal;
+    }
+
+    void setSignal(int signal) {
+        this.signal = signal;
+        this.hasSignal = true;
+    }
+
+    public boolean hasBattery() {
+        return hasBattery;
+    }
+
+    public int getBattery() {
+        return battery;
+    }
+
+    void setBattery(int battery) {
+        this.battery = battery;
+        this.hasBattery = true;
+    }
+
+    public boolean hasTemp() {
+        return hasTemp;
+    }
+
+    public double getTemp() {
+        return temp;
+    }
+
+    void setTemp(double temp) {
+        this.temp = temp;
+        this.hasTemp = true;
+    }
+}
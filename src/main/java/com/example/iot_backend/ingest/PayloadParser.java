@@ -0,0 +1,289 @@
+package com.example.iot_backend.ingest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tokenizer JSON một lượt (single-pass) đọc thẳng từ byte[] của MQTT payload và điền vào {@link PayloadEnvelope}.
+ * Không dùng regex, không tạo String cho key đã gặp trước đó; chỉ firmware/ip mới cần tạo String.
+ * Không thread-safe: dùng {@link #forCurrentThread()} để lấy instance riêng cho mỗi thread.
+ */
+public class PayloadParser {
+
+    private static final int MAX_CACHED_KEYS = 64;
+    private static final int MAX_MANTISSA_DIGITS = 18;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+    private static final byte[] KEY_FIRMWARE = ascii("firmware");
+    private static final byte[] KEY_IP = ascii("ip");
+    private static final byte[] KEY_SIGNAL = ascii("signal");
+    private static final byte[] KEY_BATTERY = ascii("battery");
+    private static final byte[] KEY_TEMP = ascii("temp");
+    private static final byte[] KEY_TIMESTAMP = ascii(PayloadEnvelope.TIMESTAMP_FIELD);
+    private static final byte[][] KEY_MESSAGE_ID = new byte[PayloadEnvelope.MESSAGE_ID_FIELDS.length][];
+
+    static {
+        for (int i = 0; i < KEY_MESSAGE_ID.length; i++) {
+            KEY_MESSAGE_ID[i] = ascii(PayloadEnvelope.MESSAGE_ID_FIELDS[i]);
+        }
+    }
+
+    private static final ThreadLocal<PayloadParser> CURRENT = ThreadLocal.withInitial(PayloadParser::new);
+
+    private final PayloadEnvelope envelope = new PayloadEnvelope();
+
+    // Cache tên key đã gặp để không phải tạo String mới cho mỗi message
+    private final byte[][] keyBytes = new byte[MAX_CACHED_KEYS][];
+    private final String[] keyNames = new String[MAX_CACHED_KEYS];
+    private int keyCount;
+
+    public static PayloadParser forCurrentThread() {
+        return CURRENT.get();
+    }
+
+    public PayloadEnvelope parse(byte[] payload) {
+        return parse(payload, 0, payload.length);
+    }
+
+    /**
+     * Parse payload và trả về envelope của parser này (bị ghi đè ở lần parse tiếp theo)
+     */
+    public PayloadEnvelope parse(byte[] buf, int offset, int length) {
+        envelope.reset();
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (buf[i] != '"') {
+                i++;
+                continue;
+            }
+            int keyStart = i + 1;
+            int keyEnd = skipString(buf, keyStart, end);
+            int colon = skipWhitespace(buf, keyEnd + 1, end);
+            if (colon < end && buf[colon] == ':') {
+                i = parseValue(buf, keyStart, keyEnd, skipWhitespace(buf, colon + 1, end), end);
+            } else {
+                // String nằm trong array hoặc là value đã xử lý
+                i = keyEnd + 1;
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * Parse binary (CBOR) payload vào cùng envelope của parser này
+     */
+    public PayloadEnvelope parseBinary(byte[] payload) throws IOException {
+        envelope.reset();
+        BinaryPayloadCodec.decode(payload, envelope);
+        return envelope;
+    }
+
+    private int parseValue(byte[] buf, int keyStart, int keyEnd, int pos, int end) {
+        if (pos >= end) {
+            return end;
+        }
+        byte b = buf[pos];
+        if (b == '"') {
+            int valueEnd = skipString(buf, pos + 1, end);
+            applyValue(buf, keyStart, keyEnd, pos + 1, valueEnd, false);
+            return valueEnd + 1;
+        }
+        if (b == '-' || b == '+' || (b >= '0' && b <= '9')) {
+            int valueEnd = pos;
+            while (valueEnd < end && isNumberChar(buf[valueEnd])) {
+                valueEnd++;
+            }
+            applyValue(buf, keyStart, keyEnd, pos, valueEnd, true);
+            return valueEnd;
+        }
+        // Object/array lồng nhau, true/false/null: tiếp tục quét, key bên trong sẽ được xử lý ở vòng sau
+        return pos;
+    }
+
+    private void applyValue(byte[] buf, int keyStart, int keyEnd, int valueStart, int valueEnd, boolean numeric) {
+        // Định danh message không phải số đo: không đưa vào metric (telemetry_points, rollup)
+        for (int p = 0; p < KEY_MESSAGE_ID.length; p++) {
+            if (matches(buf, keyStart, keyEnd, KEY_MESSAGE_ID[p])) {
+                envelope.setMessageId(p, buf, valueStart, valueEnd);
+                return;
+            }
+        }
+        if (matches(buf, keyStart, keyEnd, KEY_TIMESTAMP)) {
+            return;
+        }
+        if (matches(buf, keyStart, keyEnd, KEY_FIRMWARE)) {
+            envelope.setFirmware(new String(buf, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8).trim());
+            return;
+        }
+        if (matches(buf, keyStart, keyEnd, KEY_IP)) {
+            envelope.setIp(new String(buf, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8).trim());
+            return;
+        }
+
+        // Cho phép signal/battery ở dạng chuỗi, ví dụ "signal": "-70"
+        boolean isSignal = matches(buf, keyStart, keyEnd, KEY_SIGNAL);
+        boolean isBattery = !isSignal && matches(buf, keyStart, keyEnd, KEY_BATTERY);
+        if (!numeric && !isSignal && !isBattery) {
+            return;
+        }
+
+        double value = parseNumber(buf, valueStart, valueEnd);
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (isSignal || isBattery) {
+            if (value != Math.rint(value)) {
+                return;
+            }
+            if (isSignal) {
+                envelope.setSignal((int) value);
+            } else {
+                envelope.setBattery((int) value);
+            }
+        } else if (matches(buf, keyStart, keyEnd, KEY_TEMP)) {
+            envelope.setTemp(value);
+        }
+        envelope.addMetric(keyName(buf, keyStart, keyEnd), value);
+    }
+
+    /**
+     * Parse số thập phân không tạo object; trả về NaN nếu không hợp lệ
+     */
+    static double parseNumber(byte[] buf, int start, int end) {
+        while (start < end && buf[start] == ' ')
+            start++;
+        while (end > start && buf[end - 1] == ' ')
+            end--;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean anyDigit = false;
+        while (i < end && isDigit(buf[i])) {
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (buf[i] - '0');
+                if (mantissa != 0)
+                    digits++;
+            } else {
+                exp10++;
+            }
+            anyDigit = true;
+            i++;
+        }
+        if (i < end && buf[i] == '.') {
+            i++;
+            while (i < end && isDigit(buf[i])) {
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (buf[i] - '0');
+                    if (mantissa != 0)
+                        digits++;
+                    exp10--;
+                }
+                anyDigit = true;
+                i++;
+            }
+        }
+        if (!anyDigit) {
+            return Double.NaN;
+        }
+        if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+                negativeExp = buf[i] == '-';
+                i++;
+            }
+            int exp = 0;
+            boolean anyExpDigit = false;
+            while (i < end && isDigit(buf[i])) {
+                if (exp < 10_000)
+                    exp = exp * 10 + (buf[i] - '0');
+                anyExpDigit = true;
+                i++;
+            }
+            if (!anyExpDigit) {
+                return Double.NaN;
+            }
+            exp10 += negativeExp ? -exp : exp;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+
+        double value;
+        if (exp10 >= 0 && exp10 < POW10.length) {
+            value = mantissa * POW10[exp10];
+        } else if (exp10 < 0 && -exp10 < POW10.length) {
+            value = mantissa / POW10[-exp10];
+        } else {
+            // Hiếm gặp: số mũ lớn, để JDK xử lý cho chính xác
+            value = Math.abs(Double.parseDouble(new String(buf, start, end - start, StandardCharsets.US_ASCII)));
+        }
+        return negative ? -value : value;
+    }
+
+    private String keyName(byte[] buf, int start, int end) {
+        int length = end - start;
+        for (int k = 0; k < keyCount; k++) {
+            byte[] cached = keyBytes[k];
+            if (cached.length == length && Arrays.equals(cached, 0, length, buf, start, end)) {
+                return keyNames[k];
+            }
+        }
+        String name = new String(buf, start, length, StandardCharsets.UTF_8);
+        if (keyCount < MAX_CACHED_KEYS) {
+            keyBytes[keyCount] = Arrays.copyOfRange(buf, start, end);
+            keyNames[keyCount] = name;
+            keyCount++;
+        }
+        return name;
+    }
+
+    private static boolean matches(byte[] buf, int start, int end, byte[] key) {
+        return end - start == key.length && Arrays.equals(buf, start, end, key, 0, key.length);
+    }
+
+    private static int skipString(byte[] buf, int i, int end) {
+        while (i < end) {
+            byte b = buf[i];
+            if (b == '\\') {
+                i += 2;
+            } else if (b == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(byte[] buf, int i, int end) {
+        while (i < end && (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\n' || buf[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isNumberChar(byte b) {
+        return isDigit(b) || b == '.' || b == '-' || b == '+' || b == 'e' || b == 'E';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.iot_backend.ingest;
+
+import com.example.iot_backend.config.IngestConfig;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lọc telemetry trùng do device publish lại (QoS 1: device không nhận được PUBACK của broker nên gửi lại).
+ *
+ * Message được nhận diện bằng dedupe key 64-bit của (device ID, định danh message do device gửi: msgId,
+ * messageId hoặc seq trong payload; ts không được dùng vì không duy nhất). Message không kèm định danh thì không bị lọc, vì hai bản đo giống hệt
+ * nhau vẫn là hai bản ghi hợp lệ. Key không phụ thuộc thời điểm nhận nên bản redeliver luôn có cùng key và
+ * bị unique index (device_id, dedupe_key) của bảng telemetry chặn ở DB.
+ *
+ * Bảng fingerprint in-memory chỉ chứa key đã commit (pipeline gọi committed() sau khi batch hoặc spill file
+ * được ghi vào DB), nên message chưa ghi được không bị coi là đã thấy. Bảng là open-addressing kích thước cố định theo từng time
+ * bucket (app.ingest.dedupe.window-ms); chỉ giữ bucket hiện tại và bucket trước đó nên bộ nhớ bị chặn và entry
+ * tự hết hạn sau 1-2 window. Khi bảng đầy, key không được ghi nhớ và DB unique index xử lý bản trùng.
+ */
+@Component
+public class TelemetryDeduplicator {
+
+    public static final long NO_KEY = 0L;
+    public static final long DUPLICATE = Long.MIN_VALUE;
+
+    private static final int MAX_PROBES = 32;
+
+    private final boolean enabled;
+    private final long windowMs;
+    private final int capacity;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong withoutMessageId = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    public TelemetryDeduplicator(IngestConfig cfg) {
+        this.enabled = cfg.isDedupeEnabled();
+        this.windowMs = Math.max(1, cfg.getDedupeWindowMs());
+        // Làm tròn lên lũy thừa của 2 để dùng mask thay cho modulo
+        this.capacity = Integer.highestOneBit(Math.max(1024, cfg.getDedupeCapacity()) * 2 - 1);
+        long bucket = now() / windowMs;
+        this.current = new Generation(bucket, capacity);
+        this.previous = new Generation(bucket - 1, capacity);
+    }
+
+    /**
+     * Kiểm tra message: trả về DUPLICATE nếu key đã commit trong window, ngược lại trả về dedupe key
+     * dùng cho unique index (NO_KEY nếu tắt dedupe hoặc payload không kèm định danh message)
+     */
+    public long admit(long deviceId, PayloadEnvelope envelope) {
+        if (!enabled)
+            return NO_KEY;
+        if (!envelope.hasMessageId()) {
+            withoutMessageId.incrementAndGet();
+            return NO_KEY;
+        }
+
+        long key = mix(deviceId * 0x9E3779B97F4A7C15L ^ envelope.getMessageId());
+        if (key == NO_KEY || key == DUPLICATE)
+            key = 1L;
+
+        Generation cur = generationFor(now() / windowMs);
+        Generation prev = previous;
+        if (cur.contains(key) || (prev != cur && prev.contains(key))) {
+            duplicates.incrementAndGet();
+            return DUPLICATE;
+        }
+        admitted.incrementAndGet();
+        return key;
+    }
+
+    /**
+     * Ghi nhớ key của record đã commit xuống DB (gọi từ flush path sau khi batch lưu thành công)
+     */
+    public void committed(long key) {
+        if (!enabled || key == NO_KEY)
+            return;
+        generationFor(now() / windowMs).insert(key);
+    }
+
+    private Generation generationFor(long bucket) {
+        Generation cur = current;
+        if (cur.bucket >= bucket)
+            return cur;
+        synchronized (this) {
+            cur = current;
+            if (cur.bucket < bucket) {
+                // Bucket liền trước được giữ lại, bucket cũ hơn bị bỏ (hết hạn)
+                previous = cur.bucket == bucket - 1 ? cur : new Generation(bucket - 1, capacity);
+                cur = new Generation(bucket, capacity);
+                current = cur;
+            }
+            return cur;
+        }
+    }
+
+    // Thời gian hiện tại (ms), tách riêng để test điều khiển được time bucket
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    // fmix64 của MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Generation cur = current;
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("windowMs", windowMs);
+        metrics.put("capacityPerWindow", capacity);
+        metrics.put("currentWindowEntries", cur.size.get());
+        metrics.put("admitted", admitted.get());
+        metrics.put("withoutMessageId", withoutMessageId.get());
+        metrics.put("duplicates", duplicates.get());
+        metrics.put("overflows", overflows.get());
+        return metrics;
+    }
+
+    /**
+     * Bảng fingerprint của một time bucket (linear probing, lock-free qua CAS)
+     */
+    private final class Generation {
+        final long bucket;
+        final AtomicLongArray slots;
+        final int mask;
+        final int maxSize;
+        final AtomicInteger size = new AtomicInteger();
+
+        Generation(long bucket, int capacity) {
+            this.bucket = bucket;
+            this.slots = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            this.maxSize = capacity / 4 * 3;
+        }
+
+        boolean contains(long fingerprint) {
+            int idx = (int) fingerprint & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                long v = slots.get((idx + probe) & mask);
+                if (v == fingerprint)
+                    return true;
+                if (v == 0)
+                    return false;
+            }
+            return false;
+        }
+
+        /**
+         * Thêm fingerprint; false nếu đã có. Bảng đầy thì không ghi nhớ (để DB unique index xử lý).
+         */
+        boolean insert(long fingerprint) {
+            int idx = (int) fingerprint & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int slot = (idx + probe) & mask;
+                long v = slots.get(slot);
+                if (v == 0) {
+                    if (size.get() >= maxSize)
+                        break;
+                    if (slots.compareAndSet(slot, 0, fingerprint)) {
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    v = slots.get(slot);
+                }
+                if (v == fingerprint)
+                    return false;
+            }
+            overflows.incrementAndGet();
+            return true;
+        }
+    }
+}
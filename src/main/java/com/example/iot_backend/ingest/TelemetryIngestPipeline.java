@@ -0,0 +1,457 @@
+package com.example.iot_backend.ingest;
+
+import com.example.iot_backend.config.IngestConfig;
+import com.example.iot_backend.service.TelemetryService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind pipeline cho telemetry: MQTT callback chỉ đẩy record vào ring buffer,
+ * các flush worker gom thành batch (theo kích thước hoặc thời gian) rồi ghi xuống DB.
+ * Với manual ack, PUBACK chỉ được gửi sau khi batch commit; khi queue vượt high-water mark
+ * thì PUBACK bị giữ lại để broker dừng gửi thêm khi cửa sổ in-flight của nó đầy.
+ * Client dùng clean session nên broker không gửi lại message chưa PUBACK: batch vẫn lỗi sau khi hết retry được
+ * spill xuống đĩa (TelemetrySpillStore) rồi mới PUBACK, và được replay vào DB khi DB ghi được trở lại.
+ */
+@Service
+public class TelemetryIngestPipeline {
+    private static final Logger log = LoggerFactory.getLogger(TelemetryIngestPipeline.class);
+
+    // Producer chờ buffer còn chỗ tới khi được signal; timeout chỉ là lưới an toàn
+    private static final long FULL_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final IngestConfig cfg;
+    private final TelemetryService telemetryService;
+    private final TelemetryDeduplicator deduplicator;
+    private final TelemetrySpillStore spillStore;
+    private final RingBuffer<TelemetryRecord> buffer;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    // Worker rảnh chờ record mới, producer chờ buffer còn chỗ
+    private final ParkingQueue notEmpty = new ParkingQueue();
+    private final ParkingQueue notFull = new ParkingQueue();
+
+    // Backpressure
+    private final ConcurrentLinkedQueue<Runnable> deferredAcks = new ConcurrentLinkedQueue<>();
+    private volatile boolean throttled;
+
+    // Metrics
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong flushedRecords = new AtomicLong();
+    private final AtomicLong flushedBatches = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong lastBatchSize = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong spilledRecords = new AtomicLong();
+    private final AtomicLong replayedRecords = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong throttleEvents = new AtomicLong();
+
+    public TelemetryIngestPipeline(IngestConfig cfg, TelemetryService telemetryService,
+            TelemetryDeduplicator deduplicator, TelemetrySpillStore spillStore) {
+        this.cfg = cfg;
+        this.telemetryService = telemetryService;
+        this.deduplicator = deduplicator;
+        this.spillStore = spillStore;
+        this.buffer = new RingBuffer<>(cfg.getBufferCapacity());
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        for (int i = 0; i < cfg.getFlushWorkers(); i++) {
+            Thread worker = new Thread(this::runWorker, "telemetry-flush-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        log.info("Telemetry ingest pipeline started: capacity={}, batchSize={}, flushInterval={}ms, workers={}",
+                buffer.capacity(), cfg.getBatchSize(), cfg.getFlushIntervalMs(), cfg.getFlushWorkers());
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        notFull.signalAll();
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Ghi nốt phần còn lại trong buffer
+        List<TelemetryRecord> remaining = new ArrayList<>(cfg.getBatchSize());
+        while (buffer.drainTo(remaining, cfg.getBatchSize()) > 0) {
+            flush(remaining);
+            remaining.clear();
+        }
+        releaseDeferredAcks(Integer.MAX_VALUE);
+        log.info("Telemetry ingest pipeline stopped");
+    }
+
+    /**
+     * Đưa telemetry vào pipeline. Nếu buffer đầy thì chặn thread gọi (device lane) tới khi worker giải phóng chỗ:
+     * record đã nhận (đã PUBACK nếu auto ack) không bao giờ bị bỏ, backpressure dồn ngược về lane.
+     * binaryPayload là CBOR gốc (null với JSON), dedupeKey lấy từ TelemetryDeduplicator.
+     * ack (có thể null) chỉ được gọi sau khi record đã commit xuống DB hoặc đã ghi vào spill file.
+     */
+    public void submit(long deviceId, String payload, byte[] binaryPayload, long dedupeKey,
+            PayloadEnvelope envelope, Runnable ack) {
+        TelemetryRecord record = TelemetryRecord.of(deviceId, Instant.now(), payload, binaryPayload, dedupeKey,
+                envelope, ack);
+        if (ack != null) {
+            inFlight.incrementAndGet();
+        }
+        if (offer(record)) {
+            return;
+        }
+
+        // Worker không bị kẹt vô hạn (batch lỗi được spill) nên chờ ở đây luôn kết thúc khi DB hoặc đĩa còn ghi được
+        rejected.incrementAndGet();
+        long waitStart = System.nanoTime();
+        try {
+            while (running) {
+                notFull.await(() -> buffer.size() < buffer.capacity() || !running, FULL_PARK_NANOS);
+                if (offer(record)) {
+                    return;
+                }
+            }
+        } finally {
+            blockedNanos.addAndGet(System.nanoTime() - waitStart);
+        }
+        // Pipeline đang dừng: ghi thẳng record (DB hoặc spill file)
+        List<TelemetryRecord> single = new ArrayList<>(1);
+        single.add(record);
+        flush(single);
+    }
+
+    /**
+     * Đường overflow khi lane của device đầy: không bao giờ chặn thread gọi (MQTT callback thread).
+     * Record vào buffer nếu còn chỗ, không thì ghi thẳng vào spill file (ack như batch đã spill).
+     * Trả về false nếu cả hai đều không được: record bị bỏ (droppedRecords), ack không được gọi.
+     */
+    public boolean submitOverflow(long deviceId, String payload, byte[] binaryPayload, long dedupeKey,
+            PayloadEnvelope envelope, Runnable ack) {
+        TelemetryRecord record = TelemetryRecord.of(deviceId, Instant.now(), payload, binaryPayload, dedupeKey,
+                envelope, ack);
+        if (ack != null) {
+            inFlight.incrementAndGet();
+        }
+        if (offer(record)) {
+            return true;
+        }
+        List<TelemetryRecord> single = new ArrayList<>(1);
+        single.add(record);
+        if (spill(single)) {
+            acknowledge(single);
+            return true;
+        }
+        droppedRecords.incrementAndGet();
+        if (ack != null) {
+            inFlight.decrementAndGet();
+        }
+        return false;
+    }
+
+    private boolean offer(TelemetryRecord record) {
+        if (!buffer.offer(record)) {
+            return false;
+        }
+        enqueued.incrementAndGet();
+        notEmpty.signalOne();
+        return true;
+    }
+
+    private void runWorker() {
+        int batchSize = cfg.getBatchSize();
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(cfg.getFlushIntervalMs());
+        List<TelemetryRecord> batch = new ArrayList<>(batchSize);
+        long batchStart = 0;
+
+        while (running) {
+            updateThrottle();
+            if (!throttled) {
+                releaseDeferredAcks(batchSize);
+            }
+
+            int drained = buffer.drainTo(batch, batchSize - batch.size());
+            if (drained > 0) {
+                notFull.signalAll();
+                if (batchStart == 0) {
+                    batchStart = System.nanoTime();
+                }
+            }
+
+            boolean sizeTrigger = batch.size() >= batchSize;
+            long untilFlush = batch.isEmpty() ? flushIntervalNanos
+                    : batchStart + flushIntervalNanos - System.nanoTime();
+            if (sizeTrigger || (!batch.isEmpty() && untilFlush <= 0)) {
+                flush(batch);
+                batch.clear();
+                batchStart = 0;
+            } else if (drained == 0) {
+                // Ngủ tới khi có record mới hoặc tới hạn flush theo thời gian
+                notEmpty.await(() -> buffer.size() > 0 || !running, untilFlush);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            flush(batch);
+        }
+    }
+
+    private void flush(List<TelemetryRecord> batch) {
+        long start = System.nanoTime();
+        boolean stored = false;
+        try {
+            stored = save(batch, cfg.getFlushRetries()) || spill(batch);
+            // Không ghi được cả DB lẫn spill: giữ batch và thử lại (worker dừng lại nên buffer đầy dần, tạo
+            // backpressure) thay vì bỏ record đã nhận
+            for (int attempt = 1; !stored && running; attempt++) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(100L << Math.min(attempt, 6), 5000L)));
+                stored = save(batch, 0) || spill(batch);
+            }
+            if (!stored) {
+                // Chỉ xảy ra khi đang dừng mà DB và đĩa đều lỗi
+                droppedRecords.addAndGet(batch.size());
+                log.error("Telemetry batch of {} records could not be stored or spilled during shutdown, dropped",
+                        batch.size());
+                for (TelemetryRecord r : batch) {
+                    if (r.getAck() != null) {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            }
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            flushes.incrementAndGet();
+            lastBatchSize.set(batch.size());
+            lastFlushNanos.set(elapsed);
+            totalFlushNanos.addAndGet(elapsed);
+            maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+        }
+
+        if (stored) {
+            // Batch đã commit hoặc đã nằm trong spill file: gửi PUBACK, trừ khi đang throttle
+            acknowledge(batch);
+        }
+    }
+
+    /**
+     * Ghi batch xuống DB, thử lại tối đa retries lần; true nếu đã commit
+     */
+    private boolean save(List<TelemetryRecord> batch, int retries) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                telemetryService.saveBatch(batch);
+                break;
+            } catch (Exception e) {
+                failedAttempts.incrementAndGet();
+                if (attempt > retries) {
+                    log.error("Failed to flush telemetry batch of {} records after {} attempts: {}",
+                            batch.size(), attempt, e.getMessage(), e);
+                    return false;
+                }
+                log.warn("Telemetry batch flush failed (attempt {}), retrying: {}", attempt, e.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100L * attempt));
+            }
+        }
+        flushedRecords.addAndGet(batch.size());
+        flushedBatches.incrementAndGet();
+        // Chỉ key đã commit mới được coi là đã thấy
+        for (TelemetryRecord r : batch) {
+            deduplicator.committed(r.getDedupeKey());
+        }
+        return true;
+    }
+
+    /**
+     * Ghi batch vào spill file (đã fsync); true nếu thành công
+     */
+    private boolean spill(List<TelemetryRecord> batch) {
+        try {
+            spillStore.write(batch);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to spill telemetry batch of {} records: {}", batch.size(), e.getMessage(), e);
+            return false;
+        }
+        spilledRecords.addAndGet(batch.size());
+        log.warn("Spilled telemetry batch of {} records to disk, will replay when the database recovers",
+                batch.size());
+        return true;
+    }
+
+    /**
+     * Ghi lại các spill file vào DB, cũ nhất trước; dừng ở file đầu tiên lỗi để thử lại lần sau.
+     * Bỏ qua khi queue đang cao để không tranh DB với telemetry mới
+     */
+    @Scheduled(fixedDelayString = "${app.ingest.spill.replay-interval-ms:5000}")
+    public synchronized void replaySpilled() {
+        if (!running || buffer.size() > cfg.getLowWaterMark())
+            return;
+        for (Path file : spillStore.pending()) {
+            if (!running || !replay(file))
+                return;
+        }
+    }
+
+    private boolean replay(Path file) {
+        List<TelemetryRecord> records;
+        try {
+            records = restore(spillStore.read(file));
+        } catch (IOException | RuntimeException e) {
+            log.error("Cannot read telemetry spill file {}, moving it aside: {}", file, e.getMessage());
+            spillStore.quarantine(file);
+            return true;
+        }
+        try {
+            // Mỗi spill file tối đa một batch nên được ghi trong một transaction
+            telemetryService.saveBatch(records);
+        } catch (Exception e) {
+            log.warn("Replaying telemetry spill file {} failed, will retry: {}", file, e.getMessage());
+            return false;
+        }
+        for (TelemetryRecord r : records) {
+            deduplicator.committed(r.getDedupeKey());
+        }
+        replayedRecords.addAndGet(records.size());
+        try {
+            spillStore.delete(file);
+        } catch (IOException e) {
+            // Lần replay sau ghi lại file này; record có dedupe key bị bỏ qua bởi uk_telemetry_dedupe
+            log.error("Cannot delete replayed telemetry spill file {}: {}", file, e.getMessage());
+            return false;
+        }
+        log.info("Replayed {} spilled telemetry records from {}", records.size(), file.getFileName());
+        return true;
+    }
+
+    // Dựng lại record từ payload gốc (parse lại metric); PUBACK đã gửi khi spill
+    private static List<TelemetryRecord> restore(List<TelemetrySpillStore.SpilledRecord> spilled)
+            throws IOException {
+        PayloadParser parser = PayloadParser.forCurrentThread();
+        List<TelemetryRecord> records = new ArrayList<>(spilled.size());
+        for (TelemetrySpillStore.SpilledRecord s : spilled) {
+            if (s.binary()) {
+                records.add(TelemetryRecord.of(s.deviceId(), s.ts(), null, s.payload(), s.dedupeKey(),
+                        parser.parseBinary(s.payload()), null));
+            } else {
+                records.add(TelemetryRecord.of(s.deviceId(), s.ts(), new String(s.payload(), StandardCharsets.UTF_8),
+                        null, s.dedupeKey(), parser.parse(s.payload()), null));
+            }
+        }
+        return records;
+    }
+
+    private void acknowledge(List<TelemetryRecord> batch) {
+        updateThrottle();
+        for (TelemetryRecord r : batch) {
+            Runnable ack = r.getAck();
+            if (ack == null) {
+                continue;
+            }
+            if (throttled) {
+                deferredAcks.add(ack);
+            } else {
+                runAck(ack);
+            }
+        }
+    }
+
+    private void releaseDeferredAcks(int max) {
+        for (int i = 0; i < max; i++) {
+            Runnable ack = deferredAcks.poll();
+            if (ack == null) {
+                return;
+            }
+            runAck(ack);
+        }
+    }
+
+    private void runAck(Runnable ack) {
+        try {
+            ack.run();
+            acked.incrementAndGet();
+        } catch (Exception e) {
+            log.debug("Could not acknowledge telemetry message: {}", e.getMessage());
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Hysteresis: bật throttle khi queue vượt high-water, tắt khi xuống dưới low-water
+     */
+    private void updateThrottle() {
+        int depth = buffer.size();
+        if (!throttled && depth >= cfg.getHighWaterMark()) {
+            throttled = true;
+            throttleEvents.incrementAndGet();
+            log.warn("Telemetry queue depth {} above high-water mark {}, holding PUBACKs",
+                    depth, cfg.getHighWaterMark());
+        } else if (throttled && depth <= cfg.getLowWaterMark()) {
+            throttled = false;
+            log.info("Telemetry queue depth {} below low-water mark {}, releasing PUBACKs",
+                    depth, cfg.getLowWaterMark());
+        }
+    }
+
+    /**
+     * Thống kê pipeline: queue depth, batch size, flush latency
+     */
+    public Map<String, Object> getMetrics() {
+        long batches = flushes.get();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("queueDepth", buffer.size());
+        metrics.put("queueCapacity", buffer.capacity());
+        metrics.put("enqueued", enqueued.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("flushedRecords", flushedRecords.get());
+        metrics.put("flushedBatches", flushedBatches.get());
+        metrics.put("failedAttempts", failedAttempts.get());
+        metrics.put("droppedRecords", droppedRecords.get());
+        metrics.put("blockedMs", blockedNanos.get() / 1_000_000.0);
+        metrics.put("spilledRecords", spilledRecords.get());
+        metrics.put("replayedRecords", replayedRecords.get());
+        metrics.put("pendingSpillFiles", spillStore.pending().size());
+        metrics.put("throttled", throttled);
+        metrics.put("throttleEvents", throttleEvents.get());
+        metrics.put("inFlight", inFlight.get());
+        metrics.put("deferredAcks", deferredAcks.size());
+        metrics.put("acked", acked.get());
+        metrics.put("lastBatchSize", lastBatchSize.get());
+        metrics.put("avgBatchSize", flushedBatches.get() > 0 ? (double) flushedRecords.get() / flushedBatches.get() : 0.0);
+        metrics.put("lastFlushMs", lastFlushNanos.get() / 1_000_000.0);
+        metrics.put("maxFlushMs", maxFlushNanos.get() / 1_000_000.0);
+        metrics.put("avgFlushMs", batches > 0 ? totalFlushNanos.get() / 1_000_000.0 / batches : 0.0);
+        return metrics;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.iot_backend.ingest;
+
+import java.time.Instant;
+
+/**
+ * Một bản ghi telemetry đang chờ ghi xuống DB, kèm các metric đã parse sẵn
+ */
+public class TelemetryRecord {
+    private static final String[] NO_NAMES = new String[0];
+    private static final double[] NO_VALUES = new double[0];
+
+    private final long deviceId;
+    private final Instant ts;
+    private final String data;
+    private final byte[] binaryData; // CBOR payload gốc (null với JSON payload)
+    private final long dedupeKey; // TelemetryDeduplicator.NO_KEY nếu tắt dedupe
+    private final String[] metricNames;
+    private final double[] metricValues;
+    private final Runnable ack; // PUBACK gửi sau khi batch chứa record này commit (null nếu auto-ack)
+
+    public TelemetryRecord(long deviceId, Instant ts, String data) {
+        this(deviceId, ts, data, null, TelemetryDeduplicator.NO_KEY, NO_NAMES, NO_VALUES, null);
+    }
+
+    public TelemetryRecord(long deviceId, Instant ts, String data, byte[] binaryData, long dedupeKey,
+            String[] metricNames, double[] metricValues, Runnable ack) {
+        this.deviceId = deviceId;
+        this.ts = ts;
+        this.data = data;
+        this.binaryData = binaryData;
+        this.dedupeKey = dedupeKey;
+        this.metricNames = metricNames;
+        this.metricValues = metricValues;
+        this.ack = ack;
+    }
+
+    public static TelemetryRecord of(long deviceId, Instant ts, String data, byte[] binaryData, long dedupeKey,
+            PayloadEnvelope envelope, Runnable ack) {
+        return new TelemetryRecord(deviceId, ts, data, binaryData, dedupeKey,
+                envelope.copyMetricNames(), envelope.copyMetricValues(), ack);
+    }
+
+    /**
+     * Bản sao lưu dạng JSON chuẩn thay cho binary payload
+     */
+    public TelemetryRecord withJson(String json) {
+        return new TelemetryRecord(deviceId, ts, json, null, dedupeKey, metricNames, metricValues, ack);
+    }
+
+    public long getDeviceId() {
+        return deviceId;
+    }
+
+    public Instant getTs() {
+        return ts;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public byte[] getBinaryData() {
+        return binaryData;
+    }
+
+    public long getDedupeKey() {
+        return dedupeKey;
+    }
+
+    /**
+     * Dedupe key dạng cột nullable (NULL khi tắt dedupe)
+     */
+    public Long getDedupeKeyOrNull() {
+        return dedupeKey == TelemetryDeduplicator.NO_KEY ? null : dedupeKey;
+    }
+
+    public Runnable getAck() {
+        return ack;
+    }
+
+    public int getMetricCount() {
+        return metricNames.length;
+    }
+
+    public String getMetricName(int index) {
+        return metricNames[index];
+    }
+
+    public double getMetricValue(int index) {
+        return metricValues[index];
+    }
+
+    /**
+     * Trả về giá trị metric theo tên, NaN nếu không có
+     */
+    public double getMetric(String name) {
+        for (int i = 0; i < metricNames.length; i++) {
+            if (metricNames[i].equals(name)) {
+                return metricValues[i];
+            }
+        }
+        return Double.NaN;
+    }
+}
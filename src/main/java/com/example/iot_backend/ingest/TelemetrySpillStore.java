@@ -0,0 +1,171 @@
+package com.example.iot_backend.ingest;
+
+import com.example.iot_backend.config.IngestConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Spill file local cho telemetry chưa ghi được xuống DB (DB lỗi sau khi hết retry, hoặc lane đầy).
+ *
+ * Mỗi lần spill ghi một file .tmp, fsync rồi rename atomic thành .bin; chỉ sau đó record mới được coi là đã
+ * lưu và được PUBACK. File .tmp còn sót (crash giữa chừng, chưa PUBACK) bị xóa khi khởi tạo. Tên file theo
+ * thời gian ghi nên pending() trả về đúng thứ tự spill để replay.
+ *
+ * Định dạng: MAGIC (int), số record (int), rồi mỗi record: deviceId, epochSecond (long), nano (int),
+ * dedupeKey (long), binary (boolean), độ dài + byte payload gốc (UTF-8 JSON hoặc CBOR).
+ */
+@Component
+public class TelemetrySpillStore {
+    private static final Logger log = LoggerFactory.getLogger(TelemetrySpillStore.class);
+
+    private static final int MAGIC = 0x54535031; // "TSP1"
+    private static final Pattern FILE_NAME = Pattern.compile("spill-(\\d{13})-(\\d{6})\\.bin(\\.tmp)?");
+
+    private final Path directory;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean initialized;
+
+    /**
+     * Record đọc lại từ spill file (payload gốc, metric được parse lại khi replay)
+     */
+    public record SpilledRecord(long deviceId, Instant ts, long dedupeKey, boolean binary, byte[] payload) {
+    }
+
+    public TelemetrySpillStore(IngestConfig cfg) {
+        this.directory = Paths.get(cfg.getSpillDir());
+    }
+
+    /**
+     * Tạo thư mục (lần spill đầu tiên) và xóa spill ghi dở từ lần chạy trước
+     */
+    private void ensureInitialized() throws IOException {
+        if (initialized)
+            return;
+        synchronized (this) {
+            if (initialized)
+                return;
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "spill-*.bin.tmp")) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                    log.warn("Deleted unfinished telemetry spill file {}", file);
+                }
+            }
+            initialized = true;
+        }
+    }
+
+    /**
+     * Ghi các record vào một spill file mới và fsync; khi hàm trả về các record đã nằm trên đĩa
+     */
+    public void write(List<TelemetryRecord> records) throws IOException {
+        if (records.isEmpty())
+            return;
+        ensureInitialized();
+        String name = String.format("spill-%013d-%06d.bin", System.currentTimeMillis(),
+                sequence.getAndIncrement() % 1_000_000);
+        Path target = directory.resolve(name);
+        Path temporary = directory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(records.size());
+            for (TelemetryRecord r : records) {
+                boolean binary = r.getBinaryData() != null;
+                byte[] payload = binary ? r.getBinaryData() : r.getData().getBytes(StandardCharsets.UTF_8);
+                out.writeLong(r.getDeviceId());
+                out.writeLong(r.getTs().getEpochSecond());
+                out.writeInt(r.getTs().getNano());
+                out.writeLong(r.getDedupeKey());
+                out.writeBoolean(binary);
+                out.writeInt(payload.length);
+                out.write(payload);
+            }
+            out.flush();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Các spill file đã hoàn tất, cũ nhất trước
+     */
+    public List<Path> pending() {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory))
+            return files; // chưa spill lần nào
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "spill-*.bin")) {
+            for (Path file : stream) {
+                Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+                if (m.matches() && m.group(3) == null) {
+                    files.add(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list telemetry spill files", e);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    public List<SpilledRecord> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Bad telemetry spill magic in " + file);
+            int count = in.readInt();
+            List<SpilledRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long deviceId = in.readLong();
+                Instant ts = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                long dedupeKey = in.readLong();
+                boolean binary = in.readBoolean();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                records.add(new SpilledRecord(deviceId, ts, dedupeKey, binary, payload));
+            }
+            return records;
+        }
+    }
+
+    public void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Đổi tên file không đọc được thành .corrupt để không replay lại (giữ lại để kiểm tra thủ công)
+     */
+    public void quarantine(Path file) {
+        try {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".corrupt"), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Cannot move corrupt telemetry spill file {}: {}", file, e.getMessage());
+        }
+    }
+}
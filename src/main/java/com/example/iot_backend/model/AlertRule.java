@@ -0,0 +1,135 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Rule cảnh báo theo metric: fire khi giá trị so với threshold thỏa comparator liên tục trong window,
+ * resolve khi giá trị quay lại qua threshold một khoảng hysteresis
+ */
+@Entity
+@Table(name = "alert_rules")
+public class AlertRule {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 100)
+    private String name;
+
+    @Column(nullable = false, length = 64)
+    private String metric; // temp, hum, battery...
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private Comparator comparator = Comparator.GT;
+
+    @Column(nullable = false)
+    private double threshold;
+
+    @Column(name = "window_seconds", nullable = false)
+    private int windowSeconds; // 0 = fire ngay khi vượt ngưỡng
+
+    @Column(nullable = false)
+    private double hysteresis; // khoảng lùi để resolve, tránh bật/tắt liên tục quanh ngưỡng
+
+    @Column(name = "device_id")
+    private Long deviceId; // null = áp dụng cho mọi device
+
+    @Column(nullable = false)
+    private boolean enabled = true;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    public enum Comparator {
+        GT, GTE, LT, LTE
+    }
+
+    @PrePersist
+    public void prePersist() {
+        if (createdAt == null)
+            createdAt = Instant.now();
+    }
+
+    // getters/setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    public Comparator getComparator() {
+        return comparator;
+    }
+
+    public void setComparator(Comparator comparator) {
+        this.comparator = comparator;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public double getHysteresis() {
+        return hysteresis;
+    }
+
+    public void setHysteresis(double hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
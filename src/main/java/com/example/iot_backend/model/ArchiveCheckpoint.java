@@ -0,0 +1,145 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Checkpoint của một đơn vị archive (device, ngày UTC) do ArchiveExecutor lập kế hoạch và xử lý.
+ * Mỗi đơn vị commit riêng, nên khởi động lại chỉ chạy tiếp các đơn vị PENDING/FAILED thay vì quét lại
+ */
+@Entity
+@Table(name = "archive_checkpoints", indexes = {
+        @Index(name = "idx_archive_checkpoints_status_day", columnList = "status, day")
+})
+@IdClass(ArchiveCheckpoint.Key.class)
+public class ArchiveCheckpoint {
+    public static final String PENDING = "PENDING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @Column(name = "device_id")
+    private Long deviceId;
+
+    @Id
+    @Column(name = "day")
+    private Instant day; // đầu ngày UTC
+
+    @Column(nullable = false, length = 10)
+    private String status;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "record_count")
+    private Long recordCount; // ước tính khi lập kế hoạch, số record thực tế khi DONE
+
+    @Column(name = "archive_id")
+    private Long archiveId; // null nếu ngày đã archive từ trước hoặc không còn dữ liệu
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public ArchiveCheckpoint() {
+    }
+
+    // getters/setters
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public Instant getDay() {
+        return day;
+    }
+
+    public void setDay(Instant day) {
+        this.day = day;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Long getRecordCount() {
+        return recordCount;
+    }
+
+    public void setRecordCount(Long recordCount) {
+        this.recordCount = recordCount;
+    }
+
+    public Long getArchiveId() {
+        return archiveId;
+    }
+
+    public void setArchiveId(Long archiveId) {
+        this.archiveId = archiveId;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * Khóa chính (device_id, day)
+     */
+    public static class Key implements Serializable {
+        private Long deviceId;
+        private Instant day;
+
+        public Key() {
+        }
+
+        public Key(Long deviceId, Instant day) {
+            this.deviceId = deviceId;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key other))
+                return false;
+            return Objects.equals(deviceId, other.deviceId) && Objects.equals(day, other.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, day);
+        }
+    }
+}
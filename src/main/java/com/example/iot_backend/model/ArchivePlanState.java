@@ -0,0 +1,57 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Watermark lập kế hoạch của ArchiveExecutor: mọi (device, ngày) trước plannedUntil đã có checkpoint
+ */
+@Entity
+@Table(name = "archive_plan_state")
+public class ArchivePlanState {
+    public static final int SINGLETON_ID = 1;
+
+    @Id
+    private Integer id;
+
+    @Column(name = "planned_until", nullable = false)
+    private Instant plannedUntil;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public ArchivePlanState() {
+    }
+
+    public ArchivePlanState(Instant plannedUntil) {
+        this.id = SINGLETON_ID;
+        this.plannedUntil = plannedUntil;
+        this.updatedAt = Instant.now();
+    }
+
+    // getters/setters
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public Instant getPlannedUntil() {
+        return plannedUntil;
+    }
+
+    public void setPlannedUntil(Instant plannedUntil) {
+        this.plannedUntil = plannedUntil;
+        this.updatedAt = Instant.now();
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.iot_backend.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Dictionary nén train theo Device.type: các sensor cùng loại gửi JSON gần như
+ * giống hệt nhau nên dictionary chung cho cả loại. Archive lưu dictionary_id để
+ * giải nén, nên dictionary cũ không bị xóa khi train lại
+ */
+@Entity
+@Table(name = "compression_dictionaries", indexes = {
+        @Index(name = "idx_compression_dict_type", columnList = "codec, format_version, device_type")
+})
+public class CompressionDictionary {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 16)
+    private String codec;
+
+    @Column(name = "format_version", nullable = false)
+    private Integer formatVersion; // TelemetryArchive.FORMAT_* của dữ liệu mẫu
+
+    @Column(name = "device_type", length = 50)
+    private String deviceType; // null = thiết bị chưa khai báo type
+
+    @JsonIgnore
+    @Column(nullable = false)
+    private byte[] dictionary;
+
+    @Column(name = "sample_count", nullable = false)
+    private Integer sampleCount;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    public CompressionDictionary() {
+        this.createdAt = Instant.now();
+    }
+
+    public CompressionDictionary(String codec, int formatVersion, String deviceType, byte[] dictionary,
+            int sampleCount) {
+        this();
+        this.codec = codec;
+        this.formatVersion = formatVersion;
+        this.deviceType = deviceType;
+        this.dictionary = dictionary;
+        this.sampleCount = sampleCount;
+    }
+
+    // getters/setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public Integer getFormatVersion() {
+        return formatVersion;
+    }
+
+    public void setFormatVersion(Integer formatVersion) {
+        this.formatVersion = formatVersion;
+    }
+
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    public void setDeviceType(String deviceType) {
+        this.deviceType = deviceType;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public int getSizeBytes() {
+        return dictionary != null ? dictionary.length : 0;
+    }
+
+    public Integer getSampleCount() {
+        return sampleCount;
+    }
+
+    public void setSampleCount(Integer sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -19,6 +19,9 @@ public class Device {
     @Column(length = 20)
     private String status; // ONLINE/OFFLINE/UNKNOWN
 
+    @Column(name = "telemetry_format", length = 10)
+    private String telemetryFormat; // JSON/BINARY - cách lưu telemetry binary (mặc định JSON)
+
     @Column(name = "created_at")
     private Instant createdAt;
 
@@ -61,6 +64,14 @@ public class Device {
         this.status = status;
     }
 
+    public String getTelemetryFormat() {
+        return telemetryFormat;
+    }
+
+    public void setTelemetryFormat(String telemetryFormat) {
+        this.telemetryFormat = telemetryFormat;
+    }
+
     public Instant getCreatedAt() {
         return createdAt;
     }
@@ -0,0 +1,41 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Metric dictionary: map tên metric (temp, hum, ...) sang ID nhỏ dùng trong telemetry_points
+ */
+@Entity
+@Table(name = "metrics")
+public class Metric {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(nullable = false, unique = true, length = 64)
+    private String name;
+
+    public Metric() {
+    }
+
+    public Metric(String name) {
+        this.name = name;
+    }
+
+    // getters/setters
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
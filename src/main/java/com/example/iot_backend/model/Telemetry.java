@@ -1,5 +1,7 @@
 package com.example.iot_backend.model;
 
+import com.example.iot_backend.ingest.BinaryPayloadCodec;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import java.time.Instant;
 
@@ -9,6 +11,8 @@ import java.time.Instant;
         @Index(name = "idx_telemetry_timestamp", columnList = "ts"),
         @Index(name = "idx_telemetry_device", columnList = "device_id")
 })
+// Unique index (device_id, dedupe_key) chặn bản ghi trùng: uk_telemetry_dedupe trên bảng thường, hoặc trên
+// từng partition khi bật partition theo ts (TelemetryPartitionManager)
 public class Telemetry {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -18,11 +22,20 @@ public class Telemetry {
     @JoinColumn(name = "device_id")
     private Device device;
 
-    private Instant ts = Instant.now();
+    @Column(nullable = false)
+    private Instant ts = Instant.now(); // partition key
 
     @Column(columnDefinition = "text")
     private String data; // JSON string: {"temp": 26.5, "hum": 70}
 
+    @JsonIgnore
+    @Column(name = "data_bin")
+    private byte[] dataBin; // CBOR payload gốc khi device lưu dạng BINARY (data = null)
+
+    @JsonIgnore
+    @Column(name = "dedupe_key")
+    private Long dedupeKey; // hash(device, định danh message), NULL nếu không dedupe
+
     // getters/setters
     public Long getId() {
         return id;
@@ -49,10 +62,30 @@ public class Telemetry {
     }
 
     public String getData() {
+        // Binary payload được trả về dưới dạng JSON chuẩn
+        if (data == null && dataBin != null) {
+            return BinaryPayloadCodec.toJson(dataBin);
+        }
         return data;
     }
 
     public void setData(String data) {
         this.data = data;
     }
+
+    public Long getDedupeKey() {
+        return dedupeKey;
+    }
+
+    public void setDedupeKey(Long dedupeKey) {
+        this.dedupeKey = dedupeKey;
+    }
+
+    public byte[] getDataBin() {
+        return dataBin;
+    }
+
+    public void setDataBin(byte[] dataBin) {
+        this.dataBin = dataBin;
+    }
 }
@@ -28,8 +28,29 @@ public class TelemetryArchive {
     @Column(name = "archived_date", nullable = false)
     private Instant archivedDate; // Ngày archive
 
-    @Column(name = "compressed_data")
-    private byte[] compressedData; // Dữ liệu đã nén
+    @Transient
+    private byte[] compressedData; // Dữ liệu đã nén của archive vừa dựng; được lưu trong telemetry_archive_data
+
+    @Column(name = "segment_id")
+    private Long segmentId; // ArchiveSegmentStore segment chứa dữ liệu nén; null = trong telemetry_archive_data
+
+    @Column(name = "segment_offset")
+    private Long segmentOffset;
+
+    @Column(name = "segment_length")
+    private Integer segmentLength;
+
+    @Column(name = "format_version")
+    private Integer formatVersion = FORMAT_JSON; // null = archive cũ (JSON)
+
+    @Column(name = "codec", length = 16)
+    private String codec; // null = archive cũ: GZIP với JSON, NONE với dạng cột
+
+    @Column(name = "dictionary_id")
+    private Long dictionaryId; // CompressionDictionary đã dùng khi nén (nếu có)
+
+    @Column(name = "time_index")
+    private byte[] timeIndex; // ArchiveTimeIndex của các chunk; null = archive cũ (một stream nén)
 
     @Column(name = "compression_ratio")
     private Double compressionRatio; // Tỷ lệ nén
@@ -41,6 +62,10 @@ public class TelemetryArchive {
     @Column(name = "created_at", nullable = false)
     private Instant createdAt;
 
+    // Định dạng dữ liệu trước khi nén bằng codec
+    public static final int FORMAT_JSON = 1;
+    public static final int FORMAT_COLUMNAR = 2;
+
     public enum ArchiveType {
         HOURLY, DAILY, WEEKLY, MONTHLY
     }
@@ -124,6 +149,62 @@ public class TelemetryArchive {
         this.compressedData = compressedData;
     }
 
+    public Integer getFormatVersion() {
+        return formatVersion;
+    }
+
+    public void setFormatVersion(Integer formatVersion) {
+        this.formatVersion = formatVersion;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public Long getDictionaryId() {
+        return dictionaryId;
+    }
+
+    public void setDictionaryId(Long dictionaryId) {
+        this.dictionaryId = dictionaryId;
+    }
+
+    public Long getSegmentId() {
+        return segmentId;
+    }
+
+    public void setSegmentId(Long segmentId) {
+        this.segmentId = segmentId;
+    }
+
+    public Long getSegmentOffset() {
+        return segmentOffset;
+    }
+
+    public void setSegmentOffset(Long segmentOffset) {
+        this.segmentOffset = segmentOffset;
+    }
+
+    public Integer getSegmentLength() {
+        return segmentLength;
+    }
+
+    public void setSegmentLength(Integer segmentLength) {
+        this.segmentLength = segmentLength;
+    }
+
+    public byte[] getTimeIndex() {
+        return timeIndex;
+    }
+
+    public void setTimeIndex(byte[] timeIndex) {
+        this.timeIndex = timeIndex;
+    }
+
     public Double getCompressionRatio() {
         return compressionRatio;
     }
@@ -0,0 +1,30 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Dữ liệu nén của một archive, tách khỏi hàng metadata telemetry_archive để các truy vấn metadata (liệt kê,
+ * thống kê, cleanup) không kéo theo blob. Chỉ đọc/ghi qua JdbcTemplate theo archive_id; không còn hàng khi
+ * dữ liệu đã chuyển sang segment file (TelemetryArchive.segmentId)
+ */
+@Entity
+@Table(name = "telemetry_archive_data")
+public class TelemetryArchiveData {
+    @Id
+    @Column(name = "archive_id")
+    private Long archiveId;
+
+    @Column(name = "compressed_data", nullable = false)
+    private byte[] compressedData;
+
+    public TelemetryArchiveData() {
+    }
+
+    public Long getArchiveId() {
+        return archiveId;
+    }
+
+    public byte[] getCompressedData() {
+        return compressedData;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Partition của bảng telemetry (PostgreSQL range partitioning theo ts) do TelemetryPartitionManager quản lý
+ */
+@Entity
+@Table(name = "telemetry_partitions")
+public class TelemetryPartition {
+    @Id
+    @Column(length = 63)
+    private String name; // telemetry_p20261018, telemetry_w20261012, telemetry_legacy
+
+    @Column(name = "range_start")
+    private Instant rangeStart; // null = MINVALUE (partition legacy)
+
+    @Column(name = "range_end", nullable = false)
+    private Instant rangeEnd;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "archived_at")
+    private Instant archivedAt; // đã archive toàn bộ dữ liệu của partition
+
+    @Column(name = "detached_at")
+    private Instant detachedAt; // đã detach khỏi telemetry (expired-action=DETACH)
+
+    public TelemetryPartition() {
+        this.createdAt = Instant.now();
+    }
+
+    public TelemetryPartition(String name, Instant rangeStart, Instant rangeEnd) {
+        this();
+        this.name = name;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+    }
+
+    // getters/setters
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Instant getRangeStart() {
+        return rangeStart;
+    }
+
+    public void setRangeStart(Instant rangeStart) {
+        this.rangeStart = rangeStart;
+    }
+
+    public Instant getRangeEnd() {
+        return rangeEnd;
+    }
+
+    public void setRangeEnd(Instant rangeEnd) {
+        this.rangeEnd = rangeEnd;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getArchivedAt() {
+        return archivedAt;
+    }
+
+    public void setArchivedAt(Instant archivedAt) {
+        this.archivedAt = archivedAt;
+    }
+
+    public Instant getDetachedAt() {
+        return detachedAt;
+    }
+
+    public void setDetachedAt(Instant detachedAt) {
+        this.detachedAt = detachedAt;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Bảng time-series hẹp (device_id, metric_id, ts, value): mỗi metric số của một message là một row.
+ * Primary key (device_id, metric_id, ts) cũng là index cho query range theo metric.
+ * Row cũ hơn app.metrics.points-retention-days bị TelemetryRollupService xóa (index ts).
+ */
+@Entity
+@Table(name = "telemetry_points", indexes = {
+        @Index(name = "idx_telemetry_points_ts", columnList = "ts")
+})
+@IdClass(TelemetryPoint.Key.class)
+public class TelemetryPoint {
+    @Id
+    @Column(name = "device_id")
+    private Long deviceId;
+
+    @Id
+    @Column(name = "metric_id")
+    private Integer metricId;
+
+    @Id
+    @Column(name = "ts")
+    private Instant ts;
+
+    @Column(name = "value", nullable = false)
+    private double value;
+
+    // getters/setters
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public Integer getMetricId() {
+        return metricId;
+    }
+
+    public void setMetricId(Integer metricId) {
+        this.metricId = metricId;
+    }
+
+    public Instant getTs() {
+        return ts;
+    }
+
+    public void setTs(Instant ts) {
+        this.ts = ts;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+
+    public static class Key implements Serializable {
+        private Long deviceId;
+        private Integer metricId;
+        private Instant ts;
+
+        public Key() {
+        }
+
+        public Key(Long deviceId, Integer metricId, Instant ts) {
+            this.deviceId = deviceId;
+            this.metricId = metricId;
+            this.ts = ts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key other))
+                return false;
+            return Objects.equals(deviceId, other.deviceId) && Objects.equals(metricId, other.metricId)
+                    && Objects.equals(ts, other.ts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, metricId, ts);
+        }
+    }
+}
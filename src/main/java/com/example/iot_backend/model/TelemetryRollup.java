@@ -0,0 +1,152 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Giá trị tổng hợp (count/min/max/sum) của một metric cho một device trong một bucket thời gian (UTC)
+ */
+@Entity
+@Table(name = "telemetry_rollups", indexes = {
+        @Index(name = "idx_telemetry_rollups_bucket", columnList = "granularity, bucket_start")
+})
+@IdClass(TelemetryRollup.Key.class)
+public class TelemetryRollup {
+
+    public enum Granularity {
+        HOURLY, DAILY, WEEKLY, MONTHLY
+    }
+
+    @Id
+    @Column(name = "device_id")
+    private Long deviceId;
+
+    @Id
+    @Column(name = "metric_id")
+    private Integer metricId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "granularity", length = 10)
+    private Granularity granularity;
+
+    @Id
+    @Column(name = "bucket_start")
+    private Instant bucketStart;
+
+    @Column(name = "sample_count", nullable = false)
+    private long count;
+
+    @Column(name = "min_value", nullable = false)
+    private double min;
+
+    @Column(name = "max_value", nullable = false)
+    private double max;
+
+    @Column(name = "sum_value", nullable = false)
+    private double sum;
+
+    // getters/setters
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public Integer getMetricId() {
+        return metricId;
+    }
+
+    public void setMetricId(Integer metricId) {
+        this.metricId = metricId;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(Granularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public Instant getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(Instant bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public void setMin(double min) {
+        this.min = min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public void setMax(double max) {
+        this.max = max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public void setSum(double sum) {
+        this.sum = sum;
+    }
+
+    public double getAvg() {
+        return count > 0 ? sum / count : 0.0;
+    }
+
+    public static class Key implements Serializable {
+        private Long deviceId;
+        private Integer metricId;
+        private Granularity granularity;
+        private Instant bucketStart;
+
+        public Key() {
+        }
+
+        public Key(Long deviceId, Integer metricId, Granularity granularity, Instant bucketStart) {
+            this.deviceId = deviceId;
+            this.metricId = metricId;
+            this.granularity = granularity;
+            this.bucketStart = bucketStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key other))
+                return false;
+            return Objects.equals(deviceId, other.deviceId) && Objects.equals(metricId, other.metricId)
+                    && granularity == other.granularity && Objects.equals(bucketStart, other.bucketStart);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, metricId, granularity, bucketStart);
+        }
+    }
+}
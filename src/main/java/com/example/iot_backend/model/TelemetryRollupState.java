@@ -0,0 +1,57 @@
+package com.example.iot_backend.model;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Watermark của rollup engine: mọi bucket trước completedUntil đã được tính cho granularity này
+ */
+@Entity
+@Table(name = "telemetry_rollup_state")
+public class TelemetryRollupState {
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(length = 10)
+    private TelemetryRollup.Granularity granularity;
+
+    @Column(name = "completed_until", nullable = false)
+    private Instant completedUntil;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public TelemetryRollupState() {
+    }
+
+    public TelemetryRollupState(TelemetryRollup.Granularity granularity, Instant completedUntil) {
+        this.granularity = granularity;
+        this.completedUntil = completedUntil;
+        this.updatedAt = Instant.now();
+    }
+
+    // getters/setters
+    public TelemetryRollup.Granularity getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(TelemetryRollup.Granularity granularity) {
+        this.granularity = granularity;
+    }
+
+    public Instant getCompletedUntil() {
+        return completedUntil;
+    }
+
+    public void setCompletedUntil(Instant completedUntil) {
+        this.completedUntil = completedUntil;
+        this.updatedAt = Instant.now();
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.iot_backend.mqtt;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt3.Mqtt3AsyncClient;
+import com.hivemq.client.mqtt.mqtt3.message.subscribe.Mqtt3Subscription;
+import com.hivemq.client.mqtt.mqtt3.message.subscribe.suback.Mqtt3SubAckReturnCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lab 6: Quản lý dynamic subscribe theo device.
+ * Registry thread-safe theo device ID (dedupe O(1)), các yêu cầu subscribe được gom lại
+ * và gửi bằng một SUBSCRIBE nhiều topic mỗi flush interval; sau reconnect thì subscribe lại toàn bộ.
+ */
+@Component
+public class DeviceSubscriptionManager {
+    private static final Logger log = LoggerFactory.getLogger(DeviceSubscriptionManager.class);
+
+    // Giới hạn số device trong một gói SUBSCRIBE
+    private static final int MAX_DEVICES_PER_SUBSCRIBE = 100;
+
+    // Device đã subscribe hoặc đang chờ subscribe
+    private final Set<Long> registered = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<Long> pending = new ConcurrentLinkedQueue<>();
+
+    private volatile Mqtt3AsyncClient client;
+    private volatile MqttQos qos = MqttQos.AT_LEAST_ONCE;
+    private volatile List<String> kinds = List.of();
+
+    private final AtomicLong subscribePackets = new AtomicLong();
+    private final AtomicLong subscribedTopics = new AtomicLong();
+    private final AtomicLong failedTopics = new AtomicLong();
+
+    /**
+     * Gắn MQTT client và các loại message cần subscribe cho mỗi device
+     */
+    public void attach(Mqtt3AsyncClient client, MqttQos qos, List<String> kinds) {
+        this.client = client;
+        this.qos = qos;
+        this.kinds = List.copyOf(kinds);
+    }
+
+    /**
+     * Yêu cầu subscribe topic của device; bỏ qua nếu đã subscribe hoặc đang chờ
+     */
+    public void requestSubscription(long deviceId) {
+        if (registered.add(deviceId)) {
+            pending.add(deviceId);
+        }
+    }
+
+    public boolean isRegistered(long deviceId) {
+        return registered.contains(deviceId);
+    }
+
+    /**
+     * Gửi các subscription đang chờ, mỗi gói SUBSCRIBE chứa topic của nhiều device
+     */
+    @Scheduled(fixedDelayString = "${mqtt.subscribeFlushMs:1000}")
+    public void flush() {
+        Mqtt3AsyncClient c = client;
+        if (c == null || !c.getState().isConnected() || pending.isEmpty()) {
+            return;
+        }
+
+        while (!pending.isEmpty()) {
+            List<Long> deviceIds = new ArrayList<>();
+            Long id;
+            while (deviceIds.size() < MAX_DEVICES_PER_SUBSCRIBE && (id = pending.poll()) != null) {
+                deviceIds.add(id);
+            }
+            if (deviceIds.isEmpty()) {
+                return;
+            }
+            sendSubscribe(c, deviceIds);
+        }
+    }
+
+    private void sendSubscribe(Mqtt3AsyncClient c, List<Long> deviceIds) {
+        List<String> deviceKinds = kinds;
+        List<Mqtt3Subscription> subscriptions = new ArrayList<>(deviceIds.size() * deviceKinds.size());
+        for (Long deviceId : deviceIds) {
+            for (String kind : deviceKinds) {
+                subscriptions.add(Mqtt3Subscription.builder()
+                        .topicFilter(DeviceTopicRouter.DEVICE_TOPIC_PREFIX + deviceId + "/" + kind)
+                        .qos(qos)
+                        .build());
+            }
+        }
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        subscribePackets.incrementAndGet();
+        c.subscribeWith()
+                .addSubscriptions(subscriptions)
+                .send()
+                .whenComplete((subAck, subEx) -> {
+                    if (subEx != null) {
+                        log.error("Failed to subscribe topics for {} devices: {}", deviceIds.size(), subEx.getMessage());
+                        failedTopics.addAndGet(subscriptions.size());
+                        // Thử lại ở lần flush sau
+                        pending.addAll(deviceIds);
+                        return;
+                    }
+
+                    List<Mqtt3SubAckReturnCode> codes = subAck.getReturnCodes();
+                    int perDevice = deviceKinds.size();
+                    for (int d = 0; d < deviceIds.size(); d++) {
+                        boolean failed = false;
+                        for (int k = d * perDevice; k < (d + 1) * perDevice && k < codes.size(); k++) {
+                            if (codes.get(k).isError()) {
+                                failed = true;
+                                failedTopics.incrementAndGet();
+                            } else {
+                                subscribedTopics.incrementAndGet();
+                            }
+                        }
+                        if (failed) {
+                            pending.add(deviceIds.get(d));
+                        }
+                    }
+                    log.info("🔔 Dynamically subscribed {} topics for {} devices in one SUBSCRIBE",
+                            subscriptions.size(), deviceIds.size());
+                });
+    }
+
+    /**
+     * Sau reconnect (clean session) broker đã quên subscription: subscribe lại toàn bộ theo batch
+     */
+    public void resubscribeAll() {
+        pending.clear();
+        pending.addAll(registered);
+        if (!registered.isEmpty()) {
+            log.info("Resubscribing {} devices after reconnect", registered.size());
+        }
+        flush();
+    }
+
+    /**
+     * Reset subscription cache (dùng khi restart)
+     */
+    public void reset() {
+        registered.clear();
+        pending.clear();
+        log.info("Reset subscription cache");
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("registeredDevices", registered.size());
+        metrics.put("pendingDevices", pending.size());
+        metrics.put("subscribePackets", subscribePackets.get());
+        metrics.put("subscribedTopics", subscribedTopics.get());
+        metrics.put("failedTopics", failedTopics.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.iot_backend.mqtt;
+
+import com.hivemq.client.mqtt.mqtt3.message.publish.Mqtt3Publish;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Router cho topic dạng iot/device/{id}/{kind}.
+ * Parse device ID và kind trực tiếp trên bytes của topic (không split, không regex)
+ * rồi gọi handler đã đăng ký cho kind đó.
+ */
+public class DeviceTopicRouter {
+    private static final Logger log = LoggerFactory.getLogger(DeviceTopicRouter.class);
+
+    public static final String DEVICE_TOPIC_PREFIX = "iot/device/";
+    private static final byte[] PREFIX_BYTES = DEVICE_TOPIC_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_ID_DIGITS = 18;
+
+    /**
+     * Handler cho message của device, nhận device ID đã parse sẵn
+     */
+    @FunctionalInterface
+    public interface DeviceMessageHandler {
+        void handle(long deviceId, Mqtt3Publish publish);
+    }
+
+    private static final class Route {
+        final String kind;
+        final byte[] kindBytes;
+        final DeviceMessageHandler handler;
+        final LongAdder count = new LongAdder();
+
+        Route(String kind, DeviceMessageHandler handler) {
+            this.kind = kind;
+            this.kindBytes = kind.getBytes(StandardCharsets.UTF_8);
+            this.handler = handler;
+        }
+    }
+
+    private static final class ExactRoute {
+        final String topic;
+        final Consumer<Mqtt3Publish> handler;
+
+        ExactRoute(String topic, Consumer<Mqtt3Publish> handler) {
+            this.topic = topic;
+            this.handler = handler;
+        }
+    }
+
+    // Copy-on-write: đăng ký lúc khởi động, đọc trên mọi message
+    private volatile Route[] routes = new Route[0];
+    private volatile ExactRoute[] exactRoutes = new ExactRoute[0];
+
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong unrouted = new AtomicLong();
+
+    /**
+     * Đăng ký handler cho iot/device/+/{kind}
+     */
+    public synchronized DeviceTopicRouter register(String kind, DeviceMessageHandler handler) {
+        Route[] next = Arrays.copyOf(routes, routes.length + 1);
+        next[routes.length] = new Route(kind, handler);
+        routes = next;
+        return this;
+    }
+
+    /**
+     * Đăng ký handler cho một topic cố định (không theo dạng device topic)
+     */
+    public synchronized DeviceTopicRouter registerTopic(String topic, Consumer<Mqtt3Publish> handler) {
+        ExactRoute[] next = Arrays.copyOf(exactRoutes, exactRoutes.length + 1);
+        next[exactRoutes.length] = new ExactRoute(topic, handler);
+        exactRoutes = next;
+        return this;
+    }
+
+    /**
+     * Các kind đã đăng ký (telemetry, heartbeat, status...)
+     */
+    public List<String> kinds() {
+        List<String> kinds = new ArrayList<>();
+        for (Route route : routes) {
+            kinds.add(route.kind);
+        }
+        return kinds;
+    }
+
+    /**
+     * Danh sách topic filter cần subscribe cho các route đã đăng ký
+     */
+    public List<String> topicFilters() {
+        return topicFilters(kind -> null);
+    }
+
+    /**
+     * Danh sách topic filter, device route dùng $share/{group}/ nếu sharedGroupForKind trả về group
+     */
+    public List<String> topicFilters(Function<String, String> sharedGroupForKind) {
+        List<String> filters = new ArrayList<>();
+        for (ExactRoute route : exactRoutes) {
+            filters.add(route.topic);
+        }
+        for (Route route : routes) {
+            String filter = DEVICE_TOPIC_PREFIX + "+/" + route.kind;
+            String group = sharedGroupForKind.apply(route.kind);
+            filters.add(group == null || group.isBlank() ? filter : "$share/" + group + "/" + filter);
+        }
+        return filters;
+    }
+
+    /**
+     * Dispatch message tới handler tương ứng, trả về false nếu không có route nào khớp
+     */
+    public boolean route(Mqtt3Publish publish) {
+        ByteBuffer topic = publish.getTopic().toByteBuffer();
+        int start = topic.position();
+        int end = topic.limit();
+
+        if (startsWithPrefix(topic, start, end)) {
+            int pos = start + PREFIX_BYTES.length;
+            long deviceId = 0;
+            int digits = 0;
+            while (pos < end && topic.get(pos) != '/') {
+                byte b = topic.get(pos);
+                if (b < '0' || b > '9' || digits == MAX_ID_DIGITS) {
+                    digits = -1;
+                    break;
+                }
+                deviceId = deviceId * 10 + (b - '0');
+                digits++;
+                pos++;
+            }
+
+            if (digits > 0 && pos < end) {
+                int kindStart = pos + 1;
+                for (Route route : routes) {
+                    if (kindMatches(topic, kindStart, end, route.kindBytes)) {
+                        routed.incrementAndGet();
+                        route.count.increment();
+                        route.handler.handle(deviceId, publish);
+                        return true;
+                    }
+                }
+            }
+        }
+
+        if (exactRoutes.length > 0) {
+            String topicName = publish.getTopic().toString();
+            for (ExactRoute route : exactRoutes) {
+                if (route.topic.equals(topicName)) {
+                    routed.incrementAndGet();
+                    route.handler.accept(publish);
+                    return true;
+                }
+            }
+        }
+
+        // Đếm vào metric unroutedMessages; chỉ cảnh báo lần đầu để không log mỗi publish trên hot path
+        if (unrouted.incrementAndGet() == 1) {
+            log.warn("No route for topic: {} (further unrouted topics are logged at debug level)", publish.getTopic());
+        } else {
+            log.debug("No route for topic: {}", publish.getTopic());
+        }
+        return false;
+    }
+
+    public long getRoutedCount() {
+        return routed.get();
+    }
+
+    public long getUnroutedCount() {
+        return unrouted.get();
+    }
+
+    /**
+     * Số message đã xử lý theo từng kind trên node này
+     */
+    public Map<String, Long> getCountsByKind() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Route route : routes) {
+            counts.put(route.kind, route.count.sum());
+        }
+        return counts;
+    }
+
+    private static boolean startsWithPrefix(ByteBuffer topic, int start, int end) {
+        if (end - start < PREFIX_BYTES.length) {
+            return false;
+        }
+        for (int i = 0; i < PREFIX_BYTES.length; i++) {
+            if (topic.get(start + i) != PREFIX_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean kindMatches(ByteBuffer topic, int start, int end, byte[] kind) {
+        if (end - start != kind.length) {
+            return false;
+        }
+        for (int i = 0; i < kind.length; i++) {
+            if (topic.get(start + i) != kind[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,37 +1,68 @@
 package com.example.iot_backend.mqtt;
 
+import com.example.iot_backend.alert.AlertRuleEngine;
 import com.example.iot_backend.config.MqttConfig;
+import com.example.iot_backend.ingest.DeviceLaneExecutor;
+import com.example.iot_backend.ingest.PayloadEnvelope;
+import com.example.iot_backend.ingest.PayloadParser;
+import com.example.iot_backend.ingest.TelemetryDeduplicator;
+import com.example.iot_backend.ingest.TelemetryIngestPipeline;
 import com.example.iot_backend.model.Command;
 import com.example.iot_backend.model.Device;
 import com.example.iot_backend.service.DeviceMonitoringService;
-import com.example.iot_backend.service.TelemetryService;
 import com.hivemq.client.mqtt.MqttClient;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
 import com.hivemq.client.mqtt.mqtt3.Mqtt3AsyncClient;
+import com.hivemq.client.mqtt.mqtt3.message.publish.Mqtt3Publish;
+import com.hivemq.client.mqtt.mqtt3.message.subscribe.Mqtt3Subscription;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
 public class HiveMqttService {
     private static final Logger log = LoggerFactory.getLogger(HiveMqttService.class);
     private final MqttConfig cfg;
-    private final TelemetryService telemetryService;
     private final DeviceMonitoringService monitoringService;
+    private final TelemetryIngestPipeline ingestPipeline;
+    private final DeviceLaneExecutor lanes;
+    private final DeviceSubscriptionManager subscriptionManager;
+    private final TelemetryDeduplicator deduplicator;
+    private final AlertRuleEngine alertEngine;
+    private final DeviceTopicRouter router = new DeviceTopicRouter();
     private Mqtt3AsyncClient client;
 
-    public HiveMqttService(MqttConfig cfg, TelemetryService telemetryService,
-            DeviceMonitoringService monitoringService) {
+    private static final long DEMO_DEVICE_ID = 0L;
+
+    // Throughput sampling
+    private static final long THROUGHPUT_SAMPLE_MS = 10000;
+    private Map<String, Long> lastSampleCounts = Map.of();
+    private long lastSampleNanos = System.nanoTime();
+    private volatile Map<String, Double> messagesPerSecond = Map.of();
+
+    public HiveMqttService(MqttConfig cfg, DeviceMonitoringService monitoringService,
+            TelemetryIngestPipeline ingestPipeline, DeviceLaneExecutor lanes,
+            DeviceSubscriptionManager subscriptionManager, TelemetryDeduplicator deduplicator,
+            AlertRuleEngine alertEngine) {
         this.cfg = cfg;
-        this.telemetryService = telemetryService;
         this.monitoringService = monitoringService;
+        this.ingestPipeline = ingestPipeline;
+        this.lanes = lanes;
+        this.subscriptionManager = subscriptionManager;
+        this.deduplicator = deduplicator;
+        this.alertEngine = alertEngine;
+        registerRoutes();
     }
 
     @Bean
@@ -47,7 +78,15 @@ public class HiveMqttService {
                 .identifier(cfg.getClientId())
                 .serverHost(cfg.getHost())
                 .serverPort(cfg.getPort())
+                .automaticReconnectWithDefaultConfig()
+                // Chạy cả lần connect đầu và mỗi lần reconnect (clean session nên phải subscribe lại)
+                .addConnectedListener(context -> {
+                    log.info("MQTT connected as clientId={}", cfg.getClientId());
+                    subscribeRoutes();
+                    subscriptionManager.resubscribeAll();
+                })
                 .buildAsync();
+        subscriptionManager.attach(client, MqttQos.fromCode(cfg.getQos()), router.kinds());
 
         client.connectWith()
                 .keepAlive(cfg.getKeepAlive())
@@ -55,133 +94,191 @@ public class HiveMqttService {
                 .whenComplete((ack, ex) -> {
                     if (ex != null) {
                         log.error("MQTT connect failed: {}", ex.getMessage(), ex);
-                        return;
                     }
-                    log.info("MQTT connected as clientId={}", cfg.getClientId());
-
-                    // Subscribe to demo topic (Lab 2)
-                    client.subscribeWith()
-                            .topicFilter(cfg.getTopicTemp())
-                            .qos(MqttQos.fromCode(cfg.getQos()))
-                            .callback(publish -> {
-                                String payload = new String(publish.getPayloadAsBytes(), StandardCharsets.UTF_8);
-                                log.info("[Demo] Received topic='{}' payload={}", publish.getTopic(), payload);
-                                processMessage(publish.getTopic().toString(), payload);
-                            })
-                            .send()
-                            .whenComplete((subAck, subEx) -> {
-                                if (subEx != null) {
-                                    log.error("MQTT subscribe failed: {}", subEx.getMessage(), subEx);
-                                } else {
-                                    log.info("Subscribed to topic {}", cfg.getTopicTemp());
-                                }
-                            });
-
-                    // Subscribe to telemetry topics (Lab 4)
-                    client.subscribeWith()
-                            .topicFilter("iot/device/+/telemetry")
-                            .qos(MqttQos.fromCode(cfg.getQos()))
-                            .callback(publish -> {
-                                String topic = publish.getTopic().toString();
-                                String payload = new String(publish.getPayloadAsBytes(), StandardCharsets.UTF_8);
-                                log.info("[Telemetry] Received topic='{}' payload={}", topic, payload);
-                                processTelemetryMessage(topic, payload);
-                            })
-                            .send()
-                            .whenComplete((subAck, subEx) -> {
-                                if (subEx != null) {
-                                    log.error("MQTT telemetry subscribe failed: {}", subEx.getMessage(), subEx);
-                                } else {
-                                    log.info("Subscribed to telemetry topic: iot/device/+/telemetry");
-                                }
-                            });
-
-                    // Subscribe to heartbeat topics (Lab 6)
-                    client.subscribeWith()
-                            .topicFilter("iot/device/+/heartbeat")
-                            .qos(MqttQos.fromCode(cfg.getQos()))
-                            .callback(publish -> {
-                                String topic = publish.getTopic().toString();
-                                String payload = new String(publish.getPayloadAsBytes(), StandardCharsets.UTF_8);
-                                log.info("[Heartbeat] Received topic='{}' payload={}", topic, payload);
-                                processHeartbeatMessage(topic, payload);
-                            })
-                            .send()
-                            .whenComplete((subAck, subEx) -> {
-                                if (subEx != null) {
-                                    log.error("MQTT heartbeat subscribe failed: {}", subEx.getMessage(), subEx);
-                                } else {
-                                    log.info("Subscribed to heartbeat topic: iot/device/+/heartbeat");
-                                }
-                            });
-
-                    // Subscribe to status topics (Lab 6)
-                    client.subscribeWith()
-                            .topicFilter("iot/device/+/status")
-                            .qos(MqttQos.fromCode(cfg.getQos()))
-                            .callback(publish -> {
-                                String topic = publish.getTopic().toString();
-                                String payload = new String(publish.getPayloadAsBytes(), StandardCharsets.UTF_8);
-                                log.info("[Status] Received topic='{}' payload={}", topic, payload);
-                                processStatusMessage(topic, payload);
-                            })
-                            .send()
-                            .whenComplete((subAck, subEx) -> {
-                                if (subEx != null) {
-                                    log.error("MQTT status subscribe failed: {}", subEx.getMessage(), subEx);
-                                } else {
-                                    log.info("Subscribed to status topic: iot/device/+/status");
-                                }
-                            });
                 });
     }
 
-    private void processTelemetryMessage(String topic, String payload) {
+    /**
+     * Đăng ký handler theo loại message: demo topic (Lab 2), telemetry (Lab 4), heartbeat/status (Lab 6)
+     */
+    private void registerRoutes() {
+        router.registerTopic(cfg.getTopicTemp(), publish -> {
+            processMessage(publish);
+            acknowledge(publish);
+        });
+        // Message của device chạy trên lane của device đó (giữ thứ tự). Callback thread chỉ chờ lane đầy trong
+        // app.ingest.lane-offer-timeout-ms, sau đó chạy overflow handler: telemetry đi thẳng vào pipeline/spill
+        // file, heartbeat/status bị bỏ (message sau của device thay thế). Telemetry tự ack sau khi commit
+        // hoặc spill (xem TelemetryIngestPipeline)
+        router.register("telemetry", onLane(this::processTelemetryMessage,
+                (deviceId, publish) -> overflowTelemetry(deviceId, publish, false)));
+        router.register("telemetry/bin", onLane(this::processBinaryTelemetryMessage,
+                (deviceId, publish) -> overflowTelemetry(deviceId, publish, true)));
+        router.register("heartbeat", onLane((deviceId, publish) -> {
+            processHeartbeatMessage(deviceId, publish);
+            acknowledge(publish);
+        }, this::dropOverflow));
+        router.register("status", onLane((deviceId, publish) -> {
+            processStatusMessage(deviceId, publish);
+            acknowledge(publish);
+        }, this::dropOverflow));
+    }
+
+    private DeviceTopicRouter.DeviceMessageHandler onLane(DeviceTopicRouter.DeviceMessageHandler handler,
+            DeviceTopicRouter.DeviceMessageHandler overflow) {
+        return (deviceId, publish) -> lanes.execute(deviceId, () -> handler.handle(deviceId, publish),
+                () -> overflow.handle(deviceId, publish));
+    }
+
+    private void dropOverflow(long deviceId, Mqtt3Publish publish) {
+        log.debug("Device lane full, dropping {} from device {}", publish.getTopic(), deviceId);
+        acknowledge(publish);
+    }
+
+    /**
+     * Dispatch message qua router; message không có route vẫn phải ack khi bật manual ack
+     */
+    private void onPublish(Mqtt3Publish publish) {
+        if (!router.route(publish)) {
+            acknowledge(publish);
+        }
+    }
+
+    /**
+     * Gửi PUBACK khi chạy ở chế độ manual ack (no-op nếu auto ack)
+     */
+    private void acknowledge(Mqtt3Publish publish) {
+        if (!cfg.isManualAck()) {
+            return;
+        }
         try {
-            // Extract deviceId from topic: iot/device/{id}/telemetry
-            String[] parts = topic.split("/");
-            if (parts.length >= 3) {
-                Long deviceId = Long.parseLong(parts[2]);
+            publish.acknowledge();
+        } catch (Exception e) {
+            log.debug("Could not acknowledge message on {}: {}", publish.getTopic(), e.getMessage());
+        }
+    }
+
+    /**
+     * Subscribe tất cả topic filter của router trong một SUBSCRIBE duy nhất
+     */
+    private void subscribeRoutes() {
+        MqttQos qos = MqttQos.fromCode(cfg.getQos());
+        List<String> filters = cfg.isSharedSubscription()
+                ? router.topicFilters(cfg::getSharedGroup)
+                : router.topicFilters();
+        List<Mqtt3Subscription> subscriptions = new ArrayList<>();
+        for (String filter : filters) {
+            subscriptions.add(Mqtt3Subscription.builder().topicFilter(filter).qos(qos).build());
+        }
 
-                // Save telemetry data
-                telemetryService.saveTelemetry(deviceId, payload);
+        client.subscribeWith()
+                .addSubscriptions(subscriptions)
+                .callback(this::onPublish)
+                .manualAcknowledgement(cfg.isManualAck())
+                .send()
+                .whenComplete((subAck, subEx) -> {
+                    if (subEx != null) {
+                        log.error("MQTT subscribe failed: {}", subEx.getMessage(), subEx);
+                    } else {
+                        log.info("Subscribed to topics {}", filters);
+                    }
+                });
+    }
 
-                // Mark device as online và update heartbeat
-                Map<String, Object> metadata = parseDeviceMetadata(payload);
-                monitoringService.markDeviceOnline(deviceId, metadata);
+    private void processTelemetryMessage(long deviceId, Mqtt3Publish publish) {
+        processTelemetry(deviceId, publish, false);
+    }
 
-                // Dynamic subscribe to device if not already subscribed
-                subscribeToDevice(deviceId);
+    /**
+     * Telemetry binary (CBOR) trên iot/device/{id}/telemetry/bin: decode thẳng vào envelope,
+     * không tạo String JSON trung gian (TelemetryService quyết định lưu binary hay JSON)
+     */
+    private void processBinaryTelemetryMessage(long deviceId, Mqtt3Publish publish) {
+        processTelemetry(deviceId, publish, true);
+    }
+
+    private void processTelemetry(long deviceId, Mqtt3Publish publish, boolean binary) {
+        boolean submitted = false;
+        try {
+            byte[] payload = publish.getPayloadAsBytes();
+            log.debug("[Telemetry] Received device={} ({} bytes, {})", deviceId, payload.length,
+                    binary ? "cbor" : "json");
+
+            // Parse payload một lần, kết quả dùng chung cho dedupe, pipeline và monitoring
+            PayloadParser parser = PayloadParser.forCurrentThread();
+            PayloadEnvelope envelope = binary ? parser.parseBinary(payload) : parser.parse(payload);
+
+            // Bỏ qua bản device gửi lại của message đã commit (QoS 1)
+            long dedupeKey = deduplicator.admit(deviceId, envelope);
+            if (dedupeKey == TelemetryDeduplicator.DUPLICATE) {
+                log.debug("[Telemetry] Duplicate message from device={} dropped", deviceId);
+                acknowledge(publish);
+                return;
+            }
 
+            // Đưa telemetry vào write-behind pipeline (ghi DB theo batch), PUBACK sau khi batch commit
+            Runnable ack = cfg.isManualAck() ? publish::acknowledge : null;
+            if (binary) {
+                ingestPipeline.submit(deviceId, null, payload, dedupeKey, envelope, ack);
             } else {
-                log.warn("Invalid telemetry topic format: {}", topic);
+                ingestPipeline.submit(deviceId, new String(payload, StandardCharsets.UTF_8), null, dedupeKey,
+                        envelope, ack);
             }
+            submitted = true;
+
+            // Mark device as online và update heartbeat
+            monitoringService.markDeviceOnline(deviceId, envelope);
+
+            // Dynamic subscribe to device if not already subscribed
+            subscribeToDevice(deviceId);
         } catch (Exception e) {
-            log.error("Failed to process telemetry message from topic {}: {}", topic, e.getMessage());
+            log.error("Failed to process telemetry message from device {}: {}", deviceId, e.getMessage());
+            if (!submitted) {
+                acknowledge(publish);
+            }
         }
     }
 
-    private void processMessage(String topic, String payload) {
-        // Xử lý message nhận được
-        log.info("Processing message from topic: {} with payload: {}", topic, payload);
-
-        // Ví dụ: Parse JSON và kiểm tra nhiệt độ
+    /**
+     * Telemetry khi lane của device đầy, chạy trên callback thread: chỉ parse, dedupe rồi đưa vào pipeline
+     * không chờ (buffer hoặc spill file). Bỏ qua cập nhật online/subscribe, message kế tiếp trên lane sẽ làm
+     */
+    private void overflowTelemetry(long deviceId, Mqtt3Publish publish, boolean binary) {
         try {
-            if (payload.contains("temp")) {
-                // Simple JSON parsing (có thể dùng Jackson ObjectMapper cho phức tạp hơn)
-                String tempStr = payload.replaceAll("[^0-9.-]", "");
-                if (!tempStr.isEmpty()) {
-                    double temp = Double.parseDouble(tempStr);
-                    if (temp > 30.0) {
-                        log.warn("⚠️ HIGH TEMPERATURE ALERT: {}°C", temp);
-                    }
-                }
+            byte[] payload = publish.getPayloadAsBytes();
+            PayloadParser parser = PayloadParser.forCurrentThread();
+            PayloadEnvelope envelope = binary ? parser.parseBinary(payload) : parser.parse(payload);
+            long dedupeKey = deduplicator.admit(deviceId, envelope);
+            if (dedupeKey == TelemetryDeduplicator.DUPLICATE) {
+                acknowledge(publish);
+                return;
+            }
+            Runnable ack = cfg.isManualAck() ? publish::acknowledge : null;
+            boolean stored = binary
+                    ? ingestPipeline.submitOverflow(deviceId, null, payload, dedupeKey, envelope, ack)
+                    : ingestPipeline.submitOverflow(deviceId, new String(payload, StandardCharsets.UTF_8), null,
+                            dedupeKey, envelope, ack);
+            if (!stored) {
+                log.error("Device lane full and telemetry spill failed, dropping message from device {}", deviceId);
+                acknowledge(publish);
             }
         } catch (Exception e) {
-            log.warn("Could not parse temperature from payload: {}", payload);
+            log.error("Failed to process overflow telemetry from device {}: {}", deviceId, e.getMessage());
+            acknowledge(publish);
         }
     }
 
+    private void processMessage(Mqtt3Publish publish) {
+        // Xử lý message nhận được
+        byte[] payload = publish.getPayloadAsBytes();
+        log.info("[Demo] Received topic='{}' payload={}", publish.getTopic(),
+                new String(payload, StandardCharsets.UTF_8));
+
+        // Đánh giá alert rules trên payload đã parse (demo topic không gắn device, dùng device 0)
+        PayloadEnvelope envelope = PayloadParser.forCurrentThread().parse(payload);
+        alertEngine.evaluate(DEMO_DEVICE_ID, Instant.now(), envelope);
+    }
+
     @PreDestroy
     public void shutdown() {
         if (client != null) {
@@ -190,6 +287,42 @@ public class HiveMqttService {
         }
     }
 
+    /**
+     * Lấy mẫu throughput của node này theo từng loại message
+     */
+    @Scheduled(fixedRate = THROUGHPUT_SAMPLE_MS)
+    public void sampleThroughput() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastSampleNanos) / 1_000_000_000.0;
+        Map<String, Long> counts = router.getCountsByKind();
+        Map<String, Double> rates = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            long previous = lastSampleCounts.getOrDefault(entry.getKey(), 0L);
+            rates.put(entry.getKey(), elapsedSeconds > 0 ? (entry.getValue() - previous) / elapsedSeconds : 0.0);
+        }
+        lastSampleCounts = counts;
+        lastSampleNanos = now;
+        messagesPerSecond = rates;
+    }
+
+    /**
+     * Thống kê ingest của node này (dùng để so sánh tải giữa các node khi chạy cluster)
+     */
+    public Map<String, Object> getNodeMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("clientId", cfg.getClientId());
+        metrics.put("connected", client != null && client.getState().isConnected());
+        metrics.put("sharedSubscription", cfg.isSharedSubscription());
+        metrics.put("topicFilters", cfg.isSharedSubscription()
+                ? router.topicFilters(cfg::getSharedGroup)
+                : router.topicFilters());
+        metrics.put("messagesByKind", router.getCountsByKind());
+        metrics.put("messagesPerSecond", messagesPerSecond);
+        metrics.put("unroutedMessages", router.getUnroutedCount());
+        metrics.put("deviceSubscriptions", subscriptionManager.getMetrics());
+        return metrics;
+    }
+
     /**
      * Lab 5: Publish command to device
      */
@@ -265,158 +398,55 @@ public class HiveMqttService {
     /**
      * Lab 6: Process heartbeat message from device
      */
-    private void processHeartbeatMessage(String topic, String payload) {
+    private void processHeartbeatMessage(long deviceId, Mqtt3Publish publish) {
         try {
-            // Extract deviceId from topic: iot/device/{id}/heartbeat
-            String[] parts = topic.split("/");
-            if (parts.length >= 3) {
-                Long deviceId = Long.parseLong(parts[2]);
+            // Parse metadata từ payload
+            PayloadEnvelope metadata = PayloadParser.forCurrentThread().parse(publish.getPayloadAsBytes());
 
-                // Parse metadata từ payload
-                Map<String, Object> metadata = parseDeviceMetadata(payload);
-
-                // Update heartbeat
-                monitoringService.updateHeartbeat(deviceId, metadata);
+            // Update heartbeat
+            monitoringService.updateHeartbeat(deviceId, metadata);
 
-                log.debug("💓 Heartbeat updated for device {}", deviceId);
-            } else {
-                log.warn("Invalid heartbeat topic format: {}", topic);
-            }
+            log.debug("💓 Heartbeat updated for device {}", deviceId);
         } catch (Exception e) {
-            log.error("Failed to process heartbeat message from topic {}: {}", topic, e.getMessage());
+            log.error("Failed to process heartbeat message from device {}: {}", deviceId, e.getMessage());
         }
     }
 
     /**
      * Lab 6: Process status message from device
      */
-    private void processStatusMessage(String topic, String payload) {
+    private void processStatusMessage(long deviceId, Mqtt3Publish publish) {
         try {
-            // Extract deviceId from topic: iot/device/{id}/status
-            String[] parts = topic.split("/");
-            if (parts.length >= 3) {
-                Long deviceId = Long.parseLong(parts[2]);
-
-                // Parse status từ payload
-                Map<String, Object> metadata = parseDeviceMetadata(payload);
-                String status = payload.toLowerCase().trim();
-
-                if (status.contains("online") || status.contains("connected")) {
-                    monitoringService.markDeviceOnline(deviceId, metadata);
-                    log.info("🟢 Device {} reported ONLINE", deviceId);
-                } else if (status.contains("offline") || status.contains("disconnected")) {
-                    monitoringService.markDeviceOffline(deviceId);
-                    log.info("🔴 Device {} reported OFFLINE", deviceId);
-                } else {
-                    // Treat any status message as heartbeat
-                    monitoringService.updateHeartbeat(deviceId, metadata);
-                }
-            } else {
-                log.warn("Invalid status topic format: {}", topic);
-            }
-        } catch (Exception e) {
-            log.error("Failed to process status message from topic {}: {}", topic, e.getMessage());
-        }
-    }
-
-    /**
-     * Lab 6: Parse device metadata from JSON payload
-     */
-    private Map<String, Object> parseDeviceMetadata(String payload) {
-        Map<String, Object> metadata = new HashMap<>();
-
-        try {
-            // Simple JSON parsing (có thể thay bằng ObjectMapper cho phức tạp hơn)
-            if (payload.contains("firmware")) {
-                String firmware = extractJsonValue(payload, "firmware");
-                if (firmware != null)
-                    metadata.put("firmware", firmware);
-            }
-
-            if (payload.contains("ip")) {
-                String ip = extractJsonValue(payload, "ip");
-                if (ip != null)
-                    metadata.put("ip", ip);
-            }
-
-            if (payload.contains("signal")) {
-                String signal = extractJsonValue(payload, "signal");
-                if (signal != null) {
-                    try {
-                        metadata.put("signal", Integer.parseInt(signal));
-                    } catch (NumberFormatException ignored) {
-                    }
-                }
-            }
-
-            if (payload.contains("battery")) {
-                String battery = extractJsonValue(payload, "battery");
-                if (battery != null) {
-                    try {
-                        metadata.put("battery", Integer.parseInt(battery));
-                    } catch (NumberFormatException ignored) {
-                    }
-                }
-            }
-
-        } catch (Exception e) {
-            log.debug("Could not parse metadata from payload: {}", payload);
-        }
+            byte[] payload = publish.getPayloadAsBytes();
 
-        return metadata;
-    }
+            // Parse status từ payload
+            PayloadEnvelope metadata = PayloadParser.forCurrentThread().parse(payload);
+            String status = new String(payload, StandardCharsets.UTF_8).toLowerCase().trim();
 
-    /**
-     * Extract value from simple JSON
-     */
-    private String extractJsonValue(String json, String key) {
-        try {
-            String pattern = "\"" + key + "\"\\s*:\\s*\"?([^,}\"]+)\"?";
-            java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-            java.util.regex.Matcher m = p.matcher(json);
-            if (m.find()) {
-                return m.group(1).trim();
+            if (status.contains("online") || status.contains("connected")) {
+                monitoringService.markDeviceOnline(deviceId, metadata);
+                log.info("🟢 Device {} reported ONLINE", deviceId);
+            } else if (status.contains("offline") || status.contains("disconnected")) {
+                monitoringService.markDeviceOffline(deviceId);
+                log.info("🔴 Device {} reported OFFLINE", deviceId);
+            } else {
+                // Treat any status message as heartbeat
+                monitoringService.updateHeartbeat(deviceId, metadata);
             }
         } catch (Exception e) {
-            log.debug("Could not extract {} from JSON: {}", key, json);
+            log.error("Failed to process status message from device {}: {}", deviceId, e.getMessage());
         }
-        return null;
     }
 
     /**
      * Lab 6: Subscribe dynamically to new device topics
+     * (gom lại và gửi theo batch bởi DeviceSubscriptionManager)
      */
     public void subscribeToDevice(Long deviceId) {
-        if (client == null || !client.getState().isConnected()) {
-            log.warn("Cannot subscribe to device {}: MQTT client not connected", deviceId);
+        // Shared subscription: broker đã chia tải, subscribe riêng từng device sẽ làm mỗi node nhận trùng message
+        if (cfg.isSharedSubscription()) {
             return;
         }
-
-        if (!monitoringService.shouldSubscribeToDevice(deviceId)) {
-            log.debug("Already subscribed to device {}", deviceId);
-            return;
-        }
-
-        // Subscribe to all device topics: telemetry, heartbeat, status
-        String[] topicPatterns = {
-                String.format("iot/device/%d/telemetry", deviceId),
-                String.format("iot/device/%d/heartbeat", deviceId),
-                String.format("iot/device/%d/status", deviceId)
-        };
-
-        for (String topic : topicPatterns) {
-            client.subscribeWith()
-                    .topicFilter(topic)
-                    .qos(MqttQos.fromCode(cfg.getQos()))
-                    .send()
-                    .whenComplete((subAck, subEx) -> {
-                        if (subEx != null) {
-                            log.error("Failed to subscribe to topic {}: {}", topic, subEx.getMessage());
-                        } else {
-                            log.info("🔔 Dynamically subscribed to topic: {}", topic);
-                            monitoringService.markTopicSubscribed(topic);
-                        }
-                    });
-        }
+        subscriptionManager.requestSubscription(deviceId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.model.AlertRule;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface AlertRuleRepository extends JpaRepository<AlertRule, Long> {
+    List<AlertRule> findByEnabledTrue();
+}
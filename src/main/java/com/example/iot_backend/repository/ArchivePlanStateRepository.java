@@ -0,0 +1,9 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.model.ArchivePlanState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ArchivePlanStateRepository extends JpaRepository<ArchivePlanState, Integer> {
+}
@@ -0,0 +1,18 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.model.CompressionDictionary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface CompressionDictionaryRepository extends JpaRepository<CompressionDictionary, Long> {
+
+    // Dictionary mới nhất của một loại thiết bị (deviceType null -> IS NULL)
+    Optional<CompressionDictionary> findFirstByCodecAndFormatVersionAndDeviceTypeOrderByIdDesc(String codec,
+            Integer formatVersion, String deviceType);
+
+    List<CompressionDictionary> findAllByOrderByIdDesc();
+}
@@ -2,6 +2,15 @@ package com.example.iot_backend.repository;
 
 import com.example.iot_backend.model.Device;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 public interface DeviceRepository extends JpaRepository<Device, Long> {
-}
\ No newline at end of file
+
+    // Lọc ra các device đang tồn tại kèm telemetry format (dùng cho batch ingest): [id, telemetryFormat]
+    @Query("SELECT d.id, d.telemetryFormat FROM Device d WHERE d.id IN :ids")
+    List<Object[]> findIngestInfo(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,12 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.model.Metric;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface MetricRepository extends JpaRepository<Metric, Integer> {
+    Optional<Metric> findByName(String name);
+}
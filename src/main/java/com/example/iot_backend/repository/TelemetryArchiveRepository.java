@@ -1,5 +1,6 @@
 package com.example.iot_backend.repository;
 
+import com.example.iot_backend.dto.TelemetryArchiveSummary;
 import com.example.iot_backend.model.TelemetryArchive;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
@@ -8,27 +9,31 @@ import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
 
 @Repository
 public interface TelemetryArchiveRepository extends JpaRepository<TelemetryArchive, Long> {
 
+    // Các truy vấn liệt kê chỉ lấy metadata (TelemetryArchiveSummary), không kèm time index
+    String SUMMARY = "SELECT ta.id AS id, ta.deviceId AS deviceId, ta.deviceName AS deviceName, "
+            + "ta.startDate AS startDate, ta.endDate AS endDate, ta.archivedDate AS archivedDate, "
+            + "ta.originalCount AS originalCount, ta.compressionRatio AS compressionRatio, ta.codec AS codec, "
+            + "ta.segmentId AS segmentId FROM TelemetryArchive ta ";
+
     // Tìm archive theo device và khoảng thời gian
-    @Query("SELECT ta FROM TelemetryArchive ta WHERE ta.deviceId = :deviceId " +
-            "AND ta.startDate <= :endDate AND ta.endDate >= :startDate")
-    List<TelemetryArchive> findByDeviceIdAndDateRange(@Param("deviceId") Long deviceId,
+    @Query(SUMMARY + "WHERE ta.deviceId = :deviceId AND ta.startDate <= :endDate AND ta.endDate >= :startDate "
+            + "ORDER BY ta.startDate")
+    List<TelemetryArchiveSummary> findByDeviceIdAndDateRange(@Param("deviceId") Long deviceId,
             @Param("startDate") Instant startDate,
             @Param("endDate") Instant endDate);
 
     // Tìm archive theo device
-    List<TelemetryArchive> findByDeviceIdOrderByStartDateDesc(Long deviceId);
+    @Query(SUMMARY + "WHERE ta.deviceId = :deviceId ORDER BY ta.startDate DESC")
+    List<TelemetryArchiveSummary> findByDeviceIdOrderByStartDateDesc(@Param("deviceId") Long deviceId);
 
     // Tìm archive theo archive type
-    List<TelemetryArchive> findByArchiveTypeOrderByArchivedDateDesc(TelemetryArchive.ArchiveType archiveType);
-
-    // Tìm archive cũ để cleanup
-    @Query("SELECT ta FROM TelemetryArchive ta WHERE ta.archivedDate < :cutoffDate")
-    List<TelemetryArchive> findOldArchives(@Param("cutoffDate") Instant cutoffDate);
+    @Query(SUMMARY + "WHERE ta.archiveType = :archiveType ORDER BY ta.archivedDate DESC")
+    List<TelemetryArchiveSummary> findByArchiveTypeOrderByArchivedDateDesc(
+            @Param("archiveType") TelemetryArchive.ArchiveType archiveType);
 
     // Thống kê dung lượng archive theo device
     @Query("SELECT ta.deviceId, ta.deviceName, COUNT(ta), SUM(ta.originalCount), AVG(ta.compressionRatio) " +
@@ -39,18 +44,7 @@ public interface TelemetryArchiveRepository extends JpaRepository<TelemetryArchi
     @Query("SELECT COUNT(ta), SUM(ta.originalCount), AVG(ta.compressionRatio) FROM TelemetryArchive ta")
     Object[] getTotalArchiveStats();
 
-    // Kiểm tra xem khoảng thời gian đã được archive chưa
-    @Query("SELECT CASE WHEN COUNT(ta) > 0 THEN true ELSE false END FROM TelemetryArchive ta " +
-            "WHERE ta.deviceId = :deviceId AND ta.startDate <= :startDate AND ta.endDate >= :endDate")
-    boolean isDateRangeArchived(@Param("deviceId") Long deviceId,
-            @Param("startDate") Instant startDate,
-            @Param("endDate") Instant endDate);
-
     // Tìm archive theo tháng
-    @Query("SELECT ta FROM TelemetryArchive ta WHERE YEAR(ta.startDate) = :year AND MONTH(ta.startDate) = :month")
-    List<TelemetryArchive> findByYearAndMonth(@Param("year") int year, @Param("month") int month);
-
-    // Xóa archive cũ hơn ngày cutoff
-    @Query("DELETE FROM TelemetryArchive ta WHERE ta.archivedDate < :cutoffDate")
-    void deleteOldArchives(@Param("cutoffDate") Instant cutoffDate);
+    @Query(SUMMARY + "WHERE YEAR(ta.startDate) = :year AND MONTH(ta.startDate) = :month")
+    List<TelemetryArchiveSummary> findByYearAndMonth(@Param("year") int year, @Param("month") int month);
 }
\ No newline at end of file
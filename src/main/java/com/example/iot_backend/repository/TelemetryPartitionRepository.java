@@ -0,0 +1,28 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.model.TelemetryPartition;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface TelemetryPartitionRepository extends JpaRepository<TelemetryPartition, String> {
+
+    // Partition đang gắn với telemetry, theo thứ tự thời gian
+    @Query("SELECT p FROM TelemetryPartition p WHERE p.detachedAt IS NULL ORDER BY p.rangeEnd")
+    List<TelemetryPartition> findAttached();
+
+    // Partition đã kết thúc trước cutoff nhưng chưa archive
+    @Query("SELECT p FROM TelemetryPartition p WHERE p.detachedAt IS NULL AND p.archivedAt IS NULL " +
+            "AND p.rangeEnd <= :cutoffDate ORDER BY p.rangeEnd")
+    List<TelemetryPartition> findUnarchivedBefore(@Param("cutoffDate") Instant cutoffDate);
+
+    // Partition đã archive và hết hạn retention
+    @Query("SELECT p FROM TelemetryPartition p WHERE p.detachedAt IS NULL AND p.archivedAt IS NOT NULL " +
+            "AND p.rangeEnd <= :cutoffDate ORDER BY p.rangeEnd")
+    List<TelemetryPartition> findExpired(@Param("cutoffDate") Instant cutoffDate);
+}
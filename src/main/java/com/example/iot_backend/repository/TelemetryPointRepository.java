@@ -0,0 +1,34 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.dto.MetricPointDTO;
+import com.example.iot_backend.model.TelemetryPoint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface TelemetryPointRepository extends JpaRepository<TelemetryPoint, TelemetryPoint.Key> {
+
+    // Chuỗi giá trị của một metric trong khoảng thời gian (dùng PK device_id, metric_id, ts)
+    @Query("SELECT new com.example.iot_backend.dto.MetricPointDTO(p.ts, p.value) FROM TelemetryPoint p " +
+            "WHERE p.deviceId = :deviceId AND p.metricId = :metricId AND p.ts >= :startDate AND p.ts < :endDate " +
+            "ORDER BY p.ts")
+    List<MetricPointDTO> findSeries(@Param("deviceId") Long deviceId,
+            @Param("metricId") Integer metricId,
+            @Param("startDate") Instant startDate,
+            @Param("endDate") Instant endDate,
+            Pageable pageable);
+
+    // Thống kê count/min/max/avg của một metric trong khoảng thời gian
+    @Query("SELECT COUNT(p), MIN(p.value), MAX(p.value), AVG(p.value) FROM TelemetryPoint p " +
+            "WHERE p.deviceId = :deviceId AND p.metricId = :metricId AND p.ts >= :startDate AND p.ts < :endDate")
+    List<Object[]> getStats(@Param("deviceId") Long deviceId,
+            @Param("metricId") Integer metricId,
+            @Param("startDate") Instant startDate,
+            @Param("endDate") Instant endDate);
+}
@@ -0,0 +1,24 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.model.TelemetryRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface TelemetryRollupRepository extends JpaRepository<TelemetryRollup, TelemetryRollup.Key> {
+
+    // Chuỗi rollup của một metric theo granularity trong khoảng thời gian
+    @Query("SELECT r FROM TelemetryRollup r WHERE r.deviceId = :deviceId AND r.metricId = :metricId " +
+            "AND r.granularity = :granularity AND r.bucketStart >= :startDate AND r.bucketStart < :endDate " +
+            "ORDER BY r.bucketStart")
+    List<TelemetryRollup> findSeries(@Param("deviceId") Long deviceId,
+            @Param("metricId") Integer metricId,
+            @Param("granularity") TelemetryRollup.Granularity granularity,
+            @Param("startDate") Instant startDate,
+            @Param("endDate") Instant endDate);
+}
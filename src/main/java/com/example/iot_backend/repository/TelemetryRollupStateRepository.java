@@ -0,0 +1,11 @@
+package com.example.iot_backend.repository;
+
+import com.example.iot_backend.model.TelemetryRollup;
+import com.example.iot_backend.model.TelemetryRollupState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface TelemetryRollupStateRepository
+        extends JpaRepository<TelemetryRollupState, TelemetryRollup.Granularity> {
+}
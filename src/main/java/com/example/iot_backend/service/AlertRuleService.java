@@ -0,0 +1,95 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.alert.AlertRuleEngine;
+import com.example.iot_backend.model.AlertRule;
+import com.example.iot_backend.repository.AlertRuleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Quản lý alert rule (lưu DB) và compile lại rule engine mỗi khi rule thay đổi
+ */
+@Service
+public class AlertRuleService {
+    private static final Logger log = LoggerFactory.getLogger(AlertRuleService.class);
+
+    private final AlertRuleRepository ruleRepo;
+    private final AlertRuleEngine engine;
+
+    public AlertRuleService(AlertRuleRepository ruleRepo, AlertRuleEngine engine) {
+        this.ruleRepo = ruleRepo;
+        this.engine = engine;
+    }
+
+    /**
+     * Load rule khi khởi động và định kỳ (để các node khác nhận rule mới)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.alerts.reload-ms:30000}", initialDelayString = "${app.alerts.reload-ms:30000}")
+    public void reload() {
+        try {
+            engine.compile(ruleRepo.findByEnabledTrue());
+        } catch (Exception e) {
+            log.error("Failed to reload alert rules: {}", e.getMessage(), e);
+        }
+    }
+
+    public List<AlertRule> getAllRules() {
+        return ruleRepo.findAll();
+    }
+
+    public Optional<AlertRule> getRule(Long id) {
+        return ruleRepo.findById(id);
+    }
+
+    public AlertRule createRule(AlertRule rule) {
+        validate(rule);
+        rule.setId(null);
+        AlertRule saved = ruleRepo.save(rule);
+        reload();
+        return saved;
+    }
+
+    public Optional<AlertRule> updateRule(Long id, AlertRule rule) {
+        validate(rule);
+        return ruleRepo.findById(id).map(existing -> {
+            existing.setName(rule.getName());
+            existing.setMetric(rule.getMetric());
+            existing.setComparator(rule.getComparator());
+            existing.setThreshold(rule.getThreshold());
+            existing.setWindowSeconds(rule.getWindowSeconds());
+            existing.setHysteresis(rule.getHysteresis());
+            existing.setDeviceId(rule.getDeviceId());
+            existing.setEnabled(rule.isEnabled());
+            AlertRule saved = ruleRepo.save(existing);
+            reload();
+            return saved;
+        });
+    }
+
+    public boolean deleteRule(Long id) {
+        if (!ruleRepo.existsById(id))
+            return false;
+        ruleRepo.deleteById(id);
+        reload();
+        return true;
+    }
+
+    private void validate(AlertRule rule) {
+        if (rule.getName() == null || rule.getName().isBlank())
+            throw new IllegalArgumentException("Rule name is required");
+        if (rule.getMetric() == null || rule.getMetric().isBlank())
+            throw new IllegalArgumentException("Rule metric is required");
+        if (rule.getComparator() == null)
+            throw new IllegalArgumentException("Rule comparator is required (GT, GTE, LT, LTE)");
+        if (rule.getWindowSeconds() < 0 || rule.getHysteresis() < 0)
+            throw new IllegalArgumentException("windowSeconds and hysteresis must not be negative");
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import com.example.iot_backend.ingest.BinaryPayloadCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+
+/**
+ * Dựng archive bằng một lần scan telemetry theo (device_id, ts).
+ *
+ * Row được đọc qua server-side cursor (fetch size trong transaction read-only), chuyển thẳng thành DTO và
+ * ghi vào ArchiveWriter; mỗi khi đổi device hoặc sang ngày UTC mới thì block hiện tại được đóng và giao cho
+ * BlockSink. Không hydrate entity Telemetry/Device, không query riêng cho từng device hay từng ngày.
+ */
+@Service
+public class ArchiveBuilder {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveBuilder.class);
+
+    private static final String SCAN_SQL = "SELECT t.id, t.device_id, d.name, d.type, t.ts, t.data, t.data_bin "
+            + "FROM telemetry t JOIN devices d ON d.id = t.device_id "
+            + "WHERE t.ts >= ? AND t.ts < ? AND t.device_id = ANY (?) ORDER BY t.device_id, t.ts";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final DataCompressionService compressionService;
+    private final CompressionDictionaryService dictionaryService;
+    private final int fetchSize;
+
+    /**
+     * Block archive của một device trong một ngày UTC
+     */
+    public record ArchiveBlock(long deviceId, String deviceName, Instant day, int recordCount,
+            int estimatedOriginalSize, DataCompressionService.EncodedArchive encoded) {
+    }
+
+    /**
+     * Nhận block đã đóng; failed được gọi khi mã hóa block lỗi (các row còn lại của block bị bỏ qua)
+     */
+    public interface BlockSink {
+        void accept(ArchiveBlock block);
+
+        void failed(long deviceId, Instant day, Exception error);
+    }
+
+    public ArchiveBuilder(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            DataCompressionService compressionService, CompressionDictionaryService dictionaryService,
+            @Value("${app.archive.builder.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.compressionService = compressionService;
+        this.dictionaryService = dictionaryService;
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
+    /**
+     * Scan telemetry trong [from, to) của các device chỉ định và dựng block theo (device, ngày).
+     * Trả về số row đã đọc.
+     */
+    public long scan(Instant from, Instant to, Collection<Long> deviceIds, BlockSink sink) {
+        if (deviceIds.isEmpty())
+            return 0;
+        BlockCursor cursor = new BlockCursor(sink);
+        try {
+            // PostgreSQL chỉ dùng cursor (đọc theo fetch size) khi autocommit tắt
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(SCAN_SQL, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(fetchSize);
+                ps.setTimestamp(1, Timestamp.from(from));
+                ps.setTimestamp(2, Timestamp.from(to));
+                ps.setArray(3, con.createArrayOf("bigint", deviceIds.toArray()));
+                return ps;
+            }, cursor));
+            cursor.flush();
+        } finally {
+            cursor.discard();
+        }
+        return cursor.rows;
+    }
+
+    /**
+     * Trạng thái block đang dựng khi row chạy qua
+     */
+    private final class BlockCursor implements RowCallbackHandler {
+        private final BlockSink sink;
+        private long rows;
+
+        private long deviceId = -1;
+        private String deviceName;
+        private Instant day;
+        private DataCompressionService.ArchiveWriter writer;
+        private TelemetryArchiveDTO first;
+        private boolean broken; // block lỗi: bỏ qua tới ranh giới tiếp theo
+
+        BlockCursor(BlockSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            rows++;
+            long rowDevice = rs.getLong(2);
+            Instant ts = rs.getTimestamp(5).toInstant();
+            Instant rowDay = ts.truncatedTo(ChronoUnit.DAYS);
+            if (rowDevice != deviceId || !rowDay.equals(day)) {
+                flush();
+                open(rowDevice, rs.getString(3), rs.getString(4), rowDay);
+            }
+            if (broken)
+                return;
+
+            String data = rs.getString(6);
+            if (data == null) {
+                byte[] bin = rs.getBytes(7);
+                data = bin != null ? BinaryPayloadCodec.toJson(bin) : null;
+            }
+            TelemetryArchiveDTO dto = new TelemetryArchiveDTO(rs.getLong(1), rowDevice, deviceName, ts, data);
+            try {
+                writer.add(dto);
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            if (first == null) {
+                first = dto;
+            }
+        }
+
+        private void open(long newDevice, String newName, String deviceType, Instant newDay) {
+            deviceId = newDevice;
+            deviceName = newName;
+            day = newDay;
+            first = null;
+            broken = false;
+            try {
+                writer = compressionService.openArchiveWriter(dictionaryService.findForDeviceType(deviceType));
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Đóng block hiện tại (nếu có) và giao cho sink
+         */
+        void flush() {
+            if (writer == null)
+                return;
+            ArchiveBlock block;
+            try (DataCompressionService.ArchiveWriter w = writer) {
+                writer = null;
+                int count = w.size();
+                block = new ArchiveBlock(deviceId, deviceName, day, count, estimateOriginalSize(first, count),
+                        w.finish());
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            sink.accept(block);
+        }
+
+        private void fail(Exception e) {
+            broken = true;
+            discard();
+            log.error("Error encoding archive block for device {} on {}: {}", deviceId, day, e.getMessage(), e);
+            sink.failed(deviceId, day, e);
+        }
+
+        /**
+         * Giải phóng writer dở (scan lỗi hoặc block lỗi)
+         */
+        void discard() {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Ước tính kích thước dữ liệu gốc dựa trên record đầu tiên
+     */
+    private int estimateOriginalSize(TelemetryArchiveDTO sample, int count) {
+        if (sample == null || count == 0)
+            return 0;
+        long sampleSize = compressionService.estimateCompressedSize(sample);
+        return sampleSize > 0 ? (int) (sampleSize * count) : count * 500; // Fallback 500 bytes/record
+    }
+}
@@ -0,0 +1,485 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.model.ArchiveCheckpoint;
+import com.example.iot_backend.model.ArchivePlanState;
+import com.example.iot_backend.model.TelemetryArchive;
+import com.example.iot_backend.model.TelemetryPartition;
+import com.example.iot_backend.repository.ArchivePlanStateRepository;
+import com.example.iot_backend.repository.DeviceRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Archive executor: chia việc archive thành các đơn vị (device, ngày UTC) và chạy trên một worker pool
+ * giới hạn số luồng.
+ *
+ * Mỗi lần chạy gồm hai bước. Lập kế hoạch: một câu INSERT ... SELECT GROUP BY ghi checkpoint PENDING cho
+ * mọi (device, ngày) có telemetry từ watermark (archive_plan_state) tới cutoff (ngày đã có archive thì ghi
+ * DONE luôn). Thực thi: mỗi ngày còn đơn vị dở là một task trên worker pool, ArchiveBuilder scan telemetry
+ * của ngày đó một lần theo (device_id, ts) và cắt block theo device; mỗi block được lưu và cập nhật
+ * checkpoint trong transaction riêng (khóa hàng checkpoint bằng FOR UPDATE SKIP LOCKED). Lỗi của một đơn vị
+ * chỉ rollback đơn vị đó; khởi động lại thì chạy tiếp từ checkpoint thay vì quét lại toàn bộ device và ngày.
+ */
+@Service
+public class ArchiveExecutor {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveExecutor.class);
+
+    // Số ngày mỗi câu lập kế hoạch (giới hạn kích thước một transaction)
+    private static final int PLAN_STEP_DAYS = 31;
+    private static final int MAX_ERROR_LENGTH = 500;
+    // Không có telemetry trước epoch (ts null cũ được chuyển thành 'epoch' khi partition)
+    private static final Instant MIN_DAY = Instant.EPOCH;
+
+    // Ngày đã có archive (archive cũ, trước khi có checkpoint) được đánh dấu DONE ngay khi lập kế hoạch
+    private static final String PLAN_SQL = "INSERT INTO archive_checkpoints "
+            + "(device_id, day, status, attempts, record_count, updated_at) "
+            + "SELECT u.device_id, u.day, CASE WHEN EXISTS (SELECT 1 FROM telemetry_archive a "
+            + "WHERE a.device_id = u.device_id AND a.start_date <= u.day AND a.end_date >= u.day + interval '1 day') "
+            + "THEN 'DONE' ELSE 'PENDING' END, 0, u.records, now() "
+            + "FROM (SELECT device_id, date_trunc('day', ts AT TIME ZONE 'UTC') AT TIME ZONE 'UTC' AS day, "
+            + "count(*) AS records FROM telemetry WHERE ts >= ? AND ts < ? ";
+    private static final String PLAN_RANGE_SQL = PLAN_SQL
+            + "GROUP BY 1, 2) u ON CONFLICT (device_id, day) DO NOTHING";
+    // Archive thủ công: đặt lại cả đơn vị FAILED/DONE chưa có archive
+    private static final String PLAN_DEVICE_SQL = PLAN_SQL
+            + "AND device_id = ? GROUP BY 1, 2) u ON CONFLICT (device_id, day) DO UPDATE SET "
+            + "status = EXCLUDED.status, attempts = 0, record_count = EXCLUDED.record_count, last_error = NULL, "
+            + "updated_at = now()";
+
+    private static final String UNFINISHED = "(status = 'PENDING' OR (status = 'FAILED' AND attempts < ?)) ";
+    private static final String SELECT_DAYS_SQL = "SELECT DISTINCT day FROM archive_checkpoints WHERE "
+            + UNFINISHED + "AND day >= ? AND day < ? ";
+    private static final String SELECT_ALL_DAYS_SQL = SELECT_DAYS_SQL + "ORDER BY day";
+    private static final String SELECT_DEVICE_DAYS_SQL = SELECT_DAYS_SQL + "AND device_id = ? ORDER BY day";
+    private static final String SELECT_DEVICES_SQL = "SELECT device_id FROM archive_checkpoints WHERE "
+            + UNFINISHED + "AND day = ?";
+    private static final String SELECT_DEVICE_SQL = SELECT_DEVICES_SQL + " AND device_id = ?";
+
+    private static final String LOCK_SQL = "SELECT status FROM archive_checkpoints "
+            + "WHERE device_id = ? AND day = ? FOR UPDATE SKIP LOCKED";
+    private static final String DONE_SQL = "UPDATE archive_checkpoints SET status = 'DONE', "
+            + "attempts = attempts + 1, archive_id = ?, record_count = ?, last_error = NULL, updated_at = now() "
+            + "WHERE device_id = ? AND day = ?";
+    private static final String SKIPPED_SQL = "UPDATE archive_checkpoints SET status = 'DONE', "
+            + "attempts = attempts + 1, record_count = 0, last_error = NULL, updated_at = now() "
+            + "WHERE device_id = ? AND day = ?";
+    private static final String FAILED_SQL = "UPDATE archive_checkpoints SET status = 'FAILED', "
+            + "attempts = attempts + 1, last_error = ?, updated_at = now() WHERE device_id = ? AND day = ?";
+
+    private static final String BACKLOG_SQL = "SELECT status, count(*), coalesce(sum(record_count), 0) "
+            + "FROM archive_checkpoints GROUP BY status";
+    private static final String EXHAUSTED_SQL = "SELECT count(*) FROM archive_checkpoints "
+            + "WHERE status = 'FAILED' AND attempts >= ?";
+    private static final String UNFINISHED_SQL = "SELECT count(*) FROM archive_checkpoints "
+            + "WHERE status <> 'DONE' AND day >= ? AND day < ?";
+
+    private final TelemetryArchiveService archiveService;
+    private final ArchiveBuilder archiveBuilder;
+    private final TelemetryPartitionManager partitionManager;
+    private final DeviceRepository deviceRepo;
+    private final ArchivePlanStateRepository planStateRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate unitTransaction;
+
+    private final int daysThreshold;
+    private final int maxAttempts;
+    private final ThreadPoolExecutor workers;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final RunStats totals = new RunStats(null);
+    private volatile RunStats currentRun;
+    private volatile Map<String, Object> lastRun;
+
+    public ArchiveExecutor(TelemetryArchiveService archiveService, ArchiveBuilder archiveBuilder,
+            TelemetryPartitionManager partitionManager,
+            DeviceRepository deviceRepo, ArchivePlanStateRepository planStateRepo, JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.archive.days-threshold:30}") int daysThreshold,
+            @Value("${app.archive.executor.concurrency:4}") int concurrency,
+            @Value("${app.archive.executor.max-attempts:3}") int maxAttempts) {
+        this.archiveService = archiveService;
+        this.archiveBuilder = archiveBuilder;
+        this.partitionManager = partitionManager;
+        this.deviceRepo = deviceRepo;
+        this.planStateRepo = planStateRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Block được lưu khi scan (transaction read-only giữ cursor) vẫn đang mở: cần transaction riêng
+        this.unitTransaction = new TransactionTemplate(transactionManager);
+        this.unitTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.daysThreshold = daysThreshold;
+        this.maxAttempts = Math.max(1, maxAttempts);
+
+        int threads = Math.max(1, concurrency);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "archive-worker-" + threadIndex.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.shutdown();
+        try {
+            // Đơn vị đang chạy dở bị rollback và giữ PENDING, lần chạy sau làm lại
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Scheduled task chạy hàng ngày để archive dữ liệu cũ
+     * Chạy lúc 2:00 AM mỗi ngày
+     */
+    @Scheduled(cron = "${app.archive.cron:0 0 2 * * *}")
+    public void scheduledRun() {
+        try {
+            run(Instant.now().minus(daysThreshold, ChronoUnit.DAYS));
+        } catch (Exception e) {
+            log.error("Error during scheduled archiving: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Archive mọi ngày đã kết thúc trước cutoff: lập kế hoạch từ watermark rồi xử lý checkpoint còn dở.
+     * Với partitioning, partition được đánh dấu archived khi mọi đơn vị trong khoảng của nó đã DONE.
+     */
+    public Map<String, Object> run(Instant cutoffDate) {
+        if (!running.compareAndSet(false, true))
+            throw new IllegalStateException("Archive run already in progress");
+        Instant cutoffDay = cutoffDate.truncatedTo(ChronoUnit.DAYS);
+        RunStats stats = new RunStats(cutoffDay);
+        currentRun = stats;
+        try {
+            log.info("Archiving telemetry data older than: {}", cutoffDay);
+            Instant plannedUntil = plan(cutoffDay);
+            execute(MIN_DAY, cutoffDay, null, stats);
+            if (partitionManager.isEnabled() && plannedUntil != null) {
+                markArchivedPartitions(cutoffDay, plannedUntil);
+            }
+            return finish(stats);
+        } finally {
+            currentRun = null;
+            running.set(false);
+        }
+    }
+
+    /**
+     * Archive thủ công các ngày [startDate, endDate] của một device (kể cả ngày cuối)
+     */
+    public Map<String, Object> archiveRange(Long deviceId, Instant startDate, Instant endDate) {
+        if (!deviceRepo.existsById(deviceId))
+            throw new IllegalArgumentException("Device not found: " + deviceId);
+        Instant from = startDate.truncatedTo(ChronoUnit.DAYS);
+        Instant to = endDate.truncatedTo(ChronoUnit.DAYS).plus(1, ChronoUnit.DAYS);
+        RunStats stats = new RunStats(to);
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update(PLAN_DEVICE_SQL,
+                Timestamp.from(from), Timestamp.from(to), deviceId));
+        execute(from, to, deviceId, stats);
+        return finish(stats);
+    }
+
+    /**
+     * Ghi checkpoint PENDING cho các ngày từ watermark tới cutoffDay, mỗi bước một transaction.
+     * Trả về watermark mới (null nếu chưa có telemetry).
+     */
+    private Instant plan(Instant cutoffDay) {
+        Instant from = planStateRepo.findById(ArchivePlanState.SINGLETON_ID)
+                .map(ArchivePlanState::getPlannedUntil)
+                .orElseGet(this::firstDay);
+        if (from == null)
+            return null;
+
+        while (from.isBefore(cutoffDay)) {
+            Instant to = from.plus(PLAN_STEP_DAYS, ChronoUnit.DAYS);
+            if (to.isAfter(cutoffDay)) {
+                to = cutoffDay;
+            }
+            Instant stepFrom = from;
+            Instant stepTo = to;
+            int units = transactionTemplate.execute(status -> {
+                int planned = jdbcTemplate.update(PLAN_RANGE_SQL, Timestamp.from(stepFrom), Timestamp.from(stepTo));
+                ArchivePlanState state = planStateRepo.findById(ArchivePlanState.SINGLETON_ID)
+                        .orElseGet(() -> new ArchivePlanState(stepTo));
+                state.setPlannedUntil(stepTo);
+                planStateRepo.save(state);
+                return planned;
+            });
+            log.info("Planned {} archive units in [{}, {})", units, stepFrom, stepTo);
+            from = to;
+        }
+        return from;
+    }
+
+    private Instant firstDay() {
+        Timestamp earliest = jdbcTemplate.queryForObject("SELECT min(ts) FROM telemetry", Timestamp.class);
+        return earliest != null ? earliest.toInstant().truncatedTo(ChronoUnit.DAYS) : null;
+    }
+
+    /**
+     * Xử lý các ngày còn checkpoint chưa xong trong [from, to): mỗi ngày là một task scan trên worker pool.
+     * Đơn vị lỗi không được thử lại trong cùng lần chạy.
+     */
+    private void execute(Instant from, Instant to, Long deviceId, RunStats stats) {
+        List<Instant> days = (deviceId == null
+                ? jdbcTemplate.queryForList(SELECT_ALL_DAYS_SQL, Timestamp.class, maxAttempts,
+                        Timestamp.from(from), Timestamp.from(to))
+                : jdbcTemplate.queryForList(SELECT_DEVICE_DAYS_SQL, Timestamp.class, maxAttempts,
+                        Timestamp.from(from), Timestamp.from(to), deviceId))
+                .stream().map(Timestamp::toInstant).toList();
+
+        List<Future<?>> futures = new ArrayList<>(days.size());
+        for (Instant day : days) {
+            futures.add(workers.submit(() -> archiveDay(day, deviceId, stats)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Archive run interrupted", e);
+            } catch (ExecutionException e) {
+                log.error("Archive worker failed: {}", e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Archive các đơn vị chưa xong của một ngày bằng một lần scan. Đơn vị không còn row nào được đánh dấu
+     * DONE; nếu scan lỗi, các đơn vị chưa xử lý được đánh dấu FAILED.
+     */
+    private void archiveDay(Instant day, Long deviceId, RunStats stats) {
+        Timestamp dayTs = Timestamp.from(day);
+        List<Long> deviceIds = deviceId == null
+                ? jdbcTemplate.queryForList(SELECT_DEVICES_SQL, Long.class, maxAttempts, dayTs)
+                : jdbcTemplate.queryForList(SELECT_DEVICE_SQL, Long.class, maxAttempts, dayTs, deviceId);
+        Set<Long> handled = new HashSet<>();
+        try {
+            long rows = archiveBuilder.scan(day, day.plus(1, ChronoUnit.DAYS), deviceIds,
+                    new ArchiveBuilder.BlockSink() {
+                        @Override
+                        public void accept(ArchiveBuilder.ArchiveBlock block) {
+                            handled.add(block.deviceId());
+                            complete(block.deviceId(), day, block, stats);
+                        }
+
+                        @Override
+                        public void failed(long failedDevice, Instant failedDay, Exception error) {
+                            handled.add(failedDevice);
+                            fail(failedDevice, day, error, stats);
+                        }
+                    });
+            stats.rowsScanned.add(rows);
+            totals.rowsScanned.add(rows);
+        } catch (Exception e) {
+            log.error("Error scanning telemetry for archive day {}: {}", day, e.getMessage(), e);
+            for (Long id : deviceIds) {
+                if (!handled.contains(id)) {
+                    fail(id, day, e, stats);
+                }
+            }
+            return;
+        }
+        for (Long id : deviceIds) {
+            if (!handled.contains(id)) {
+                complete(id, day, null, stats); // không còn dữ liệu
+            }
+        }
+    }
+
+    /**
+     * Lưu block (null = không có dữ liệu) và đánh dấu checkpoint DONE trong transaction riêng
+     */
+    private void complete(long deviceId, Instant day, ArchiveBuilder.ArchiveBlock block, RunStats stats) {
+        Timestamp dayTs = Timestamp.from(day);
+        try {
+            TelemetryArchive archive = unitTransaction.execute(status -> {
+                List<String> locked = jdbcTemplate.queryForList(LOCK_SQL, String.class, deviceId, dayTs);
+                if (locked.isEmpty() || ArchiveCheckpoint.DONE.equals(locked.get(0)))
+                    return null; // worker hoặc instance khác đang/đã xử lý
+                if (block == null) {
+                    jdbcTemplate.update(SKIPPED_SQL, deviceId, dayTs);
+                    return null;
+                }
+                TelemetryArchive created = archiveService.saveBlock(block);
+                jdbcTemplate.update(DONE_SQL, created.getId(), (long) block.recordCount(), deviceId, dayTs);
+                return created;
+            });
+            if (archive != null) {
+                stats.archived(archive);
+                totals.archived(archive);
+            } else {
+                stats.skipped.increment();
+                totals.skipped.increment();
+            }
+        } catch (Exception e) {
+            fail(deviceId, day, e, stats);
+        }
+    }
+
+    /**
+     * Ghi lỗi vào checkpoint (attempts + 1) để lần chạy sau thử lại tới max-attempts
+     */
+    private void fail(long deviceId, Instant day, Exception error, RunStats stats) {
+        stats.failed.increment();
+        totals.failed.increment();
+        log.error("Error archiving daily data for device {} on date {}: {}", deviceId, day, error.getMessage());
+        String message = String.valueOf(error.getMessage());
+        try {
+            unitTransaction.executeWithoutResult(status -> jdbcTemplate.update(FAILED_SQL,
+                    message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message,
+                    deviceId, Timestamp.from(day)));
+        } catch (Exception checkpointError) {
+            log.error("Could not record archive failure for device {} on {}: {}", deviceId, day,
+                    checkpointError.getMessage());
+        }
+    }
+
+    /**
+     * Đánh dấu archived các partition đã nằm trọn trong khoảng đã lập kế hoạch và không còn đơn vị dở
+     */
+    private void markArchivedPartitions(Instant cutoffDay, Instant plannedUntil) {
+        for (TelemetryPartition partition : partitionManager.findPartitionsToArchive(cutoffDay)) {
+            if (partition.getRangeEnd().isAfter(plannedUntil))
+                continue;
+            Instant start = partition.getRangeStart() != null ? partition.getRangeStart() : MIN_DAY;
+            Long unfinished = jdbcTemplate.queryForObject(UNFINISHED_SQL, Long.class,
+                    Timestamp.from(start), Timestamp.from(partition.getRangeEnd()));
+            if (unfinished != null && unfinished == 0) {
+                partitionManager.markArchived(partition);
+                log.info("Telemetry partition {} fully archived", partition.getName());
+            }
+        }
+    }
+
+    private Map<String, Object> finish(RunStats stats) {
+        Map<String, Object> summary = stats.toMap();
+        lastRun = summary;
+        log.info("Archive run finished: {} archived, {} skipped, {} failed, {} records in {} ms ({} records/s)",
+                summary.get("unitsArchived"), summary.get("unitsSkipped"), summary.get("unitsFailed"),
+                summary.get("records"), summary.get("durationMs"), summary.get("recordsPerSec"));
+        return summary;
+    }
+
+    /**
+     * Đổi số worker khi đang chạy (áp dụng ngay cho các đơn vị tiếp theo)
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        int threads = Math.max(1, concurrency);
+        if (threads > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(threads);
+            workers.setCorePoolSize(threads);
+        } else {
+            workers.setCorePoolSize(threads);
+            workers.setMaximumPoolSize(threads);
+        }
+        log.info("Archive executor concurrency set to {}", threads);
+    }
+
+    public int getConcurrency() {
+        return workers.getCorePoolSize();
+    }
+
+    /**
+     * Throughput (lần chạy hiện tại/gần nhất, tổng từ lúc khởi động) và backlog theo trạng thái checkpoint
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> backlog = new LinkedHashMap<>();
+        jdbcTemplate.query(BACKLOG_SQL, rs -> {
+            backlog.put(rs.getString(1), Map.of("units", rs.getLong(2), "records", rs.getLong(3)));
+        });
+        backlog.put("failedExhausted", jdbcTemplate.queryForObject(EXHAUSTED_SQL, Long.class, maxAttempts));
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("concurrency", getConcurrency());
+        status.put("maxAttempts", maxAttempts);
+        status.put("activeWorkers", workers.getActiveCount());
+        status.put("queuedUnits", workers.getQueue().size());
+        status.put("running", running.get());
+        status.put("plannedUntil", planStateRepo.findById(ArchivePlanState.SINGLETON_ID)
+                .map(ArchivePlanState::getPlannedUntil).orElse(null));
+        status.put("backlog", backlog);
+        RunStats current = currentRun;
+        status.put("currentRun", current != null ? current.toMap() : null);
+        status.put("lastRun", lastRun);
+        status.put("totals", totals.toMap());
+        return status;
+    }
+
+    /**
+     * Bộ đếm throughput của một lần chạy (cộng dồn từ nhiều worker)
+     */
+    private static final class RunStats {
+        private final Instant cutoff;
+        private final long startNanos = System.nanoTime();
+        private final Instant startedAt = Instant.now();
+        private final LongAdder archived = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder rowsScanned = new LongAdder();
+
+        RunStats(Instant cutoff) {
+            this.cutoff = cutoff;
+        }
+
+        void archived(TelemetryArchive archive) {
+            archived.increment();
+            records.add(archive.getOriginalCount());
+            bytes.add(archive.getCompressedData().length);
+        }
+
+        Map<String, Object> toMap() {
+            long durationMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            long units = archived.sum() + skipped.sum() + failed.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("startedAt", startedAt);
+            if (cutoff != null) {
+                map.put("cutoff", cutoff);
+            }
+            map.put("durationMs", durationMs);
+            map.put("unitsArchived", archived.sum());
+            map.put("unitsSkipped", skipped.sum());
+            map.put("unitsFailed", failed.sum());
+            map.put("records", records.sum());
+            map.put("compressedBytes", bytes.sum());
+            map.put("rowsScanned", rowsScanned.sum());
+            map.put("unitsPerSec", Math.round(units * 1000.0 / durationMs));
+            map.put("recordsPerSec", Math.round(records.sum() * 1000.0 / durationMs));
+            return map;
+        }
+    }
+}
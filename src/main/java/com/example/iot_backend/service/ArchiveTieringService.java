@@ -0,0 +1,249 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.archive.ArchiveSegmentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chuyển dữ liệu nén của archive cũ từ bảng telemetry_archive_data (bytea) sang segment file local
+ * (ArchiveSegmentStore) theo tuổi archive.
+ *
+ * Mỗi lần chạy: đối chiếu segment trên đĩa với DB (nhận lại segment đã ghi nhưng chưa kịp cập nhật DB, xóa
+ * segment không còn archive nào), rồi ghi các archive có end_date cũ hơn min-age-days vào segment mới. Chỉ sau
+ * khi segment đã fsync, DB mới được trỏ sang segment và hàng telemetry_archive_data được xóa trong cùng câu
+ * lệnh, nên dữ liệu luôn đọc được ở ít nhất một tầng. Segment nằm trên đĩa local nên chỉ dùng khi một instance
+ * phục vụ truy vấn archive.
+ */
+@Service
+public class ArchiveTieringService {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveTieringService.class);
+
+    private static final String CANDIDATES_SQL = "SELECT a.id, octet_length(d.compressed_data) "
+            + "FROM telemetry_archive a JOIN telemetry_archive_data d ON d.archive_id = a.id "
+            + "WHERE a.segment_id IS NULL AND a.end_date < ? AND a.id > ? ORDER BY a.id LIMIT ?";
+    private static final String DATA_SQL = "SELECT compressed_data FROM telemetry_archive_data WHERE archive_id = ?";
+    // Chỉ trỏ sang segment khi archive chưa chuyển và dữ liệu đúng như đã ghi
+    private static final String MOVE_SQL = "WITH moved AS (DELETE FROM telemetry_archive_data "
+            + "WHERE archive_id = ? AND octet_length(compressed_data) = ? RETURNING archive_id) "
+            + "UPDATE telemetry_archive SET segment_id = ?, segment_offset = ?, segment_length = ? "
+            + "WHERE id IN (SELECT archive_id FROM moved) AND segment_id IS NULL";
+    private static final String REFERENCED_SQL = "SELECT segment_id, count(*), sum(segment_length) "
+            + "FROM telemetry_archive WHERE segment_id IS NOT NULL GROUP BY segment_id";
+    private static final String DATABASE_TIER_SQL = "SELECT count(*), "
+            + "coalesce(sum(octet_length(compressed_data)), 0) FROM telemetry_archive_data";
+
+    private final ArchiveSegmentStore segmentStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int minAgeDays;
+    private final int batchSize;
+
+    private volatile Map<String, Object> lastRun;
+
+    public ArchiveTieringService(ArchiveSegmentStore segmentStore, JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.archive.tiering.enabled:false}") boolean enabled,
+            @Value("${app.archive.tiering.min-age-days:90}") int minAgeDays,
+            @Value("${app.archive.tiering.batch-size:500}") int batchSize) {
+        this.segmentStore = segmentStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.minAgeDays = Math.max(0, minAgeDays);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(cron = "${app.archive.tiering.cron:0 0 4 * * *}")
+    public void scheduledRun() {
+        if (!enabled)
+            return;
+        try {
+            run();
+        } catch (Exception e) {
+            log.error("Error during archive tiering: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Đối chiếu segment rồi chuyển các archive đủ tuổi sang segment file. Trả về thống kê lần chạy
+     */
+    public synchronized Map<String, Object> run() throws IOException {
+        Instant startedAt = Instant.now();
+        int[] reconciled = reconcile();
+
+        Timestamp cutoff = Timestamp.from(startedAt.minus(minAgeDays, ChronoUnit.DAYS));
+        long lastId = 0;
+        int moved = 0;
+        int segments = 0;
+        long bytes = 0;
+        ArchiveSegmentStore.SegmentWriter writer = null;
+        try {
+            while (true) {
+                List<long[]> candidates = jdbcTemplate.query(CANDIDATES_SQL,
+                        (rs, rowNum) -> new long[] { rs.getLong(1), rs.getLong(2) }, cutoff, lastId, batchSize);
+                if (candidates.isEmpty())
+                    break;
+                for (long[] candidate : candidates) {
+                    long archiveId = candidate[0];
+                    int length = (int) candidate[1];
+                    lastId = archiveId;
+                    if (writer != null && !writer.fits(length)) {
+                        moved += publish(writer);
+                        segments++;
+                        writer = null;
+                    }
+                    if (writer == null) {
+                        writer = segmentStore.create();
+                    }
+                    if (!writer.fits(length)) {
+                        log.warn("Archive {} ({} bytes) is larger than a segment, kept in database", archiveId,
+                                length);
+                        continue;
+                    }
+                    List<byte[]> data = jdbcTemplate.query(DATA_SQL, (rs, rowNum) -> rs.getBytes(1), archiveId);
+                    if (data.isEmpty() || data.get(0) == null)
+                        continue; // đã bị xóa hoặc đã chuyển
+                    writer.append(archiveId, data.get(0));
+                    bytes += data.get(0).length;
+                }
+            }
+            if (writer != null && writer.count() > 0) {
+                moved += publish(writer);
+                segments++;
+                writer = null;
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("startedAt", startedAt);
+        result.put("durationMs", Instant.now().toEpochMilli() - startedAt.toEpochMilli());
+        result.put("archivesMoved", moved);
+        result.put("bytesMoved", bytes);
+        result.put("segmentsWritten", segments);
+        result.put("archivesRecovered", reconciled[0]);
+        result.put("segmentsDeleted", reconciled[1]);
+        lastRun = result;
+        if (moved > 0 || reconciled[0] > 0 || reconciled[1] > 0) {
+            log.info("Archive tiering: moved {} archives ({} bytes) into {} segments, recovered {}, deleted {} "
+                    + "segments", moved, bytes, segments, reconciled[0], reconciled[1]);
+        }
+        return result;
+    }
+
+    /**
+     * Seal segment và trỏ các archive sang segment trong một transaction; trả về số archive đã chuyển
+     */
+    private int publish(ArchiveSegmentStore.SegmentWriter writer) throws IOException {
+        List<ArchiveSegmentStore.Entry> entries = writer.seal();
+        return point(writer.getSegmentId(), entries);
+    }
+
+    private int point(long segmentId, List<ArchiveSegmentStore.Entry> entries) {
+        if (entries.isEmpty())
+            return 0;
+        int[] updated = transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(MOVE_SQL, entries,
+                entries.size(), (ps, entry) -> {
+                    ps.setLong(1, entry.archiveId());
+                    ps.setInt(2, entry.length());
+                    ps.setLong(3, segmentId);
+                    ps.setLong(4, entry.offset());
+                    ps.setInt(5, entry.length());
+                })[0]);
+        int count = 0;
+        for (int n : updated) {
+            count += Math.max(0, n);
+        }
+        return count;
+    }
+
+    /**
+     * Với mỗi segment trên đĩa chưa được DB tham chiếu: trỏ lại các archive trong footer còn ở bytea (lần chạy
+     * trước dừng giữa seal và cập nhật DB); nếu không còn archive nào thì xóa segment.
+     * Trả về {số archive nhận lại, số segment đã xóa}
+     */
+    private int[] reconcile() {
+        Map<Long, long[]> referenced = referencedSegments();
+        int recovered = 0;
+        int deleted = 0;
+        for (long segmentId : segmentStore.listSegments()) {
+            if (referenced.containsKey(segmentId))
+                continue;
+            try {
+                int adopted = point(segmentId, segmentStore.readIndex(segmentId));
+                if (adopted > 0) {
+                    recovered += adopted;
+                } else {
+                    segmentStore.delete(segmentId);
+                    deleted++;
+                }
+            } catch (Exception e) {
+                log.error("Error reconciling archive segment {}: {}", segmentId, e.getMessage());
+            }
+        }
+        return new int[] { recovered, deleted };
+    }
+
+    // segment_id -> {số archive, số byte còn được tham chiếu}
+    private Map<Long, long[]> referencedSegments() {
+        Map<Long, long[]> referenced = new HashMap<>();
+        jdbcTemplate.query(REFERENCED_SQL, (RowCallbackHandler) rs -> referenced.put(rs.getLong(1),
+                new long[] { rs.getLong(2), rs.getLong(3) }));
+        return referenced;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<Long, long[]> referenced = referencedSegments();
+        long segmentFiles = 0;
+        long diskBytes = 0;
+        long liveBytes = 0;
+        long segmentArchives = 0;
+        for (long segmentId : segmentStore.listSegments()) {
+            segmentFiles++;
+            diskBytes += segmentStore.sizeOf(segmentId);
+        }
+        for (long[] stats : referenced.values()) {
+            segmentArchives += stats[0];
+            liveBytes += stats[1];
+        }
+        Map<String, Object> database = new LinkedHashMap<>();
+        jdbcTemplate.query(DATABASE_TIER_SQL, rs -> {
+            database.put("archives", rs.getLong(1));
+            database.put("bytes", rs.getLong(2));
+        });
+        Map<String, Object> segments = new LinkedHashMap<>();
+        segments.put("archives", segmentArchives);
+        segments.put("files", segmentFiles);
+        segments.put("diskBytes", diskBytes);
+        segments.put("liveBytes", liveBytes);
+        segments.put("maxSegmentBytes", segmentStore.getSegmentMaxBytes());
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("minAgeDays", minAgeDays);
+        status.put("database", database);
+        status.put("segments", segments);
+        status.put("lastRun", lastRun);
+        return status;
+    }
+}
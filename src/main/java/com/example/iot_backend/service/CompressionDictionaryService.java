@@ -0,0 +1,213 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.archive.CompressionCodec;
+import com.example.iot_backend.archive.ZstdCodec;
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import com.example.iot_backend.ingest.BinaryPayloadCodec;
+import com.example.iot_backend.model.CompressionDictionary;
+import com.example.iot_backend.repository.CompressionDictionaryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Train và tra cứu dictionary nén theo Device.type.
+ *
+ * Mẫu train là các chunk record liên tiếp của cùng device, serialize đúng theo
+ * định dạng archive đang dùng, nên dictionary học được cả tên field lẫn cấu trúc
+ * lặp lại của loại thiết bị đó.
+ */
+@Service
+public class CompressionDictionaryService {
+    private static final Logger log = LoggerFactory.getLogger(CompressionDictionaryService.class);
+
+    private static final String SELECT_RECORDS = "SELECT t.id, t.device_id, d.name, t.ts, t.data, t.data_bin "
+            + "FROM telemetry t JOIN devices d ON d.id = t.device_id ";
+    private static final String TYPE_SAMPLE_SQL = SELECT_RECORDS
+            + "WHERE d.type IS NOT DISTINCT FROM ? AND t.ts >= ? ORDER BY t.device_id, t.ts LIMIT ?";
+    private static final String DEVICE_SAMPLE_SQL = SELECT_RECORDS
+            + "WHERE t.device_id = ? ORDER BY t.ts DESC LIMIT ?";
+
+    private static final RowMapper<TelemetryArchiveDTO> RECORD_MAPPER = (rs, rowNum) -> {
+        String data = rs.getString(5);
+        if (data == null) {
+            byte[] bin = rs.getBytes(6);
+            data = bin != null ? BinaryPayloadCodec.toJson(bin) : null;
+        }
+        Timestamp ts = rs.getTimestamp(4);
+        return new TelemetryArchiveDTO(rs.getLong(1), rs.getLong(2), rs.getString(3),
+                ts != null ? ts.toInstant() : null, data);
+    };
+
+    // Key cache cho device type null
+    private static final String NO_TYPE = "";
+
+    private final CompressionDictionaryRepository dictionaryRepo;
+    private final DataCompressionService compressionService;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int dictionarySize;
+    private final int sampleRecords;
+    private final int chunkRecords;
+    private final int minSamples;
+    private final int sampleDays;
+    private final int maxAgeDays;
+
+    // Dictionary mới nhất theo device type và dictionary theo id (bất biến)
+    private final Map<String, Optional<CompressionDictionary>> latestByType = new ConcurrentHashMap<>();
+    private final Map<Long, byte[]> byId = new ConcurrentHashMap<>();
+
+    public CompressionDictionaryService(CompressionDictionaryRepository dictionaryRepo,
+            DataCompressionService compressionService, JdbcTemplate jdbcTemplate,
+            @Value("${app.archive.dictionary.enabled:true}") boolean enabled,
+            @Value("${app.archive.dictionary.size-bytes:16384}") int dictionarySize,
+            @Value("${app.archive.dictionary.sample-records:20000}") int sampleRecords,
+            @Value("${app.archive.dictionary.chunk-records:32}") int chunkRecords,
+            @Value("${app.archive.dictionary.min-samples:100}") int minSamples,
+            @Value("${app.archive.dictionary.sample-days:7}") int sampleDays,
+            @Value("${app.archive.dictionary.max-age-days:30}") int maxAgeDays) {
+        this.dictionaryRepo = dictionaryRepo;
+        this.compressionService = compressionService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.dictionarySize = dictionarySize;
+        this.sampleRecords = sampleRecords;
+        this.chunkRecords = Math.max(1, chunkRecords);
+        this.minSamples = minSamples;
+        this.sampleDays = sampleDays;
+        this.maxAgeDays = maxAgeDays;
+    }
+
+    /**
+     * Dictionary dùng khi nén archive cho loại thiết bị; null nếu codec hiện tại
+     * không hỗ trợ dictionary hoặc chưa train
+     */
+    public CompressionDictionary findForDeviceType(String deviceType) {
+        CompressionCodec codec = compressionService.getArchiveCodec();
+        if (!enabled || !codec.supportsDictionary())
+            return null;
+        return latestByType.computeIfAbsent(key(deviceType),
+                k -> dictionaryRepo.findFirstByCodecAndFormatVersionAndDeviceTypeOrderByIdDesc(codec.getName(),
+                        compressionService.getArchiveFormat(), deviceType))
+                .orElse(null);
+    }
+
+    /**
+     * Nội dung dictionary theo id lưu trong archive; null nếu id null
+     */
+    public byte[] getDictionary(Long dictionaryId) {
+        if (dictionaryId == null)
+            return null;
+        return byId.computeIfAbsent(dictionaryId, id -> dictionaryRepo.findById(id)
+                .map(CompressionDictionary::getDictionary)
+                .orElseThrow(() -> new IllegalStateException("Compression dictionary " + id + " not found")));
+    }
+
+    public List<CompressionDictionary> findAll() {
+        return dictionaryRepo.findAllByOrderByIdDesc();
+    }
+
+    /**
+     * Chạy trước job archive (2:00): train lại dictionary đã cũ hoặc còn thiếu cho
+     * từng loại thiết bị
+     */
+    @Scheduled(cron = "${app.archive.dictionary.train-cron:0 30 1 * * *}")
+    public void scheduledTraining() {
+        if (!enabled || !compressionService.getArchiveCodec().supportsDictionary())
+            return;
+        Instant staleBefore = Instant.now().minus(maxAgeDays, ChronoUnit.DAYS);
+        List<String> types = jdbcTemplate.queryForList("SELECT DISTINCT type FROM devices", String.class);
+        for (String type : types) {
+            CompressionDictionary current = findForDeviceType(type);
+            if (current != null && current.getCreatedAt().isAfter(staleBefore))
+                continue;
+            try {
+                train(type);
+            } catch (Exception e) {
+                log.warn("Could not train compression dictionary for device type {}: {}", type, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Train dictionary mới cho loại thiết bị từ telemetry gần đây
+     */
+    public CompressionDictionary train(String deviceType) {
+        CompressionCodec codec = compressionService.getArchiveCodec();
+        if (!(codec instanceof ZstdCodec zstd))
+            throw new IllegalStateException("Codec " + codec.getName() + " does not support trained dictionaries");
+
+        Instant since = Instant.now().minus(sampleDays, ChronoUnit.DAYS);
+        List<TelemetryArchiveDTO> records = jdbcTemplate.query(TYPE_SAMPLE_SQL, RECORD_MAPPER,
+                deviceType, Timestamp.from(since), sampleRecords);
+        List<byte[]> samples = toSamples(records);
+        if (samples.size() < minSamples)
+            throw new IllegalStateException("Not enough samples for device type " + deviceType + ": "
+                    + samples.size() + " < " + minSamples);
+
+        byte[] dictionary = zstd.trainDictionary(samples, dictionarySize);
+        CompressionDictionary saved = dictionaryRepo.save(
+                new CompressionDictionary(codec.getName(), compressionService.getArchiveFormat(), deviceType,
+                        dictionary, samples.size()));
+        latestByType.put(key(deviceType), Optional.of(saved));
+        log.info("Trained {} byte {} dictionary {} for device type {} from {} samples",
+                dictionary.length, codec.getName(), saved.getId(), deviceType, samples.size());
+        return saved;
+    }
+
+    /**
+     * Record gần nhất của một device theo thứ tự thời gian (dùng cho benchmark)
+     */
+    public List<TelemetryArchiveDTO> loadRecentRecords(Long deviceId, int limit) {
+        List<TelemetryArchiveDTO> records = new ArrayList<>(
+                jdbcTemplate.query(DEVICE_SAMPLE_SQL, RECORD_MAPPER, deviceId, limit));
+        Collections.reverse(records);
+        return records;
+    }
+
+    /**
+     * Cắt record (đã sắp theo device, ts) thành các chunk cùng device và
+     * serialize theo định dạng archive
+     */
+    private List<byte[]> toSamples(List<TelemetryArchiveDTO> records) {
+        List<byte[]> samples = new ArrayList<>();
+        List<TelemetryArchiveDTO> chunk = new ArrayList<>(chunkRecords);
+        for (TelemetryArchiveDTO record : records) {
+            if (record.getTs() == null)
+                continue; // định dạng cột không nhận ts null
+            if (!chunk.isEmpty() && (chunk.size() == chunkRecords
+                    || !Objects.equals(chunk.get(0).getDeviceId(), record.getDeviceId()))) {
+                samples.add(serialize(chunk));
+                chunk.clear();
+            }
+            chunk.add(record);
+        }
+        if (!chunk.isEmpty()) {
+            samples.add(serialize(chunk));
+        }
+        return samples;
+    }
+
+    private byte[] serialize(List<TelemetryArchiveDTO> chunk) {
+        return compressionService.serializeArchive(chunk, compressionService.getArchiveFormat());
+    }
+
+    private static String key(String deviceType) {
+        return deviceType != null ? deviceType : NO_TYPE;
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.ingest.MetricPointBatch;
+import com.example.iot_backend.ingest.TelemetryRecord;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ghi batch bằng PostgreSQL COPY ... FROM STDIN (CSV) qua PgJDBC CopyManager.
+ * Nhanh hơn INSERT nhiều khi batch lớn vì không parse/plan từng câu lệnh.
+ *
+ * COPY không hỗ trợ ON CONFLICT nên dữ liệu được COPY vào bảng tạm (theo session, xóa khi commit)
+ * rồi INSERT ... SELECT ... ON CONFLICT DO NOTHING để bỏ qua bản ghi trùng.
+ */
+@Component
+public class CopyTelemetryBatchWriter implements TelemetryBatchWriter {
+
+    private static final String STAGE_SQL = "CREATE TEMP TABLE IF NOT EXISTS telemetry_stage "
+            + "(device_id bigint, ts timestamptz, data text, data_bin bytea, dedupe_key bigint) ON COMMIT DELETE ROWS";
+    private static final String COPY_SQL = "COPY telemetry_stage (device_id, ts, data, data_bin, dedupe_key) "
+            + "FROM STDIN WITH (FORMAT csv)";
+    private static final String MERGE_SQL = "INSERT INTO telemetry (device_id, ts, data, data_bin, dedupe_key) "
+            + "SELECT device_id, ts, data, data_bin, dedupe_key FROM telemetry_stage "
+            + "ON CONFLICT DO NOTHING RETURNING dedupe_key";
+
+    private static final String POINTS_STAGE_SQL = "CREATE TEMP TABLE IF NOT EXISTS telemetry_points_stage "
+            + "(device_id bigint, metric_id integer, ts timestamptz, value double precision) ON COMMIT DELETE ROWS";
+    private static final String POINTS_COPY_SQL = "COPY telemetry_points_stage (device_id, metric_id, ts, value) "
+            + "FROM STDIN WITH (FORMAT csv)";
+    private static final String POINTS_MERGE_SQL = "INSERT INTO telemetry_points (device_id, metric_id, ts, value) "
+            + "SELECT device_id, metric_id, ts, value FROM telemetry_points_stage ON CONFLICT DO NOTHING";
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final DataSource dataSource;
+
+    public CopyTelemetryBatchWriter(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public String mode() {
+        return "copy";
+    }
+
+    @Override
+    public List<TelemetryRecord> write(List<TelemetryRecord> records) {
+        // Lấy connection của transaction hiện tại (nếu có) để COPY commit cùng transaction
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            prepareStage(connection, STAGE_SQL, "telemetry_stage");
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            try {
+                StringBuilder chunk = new StringBuilder(CHUNK_SIZE);
+                for (TelemetryRecord r : records) {
+                    appendRow(chunk, r);
+                    if (chunk.length() >= CHUNK_SIZE) {
+                        writeChunk(copyIn, chunk);
+                    }
+                }
+                writeChunk(copyIn, chunk);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+
+            Set<Long> insertedKeys = new HashSet<>();
+            try (Statement st = connection.createStatement(); ResultSet rs = st.executeQuery(MERGE_SQL)) {
+                while (rs.next()) {
+                    long key = rs.getLong(1);
+                    if (!rs.wasNull()) {
+                        insertedKeys.add(key);
+                    }
+                }
+            }
+            return TelemetryBatchWriter.insertedRecords(records, insertedKeys);
+        } catch (SQLException e) {
+            throw new IllegalStateException("COPY into telemetry failed: " + e.getMessage(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    @Override
+    public void writePoints(MetricPointBatch points) {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            prepareStage(connection, POINTS_STAGE_SQL, "telemetry_points_stage");
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(POINTS_COPY_SQL);
+            try {
+                StringBuilder chunk = new StringBuilder(CHUNK_SIZE);
+                for (int i = 0; i < points.size(); i++) {
+                    chunk.append(points.getDeviceId(i)).append(',')
+                            .append(points.getMetricId(i)).append(',')
+                            .append(points.getTs(i)).append(',')
+                            .append(points.getValue(i)).append('\n');
+                    if (chunk.length() >= CHUNK_SIZE) {
+                        writeChunk(copyIn, chunk);
+                    }
+                }
+                writeChunk(copyIn, chunk);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+            try (Statement st = connection.createStatement()) {
+                st.executeUpdate(POINTS_MERGE_SQL);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("COPY into telemetry_points failed: " + e.getMessage(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private void prepareStage(Connection connection, String createSql, String table) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute(createSql);
+            // Bảng tạm sống theo session (connection được pool tái sử dụng) nên dọn trước khi COPY
+            st.execute("TRUNCATE " + table);
+        }
+    }
+
+    private void appendRow(StringBuilder sb, TelemetryRecord r) {
+        sb.append(r.getDeviceId()).append(',').append(r.getTs()).append(',');
+        if (r.getData() != null) {
+            // CSV: bọc trong dấu nháy kép, nhân đôi dấu nháy bên trong
+            sb.append('"');
+            String data = r.getData();
+            for (int i = 0; i < data.length(); i++) {
+                char c = data.charAt(i);
+                if (c == '"') {
+                    sb.append('"');
+                }
+                sb.append(c);
+            }
+            sb.append('"');
+        }
+        sb.append(',');
+        if (r.getBinaryData() != null) {
+            // bytea dạng hex: \x0a1b...
+            sb.append("\\x");
+            for (byte b : r.getBinaryData()) {
+                sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+        }
+        sb.append(',');
+        if (r.getDedupeKeyOrNull() != null) {
+            sb.append(r.getDedupeKey());
+        }
+        sb.append('\n');
+    }
+
+    private void writeChunk(CopyIn copyIn, StringBuilder chunk) throws SQLException {
+        if (chunk.length() == 0)
+            return;
+        byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        chunk.setLength(0);
+    }
+}
@@ -1,14 +1,40 @@
 package com.example.iot_backend.service;
 
+import com.example.iot_backend.archive.ArchiveTimeIndex;
+import com.example.iot_backend.archive.BufferPool;
+import com.example.iot_backend.archive.ByteBufferInputStream;
+import com.example.iot_backend.archive.ColumnarArchiveCodec;
+import com.example.iot_backend.archive.CompressionCodec;
+import com.example.iot_backend.archive.CompressionCodecRegistry;
+import com.example.iot_backend.archive.GzipCodec;
+import com.example.iot_backend.archive.PooledByteArrayOutputStream;
+import com.example.iot_backend.archive.StoredCodec;
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import com.example.iot_backend.model.CompressionDictionary;
+import com.example.iot_backend.model.TelemetryArchive;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -17,26 +43,439 @@ public class DataCompressionService {
     private static final Logger log = LoggerFactory.getLogger(DataCompressionService.class);
 
     private final ObjectMapper objectMapper;
+    // Không flush sau mỗi record: flush ép codec đóng block và làm hỏng tỷ lệ nén
+    private final ObjectWriter recordWriter;
+    private final ObjectWriter streamWriter;
+    private final ObjectReader recordReader;
+    private final CompressionCodecRegistry codecs;
+    private final int archiveFormat;
+    private final CompressionCodec archiveCodec;
+    private final int chunkRecords;
 
-    public DataCompressionService() {
+    public DataCompressionService(CompressionCodecRegistry codecs,
+            @Value("${app.archive.format:COLUMNAR}") String archiveFormat,
+            @Value("${app.archive.codec:ZSTD}") String archiveCodec,
+            @Value("${app.archive.index.chunk-records:4096}") int chunkRecords) {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
+        this.recordWriter = objectMapper.writerFor(TelemetryArchiveDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.streamWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.recordReader = objectMapper.readerFor(TelemetryArchiveDTO.class);
+        this.codecs = codecs;
+        this.archiveFormat = switch (archiveFormat.trim().toUpperCase()) {
+            case "JSON" -> TelemetryArchive.FORMAT_JSON;
+            case "COLUMNAR" -> TelemetryArchive.FORMAT_COLUMNAR;
+            default -> throw new IllegalArgumentException("Unknown app.archive.format: " + archiveFormat);
+        };
+        this.archiveCodec = codecs.get(archiveCodec);
+        this.chunkRecords = Math.max(1, chunkRecords);
     }
 
     /**
-     * Nén dữ liệu JSON thành byte array
+     * Dữ liệu archive đã mã hóa: định dạng (TelemetryArchive.FORMAT_*), codec,
+     * dictionary đã dùng, kích thước trước khi nén và time index của các chunk
      */
-    public byte[] compressData(Object data) {
-        try {
-            // Convert object to JSON string
-            String jsonString = objectMapper.writeValueAsString(data);
+    public record EncodedArchive(int formatVersion, String codec, Long dictionaryId, long rawSize, byte[] data,
+            byte[] timeIndex) {
+    }
+
+    public CompressionCodec getArchiveCodec() {
+        return archiveCodec;
+    }
+
+    public int getArchiveFormat() {
+        return archiveFormat;
+    }
+
+    /**
+     * Mở writer archive theo app.archive.format / app.archive.codec; dictionary chỉ
+     * được dùng khi cùng codec và định dạng
+     */
+    public ArchiveWriter openArchiveWriter(CompressionDictionary dictionary) throws IOException {
+        return new ArchiveWriter(archiveFormat, archiveCodec, dictionary);
+    }
+
+    /**
+     * Mã hóa và nén một danh sách record
+     */
+    public EncodedArchive encodeArchive(List<TelemetryArchiveDTO> records, CompressionDictionary dictionary) {
+        try (ArchiveWriter writer = openArchiveWriter(dictionary)) {
+            for (TelemetryArchiveDTO dto : records) {
+                writer.add(dto);
+            }
+            return writer.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode archive", e);
+        }
+    }
+
+    /**
+     * Writer archive streaming: với JSON, Jackson ghi từng record thẳng vào stream
+     * nén; với dạng cột, record được tách thành các cột primitive và ghi vào
+     * stream nén khi đóng chunk. Dữ liệu nén nằm trong các chunk của BufferPool nên
+     * không có bản JSON / byte[] trung gian nào của cả archive trên heap.
+     *
+     * Mỗi app.archive.index.chunk-records record là một chunk nén độc lập (JSON
+     * array hoặc khối dạng cột riêng); ArchiveTimeIndex ghi độ dài và khoảng ts của
+     * từng chunk để khi đọc có thể bỏ qua chunk nằm ngoài khoảng thời gian
+     */
+    public final class ArchiveWriter implements Closeable {
+        private final int formatVersion;
+        private final CompressionCodec codec;
+        private final byte[] dictionary;
+        private final Long dictionaryId;
+        private final PooledByteArrayOutputStream sink = new PooledByteArrayOutputStream();
+        private final ArchiveTimeIndex.Builder index = new ArchiveTimeIndex.Builder();
+        private CountingOutputStream raw;
+        private JsonGenerator generator;
+        private ColumnarArchiveCodec.Writer columnar;
+        private long rawSize;
+        private int count;
+        private int chunkCount;
+        private long chunkStart;
+        private long chunkMin;
+        private long chunkMax;
+        private boolean finished;
+
+        private ArchiveWriter(int formatVersion, CompressionCodec codec, CompressionDictionary dictionary) {
+            this.formatVersion = formatVersion;
+            this.codec = codec;
+            this.dictionary = usableDictionary(codec, formatVersion, dictionary);
+            this.dictionaryId = this.dictionary != null ? dictionary.getId() : null;
+        }
+
+        public void add(TelemetryArchiveDTO dto) throws IOException {
+            if (raw == null) {
+                openChunk();
+            }
+            if (columnar != null) {
+                columnar.add(dto);
+            } else {
+                recordWriter.writeValue(generator, dto);
+            }
+            if (dto.getTs() != null) {
+                long millis = dto.getTs().toEpochMilli();
+                chunkMin = Math.min(chunkMin, millis);
+                chunkMax = Math.max(chunkMax, millis);
+            }
+            count++;
+            if (++chunkCount == chunkRecords) {
+                closeChunk();
+            }
+        }
+
+        public int size() {
+            return count;
+        }
+
+        private void openChunk() throws IOException {
+            chunkStart = sink.size();
+            chunkCount = 0;
+            chunkMin = Long.MAX_VALUE;
+            chunkMax = Long.MIN_VALUE;
+            raw = new CountingOutputStream(codec.compress(sink, dictionary));
+            if (formatVersion == TelemetryArchive.FORMAT_COLUMNAR) {
+                columnar = ColumnarArchiveCodec.newWriter();
+            } else {
+                generator = objectMapper.getFactory().createGenerator(raw);
+                generator.writeStartArray();
+            }
+        }
 
-            // Compress JSON string
-            return compressString(jsonString);
+        private void closeChunk() throws IOException {
+            if (columnar != null) {
+                columnar.writeTo(raw);
+                raw.close();
+                columnar = null;
+            } else {
+                generator.writeEndArray();
+                generator.close(); // đóng luôn stream nén (AUTO_CLOSE_TARGET)
+                generator = null;
+            }
+            rawSize += raw.getCount();
+            raw = null;
+            index.add((int) (sink.size() - chunkStart), chunkMin, chunkMax);
+        }
+
+        /**
+         * Kết thúc chunk cuối và trả về archive; chỉ gọi một lần
+         */
+        public EncodedArchive finish() throws IOException {
+            if (raw == null && count == 0) {
+                openChunk(); // archive rỗng vẫn là một chunk hợp lệ
+            }
+            if (raw != null) {
+                closeChunk();
+            }
+            finished = true;
+            return new EncodedArchive(formatVersion, codec.getName(), dictionaryId, rawSize, sink.toByteArray(),
+                    index.toBytes());
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (!finished && raw != null) {
+                    raw.close(); // giải phóng bộ nhớ native của codec
+                }
+            } catch (IOException e) {
+                log.debug("Error closing archive stream: {}", e.getMessage());
+            } finally {
+                sink.release();
+            }
+        }
+    }
 
+    /**
+     * Đếm số byte chưa nén đi vào codec
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Serialize record theo định dạng, chưa nén (dùng làm mẫu train dictionary và
+     * benchmark)
+     */
+    public byte[] serializeArchive(List<TelemetryArchiveDTO> records, int formatVersion) {
+        if (formatVersion == TelemetryArchive.FORMAT_COLUMNAR) {
+            return ColumnarArchiveCodec.encode(records);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(records);
         } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize archive", e);
+        }
+    }
+
+    /**
+     * Đọc archive theo kiểu streaming: giải nén và parse từng record rồi trả cho
+     * consumer, không dựng chuỗi JSON hay danh sách của cả archive. dictionary là
+     * CompressionDictionary.dictionary ứng với archive.dictionaryId (null nếu
+     * không có)
+     */
+    public void readArchive(TelemetryArchive archive, byte[] dictionary, Consumer<TelemetryArchiveDTO> consumer) {
+        readArchive(archive, archive.getCompressedData(), 0, dictionary, null, null, consumer);
+    }
+
+    /**
+     * Đọc các record có ts trong [from, to] (null = không giới hạn). data là dữ
+     * liệu nén của archive bắt đầu từ byte dataOffset (có thể chỉ là đoạn
+     * ArchiveTimeIndex.byteRange); với archive có time index, chunk nằm ngoài
+     * khoảng không được giải nén
+     */
+    public void readArchive(TelemetryArchive archive, byte[] data, int dataOffset, byte[] dictionary,
+            Instant from, Instant to, Consumer<TelemetryArchiveDTO> consumer) {
+        readArchive(archive, ByteBuffer.wrap(data), dataOffset, dictionary, from, to, consumer);
+    }
+
+    /**
+     * Như trên với dữ liệu nén trong ByteBuffer (index 0 ứng với byte dataOffset), vd. vùng map của segment
+     * file: chunk được giải nén thẳng từ buffer, không copy ra heap
+     */
+    public void readArchive(TelemetryArchive archive, ByteBuffer data, int dataOffset, byte[] dictionary,
+            Instant from, Instant to, Consumer<TelemetryArchiveDTO> consumer) {
+        CompressionCodec codec = codecs.get(codecOf(archive));
+        Consumer<TelemetryArchiveDTO> target = from == null && to == null ? consumer : dto -> {
+            Instant ts = dto.getTs();
+            if (ts != null && (from == null || !ts.isBefore(from)) && (to == null || !ts.isAfter(to))) {
+                consumer.accept(dto);
+            }
+        };
+        try {
+            if (archive.getTimeIndex() == null) {
+                // Archive cũ: một stream nén duy nhất
+                readChunk(codec, data, 0, data.limit(), dictionary, archive.getFormatVersion(), target);
+                return;
+            }
+            ArchiveTimeIndex index = ArchiveTimeIndex.parse(archive.getTimeIndex());
+            for (int i = 0; i < index.size(); i++) {
+                if (!index.overlaps(i, from, to))
+                    continue;
+                int start = index.start(i) - dataOffset;
+                int end = index.end(i) - dataOffset;
+                if (start < 0 || end > data.limit())
+                    throw new IOException("Chunk " + i + " is outside of the loaded archive data");
+                readChunk(codec, data, start, end - start, dictionary, archive.getFormatVersion(), target);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read archive " + archive.getId(), e);
+        }
+    }
+
+    private void readChunk(CompressionCodec codec, ByteBuffer data, int offset, int length, byte[] dictionary,
+            Integer formatVersion, Consumer<TelemetryArchiveDTO> consumer) throws IOException {
+        try (InputStream in = codec.decompress(new ByteBufferInputStream(data.slice(offset, length)), dictionary)) {
+            readRecords(in, formatVersion, consumer);
+        }
+    }
+
+    /**
+     * Giải nén và giải mã cả archive thành danh sách
+     */
+    public List<TelemetryArchiveDTO> decodeArchive(TelemetryArchive archive, byte[] dictionary) {
+        List<TelemetryArchiveDTO> records = new ArrayList<>(
+                archive.getOriginalCount() != null ? archive.getOriginalCount() : 16);
+        readArchive(archive, dictionary, records::add);
+        return records;
+    }
+
+    private void readRecords(InputStream in, Integer formatVersion, Consumer<TelemetryArchiveDTO> consumer)
+            throws IOException {
+        if (formatVersion != null && formatVersion == TelemetryArchive.FORMAT_COLUMNAR) {
+            ColumnarArchiveCodec.decode(in, consumer);
+            return;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+                throw new IOException("Archive payload is not a JSON array");
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                consumer.accept(recordReader.readValue(parser));
+            }
+        }
+    }
+
+    private List<TelemetryArchiveDTO> deserializeArchive(byte[] raw, int formatVersion) {
+        List<TelemetryArchiveDTO> records = new ArrayList<>();
+        try (InputStream in = new ByteArrayInputStream(raw)) {
+            readRecords(in, formatVersion, records::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to deserialize archive", e);
+        }
+        return records;
+    }
+
+    /**
+     * Codec của archive; archive cũ (codec null) là GZIP-JSON hoặc dạng cột không
+     * nén
+     */
+    public static String codecOf(TelemetryArchive archive) {
+        if (archive.getCodec() != null)
+            return archive.getCodec();
+        Integer format = archive.getFormatVersion();
+        return format != null && format == TelemetryArchive.FORMAT_COLUMNAR ? StoredCodec.NAME : GzipCodec.NAME;
+    }
+
+    /**
+     * Dictionary chỉ có ích khi train cùng codec và cùng định dạng dữ liệu
+     */
+    private static byte[] usableDictionary(CompressionCodec codec, int formatVersion,
+            CompressionDictionary dictionary) {
+        if (dictionary == null || !codec.supportsDictionary() || !codec.getName().equals(dictionary.getCodec())
+                || dictionary.getFormatVersion() == null || dictionary.getFormatVersion() != formatVersion)
+            return null;
+        return dictionary.getDictionary();
+    }
+
+    /**
+     * So sánh các định dạng x codec trên dữ liệu thật: kích thước, tỷ lệ nén so
+     * với JSON thô và throughput nén / giải nén (MB/s tính trên dữ liệu thô)
+     */
+    public List<Map<String, Object>> benchmark(List<TelemetryArchiveDTO> samples, CompressionDictionary dictionary,
+            int iterations) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        if (samples.isEmpty())
+            return results;
+        int jsonSize = serializeArchive(samples, TelemetryArchive.FORMAT_JSON).length;
+
+        for (int format : new int[] { TelemetryArchive.FORMAT_JSON, TelemetryArchive.FORMAT_COLUMNAR }) {
+            byte[] raw;
+            try {
+                raw = serializeArchive(samples, format);
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                continue;
+            }
+            for (CompressionCodec codec : codecs.getAll()) {
+                results.add(benchmarkOne(format, codec, null, raw, samples.size(), jsonSize, iterations));
+                byte[] dict = usableDictionary(codec, format, dictionary);
+                if (dict != null) {
+                    results.add(benchmarkOne(format, codec, dictionary, raw, samples.size(), jsonSize, iterations));
+                }
+            }
+        }
+        return results;
+    }
+
+    private Map<String, Object> benchmarkOne(int format, CompressionCodec codec, CompressionDictionary dictionary,
+            byte[] raw, int records, int jsonSize, int iterations) {
+        byte[] dict = dictionary != null ? dictionary.getDictionary() : null;
+        // Warm-up một lượt để JIT / native lib không tính vào kết quả
+        byte[] compressed = codec.compress(raw, dict);
+        deserializeArchive(codec.decompress(compressed, dict), format);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            compressed = codec.compress(raw, dict);
+        }
+        long compressNanos = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            codec.decompress(compressed, dict);
+        }
+        long decompressNanos = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            deserializeArchive(codec.decompress(compressed, dict), format);
+        }
+        long decodeNanos = (System.nanoTime() - start) / iterations;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("format", format == TelemetryArchive.FORMAT_COLUMNAR ? "COLUMNAR" : "JSON");
+        result.put("codec", codec.getName());
+        result.put("dictionaryId", dictionary != null ? dictionary.getId() : null);
+        result.put("records", records);
+        result.put("jsonBytes", jsonSize);
+        result.put("rawBytes", raw.length);
+        result.put("compressedBytes", compressed.length);
+        result.put("compressionRatio", calculateCompressionRatio(jsonSize, compressed.length));
+        result.put("compressMBps", megabytesPerSecond(raw.length, compressNanos));
+        result.put("decompressMBps", megabytesPerSecond(raw.length, decompressNanos));
+        result.put("decodeRecordsPerSec", decodeNanos > 0 ? records * 1_000_000_000L / decodeNanos : 0);
+        return result;
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos > 0 ? bytes / 1_048_576.0 / (nanos / 1_000_000_000.0) : 0.0;
+    }
+
+    /**
+     * Nén dữ liệu JSON thành byte array (Jackson ghi thẳng vào GZIP stream)
+     */
+    public byte[] compressData(Object data) {
+        PooledByteArrayOutputStream sink = new PooledByteArrayOutputStream();
+        try {
+            try (OutputStream gzipOut = new GZIPOutputStream(sink, 8192)) {
+                streamWriter.writeValue(gzipOut, data);
+            }
+            return sink.toByteArray();
+        } catch (IOException e) {
             log.error("Error converting object to JSON: {}", e.getMessage());
             throw new RuntimeException("Failed to compress data", e);
+        } finally {
+            sink.release();
         }
     }
 
@@ -47,15 +486,16 @@ public class DataCompressionService {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 GZIPOutputStream gzipOut = new GZIPOutputStream(baos)) {
 
-            gzipOut.write(data.getBytes("UTF-8"));
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            gzipOut.write(bytes);
             gzipOut.finish();
 
             byte[] compressed = baos.toByteArray();
 
-            log.debug("Compressed {} bytes to {} bytes (ratio: {:.2f})",
-                    data.getBytes("UTF-8").length,
-                    compressed.length,
-                    (double) compressed.length / data.getBytes("UTF-8").length);
+            if (log.isDebugEnabled()) {
+                log.debug("Compressed {} bytes to {} bytes (ratio: {})", bytes.length, compressed.length,
+                        String.format("%.2f", calculateCompressionRatio(bytes.length, compressed.length)));
+            }
 
             return compressed;
 
@@ -69,48 +509,46 @@ public class DataCompressionService {
      * Giải nén byte array thành string
      */
     public String decompressToString(byte[] compressedData) {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(compressedData);
-                GZIPInputStream gzipIn = new GZIPInputStream(bais);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-
-            byte[] buffer = new byte[1024];
+        PooledByteArrayOutputStream sink = new PooledByteArrayOutputStream();
+        byte[] buffer = BufferPool.acquire();
+        try (InputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(compressedData), 8192)) {
             int len;
             while ((len = gzipIn.read(buffer)) != -1) {
-                baos.write(buffer, 0, len);
+                sink.write(buffer, 0, len);
             }
-
-            return baos.toString("UTF-8");
+            return new String(sink.toByteArray(), StandardCharsets.UTF_8);
 
         } catch (IOException e) {
             log.error("Error decompressing data: {}", e.getMessage());
             throw new RuntimeException("Failed to decompress data", e);
+        } finally {
+            BufferPool.release(buffer);
+            sink.release();
         }
     }
 
     /**
-     * Giải nén byte array thành object
+     * Giải nén byte array thành object (Jackson đọc thẳng từ GZIP stream)
      */
     public <T> T decompressToObject(byte[] compressedData, Class<T> targetClass) {
-        try {
-            String jsonString = decompressToString(compressedData);
-            return objectMapper.readValue(jsonString, targetClass);
+        try (InputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(compressedData), 8192)) {
+            return objectMapper.readValue(gzipIn, targetClass);
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             log.error("Error converting JSON to object: {}", e.getMessage());
             throw new RuntimeException("Failed to decompress to object", e);
         }
     }
 
     /**
-     * Giải nén byte array thành List
+     * Giải nén byte array thành List (Jackson đọc thẳng từ GZIP stream)
      */
     public <T> List<T> decompressToList(byte[] compressedData, Class<T> elementClass) {
-        try {
-            String jsonString = decompressToString(compressedData);
-            return objectMapper.readValue(jsonString,
+        try (InputStream gzipIn = new GZIPInputStream(new ByteArrayInputStream(compressedData), 8192)) {
+            return objectMapper.readValue(gzipIn,
                     objectMapper.getTypeFactory().constructCollectionType(List.class, elementClass));
 
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             log.error("Error converting JSON to list: {}", e.getMessage());
             throw new RuntimeException("Failed to decompress to list", e);
         }
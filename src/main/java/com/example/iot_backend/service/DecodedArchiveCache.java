@@ -0,0 +1,225 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Cache các archive đã giải nén, key theo archive ID, giới hạn theo dung lượng ước tính (byte) và loại bỏ
+ * theo LRU.
+ *
+ * Record được giữ dạng mảng sắp theo ts để phục vụ mọi khoảng thời gian bằng binary search. Archive chỉ được
+ * nạp vào cache khi được yêu cầu nguyên vẹn hoặc khi bị miss lần thứ hai trong thời gian gần (doorkeeper),
+ * nên truy vấn một lần theo khoảng hẹp vẫn chỉ đọc đoạn byte cần thiết. Dữ liệu của một archive ID không
+ * thay đổi; invalidate dùng để giải phóng bộ nhớ khi archive bị xóa hoặc ngày đó được archive lại.
+ */
+@Component
+public class DecodedArchiveCache {
+
+    // Ước tính bộ nhớ của một record ngoài độ dài chuỗi: DTO, 2 Long, Instant, 2 String + byte[], slot mảng
+    private static final int RECORD_OVERHEAD = 176;
+    private static final int DOORKEEPER_SIZE = 4096;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<Long, Boolean> doorkeeper = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > DOORKEEPER_SIZE;
+        }
+    };
+    private long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public DecodedArchiveCache(@Value("${app.archive.cache.max-bytes:134217728}") long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        // Một archive không được chiếm quá 1/4 cache để không đẩy hết các archive khác ra
+        this.maxEntryBytes = this.maxBytes / 4;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Gửi các record trong [from, to] của archive nếu có trong cache; false nếu miss
+     */
+    public boolean read(long archiveId, Instant from, Instant to, Consumer<TelemetryArchiveDTO> consumer) {
+        if (!isEnabled())
+            return false;
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(archiveId);
+        }
+        if (entry == null) {
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+        emit(entry.records, from, to, consumer);
+        return true;
+    }
+
+    /**
+     * Gửi các record trong [from, to] (null = không giới hạn) của mảng đã sắp theo ts
+     */
+    static void emit(TelemetryArchiveDTO[] records, Instant from, Instant to,
+            Consumer<TelemetryArchiveDTO> consumer) {
+        for (int i = firstAtOrAfter(records, from); i < records.length; i++) {
+            if (to != null && records[i].getTs().isAfter(to))
+                break;
+            consumer.accept(records[i]);
+        }
+    }
+
+    /**
+     * Có nên giải nén cả archive để nạp cache không: luôn đúng khi truy vấn đọc cả archive, còn lại chỉ từ lần
+     * miss thứ hai. Archive chắc chắn vượt giới hạn một entry (tính theo số record) bị bỏ qua.
+     */
+    public boolean shouldLoad(long archiveId, boolean wholeArchive, int recordCount) {
+        if (!isEnabled())
+            return false;
+        if ((long) recordCount * RECORD_OVERHEAD > maxEntryBytes) {
+            rejected.increment();
+            return false;
+        }
+        synchronized (this) {
+            if (wholeArchive || doorkeeper.remove(archiveId) != null)
+                return true;
+            doorkeeper.put(archiveId, Boolean.TRUE);
+            return false;
+        }
+    }
+
+    /**
+     * Đưa archive đã giải nén (đã sắp theo ts) vào cache, loại archive ít dùng nhất tới khi đủ chỗ
+     */
+    public void put(long archiveId, long deviceId, Instant startDate, Instant endDate,
+            TelemetryArchiveDTO[] records) {
+        long bytes = estimateBytes(records);
+        if (bytes > maxEntryBytes) {
+            rejected.increment();
+            return;
+        }
+        Entry entry = new Entry(deviceId, startDate, endDate, records, bytes);
+        synchronized (this) {
+            Entry old = entries.put(archiveId, entry);
+            if (old != null) {
+                currentBytes -= old.bytes;
+            }
+            currentBytes += bytes;
+            loads.increment();
+            Iterator<Entry> it = entries.values().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next();
+                if (eldest == entry)
+                    continue;
+                it.remove();
+                currentBytes -= eldest.bytes;
+                evictions.increment();
+            }
+        }
+    }
+
+    public synchronized void invalidate(long archiveId) {
+        doorkeeper.remove(archiveId);
+        Entry old = entries.remove(archiveId);
+        if (old != null) {
+            currentBytes -= old.bytes;
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Bỏ mọi archive của device chồng lấn [startDate, endDate) (ngày được archive lại)
+     */
+    public synchronized void invalidateOverlapping(long deviceId, Instant startDate, Instant endDate) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.deviceId == deviceId && entry.startDate.isBefore(endDate)
+                    && !entry.endDate.isBefore(startDate)) {
+                it.remove();
+                currentBytes -= entry.bytes;
+                invalidations.increment();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations.add(entries.size());
+        entries.clear();
+        doorkeeper.clear();
+        currentBytes = 0;
+    }
+
+    private static long estimateBytes(TelemetryArchiveDTO[] records) {
+        long bytes = 16L + 4L * records.length;
+        for (TelemetryArchiveDTO dto : records) {
+            bytes += RECORD_OVERHEAD + length(dto.getData()) + length(dto.getDeviceName());
+        }
+        return bytes;
+    }
+
+    private static int length(String s) {
+        return s != null ? s.length() : 0;
+    }
+
+    /**
+     * Vị trí record đầu tiên có ts >= from (mảng đã sắp theo ts)
+     */
+    private static int firstAtOrAfter(TelemetryArchiveDTO[] records, Instant from) {
+        if (from == null)
+            return 0;
+        int lo = 0;
+        int hi = records.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (records[mid].getTs().isBefore(from)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public Map<String, Object> getMetrics() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", isEnabled());
+        synchronized (this) {
+            metrics.put("entries", entries.size());
+            metrics.put("estimatedBytes", currentBytes);
+        }
+        metrics.put("maxBytes", maxBytes);
+        metrics.put("hits", hitCount);
+        metrics.put("misses", misses.sum());
+        metrics.put("hitRatio", lookups > 0 ? (double) hitCount / lookups : 0.0);
+        metrics.put("loads", loads.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+
+    private record Entry(long deviceId, Instant startDate, Instant endDate, TelemetryArchiveDTO[] records,
+            long bytes) {
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.iot_backend.service;
 
+import com.example.iot_backend.ingest.PayloadEnvelope;
 import com.example.iot_backend.model.Device;
 import com.example.iot_backend.model.DeviceStatus;
 import com.example.iot_backend.model.DeviceStatusEnum;
@@ -24,9 +25,6 @@ public class DeviceMonitoringService {
     private final DeviceStatusRepository deviceStatusRepo;
     private final DeviceRepository deviceRepo;
 
-    // Cache subscribed topics để tránh subscribe trùng
-    private final Set<String> subscribedTopics = new HashSet<>();
-
     public DeviceMonitoringService(DeviceStatusRepository deviceStatusRepo,
             DeviceRepository deviceRepo) {
         this.deviceStatusRepo = deviceStatusRepo;
@@ -36,7 +34,7 @@ public class DeviceMonitoringService {
     /**
      * Đánh dấu device online và cập nhật heartbeat
      */
-    public void markDeviceOnline(Long deviceId, Map<String, Object> metadata) {
+    public void markDeviceOnline(Long deviceId, PayloadEnvelope metadata) {
         Optional<DeviceStatus> statusOpt = deviceStatusRepo.findByDeviceId(deviceId);
         DeviceStatus status;
 
@@ -70,7 +68,7 @@ public class DeviceMonitoringService {
     /**
      * Cập nhật heartbeat cho device
      */
-    public void updateHeartbeat(Long deviceId, Map<String, Object> metadata) {
+    public void updateHeartbeat(Long deviceId, PayloadEnvelope metadata) {
         Optional<DeviceStatus> statusOpt = deviceStatusRepo.findByDeviceId(deviceId);
         if (statusOpt.isPresent()) {
             DeviceStatus status = statusOpt.get();
@@ -101,36 +99,28 @@ public class DeviceMonitoringService {
     /**
      * Cập nhật metadata cho device
      */
-    private void updateDeviceMetadata(DeviceStatus status, Map<String, Object> metadata) {
+    private void updateDeviceMetadata(DeviceStatus status, PayloadEnvelope metadata) {
         if (metadata == null)
             return;
 
         // Update firmware version
-        if (metadata.containsKey("firmware")) {
-            status.setFirmwareVersion(metadata.get("firmware").toString());
+        if (metadata.getFirmware() != null) {
+            status.setFirmwareVersion(metadata.getFirmware());
         }
 
         // Update IP address
-        if (metadata.containsKey("ip")) {
-            status.setIpAddress(metadata.get("ip").toString());
+        if (metadata.getIp() != null) {
+            status.setIpAddress(metadata.getIp());
         }
 
         // Update signal strength
-        if (metadata.containsKey("signal")) {
-            try {
-                status.setSignalStrength(Integer.valueOf(metadata.get("signal").toString()));
-            } catch (NumberFormatException e) {
-                log.debug("Invalid signal strength: {}", metadata.get("signal"));
-            }
+        if (metadata.hasSignal()) {
+            status.setSignalStrength(metadata.getSignal());
         }
 
         // Update battery level
-        if (metadata.containsKey("battery")) {
-            try {
-                status.setBatteryLevel(Integer.valueOf(metadata.get("battery").toString()));
-            } catch (NumberFormatException e) {
-                log.debug("Invalid battery level: {}", metadata.get("battery"));
-            }
+        if (metadata.hasBattery()) {
+            status.setBatteryLevel(metadata.getBattery());
         }
     }
 
@@ -237,28 +227,4 @@ public class DeviceMonitoringService {
         Instant since = Instant.now().minusSeconds(hours * 3600L);
         return deviceStatusRepo.findRecentlyConnectedDevices(since);
     }
-
-    /**
-     * Kiểm tra device có cần được subscribe không
-     */
-    public boolean shouldSubscribeToDevice(Long deviceId) {
-        String topic = String.format("iot/device/%d/+", deviceId);
-        return !subscribedTopics.contains(topic);
-    }
-
-    /**
-     * Đánh dấu đã subscribe topic
-     */
-    public void markTopicSubscribed(String topic) {
-        subscribedTopics.add(topic);
-        log.debug("Marked topic as subscribed: {}", topic);
-    }
-
-    /**
-     * Reset subscription cache (dùng khi restart)
-     */
-    public void resetSubscriptions() {
-        subscribedTopics.clear();
-        log.info("Reset subscription cache");
-    }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.ingest.MetricPointBatch;
+import com.example.iot_backend.ingest.TelemetryRecord;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ghi batch bằng multi-row INSERT ... VALUES (...), (...)
+ */
+@Component
+public class InsertTelemetryBatchWriter implements TelemetryBatchWriter {
+
+    // Giới hạn số row trong một câu INSERT nhiều VALUES (PostgreSQL cho tối đa 32767 bind params)
+    private static final int MAX_ROWS_PER_INSERT = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public InsertTelemetryBatchWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public String mode() {
+        return "insert";
+    }
+
+    @Override
+    public List<TelemetryRecord> write(List<TelemetryRecord> records) {
+        List<TelemetryRecord> inserted = new ArrayList<>(records.size());
+        for (int from = 0; from < records.size(); from += MAX_ROWS_PER_INSERT) {
+            inserted.addAll(insertRows(records.subList(from, Math.min(from + MAX_ROWS_PER_INSERT, records.size()))));
+        }
+        return inserted;
+    }
+
+    private List<TelemetryRecord> insertRows(List<TelemetryRecord> rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO telemetry (device_id, ts, data, data_bin, dedupe_key) VALUES ");
+        Object[] args = new Object[rows.size() * 5];
+        for (int i = 0; i < rows.size(); i++) {
+            TelemetryRecord r = rows.get(i);
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+            args[i * 5] = r.getDeviceId();
+            args[i * 5 + 1] = Timestamp.from(r.getTs());
+            args[i * 5 + 2] = r.getData();
+            args[i * 5 + 3] = r.getBinaryData();
+            args[i * 5 + 4] = r.getDedupeKeyOrNull();
+        }
+        // Bản ghi trùng dedupe key bị bỏ qua; RETURNING cho biết record nào thực sự được insert
+        sql.append(" ON CONFLICT DO NOTHING RETURNING dedupe_key");
+        Set<Long> insertedKeys = new HashSet<>();
+        jdbcTemplate.query(sql.toString(), rs -> {
+            long key = rs.getLong(1);
+            if (!rs.wasNull()) {
+                insertedKeys.add(key);
+            }
+        }, args);
+        return TelemetryBatchWriter.insertedRecords(rows, insertedKeys);
+    }
+
+    @Override
+    public void writePoints(MetricPointBatch points) {
+        for (int from = 0; from < points.size(); from += MAX_ROWS_PER_INSERT) {
+            insertPoints(points, from, Math.min(from + MAX_ROWS_PER_INSERT, points.size()));
+        }
+    }
+
+    private void insertPoints(MetricPointBatch points, int from, int to) {
+        StringBuilder sql = new StringBuilder("INSERT INTO telemetry_points (device_id, metric_id, ts, value) VALUES ");
+        Object[] args = new Object[(to - from) * 4];
+        for (int i = from, a = 0; i < to; i++) {
+            sql.append(i == from ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+            args[a++] = points.getDeviceId(i);
+            args[a++] = points.getMetricId(i);
+            args[a++] = Timestamp.from(points.getTs(i));
+            args[a++] = points.getValue(i);
+        }
+        sql.append(" ON CONFLICT DO NOTHING");
+        jdbcTemplate.update(sql.toString(), args);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.model.Metric;
+import com.example.iot_backend.repository.MetricRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache tên metric -> metric ID (bảng metrics). Metric mới được đăng ký trong transaction riêng
+ * để ID trong cache luôn là ID đã commit, kể cả khi batch ingest bị rollback.
+ */
+@Service
+public class MetricDictionary {
+    private static final Logger log = LoggerFactory.getLogger(MetricDictionary.class);
+
+    public static final int UNKNOWN = -1;
+    private static final int MAX_NAME_LENGTH = 64;
+
+    private final MetricRepository metricRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate requiresNew;
+    private final int maxMetrics;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    public MetricDictionary(MetricRepository metricRepo, JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.metrics.max-metrics:1024}") int maxMetrics) {
+        this.metricRepo = metricRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxMetrics = maxMetrics;
+    }
+
+    @PostConstruct
+    public void load() {
+        for (Metric m : metricRepo.findAll()) {
+            ids.put(m.getName(), m.getId());
+        }
+        log.info("Loaded {} metrics into dictionary", ids.size());
+    }
+
+    /**
+     * Lấy ID của metric, đăng ký metric mới nếu chưa có.
+     * Trả về UNKNOWN khi tên không hợp lệ hoặc dictionary đã đầy (tránh nổ số metric từ payload tùy ý).
+     */
+    public int resolve(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH)
+            return UNKNOWN;
+        if (ids.size() >= maxMetrics) {
+            log.debug("Metric dictionary full ({}), ignoring metric '{}'", maxMetrics, name);
+            return UNKNOWN;
+        }
+        return ids.computeIfAbsent(name, this::register);
+    }
+
+    /**
+     * Tra cứu ID cho read API (không đăng ký metric mới)
+     */
+    public Optional<Integer> findId(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return Optional.of(id);
+        return metricRepo.findByName(name).map(m -> {
+            ids.put(m.getName(), m.getId());
+            return m.getId();
+        });
+    }
+
+    public List<Metric> findAll() {
+        return metricRepo.findAll();
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private Integer register(String name) {
+        Integer id = requiresNew.execute(status -> {
+            jdbcTemplate.update("INSERT INTO metrics (name) VALUES (?) ON CONFLICT (name) DO NOTHING", name);
+            return jdbcTemplate.queryForObject("SELECT id FROM metrics WHERE name = ?", Integer.class, name);
+        });
+        log.info("Registered metric '{}' with id {}", name, id);
+        return id;
+    }
+}
@@ -1,217 +1,459 @@
 package com.example.iot_backend.service;
 
+import com.example.iot_backend.archive.ArchiveSegmentStore;
+import com.example.iot_backend.archive.ArchiveTimeIndex;
 import com.example.iot_backend.dto.TelemetryArchiveDTO;
-import com.example.iot_backend.model.Device;
-import com.example.iot_backend.model.Telemetry;
+import com.example.iot_backend.dto.TelemetryArchiveSummary;
 import com.example.iot_backend.model.TelemetryArchive;
-import com.example.iot_backend.repository.DeviceRepository;
 import com.example.iot_backend.repository.TelemetryArchiveRepository;
 import com.example.iot_backend.repository.TelemetryRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Service
 public class TelemetryArchiveService {
     private static final Logger log = LoggerFactory.getLogger(TelemetryArchiveService.class);
 
     // Archive settings
-    private static final int ARCHIVE_DAYS_THRESHOLD = 30; // Archive data older than 30 days
     private static final int DELETE_DAYS_THRESHOLD = 365; // Delete original data after 1 year
     private static final int BATCH_SIZE = 1000; // Process 1000 records per batch
     private static final int MAX_ARCHIVE_DAYS = 730; // Keep archives for 2 years
 
+    // Metadata archive (không kèm dữ liệu nén) và dữ liệu nén tải riêng theo từng archive
+    private static final String ARCHIVE_META_SQL = "SELECT id, device_id, device_name, start_date, end_date, "
+            + "original_count, format_version, codec, dictionary_id, time_index, segment_id, segment_offset, "
+            + "segment_length FROM telemetry_archive "
+            + "WHERE device_id = ? AND start_date <= ? AND end_date >= ? ORDER BY start_date, id";
+    private static final String ARCHIVE_DATA_SQL = "SELECT compressed_data FROM telemetry_archive_data "
+            + "WHERE archive_id = ?";
+    private static final String ARCHIVE_SLICE_SQL = "SELECT substring(compressed_data FROM ? FOR ?) "
+            + "FROM telemetry_archive_data WHERE archive_id = ?";
+    private static final String INSERT_DATA_SQL = "INSERT INTO telemetry_archive_data (archive_id, compressed_data) "
+            + "VALUES (?, ?)";
+    // Xóa metadata và dữ liệu nén của archive hết hạn trong một câu lệnh; segment file không còn archive nào
+    // được ArchiveTieringService dọn ở lần chạy sau
+    private static final String CLEANUP_SQL = "WITH expired AS (DELETE FROM telemetry_archive "
+            + "WHERE archived_date < ? RETURNING id), "
+            + "blobs AS (DELETE FROM telemetry_archive_data WHERE archive_id IN (SELECT id FROM expired)) "
+            + "SELECT id FROM expired";
+
+    // Chuyển dữ liệu nén từ cột telemetry_archive.compressed_data cũ sang telemetry_archive_data theo lô
+    private static final int LEGACY_MIGRATION_BATCH = 100;
+    private static final String LEGACY_COLUMN_SQL = "SELECT count(*) FROM information_schema.columns "
+            + "WHERE table_schema = current_schema() AND table_name = 'telemetry_archive' "
+            + "AND column_name = 'compressed_data'";
+    private static final String LEGACY_MIGRATE_SQL = "WITH batch AS (SELECT id, compressed_data "
+            + "FROM telemetry_archive WHERE compressed_data IS NOT NULL ORDER BY id LIMIT ?), "
+            + "copied AS (INSERT INTO telemetry_archive_data (archive_id, compressed_data) "
+            + "SELECT id, compressed_data FROM batch ON CONFLICT (archive_id) DO NOTHING) "
+            + "UPDATE telemetry_archive a SET compressed_data = NULL FROM batch WHERE a.id = batch.id";
+    private static final String ARCHIVE_SEGMENT_SQL = "SELECT segment_id, segment_offset, segment_length "
+            + "FROM telemetry_archive WHERE id = ?";
+
+    private static final Comparator<TelemetryArchiveDTO> BY_TS = Comparator.comparing(TelemetryArchiveDTO::getTs);
+
+    private static final RowMapper<byte[]> BYTES_MAPPER = (rs, rowNum) -> rs.getBytes(1);
+
+    private static final RowMapper<TelemetryArchive> ARCHIVE_META_MAPPER = (rs, rowNum) -> {
+        TelemetryArchive archive = new TelemetryArchive(rs.getLong(2), rs.getString(3),
+                rs.getTimestamp(4).toInstant(), rs.getTimestamp(5).toInstant());
+        archive.setId(rs.getLong(1));
+        archive.setOriginalCount(rs.getInt(6));
+        archive.setFormatVersion(rs.getObject(7, Integer.class));
+        archive.setCodec(rs.getString(8));
+        archive.setDictionaryId(rs.getObject(9, Long.class));
+        archive.setTimeIndex(rs.getBytes(10));
+        archive.setSegmentId(rs.getObject(11, Long.class));
+        archive.setSegmentOffset(rs.getObject(12, Long.class));
+        archive.setSegmentLength(rs.getObject(13, Integer.class));
+        return archive;
+    };
+
     private final TelemetryRepository telemetryRepo;
     private final TelemetryArchiveRepository archiveRepo;
-    private final DeviceRepository deviceRepo;
     private final DataCompressionService compressionService;
+    private final TelemetryPartitionManager partitionManager;
+    private final CompressionDictionaryService dictionaryService;
+    private final JdbcTemplate jdbcTemplate;
+    private final DecodedArchiveCache decodedCache;
+    private final ArchiveSegmentStore segmentStore;
+    private final ThreadPoolExecutor decodePool;
+    private final int maxParallelism;
 
     public TelemetryArchiveService(TelemetryRepository telemetryRepo,
             TelemetryArchiveRepository archiveRepo,
-            DeviceRepository deviceRepo,
-            DataCompressionService compressionService) {
+            DataCompressionService compressionService,
+            TelemetryPartitionManager partitionManager,
+            CompressionDictionaryService dictionaryService,
+            JdbcTemplate jdbcTemplate,
+            DecodedArchiveCache decodedCache,
+            ArchiveSegmentStore segmentStore,
+            @Value("${app.archive.retrieval.pool-size:0}") int poolSize,
+            @Value("${app.archive.retrieval.max-parallelism:8}") int maxParallelism) {
         this.telemetryRepo = telemetryRepo;
         this.archiveRepo = archiveRepo;
-        this.deviceRepo = deviceRepo;
         this.compressionService = compressionService;
+        this.partitionManager = partitionManager;
+        this.dictionaryService = dictionaryService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.decodedCache = decodedCache;
+        this.segmentStore = segmentStore;
+        this.maxParallelism = Math.max(1, maxParallelism);
+
+        // Decode pool dùng chung cho mọi request (0 = số CPU); mỗi request giới hạn bởi maxParallelism
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.decodePool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "archive-decode-" + threadIndex.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.decodePool.allowCoreThreadTimeOut(true);
     }
 
     /**
-     * Scheduled task chạy hàng ngày để archive dữ liệu cũ
-     * Chạy lúc 2:00 AM mỗi ngày
+     * Khi khởi động: nếu bảng telemetry_archive còn cột compressed_data (trước khi tách telemetry_archive_data),
+     * chuyển dữ liệu sang bảng mới theo lô rồi drop cột. Mỗi lô là một câu lệnh nên có thể dừng giữa chừng và
+     * tiếp tục ở lần khởi động sau. Migration lỗi thì dừng khởi động: app đọc archive từ telemetry_archive_data
+     * nên không được chạy khi một phần dữ liệu còn nằm ở cột cũ.
      */
-    @Scheduled(cron = "0 0 2 * * *")
-    @Async
-    public void scheduledArchiveOldData() {
-        log.info("Starting scheduled telemetry archiving...");
-
+    @PostConstruct
+    public void migrateLegacyArchiveData() {
         try {
-            Instant cutoffDate = Instant.now().minus(ARCHIVE_DAYS_THRESHOLD, ChronoUnit.DAYS);
-            archiveOldTelemetryData(cutoffDate);
-
-            log.info("Scheduled telemetry archiving completed successfully");
+            Integer legacy = jdbcTemplate.queryForObject(LEGACY_COLUMN_SQL, Integer.class);
+            if (legacy == null || legacy == 0)
+                return;
+            long migrated = 0;
+            int moved;
+            while ((moved = jdbcTemplate.update(LEGACY_MIGRATE_SQL, LEGACY_MIGRATION_BATCH)) > 0) {
+                migrated += moved;
+            }
+            jdbcTemplate.execute("ALTER TABLE telemetry_archive DROP COLUMN compressed_data");
+            log.info("Moved compressed data of {} archives into telemetry_archive_data", migrated);
         } catch (Exception e) {
-            log.error("Error during scheduled archiving: {}", e.getMessage(), e);
+            throw new IllegalStateException("Legacy archive data migration failed, will resume on next start: "
+                    + e.getMessage(), e);
         }
     }
 
     /**
-     * Archive dữ liệu telemetry cũ hơn cutoff date
+     * Lưu block do ArchiveBuilder dựng (đơn vị việc của ArchiveExecutor) và xóa dữ liệu gốc nếu quá cũ
      */
     @Transactional
-    public void archiveOldTelemetryData(Instant cutoffDate) {
-        log.info("Archiving telemetry data older than: {}", cutoffDate);
+    public TelemetryArchive saveBlock(ArchiveBuilder.ArchiveBlock block) {
+        Instant startOfDay = block.day();
+        Instant endOfDay = startOfDay.plus(1, ChronoUnit.DAYS);
+        DataCompressionService.EncodedArchive encoded = block.encoded();
+        byte[] compressedData = encoded.data();
+
+        // Tính toán thống kê
+        double compressionRatio = compressionService.calculateCompressionRatio(block.estimatedOriginalSize(),
+                compressedData.length);
+
+        // Tạo archive record
+        TelemetryArchive archive = new TelemetryArchive(block.deviceId(), block.deviceName(), startOfDay, endOfDay);
+        archive.setOriginalCount(block.recordCount());
+        archive.setCompressedData(compressedData);
+        archive.setFormatVersion(encoded.formatVersion());
+        archive.setCodec(encoded.codec());
+        archive.setDictionaryId(encoded.dictionaryId());
+        archive.setTimeIndex(encoded.timeIndex());
+        archive.setCompressionRatio(compressionRatio);
+        archive.setArchiveType(TelemetryArchive.ArchiveType.DAILY);
+
+        // Lưu metadata rồi dữ liệu nén (bảng riêng); bản giải nén của archive cũ cùng ngày (nếu có) không còn
+        // cần giữ trong cache
+        archive = archiveRepo.save(archive);
+        jdbcTemplate.update(INSERT_DATA_SQL, archive.getId(), compressedData);
+        decodedCache.invalidateOverlapping(block.deviceId(), startOfDay, endOfDay);
+
+        // Xóa dữ liệu gốc nếu quá cũ (khi partition bật, TelemetryPartitionManager drop cả partition)
+        Instant deleteCutoff = Instant.now().minus(DELETE_DAYS_THRESHOLD, ChronoUnit.DAYS);
+        if (!partitionManager.isEnabled() && endOfDay.isBefore(deleteCutoff)) {
+            telemetryRepo.deleteByDeviceIdAndTimestampBetween(block.deviceId(), startOfDay, endOfDay);
+            log.info("Deleted {} original telemetry records for device {} on {}",
+                    block.recordCount(), block.deviceId(), startOfDay);
+        }
+
+        log.info("Archived {} telemetry records for device {} on {} (compression ratio: {})",
+                block.recordCount(), block.deviceId(), startOfDay, String.format("%.2f", compressionRatio));
+        return archive;
+    }
 
-        // Lấy danh sách devices có dữ liệu cần archive
-        List<Device> devicesWithOldData = telemetryRepo.findDevicesWithDataBeforeDate(cutoffDate);
+    /**
+     * Stream record archive của device có ts trong [startDate, endDate] theo thứ tự thời gian.
+     *
+     * Chỉ metadata (kèm time index) được query trước; dữ liệu nén của từng archive chỉ được tải khi tới lượt
+     * và chỉ đoạn byte chứa các chunk chạm khoảng thời gian. parallelism (null = mặc định, tối đa
+     * app.archive.retrieval.max-parallelism) là số archive được giải nén đồng thời trên decode pool; kết quả
+     * được trộn lại theo ts (k-way merge). Archive lỗi được bỏ qua; lỗi từ consumer (client ngắt kết nối)
+     * dừng cả quá trình. Trả về số record đã gửi.
+     */
+    public long streamArchivedData(Long deviceId, Instant startDate, Instant endDate, Integer parallelism,
+            Consumer<TelemetryArchiveDTO> consumer) {
+        List<TelemetryArchive> archives = jdbcTemplate.query(ARCHIVE_META_SQL, ARCHIVE_META_MAPPER, deviceId,
+                Timestamp.from(endDate), Timestamp.from(startDate));
+        int threads = Math.min(parallelism != null ? Math.max(1, parallelism) : maxParallelism, maxParallelism);
+        log.info("Streaming archived data for device {} from {} to {} ({} archives, parallelism {})",
+                deviceId, startDate, endDate, archives.size(), threads);
+
+        if (threads <= 1 || archives.size() <= 1) {
+            return streamSequential(archives, startDate, endDate, consumer);
+        }
+        return streamMerged(archives, startDate, endDate, threads, consumer);
+    }
 
-        for (Device device : devicesWithOldData) {
+    /**
+     * Giải nén lần lượt từng archive, record được gửi ngay khi parse xong (record đã gửi của archive lỗi vẫn
+     * giữ)
+     */
+    private long streamSequential(List<TelemetryArchive> archives, Instant startDate, Instant endDate,
+            Consumer<TelemetryArchiveDTO> consumer) {
+        long[] sent = new long[1];
+        Consumer<TelemetryArchiveDTO> counting = dto -> {
+            try {
+                consumer.accept(dto);
+            } catch (RuntimeException e) {
+                throw new ConsumerAbortedException(e);
+            }
+            sent[0]++;
+        };
+        for (TelemetryArchive archive : archives) {
             try {
-                archiveDeviceTelemetryData(device, cutoffDate);
+                readWindow(archive, startDate, endDate, counting);
+            } catch (ConsumerAbortedException e) {
+                throw (RuntimeException) e.getCause();
             } catch (Exception e) {
-                log.error("Error archiving data for device {}: {}", device.getId(), e.getMessage(), e);
+                log.error("Error decompressing archive {}: {}", archive.getId(), e.getMessage());
             }
         }
+        return sent[0];
     }
 
     /**
-     * Archive dữ liệu telemetry của một device cụ thể
+     * Giải nén tối đa parallelism archive cùng lúc trên decode pool và trộn theo ts.
+     *
+     * Archive được sắp theo start_date và mọi record của archive có ts >= start_date, nên một archive chỉ cần
+     * được đưa vào heap khi record nhỏ nhất đang chờ gửi không sớm hơn start_date của nó. Nhờ vậy chỉ các
+     * archive đang giải nén và các archive chồng lấn nhau nằm trong bộ nhớ.
      */
-    @Transactional
-    public void archiveDeviceTelemetryData(Device device, Instant cutoffDate) {
-        log.info("Archiving telemetry data for device: {} ({})", device.getId(), device.getName());
-
-        // Phân chia dữ liệu theo ngày để archive
-        List<Instant> datesToArchive = telemetryRepo.findDistinctDatesBeforeCutoff(device.getId(), cutoffDate);
+    private long streamMerged(List<TelemetryArchive> archives, Instant startDate, Instant endDate, int parallelism,
+            Consumer<TelemetryArchiveDTO> consumer) {
+        Deque<Future<List<TelemetryArchiveDTO>>> inFlight = new ArrayDeque<>(parallelism);
+        PriorityQueue<MergeCursor> heap = new PriorityQueue<>();
+        int submitted = 0;
+        int activated = 0;
+        long sent = 0;
+        try {
+            while (submitted < archives.size() && inFlight.size() < parallelism) {
+                inFlight.add(submitDecode(archives.get(submitted++), startDate, endDate));
+            }
+            while (true) {
+                while (activated < archives.size() && (heap.isEmpty()
+                        || !archives.get(activated).getStartDate().isAfter(heap.peek().head().getTs()))) {
+                    List<TelemetryArchiveDTO> records = await(inFlight.poll());
+                    if (submitted < archives.size()) {
+                        inFlight.add(submitDecode(archives.get(submitted++), startDate, endDate));
+                    }
+                    if (!records.isEmpty()) {
+                        heap.add(new MergeCursor(records, activated));
+                    }
+                    activated++;
+                }
+                MergeCursor cursor = heap.poll();
+                if (cursor == null)
+                    return sent;
+                consumer.accept(cursor.head());
+                sent++;
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+        } finally {
+            for (Future<List<TelemetryArchiveDTO>> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
 
-        for (Instant date : datesToArchive) {
+    private Future<List<TelemetryArchiveDTO>> submitDecode(TelemetryArchive archive, Instant startDate,
+            Instant endDate) {
+        return decodePool.submit(() -> {
+            List<TelemetryArchiveDTO> records = new ArrayList<>(
+                    archive.getOriginalCount() != null ? Math.min(archive.getOriginalCount(), 65536) : 16);
             try {
-                archiveDailyData(device, date);
+                readWindow(archive, startDate, endDate, records::add);
             } catch (Exception e) {
-                log.error("Error archiving daily data for device {} on date {}: {}",
-                        device.getId(), date, e.getMessage(), e);
+                log.error("Error decompressing archive {}: {}", archive.getId(), e.getMessage());
+                return List.of();
             }
+            records.sort(BY_TS); // thường đã sắp sẵn, TimSort chỉ kiểm tra một lượt
+            return records;
+        });
+    }
+
+    private static List<TelemetryArchiveDTO> await(Future<List<TelemetryArchiveDTO>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Archive retrieval interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Archive decode failed", e.getCause());
         }
     }
 
     /**
-     * Archive dữ liệu của một ngày cụ thể
+     * Đọc các record trong [startDate, endDate] của một archive: lấy từ DecodedArchiveCache nếu có, nếu không
+     * chỉ tải đoạn byte chứa các chunk chạm khoảng thời gian (theo time index). Khi cache nhận archive thì cả
+     * archive được giải nén một lần và nạp vào cache.
      */
-    @Transactional
-    public void archiveDailyData(Device device, Instant date) {
-        Instant startOfDay = date.truncatedTo(ChronoUnit.DAYS);
-        Instant endOfDay = startOfDay.plus(1, ChronoUnit.DAYS);
-
-        // Kiểm tra xem đã archive chưa
-        boolean alreadyArchived = archiveRepo.isDateRangeArchived(device.getId(), startOfDay, endOfDay);
-        if (alreadyArchived) {
-            log.debug("Data for device {} on {} already archived", device.getId(), date);
+    private void readWindow(TelemetryArchive archive, Instant startDate, Instant endDate,
+            Consumer<TelemetryArchiveDTO> consumer) {
+        if (decodedCache.read(archive.getId(), startDate, endDate, consumer))
             return;
+        int[] range = null;
+        boolean wholeArchive = true;
+        if (archive.getTimeIndex() != null) {
+            ArchiveTimeIndex index = ArchiveTimeIndex.parse(archive.getTimeIndex());
+            range = index.byteRange(startDate, endDate);
+            if (range == null)
+                return; // không chunk nào chạm khoảng thời gian
+            wholeArchive = range[0] == 0 && range[1] == index.end(index.size() - 1);
         }
+        int recordCount = archive.getOriginalCount() != null ? archive.getOriginalCount() : 0;
+        if (decodedCache.shouldLoad(archive.getId(), wholeArchive, recordCount)) {
+            TelemetryArchiveDTO[] records = decodeWhole(archive);
+            decodedCache.put(archive.getId(), archive.getDeviceId(), archive.getStartDate(), archive.getEndDate(),
+                    records);
+            DecodedArchiveCache.emit(records, startDate, endDate, consumer);
+            return;
+        }
+        compressionService.readArchive(archive, loadData(archive, range), range != null ? range[0] : 0,
+                dictionaryService.getDictionary(archive.getDictionaryId()), startDate, endDate, consumer);
+    }
 
-        // Lấy dữ liệu telemetry trong ngày
-        List<Telemetry> dailyData = telemetryRepo.findByDeviceAndTimestampBetween(
-                device, startOfDay, endOfDay);
+    /**
+     * Dữ liệu nén của archive (range null = cả archive, ngược lại đoạn [range[0], range[1])): view trên vùng map
+     * của segment file nếu archive đã chuyển sang tầng segment, ngược lại đọc từ telemetry_archive_data
+     */
+    private ByteBuffer loadData(TelemetryArchive archive, int[] range) {
+        if (archive.getSegmentId() == null) {
+            List<byte[]> data = range == null
+                    ? jdbcTemplate.query(ARCHIVE_DATA_SQL, BYTES_MAPPER, archive.getId())
+                    : jdbcTemplate.query(ARCHIVE_SLICE_SQL, BYTES_MAPPER, range[0] + 1, range[1] - range[0],
+                            archive.getId());
+            if (!data.isEmpty())
+                return ByteBuffer.wrap(data.get(0));
+            // Archive vừa được ArchiveTieringService chuyển sang segment sau khi đọc metadata
+            jdbcTemplate.query(ARCHIVE_SEGMENT_SQL, rs -> {
+                archive.setSegmentId(rs.getObject(1, Long.class));
+                archive.setSegmentOffset(rs.getObject(2, Long.class));
+                archive.setSegmentLength(rs.getObject(3, Integer.class));
+            }, archive.getId());
+            if (archive.getSegmentId() == null)
+                throw new IllegalStateException("Archive " + archive.getId() + " has no data");
+        }
+        long offset = archive.getSegmentOffset() + (range != null ? range[0] : 0);
+        int length = range != null ? range[1] - range[0] : archive.getSegmentLength();
+        return segmentStore.read(archive.getSegmentId(), offset, length);
+    }
 
-        if (dailyData.isEmpty()) {
-            log.debug("No data to archive for device {} on {}", device.getId(), date);
-            return;
+    /**
+     * Giải nén cả archive thành mảng sắp theo ts (record không có ts bị bỏ vì không thuộc khoảng thời gian nào)
+     */
+    private TelemetryArchiveDTO[] decodeWhole(TelemetryArchive archive) {
+        ByteBuffer data = loadData(archive, null);
+        List<TelemetryArchiveDTO> records = new ArrayList<>(
+                archive.getOriginalCount() != null ? archive.getOriginalCount() : 16);
+        compressionService.readArchive(archive, data, 0, dictionaryService.getDictionary(archive.getDictionaryId()),
+                null, null, dto -> {
+                    if (dto.getTs() != null) {
+                        records.add(dto);
+                    }
+                });
+        records.sort(BY_TS);
+        return records.toArray(new TelemetryArchiveDTO[0]);
+    }
+
+    /**
+     * Vị trí đọc trong danh sách record đã giải nén của một archive; so sánh theo ts rồi thứ tự archive
+     */
+    private static final class MergeCursor implements Comparable<MergeCursor> {
+        private final List<TelemetryArchiveDTO> records;
+        private final int order;
+        private int pos;
+
+        MergeCursor(List<TelemetryArchiveDTO> records, int order) {
+            this.records = records;
+            this.order = order;
         }
 
-        try {
-            // Chuyển đổi Telemetry entities thành DTOs để avoid Jackson serialization
-            // issues
-            List<TelemetryArchiveDTO> dtoList = dailyData.stream()
-                    .map(t -> new TelemetryArchiveDTO(
-                            t.getId(),
-                            t.getDevice().getId(),
-                            t.getDevice().getName(),
-                            t.getTs(),
-                            t.getData()))
-                    .collect(Collectors.toList());
-
-            // Nén dữ liệu DTO
-            byte[] compressedData = compressionService.compressData(dtoList);
-
-            // Tính toán thống kê
-            int originalSize = estimateOriginalSize(dailyData);
-            double compressionRatio = compressionService.calculateCompressionRatio(originalSize, compressedData.length);
-
-            // Tạo archive record
-            TelemetryArchive archive = new TelemetryArchive(device.getId(), device.getName(), startOfDay, endOfDay);
-            archive.setOriginalCount(dailyData.size());
-            archive.setCompressedData(compressedData);
-            archive.setCompressionRatio(compressionRatio);
-            archive.setArchiveType(TelemetryArchive.ArchiveType.DAILY);
-
-            // Lưu archive
-            archiveRepo.save(archive);
-
-            // Xóa dữ liệu gốc nếu quá cũ
-            Instant deleteCutoff = Instant.now().minus(DELETE_DAYS_THRESHOLD, ChronoUnit.DAYS);
-            if (endOfDay.isBefore(deleteCutoff)) {
-                telemetryRepo.deleteByDeviceAndTimestampBetween(device, startOfDay, endOfDay);
-                log.info("Deleted {} original telemetry records for device {} on {}",
-                        dailyData.size(), device.getId(), date);
-            }
+        TelemetryArchiveDTO head() {
+            return records.get(pos);
+        }
 
-            log.info("Archived {} telemetry records for device {} on {} (compression ratio: {:.2f})",
-                    dailyData.size(), device.getId(), date, compressionRatio);
+        boolean advance() {
+            return ++pos < records.size();
+        }
 
-        } catch (Exception e) {
-            log.error("Error creating archive for device {} on {}: {}",
-                    device.getId(), date, e.getMessage(), e);
-            throw e;
+        @Override
+        public int compareTo(MergeCursor other) {
+            int c = head().getTs().compareTo(other.head().getTs());
+            return c != 0 ? c : Integer.compare(order, other.order);
         }
     }
 
     /**
-     * Retrieve archived data cho một device và khoảng thời gian
+     * Lỗi do consumer ném ra, phân biệt với lỗi giải nén của một archive
      */
-    public List<Telemetry> retrieveArchivedData(Long deviceId, Instant startDate, Instant endDate) {
-        log.info("Retrieving archived data for device {} from {} to {}", deviceId, startDate, endDate);
-
-        List<TelemetryArchive> archives = archiveRepo.findByDeviceIdAndDateRange(deviceId, startDate, endDate);
-
-        return archives.stream()
-                .flatMap(archive -> {
-                    try {
-                        // Decompress to DTO list first
-                        List<TelemetryArchiveDTO> dtoList = compressionService.decompressToList(
-                                archive.getCompressedData(), TelemetryArchiveDTO.class);
-
-                        // Convert DTOs back to Telemetry entities
-                        return dtoList.stream().map(dto -> {
-                            Telemetry telemetry = new Telemetry();
-                            telemetry.setId(dto.getId());
-                            telemetry.setTs(dto.getTs());
-                            telemetry.setData(dto.getData());
-
-                            // Set device (need to fetch from repo or create minimal object)
-                            Device device = new Device();
-                            device.setId(dto.getDeviceId());
-                            device.setName(dto.getDeviceName());
-                            telemetry.setDevice(device);
-
-                            return telemetry;
-                        });
-                    } catch (Exception e) {
-                        log.error("Error decompressing archive {}: {}", archive.getId(), e.getMessage());
-                        return List.<Telemetry>of().stream();
-                    }
-                })
-                .collect(Collectors.toList());
+    private static final class ConsumerAbortedException extends RuntimeException {
+        ConsumerAbortedException(RuntimeException cause) {
+            super(cause);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        decodePool.shutdownNow();
+    }
+
+    public Map<String, Object> getCacheMetrics() {
+        return decodedCache.getMetrics();
+    }
+
+    public void clearCache() {
+        decodedCache.clear();
     }
 
     /**
@@ -249,59 +491,31 @@ public class TelemetryArchiveService {
     }
 
     /**
-     * Cleanup archives cũ
+     * Metadata các archive của device chạm khoảng thời gian (bỏ trống = mọi archive của device)
+     */
+    public List<TelemetryArchiveSummary> listArchives(Long deviceId, Instant startDate, Instant endDate) {
+        if (startDate == null && endDate == null)
+            return archiveRepo.findByDeviceIdOrderByStartDateDesc(deviceId);
+        return archiveRepo.findByDeviceIdAndDateRange(deviceId, startDate != null ? startDate : Instant.EPOCH,
+                endDate != null ? endDate : Instant.now());
+    }
+
+    /**
+     * Cleanup archives cũ: một câu DELETE set-based cho cả metadata và dữ liệu nén
      */
     @Scheduled(cron = "0 0 3 * * SUN") // Chạy chủ nhật hàng tuần lúc 3:00 AM
-    @Async
     public void cleanupOldArchives() {
         log.info("Starting cleanup of old archives...");
 
         try {
             Instant cutoffDate = Instant.now().minus(MAX_ARCHIVE_DAYS, ChronoUnit.DAYS);
-            List<TelemetryArchive> oldArchives = archiveRepo.findOldArchives(cutoffDate);
-
-            for (TelemetryArchive archive : oldArchives) {
-                archiveRepo.delete(archive);
-                log.debug("Deleted old archive: {} (archived on {})", archive.getId(), archive.getArchivedDate());
-            }
+            List<Long> deleted = jdbcTemplate.queryForList(CLEANUP_SQL, Long.class, Timestamp.from(cutoffDate));
+            deleted.forEach(decodedCache::invalidate);
 
-            log.info("Cleanup completed. Deleted {} old archives", oldArchives.size());
+            log.info("Cleanup completed. Deleted {} old archives", deleted.size());
         } catch (Exception e) {
             log.error("Error during archive cleanup: {}", e.getMessage(), e);
         }
     }
 
-    /**
-     * Ước tính kích thước dữ liệu gốc
-     */
-    private int estimateOriginalSize(List<Telemetry> data) {
-        if (data.isEmpty())
-            return 0;
-
-        // Ước tính dựa trên record đầu tiên
-        try {
-            long sampleSize = compressionService.estimateCompressedSize(data.get(0));
-            return (int) (sampleSize * data.size());
-        } catch (Exception e) {
-            // Fallback estimation
-            return data.size() * 500; // Ước tính 500 bytes/record
-        }
-    }
-
-    /**
-     * Force archive data cho testing
-     */
-    public void forceArchiveData(Long deviceId, Instant startDate, Instant endDate) {
-        Device device = deviceRepo.findById(deviceId)
-                .orElseThrow(() -> new RuntimeException("Device not found: " + deviceId));
-
-        // Archive theo ngày
-        Instant current = startDate.truncatedTo(ChronoUnit.DAYS);
-        Instant end = endDate.truncatedTo(ChronoUnit.DAYS);
-
-        while (!current.isAfter(end)) {
-            archiveDailyData(device, current);
-            current = current.plus(1, ChronoUnit.DAYS);
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.ingest.MetricPointBatch;
+import com.example.iot_backend.ingest.TelemetryRecord;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chiến lược ghi một batch telemetry xuống bảng telemetry và telemetry_points
+ */
+public interface TelemetryBatchWriter {
+
+    /**
+     * Tên mode dùng trong cấu hình app.ingest.write-mode
+     */
+    String mode();
+
+    /**
+     * Ghi batch telemetry, bỏ qua record trùng dedupe key đã có trong DB.
+     * Trả về các record thực sự được insert.
+     */
+    List<TelemetryRecord> write(List<TelemetryRecord> records);
+
+    /**
+     * Ghi các metric point đã resolve ID; điểm trùng (device_id, metric_id, ts) bị bỏ qua
+     */
+    void writePoints(MetricPointBatch points);
+
+    /**
+     * Lọc các record đã được insert theo dedupe key trả về từ RETURNING
+     * (record không có dedupe key luôn được insert; key trùng trong cùng batch chỉ tính một lần)
+     */
+    static List<TelemetryRecord> insertedRecords(List<TelemetryRecord> rows, Set<Long> insertedKeys) {
+        List<TelemetryRecord> inserted = new ArrayList<>(rows.size());
+        Set<Long> remaining = new HashSet<>(insertedKeys);
+        for (TelemetryRecord r : rows) {
+            Long key = r.getDedupeKeyOrNull();
+            if (key == null || remaining.remove(key)) {
+                inserted.add(r);
+            }
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.model.TelemetryPartition;
+import com.example.iot_backend.repository.TelemetryPartitionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Quản lý range partitioning theo ts của bảng telemetry (PostgreSQL declarative partitioning).
+ *
+ * Tắt mặc định. Khi bật (app.telemetry.partitioning.enabled=true), lần khởi động đầu tiên chuyển bảng telemetry
+ * thường (do Hibernate tạo) thành bảng partitioned dưới ACCESS EXCLUSIVE lock, dữ liệu cũ được giữ trong partition
+ * telemetry_legacy; nên bật trong một lần deploy có downtime. Migration lỗi thì dừng khởi động (transaction được
+ * rollback, bảng giữ nguyên) để app không chạy thiếu unique index dedupe. Định kỳ: tạo trước các partition tương lai
+ * và drop/detach partition đã archive và hết hạn retention, thay cho DELETE từng device từng ngày.
+ */
+@Service
+@DependsOn("entityManagerFactory")
+public class TelemetryPartitionManager {
+    private static final Logger log = LoggerFactory.getLogger(TelemetryPartitionManager.class);
+
+    public static final String LEGACY_PARTITION = "telemetry_legacy";
+    private static final String DEFAULT_PARTITION = "telemetry_default";
+    private static final Pattern SAFE_NAME = Pattern.compile("[a-z0-9_]{1,63}");
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss'+00'")
+            .withZone(ZoneOffset.UTC);
+
+    public enum Interval {
+        DAY, WEEK
+    }
+
+    public enum ExpiredAction {
+        DROP, DETACH
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TelemetryPartitionRepository partitionRepo;
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+    private final Interval interval;
+    private final int premake;
+    private final int retentionDays;
+    private final ExpiredAction expiredAction;
+
+    public TelemetryPartitionManager(JdbcTemplate jdbcTemplate, TelemetryPartitionRepository partitionRepo,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.telemetry.partitioning.enabled:false}") boolean enabled,
+            @Value("${app.telemetry.partitioning.interval:DAY}") Interval interval,
+            @Value("${app.telemetry.partitioning.premake:7}") int premake,
+            @Value("${app.telemetry.partitioning.retention-days:365}") int retentionDays,
+            @Value("${app.telemetry.partitioning.expired-action:DROP}") ExpiredAction expiredAction) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitionRepo = partitionRepo;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.interval = interval;
+        this.premake = Math.max(1, premake);
+        this.retentionDays = retentionDays;
+        this.expiredAction = expiredAction;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            if ("p".equals(relationKind())) {
+                // Đã partition từ trước: unique index dedupe nằm trên từng partition (kể cả telemetry_default)
+                log.warn("telemetry is partitioned but app.telemetry.partitioning.enabled=false; "
+                        + "new rows go to {}", DEFAULT_PARTITION);
+                return;
+            }
+            // Bảng thường: unique index dedupe đặt trực tiếp trên telemetry
+            jdbcTemplate.execute("CREATE UNIQUE INDEX IF NOT EXISTS uk_telemetry_dedupe "
+                    + "ON telemetry (device_id, dedupe_key)");
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> migrateIfNeeded());
+        } catch (Exception e) {
+            throw new IllegalStateException("Telemetry partition migration failed, table left unchanged: "
+                    + e.getMessage(), e);
+        }
+        maintain();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tạo trước partition tương lai và xử lý partition hết hạn (chạy hàng ngày)
+     */
+    @Scheduled(cron = "${app.telemetry.partitioning.cron:0 30 1 * * *}")
+    public void maintain() {
+        if (!enabled)
+            return;
+        try {
+            createFuturePartitions();
+            expirePartitions();
+        } catch (Exception e) {
+            log.error("Telemetry partition maintenance failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Chuyển telemetry (bảng thường) thành bảng partitioned; dữ liệu hiện có thành partition telemetry_legacy
+     */
+    private void migrateIfNeeded() {
+        if (!"r".equals(relationKind()))
+            return;
+
+        log.info("Converting telemetry into a range-partitioned table ({} partitions)", interval);
+        jdbcTemplate.execute("LOCK TABLE telemetry IN ACCESS EXCLUSIVE MODE");
+
+        // Partition legacy chứa toàn bộ dữ liệu tới hết interval hiện tại (hoặc ts lớn nhất nếu muộn hơn)
+        Timestamp maxTs = jdbcTemplate.queryForObject("SELECT max(ts) FROM telemetry", Timestamp.class);
+        Instant boundary = nextStart(Instant.now());
+        if (maxTs != null && !maxTs.toInstant().isBefore(boundary)) {
+            boundary = nextStart(maxTs.toInstant());
+        }
+        Long maxId = jdbcTemplate.queryForObject("SELECT coalesce(max(id), 0) FROM telemetry", Long.class);
+        boolean identity = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT is_identity = 'YES' FROM information_schema.columns "
+                        + "WHERE table_name = 'telemetry' AND column_name = 'id'",
+                Boolean.class));
+
+        // Cột partition key phải NOT NULL ở partition
+        jdbcTemplate.update("UPDATE telemetry SET ts = ? WHERE ts IS NULL", Timestamp.from(Instant.EPOCH));
+        jdbcTemplate.execute("ALTER TABLE telemetry ALTER COLUMN ts SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE telemetry RENAME TO " + LEGACY_PARTITION);
+
+        // Giải phóng tên index/constraint (telemetry_pkey, idx_telemetry_*) cho bảng cha
+        List<String> indexes = jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = ?", String.class, LEGACY_PARTITION);
+        for (String index : indexes) {
+            String renamed = ("tl_" + index).length() > 63 ? ("tl_" + index).substring(0, 63) : "tl_" + index;
+            jdbcTemplate.execute("ALTER INDEX " + quote(index) + " RENAME TO " + quote(renamed));
+        }
+
+        if (identity) {
+            // Bảng partitioned (PostgreSQL < 17) không có identity column: dùng sequence thường
+            jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION + " ALTER COLUMN id DROP IDENTITY IF EXISTS");
+            jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS telemetry_id_seq START WITH " + (maxId + 1));
+        }
+        jdbcTemplate.execute("CREATE TABLE telemetry (LIKE " + LEGACY_PARTITION + " INCLUDING DEFAULTS) "
+                + "PARTITION BY RANGE (ts)");
+        jdbcTemplate.execute("ALTER TABLE telemetry ALTER COLUMN id SET DEFAULT nextval('telemetry_id_seq')");
+        jdbcTemplate.execute("ALTER SEQUENCE telemetry_id_seq OWNED BY telemetry.id");
+        jdbcTemplate.execute("ALTER TABLE telemetry ADD PRIMARY KEY (id, ts)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_telemetry_device_timestamp ON telemetry (device_id, ts)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_telemetry_timestamp ON telemetry (ts)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_telemetry_device ON telemetry (device_id)");
+
+        jdbcTemplate.execute("ALTER TABLE telemetry ATTACH PARTITION " + LEGACY_PARTITION
+                + " FOR VALUES FROM (MINVALUE) TO (" + boundLiteral(boundary) + ")");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF telemetry DEFAULT");
+        createDedupeIndex(LEGACY_PARTITION);
+        createDedupeIndex(DEFAULT_PARTITION);
+
+        partitionRepo.save(new TelemetryPartition(LEGACY_PARTITION, null, boundary));
+        log.info("telemetry is now partitioned; existing rows kept in {} (< {})", LEGACY_PARTITION, boundary);
+    }
+
+    /**
+     * Tạo partition cho interval hiện tại và premake interval tiếp theo (bỏ qua khoảng đã có partition)
+     */
+    public void createFuturePartitions() {
+        List<TelemetryPartition> attached = partitionRepo.findAttached();
+        Instant start = currentStart(Instant.now());
+        for (int i = 0; i <= premake; i++) {
+            Instant end = nextStart(start);
+            if (!overlaps(attached, start, end)) {
+                String name = partitionName(start);
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF telemetry "
+                        + "FOR VALUES FROM (" + boundLiteral(start) + ") TO (" + boundLiteral(end) + ")");
+                createDedupeIndex(name);
+                TelemetryPartition partition = partitionRepo.save(new TelemetryPartition(name, start, end));
+                attached.add(partition);
+                log.info("Created telemetry partition {} [{}, {})", name, start, end);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Drop hoặc detach partition đã archive và cũ hơn retention (O(1), không DELETE từng row)
+     */
+    public void expirePartitions() {
+        Instant cutoff = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
+        for (TelemetryPartition partition : partitionRepo.findExpired(cutoff)) {
+            String name = checkedName(partition.getName());
+            if (expiredAction == ExpiredAction.DETACH) {
+                jdbcTemplate.execute("ALTER TABLE telemetry DETACH PARTITION " + name);
+                partition.setDetachedAt(Instant.now());
+                partitionRepo.save(partition);
+                log.info("Detached expired telemetry partition {}", name);
+            } else {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+                partitionRepo.delete(partition);
+                log.info("Dropped expired telemetry partition {}", name);
+            }
+        }
+    }
+
+    /**
+     * Partition đã kết thúc trước cutoff và chưa archive
+     */
+    public List<TelemetryPartition> findPartitionsToArchive(Instant cutoffDate) {
+        return partitionRepo.findUnarchivedBefore(cutoffDate);
+    }
+
+    /**
+     * Device có dữ liệu trong partition (chỉ scan partition đó)
+     */
+    public List<Long> findDeviceIds(TelemetryPartition partition) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT device_id FROM " + checkedName(partition.getName()),
+                Long.class);
+    }
+
+    public void markArchived(TelemetryPartition partition) {
+        partition.setArchivedAt(Instant.now());
+        partitionRepo.save(partition);
+    }
+
+    public Map<String, Object> getStatus() {
+        List<Map<String, Object>> partitions = new ArrayList<>();
+        for (TelemetryPartition p : partitionRepo.findAttached()) {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("name", p.getName());
+            info.put("rangeStart", p.getRangeStart());
+            info.put("rangeEnd", p.getRangeEnd());
+            info.put("archivedAt", p.getArchivedAt());
+            partitions.add(info);
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("interval", interval);
+        status.put("premake", premake);
+        status.put("retentionDays", retentionDays);
+        status.put("expiredAction", expiredAction);
+        status.put("partitions", partitions);
+        return status;
+    }
+
+    // 'r' = bảng thường, 'p' = bảng partitioned, null nếu chưa có bảng
+    private String relationKind() {
+        List<String> kinds = jdbcTemplate.queryForList(
+                "SELECT c.relkind::text FROM pg_class c WHERE c.oid = to_regclass('telemetry')", String.class);
+        return kinds.isEmpty() ? null : kinds.get(0);
+    }
+
+    /**
+     * Literal timestamptz cho partition bound: DDL (ATTACH/CREATE ... PARTITION OF) không nhận bind parameter,
+     * nên bound được format từ Instant theo một định dạng UTC cố định thay vì nối chuỗi Instant.toString()
+     */
+    private static String boundLiteral(Instant instant) {
+        return "TIMESTAMPTZ '" + BOUND_FORMAT.format(instant) + "'";
+    }
+
+    private void createDedupeIndex(String partition) {
+        // Unique index trên bảng partitioned phải chứa ts nên đặt riêng trên từng partition
+        jdbcTemplate.execute("CREATE UNIQUE INDEX IF NOT EXISTS " + partition + "_dedupe_key "
+                + "ON " + partition + " (device_id, dedupe_key)");
+    }
+
+    private boolean overlaps(List<TelemetryPartition> partitions, Instant start, Instant end) {
+        for (TelemetryPartition p : partitions) {
+            boolean startsBeforeEnd = p.getRangeStart() == null || p.getRangeStart().isBefore(end);
+            if (startsBeforeEnd && p.getRangeEnd().isAfter(start))
+                return true;
+        }
+        return false;
+    }
+
+    private Instant currentStart(Instant ts) {
+        LocalDate date = LocalDate.ofInstant(ts, ZoneOffset.UTC);
+        if (interval == Interval.WEEK) {
+            date = date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    private Instant nextStart(Instant ts) {
+        Instant start = currentStart(ts);
+        return start.plus(interval == Interval.WEEK ? 7 : 1, ChronoUnit.DAYS);
+    }
+
+    private String partitionName(Instant start) {
+        String prefix = interval == Interval.WEEK ? "telemetry_w" : "telemetry_p";
+        return prefix + NAME_FORMAT.format(LocalDate.ofInstant(start, ZoneOffset.UTC));
+    }
+
+    private static String checkedName(String name) {
+        if (!SAFE_NAME.matcher(name).matches())
+            throw new IllegalArgumentException("Invalid partition name: " + name);
+        return name;
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
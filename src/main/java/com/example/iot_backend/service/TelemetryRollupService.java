@@ -0,0 +1,245 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.model.TelemetryRollup;
+import com.example.iot_backend.model.TelemetryRollup.Granularity;
+import com.example.iot_backend.model.TelemetryRollupState;
+import com.example.iot_backend.repository.TelemetryRollupStateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rollup engine: tính count/min/max/sum theo device, metric và bucket thời gian (UTC).
+ *
+ * HOURLY được tính từ telemetry_points; DAILY từ HOURLY; WEEKLY và MONTHLY từ DAILY, nên bucket thô chỉ
+ * bị scan một lần. Mỗi granularity có watermark riêng (telemetry_rollup_state), mỗi lần chạy chỉ tính các
+ * bucket đã đóng sau watermark.
+ *
+ * telemetry_points được xóa theo cùng retention với dữ liệu telemetry gốc (app.metrics.points-retention-days),
+ * nhưng không bao giờ trước khi point đã được tính vào HOURLY.
+ */
+@Service
+public class TelemetryRollupService {
+    private static final Logger log = LoggerFactory.getLogger(TelemetryRollupService.class);
+
+    private static final String UPSERT = "INSERT INTO telemetry_rollups "
+            + "(device_id, metric_id, granularity, bucket_start, sample_count, min_value, max_value, sum_value) ";
+    private static final String ON_CONFLICT = " ON CONFLICT (device_id, metric_id, granularity, bucket_start) "
+            + "DO UPDATE SET sample_count = EXCLUDED.sample_count, min_value = EXCLUDED.min_value, "
+            + "max_value = EXCLUDED.max_value, sum_value = EXCLUDED.sum_value";
+
+    private static final String FROM_POINTS_SQL = UPSERT
+            + "SELECT device_id, metric_id, 'HOURLY', date_trunc('hour', ts AT TIME ZONE 'UTC') AT TIME ZONE 'UTC', "
+            + "count(*), min(value), max(value), sum(value) "
+            + "FROM telemetry_points WHERE ts >= ? AND ts < ? "
+            + "GROUP BY device_id, metric_id, 4" + ON_CONFLICT;
+
+    private static final String FROM_ROLLUPS_SQL = UPSERT
+            + "SELECT device_id, metric_id, ?, date_trunc(?, bucket_start AT TIME ZONE 'UTC') AT TIME ZONE 'UTC', "
+            + "sum(sample_count), min(min_value), max(max_value), sum(sum_value) "
+            + "FROM telemetry_rollups WHERE granularity = ? AND bucket_start >= ? AND bucket_start < ? "
+            + "GROUP BY device_id, metric_id, 4" + ON_CONFLICT;
+
+    // Xóa từng đợt để mỗi câu DELETE ngắn, không giữ lock và sinh WAL lớn trong một transaction
+    private static final String EXPIRE_POINTS_SQL = "DELETE FROM telemetry_points WHERE ctid = ANY(ARRAY("
+            + "SELECT ctid FROM telemetry_points WHERE ts < ? LIMIT ?))";
+    private static final int EXPIRE_BATCH = 10000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TelemetryRollupStateRepository stateRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long lagMinutes;
+    private final int pointsRetentionDays;
+
+    public TelemetryRollupService(JdbcTemplate jdbcTemplate, TelemetryRollupStateRepository stateRepo,
+            PlatformTransactionManager transactionManager,
+            @Value("${app.rollup.enabled:true}") boolean enabled,
+            @Value("${app.rollup.lag-minutes:10}") long lagMinutes,
+            @Value("${app.metrics.points-retention-days:365}") int pointsRetentionDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.stateRepo = stateRepo;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.lagMinutes = lagMinutes;
+        this.pointsRetentionDays = Math.max(1, pointsRetentionDays);
+    }
+
+    /**
+     * Chạy định kỳ: cập nhật các granularity theo thứ tự từ mịn đến thô
+     */
+    @Scheduled(fixedDelayString = "${app.rollup.interval-ms:300000}", initialDelayString = "${app.rollup.interval-ms:300000}")
+    public void scheduledRollup() {
+        if (!enabled)
+            return;
+        try {
+            runRollups();
+        } catch (Exception e) {
+            log.error("Error during telemetry rollup: {}", e.getMessage(), e);
+        }
+    }
+
+    public synchronized void runRollups() {
+        // Bucket giờ chỉ đóng sau lag để telemetry đến muộn (flush batch, retry) vẫn được tính
+        Instant hourlyLimit = floor(Instant.now().minus(lagMinutes, ChronoUnit.MINUTES), Granularity.HOURLY);
+        Instant hourly = rollup(Granularity.HOURLY, null, hourlyLimit);
+        Instant daily = rollup(Granularity.DAILY, Granularity.HOURLY, hourly);
+        rollup(Granularity.WEEKLY, Granularity.DAILY, daily);
+        rollup(Granularity.MONTHLY, Granularity.DAILY, daily);
+    }
+
+    @Scheduled(cron = "${app.metrics.points-retention-cron:0 45 1 * * *}")
+    public void scheduledExpirePoints() {
+        try {
+            expirePoints();
+        } catch (Exception e) {
+            log.error("Error expiring telemetry points: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Xóa telemetry_points cũ hơn retention; khi rollup bật chỉ xóa tới watermark HOURLY. Trả về số row đã xóa
+     */
+    public synchronized long expirePoints() {
+        Instant cutoff = Instant.now().minus(pointsRetentionDays, ChronoUnit.DAYS);
+        if (enabled) {
+            Instant hourly = stateRepo.findById(Granularity.HOURLY)
+                    .map(TelemetryRollupState::getCompletedUntil)
+                    .orElse(null);
+            if (hourly == null)
+                return 0; // chưa có point nào được rollup
+            cutoff = min(cutoff, hourly);
+        }
+        long deleted = 0;
+        int n;
+        do {
+            n = jdbcTemplate.update(EXPIRE_POINTS_SQL, Timestamp.from(cutoff), EXPIRE_BATCH);
+            deleted += n;
+        } while (n == EXPIRE_BATCH);
+        if (deleted > 0) {
+            log.info("Deleted {} telemetry points older than {}", deleted, cutoff);
+        }
+        return deleted;
+    }
+
+    /**
+     * Tính các bucket của granularity từ watermark tới sourceWatermark (đã làm tròn về bucket đóng).
+     * Trả về watermark mới (null nếu chưa có dữ liệu).
+     */
+    private Instant rollup(Granularity granularity, Granularity source, Instant sourceWatermark) {
+        if (sourceWatermark == null)
+            return null;
+        Instant limit = floor(sourceWatermark, granularity);
+        Instant from = stateRepo.findById(granularity)
+                .map(TelemetryRollupState::getCompletedUntil)
+                .orElseGet(() -> firstBucket(granularity, source));
+        if (from == null)
+            return null;
+
+        int buckets = 0;
+        while (from.isBefore(limit)) {
+            Instant to = min(advance(from, granularity, stepBuckets(granularity)), limit);
+            Instant stepFrom = from;
+            transactionTemplate.executeWithoutResult(status -> {
+                if (source == null) {
+                    jdbcTemplate.update(FROM_POINTS_SQL, Timestamp.from(stepFrom), Timestamp.from(to));
+                } else {
+                    jdbcTemplate.update(FROM_ROLLUPS_SQL, granularity.name(), truncUnit(granularity),
+                            source.name(), Timestamp.from(stepFrom), Timestamp.from(to));
+                }
+                TelemetryRollupState state = stateRepo.findById(granularity)
+                        .orElseGet(() -> new TelemetryRollupState(granularity, to));
+                state.setCompletedUntil(to);
+                stateRepo.save(state);
+            });
+            buckets += stepBuckets(granularity);
+            from = to;
+        }
+        if (buckets > 0) {
+            log.info("Rolled up {} until {}", granularity, from);
+        }
+        return from;
+    }
+
+    /**
+     * Bucket đầu tiên khi chưa có watermark: bucket chứa dữ liệu nguồn sớm nhất
+     */
+    private Instant firstBucket(Granularity granularity, Granularity source) {
+        Timestamp earliest = source == null
+                ? jdbcTemplate.queryForObject("SELECT min(ts) FROM telemetry_points", Timestamp.class)
+                : jdbcTemplate.queryForObject("SELECT min(bucket_start) FROM telemetry_rollups WHERE granularity = ?",
+                        Timestamp.class, source.name());
+        return earliest != null ? floor(earliest.toInstant(), granularity) : null;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("lagMinutes", lagMinutes);
+        status.put("pointsRetentionDays", pointsRetentionDays);
+        for (Granularity g : Granularity.values()) {
+            status.put(g.name(), stateRepo.findById(g).map(TelemetryRollupState::getCompletedUntil).orElse(null));
+        }
+        return status;
+    }
+
+    // Số bucket mỗi transaction (giới hạn kích thước một bước)
+    private static int stepBuckets(Granularity granularity) {
+        return switch (granularity) {
+            case HOURLY -> 24;
+            case DAILY -> 31;
+            case WEEKLY -> 12;
+            case MONTHLY -> 12;
+        };
+    }
+
+    private static String truncUnit(Granularity granularity) {
+        return switch (granularity) {
+            case HOURLY -> "hour";
+            case DAILY -> "day";
+            case WEEKLY -> "week";
+            case MONTHLY -> "month";
+        };
+    }
+
+    static Instant floor(Instant ts, Granularity granularity) {
+        if (granularity == Granularity.HOURLY)
+            return ts.truncatedTo(ChronoUnit.HOURS);
+        LocalDate date = LocalDate.ofInstant(ts, ZoneOffset.UTC);
+        if (granularity == Granularity.WEEKLY) {
+            date = date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        } else if (granularity == Granularity.MONTHLY) {
+            date = date.withDayOfMonth(1);
+        }
+        return date.atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    static Instant advance(Instant bucketStart, Granularity granularity, int buckets) {
+        return switch (granularity) {
+            case HOURLY -> bucketStart.plus(buckets, ChronoUnit.HOURS);
+            case DAILY -> bucketStart.plus(buckets, ChronoUnit.DAYS);
+            case WEEKLY -> bucketStart.plus(7L * buckets, ChronoUnit.DAYS);
+            case MONTHLY -> LocalDate.ofInstant(bucketStart, ZoneOffset.UTC).plusMonths(buckets)
+                    .atStartOfDay(ZoneOffset.UTC).toInstant();
+        };
+    }
+
+    private static Instant min(Instant a, Instant b) {
+        return a.isBefore(b) ? a : b;
+    }
+}
@@ -1,16 +1,33 @@
 package com.example.iot_backend.service;
 
-import com.example.iot_backend.model.Device;
+import com.example.iot_backend.alert.AlertRuleEngine;
+import com.example.iot_backend.dto.MetricPointDTO;
+import com.example.iot_backend.ingest.BinaryPayloadCodec;
+import com.example.iot_backend.ingest.MetricPointBatch;
+import com.example.iot_backend.ingest.TelemetryRecord;
 import com.example.iot_backend.model.Telemetry;
+import com.example.iot_backend.model.TelemetryRollup;
 import com.example.iot_backend.repository.DeviceRepository;
+import com.example.iot_backend.repository.TelemetryPointRepository;
+import com.example.iot_backend.repository.TelemetryRollupRepository;
 import com.example.iot_backend.repository.TelemetryRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class TelemetryService {
@@ -18,45 +35,131 @@ public class TelemetryService {
 
     private final TelemetryRepository telemetryRepo;
     private final DeviceRepository deviceRepo;
+    private final TelemetryPointRepository pointRepo;
+    private final TelemetryRollupRepository rollupRepo;
+    private final MetricDictionary metricDictionary;
+    private final AlertRuleEngine alertEngine;
+    private final TelemetryBatchWriter batchWriter;
+    private final boolean writePoints;
 
-    public TelemetryService(TelemetryRepository telemetryRepo, DeviceRepository deviceRepo) {
+    public TelemetryService(TelemetryRepository telemetryRepo, DeviceRepository deviceRepo,
+            TelemetryPointRepository pointRepo, TelemetryRollupRepository rollupRepo, MetricDictionary metricDictionary, AlertRuleEngine alertEngine,
+            List<TelemetryBatchWriter> batchWriters,
+            @Value("${app.ingest.write-mode:insert}") String writeMode,
+            @Value("${app.metrics.points-enabled:true}") boolean writePoints) {
         this.telemetryRepo = telemetryRepo;
         this.deviceRepo = deviceRepo;
+        this.pointRepo = pointRepo;
+        this.rollupRepo = rollupRepo;
+        this.metricDictionary = metricDictionary;
+        this.alertEngine = alertEngine;
+        this.writePoints = writePoints;
+        this.batchWriter = batchWriters.stream()
+                .filter(w -> w.mode().equalsIgnoreCase(writeMode))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown app.ingest.write-mode: " + writeMode));
+        log.info("Telemetry batch write mode: {}", batchWriter.mode());
     }
 
-    public void saveTelemetry(Long deviceId, String jsonData) {
-        Optional<Device> deviceOpt = deviceRepo.findById(deviceId);
-        if (deviceOpt.isPresent()) {
-            Telemetry telemetry = new Telemetry();
-            telemetry.setDevice(deviceOpt.get());
-            telemetry.setTs(Instant.now());
-            telemetry.setData(jsonData);
-
-            telemetryRepo.save(telemetry);
-            log.info("Saved telemetry for device {}: {}", deviceId, jsonData);
-
-            // Thêm logic cảnh báo nhiệt độ cao
-            checkTemperatureAlert(jsonData);
-        } else {
-            log.warn("Device not found with id={}", deviceId);
+    /**
+     * Ghi một batch telemetry theo write mode đã cấu hình (dùng bởi ingest pipeline)
+     */
+    @Transactional
+    public void saveBatch(List<TelemetryRecord> records) {
+        if (records.isEmpty())
+            return;
+
+        // Kiểm tra device tồn tại bằng một query cho cả batch thay vì findById từng message
+        Set<Long> requestedIds = new HashSet<>();
+        for (TelemetryRecord r : records) {
+            requestedIds.add(r.getDeviceId());
+        }
+        Map<Long, String> formats = new HashMap<>();
+        for (Object[] row : deviceRepo.findIngestInfo(requestedIds)) {
+            formats.put((Long) row[0], row[1] != null ? (String) row[1] : BinaryPayloadCodec.FORMAT_JSON);
+        }
+
+        List<TelemetryRecord> valid = new ArrayList<>(records.size());
+        for (TelemetryRecord r : records) {
+            String format = formats.get(r.getDeviceId());
+            if (format == null) {
+                log.warn("Device not found with id={}", r.getDeviceId());
+            } else if (r.getBinaryData() != null && !BinaryPayloadCodec.FORMAT_BINARY.equalsIgnoreCase(format)) {
+                // Device lưu dạng JSON: chuyển CBOR sang JSON chuẩn trước khi ghi
+                valid.add(r.withJson(BinaryPayloadCodec.toJson(r.getBinaryData())));
+            } else {
+                valid.add(r);
+            }
+        }
+
+        // Record trùng (redelivery) không được insert: bỏ qua luôn metric points và alert của nó
+        List<TelemetryRecord> inserted = valid.isEmpty() ? valid : batchWriter.write(valid);
+        if (writePoints && !inserted.isEmpty()) {
+            writeMetricPoints(inserted);
+        }
+        log.debug("Saved telemetry batch: {} records ({} skipped, {} duplicates)", inserted.size(),
+                records.size() - valid.size(), valid.size() - inserted.size());
+
+        // Alert chỉ được đánh giá khi batch đã commit (batch rollback sẽ được ghi lại và đánh giá ở lần sau)
+        afterCommit(() -> {
+            for (TelemetryRecord r : inserted) {
+                alertEngine.evaluate(r);
+            }
+        });
+    }
+
+    /**
+     * Chạy action sau khi transaction hiện tại commit (chạy ngay nếu không có transaction).
+     * Lỗi của action chỉ được log: dữ liệu đã commit, không được để caller ghi lại batch
+     */
+    private static void afterCommit(Runnable action) {
+        Runnable guarded = () -> {
+            try {
+                action.run();
+            } catch (Exception e) {
+                log.error("Post-commit telemetry action failed: {}", e.getMessage(), e);
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            guarded.run();
+            return;
         }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                guarded.run();
+            }
+        });
     }
 
-    private void checkTemperatureAlert(String jsonData) {
-        try {
-            // Simple JSON parsing để tìm nhiệt độ
-            if (jsonData.contains("temp")) {
-                String tempStr = jsonData.replaceAll(".*\"temp\"\\s*:\\s*([0-9.-]+).*", "$1");
-                double temp = Double.parseDouble(tempStr);
-                if (temp > 30.0) {
-                    log.warn("🔥 HIGH TEMPERATURE ALERT: {}°C", temp);
+    /**
+     * Ghi các metric số của batch vào bảng hẹp telemetry_points (metric name -> metric ID)
+     */
+    private void writeMetricPoints(List<TelemetryRecord> records) {
+        MetricPointBatch points = new MetricPointBatch(records.size() * 4);
+        for (TelemetryRecord r : records) {
+            int count = r.getMetricCount();
+            for (int i = 0; i < count; i++) {
+                int metricId = metricDictionary.resolve(r.getMetricName(i));
+                if (metricId != MetricDictionary.UNKNOWN && !isDuplicateMetric(r, i, metricId)) {
+                    points.add(r.getDeviceId(), r.getTs(), metricId, r.getMetricValue(i));
                 }
             }
-        } catch (Exception e) {
-            log.debug("Could not parse temperature from: {}", jsonData);
+        }
+        if (!points.isEmpty()) {
+            batchWriter.writePoints(points);
         }
     }
 
+    // Payload có thể lặp lại tên metric (ví dụ trong object lồng nhau): chỉ giữ giá trị đầu tiên
+    private boolean isDuplicateMetric(TelemetryRecord r, int index, int metricId) {
+        for (int j = 0; j < index; j++) {
+            if (metricDictionary.resolve(r.getMetricName(j)) == metricId)
+                return true;
+        }
+        return false;
+    }
+
     public List<Telemetry> getAllTelemetry() {
         return telemetryRepo.findAll();
     }
@@ -64,4 +167,48 @@ public class TelemetryService {
     public List<Telemetry> getTelemetryByDeviceId(Long deviceId) {
         return telemetryRepo.findByDeviceIdOrderByTsDesc(deviceId);
     }
-}
\ No newline at end of file
+
+    /**
+     * Chuỗi giá trị của một metric (đọc từ telemetry_points, không parse JSON)
+     */
+    public List<MetricPointDTO> getMetricSeries(Long deviceId, String metric, Instant from, Instant to, int limit) {
+        return metricDictionary.findId(metric)
+                .map(id -> pointRepo.findSeries(deviceId, id, from, to, PageRequest.of(0, limit)))
+                .orElse(List.of());
+    }
+
+    /**
+     * Thống kê count/min/max/avg của một metric trong khoảng thời gian
+     */
+    public Map<String, Object> getMetricStats(Long deviceId, String metric, Instant from, Instant to) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("deviceId", deviceId);
+        stats.put("metric", metric);
+        stats.put("from", from);
+        stats.put("to", to);
+
+        Object[] row = metricDictionary.findId(metric)
+                .map(id -> pointRepo.getStats(deviceId, id, from, to))
+                .filter(rows -> !rows.isEmpty())
+                .map(rows -> rows.get(0))
+                .orElse(null);
+        long count = row != null && row[0] != null ? ((Number) row[0]).longValue() : 0L;
+        stats.put("count", count);
+        if (count > 0) {
+            stats.put("min", ((Number) row[1]).doubleValue());
+            stats.put("max", ((Number) row[2]).doubleValue());
+            stats.put("avg", ((Number) row[3]).doubleValue());
+        }
+        return stats;
+    }
+
+    /**
+     * Giá trị tổng hợp theo bucket (HOURLY/DAILY/WEEKLY/MONTHLY) của một metric
+     */
+    public List<TelemetryRollup> getMetricRollups(Long deviceId, String metric, TelemetryRollup.Granularity granularity,
+            Instant from, Instant to) {
+        return metricDictionary.findId(metric)
+                .map(id -> rollupRepo.findSeries(deviceId, id, granularity, from, to))
+                .orElse(List.of());
+    }
+}
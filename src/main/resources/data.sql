@@ -3,3 +3,8 @@ INSERT INTO devices (name, type, status, created_at) VALUES
   ('ESP32 Kitchen', 'sensor', 'ONLINE', now()),
   ('Raspberry Pi 4', 'gateway', 'OFFLINE', now()),
   ('Smart Plug A1', 'actuator', 'ONLINE', now());
+
+-- Alert rule mặc định (thay cho ngưỡng 30°C hard-code trước đây), chỉ tạo khi chưa có rule nào
+INSERT INTO alert_rules (name, metric, comparator, threshold, window_seconds, hysteresis, enabled, created_at)
+SELECT 'High temperature', 'temp', 'GT', 30.0, 0, 0.5, true, now()
+WHERE NOT EXISTS (SELECT 1 FROM alert_rules);
@@ -19,10 +19,12 @@ ON telemetry (device_id);
 CREATE INDEX IF NOT EXISTS idx_telemetry_device_date_range 
 ON telemetry (device_id, ts) WHERE ts IS NOT NULL;
 
--- Partial index cho dữ liệu gần đây (last 30 days)
-CREATE INDEX IF NOT EXISTS idx_telemetry_recent 
-ON telemetry (device_id, ts) 
-WHERE ts > NOW() - INTERVAL '30 days';
+-- Dữ liệu gần đây: không dùng partial index WHERE ts > NOW() - INTERVAL '30 days'
+-- (PostgreSQL chỉ cho hàm IMMUTABLE trong predicate của index nên NOW() không dùng được,
+-- và kể cả được thì điều kiện cũng không "trượt" theo thời gian).
+-- Bảng telemetry được range partition theo ts (TelemetryPartitionManager), query theo khoảng ts
+-- chỉ chạm các partition gần đây (partition pruning).
+DROP INDEX IF EXISTS idx_telemetry_recent;
 
 -- ==== Device Status Table Indexes ====
 
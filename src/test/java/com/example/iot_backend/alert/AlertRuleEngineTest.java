@@ -0,0 +1,148 @@
+package com.example.iot_backend.alert;
+
+import com.example.iot_backend.ingest.PayloadParser;
+import com.example.iot_backend.model.AlertRule;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AlertRuleEngineTest {
+
+	private static final Instant T0 = Instant.parse("2025-03-01T00:00:00Z");
+
+	private final List<AlertEvent> events = new ArrayList<>();
+	private final AlertRuleEngine engine = new AlertRuleEngine(event -> events.add((AlertEvent) event));
+
+	private static AlertRule rule(long id, AlertRule.Comparator comparator, double threshold, int windowSeconds,
+			double hysteresis) {
+		AlertRule rule = new AlertRule();
+		rule.setId(id);
+		rule.setName("rule-" + id);
+		rule.setMetric("temp");
+		rule.setComparator(comparator);
+		rule.setThreshold(threshold);
+		rule.setWindowSeconds(windowSeconds);
+		rule.setHysteresis(hysteresis);
+		return rule;
+	}
+
+	private void send(long deviceId, long secondsFromStart, double temp) {
+		String json = "{\"temp\":" + temp + "}";
+		engine.evaluate(deviceId, T0.plusSeconds(secondsFromStart),
+				new PayloadParser().parse(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private List<AlertEvent.Type> types() {
+		return events.stream().map(AlertEvent::getType).toList();
+	}
+
+	@Test
+	void firesImmediatelyWithoutWindowAndResolvesBelowThreshold() {
+		engine.compile(List.of(rule(1, AlertRule.Comparator.GT, 30, 0, 0)));
+
+		send(1, 0, 30); // bằng ngưỡng, GT không tính
+		send(1, 1, 31);
+		send(1, 2, 35); // đã firing, không publish lại
+		send(1, 3, 30);
+
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING, AlertEvent.Type.RESOLVED);
+		AlertEvent firing = events.get(0);
+		assertThat(firing.getRuleId()).isEqualTo(1);
+		assertThat(firing.getDeviceId()).isEqualTo(1);
+		assertThat(firing.getValue()).isEqualTo(31);
+		assertThat(firing.getTs()).isEqualTo(T0.plusSeconds(1));
+		assertThat(engine.getMetrics()).containsEntry("fired", 1L).containsEntry("resolved", 1L);
+	}
+
+	@Test
+	void firesOnlyAfterBreachLastsWholeWindow() {
+		engine.compile(List.of(rule(1, AlertRule.Comparator.GTE, 30, 60, 0)));
+
+		send(1, 0, 30);
+		send(1, 59, 32);
+		assertThat(events).isEmpty();
+
+		send(1, 60, 31);
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING);
+		assertThat(events.get(0).getTs()).isEqualTo(T0.plusSeconds(60));
+	}
+
+	@Test
+	void dipBelowThresholdRestartsWindow() {
+		engine.compile(List.of(rule(1, AlertRule.Comparator.GT, 30, 60, 0)));
+
+		send(1, 0, 31);
+		send(1, 30, 29); // về dưới ngưỡng: bỏ pending
+		send(1, 40, 31);
+		send(1, 90, 31);
+		assertThat(events).isEmpty();
+
+		send(1, 100, 31);
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING);
+	}
+
+	@Test
+	void hysteresisDelaysResolve() {
+		engine.compile(List.of(rule(1, AlertRule.Comparator.GT, 30, 0, 2)));
+
+		send(1, 0, 31);
+		send(1, 1, 29); // dưới ngưỡng nhưng chưa lùi đủ 2
+		send(1, 2, 30.5);
+		send(1, 3, 28.5);
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING);
+
+		send(1, 4, 28); // threshold - hysteresis
+		send(1, 5, 29);
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING, AlertEvent.Type.RESOLVED);
+
+		send(1, 6, 30.1);
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING, AlertEvent.Type.RESOLVED, AlertEvent.Type.FIRING);
+	}
+
+	@Test
+	void hysteresisOnBelowRuleResolvesAboveThresholdPlusHysteresis() {
+		engine.compile(List.of(rule(1, AlertRule.Comparator.LTE, 10, 0, 5)));
+
+		send(1, 0, 10);
+		send(1, 1, 14.9);
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING);
+
+		send(1, 2, 15);
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING, AlertEvent.Type.RESOLVED);
+	}
+
+	@Test
+	void stateIsTrackedPerDeviceAndRespectsDeviceFilter() {
+		AlertRule onlyDevice2 = rule(2, AlertRule.Comparator.GT, 50, 0, 0);
+		onlyDevice2.setDeviceId(2L);
+		engine.compile(List.of(rule(1, AlertRule.Comparator.GT, 30, 0, 0), onlyDevice2));
+
+		send(1, 0, 60);
+		send(2, 0, 40);
+		send(2, 1, 60);
+
+		assertThat(events).extracting(e -> e.getRuleId() + "/" + e.getDeviceId())
+				.containsExactly("1/1", "1/2", "2/2");
+		assertThat(engine.getActiveAlerts()).hasSize(3);
+	}
+
+	@Test
+	void recompileKeepsStateOfRemainingRulesAndSkipsDisabled() {
+		engine.compile(List.of(rule(1, AlertRule.Comparator.GT, 30, 0, 0)));
+		send(1, 0, 31);
+
+		AlertRule disabled = rule(2, AlertRule.Comparator.GT, 0, 0, 0);
+		disabled.setEnabled(false);
+		engine.compile(List.of(rule(1, AlertRule.Comparator.GT, 30, 0, 0), disabled));
+		send(1, 1, 32); // vẫn firing, không publish lại
+		send(1, 2, 29);
+
+		assertThat(types()).containsExactly(AlertEvent.Type.FIRING, AlertEvent.Type.RESOLVED);
+		assertThat(engine.getMetrics()).containsEntry("rules", 1);
+	}
+}
@@ -0,0 +1,149 @@
+package com.example.iot_backend.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveSegmentStoreTest {
+
+	@TempDir
+	Path dir;
+
+	private ArchiveSegmentStore store() {
+		return new ArchiveSegmentStore(dir.resolve("segments").toString(), 1 << 20);
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(ByteBuffer buffer) {
+		byte[] out = new byte[buffer.remaining()];
+		buffer.duplicate().get(out);
+		return new String(out, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void sealPublishesSegmentWithFooterIndex() throws IOException {
+		ArchiveSegmentStore store = store();
+		long segmentId;
+		List<ArchiveSegmentStore.Entry> sealed;
+		try (ArchiveSegmentStore.SegmentWriter writer = store.create()) {
+			segmentId = writer.getSegmentId();
+			writer.append(11, bytes("first"));
+			writer.append(12, bytes("second block"));
+			assertThat(store.listSegments()).isEmpty(); // chưa seal thì chỉ là file .tmp
+			sealed = writer.seal();
+		}
+
+		assertThat(sealed).extracting(ArchiveSegmentStore.Entry::archiveId).containsExactly(11L, 12L);
+		assertThat(sealed.get(0).offset()).isEqualTo(8); // ngay sau MAGIC
+		assertThat(sealed.get(1).offset()).isEqualTo(8 + 5);
+		assertThat(store.listSegments()).containsExactly(segmentId);
+		assertThat(store.readIndex(segmentId)).isEqualTo(sealed);
+		for (ArchiveSegmentStore.Entry entry : sealed) {
+			assertThat(store.read(segmentId, entry.offset(), entry.length()).remaining()).isEqualTo(entry.length());
+		}
+		assertThat(string(store.read(segmentId, sealed.get(1).offset(), sealed.get(1).length())))
+				.isEqualTo("second block");
+	}
+
+	@Test
+	void indexIsReadableByNewStoreInstance() throws IOException {
+		List<ArchiveSegmentStore.Entry> sealed;
+		try (ArchiveSegmentStore.SegmentWriter writer = store().create()) {
+			writer.append(7, bytes("payload"));
+			sealed = writer.seal();
+		}
+
+		// Sau restart: footer là nguồn duy nhất để đối chiếu segment chưa được DB tham chiếu
+		ArchiveSegmentStore reopened = store();
+		long segmentId = reopened.listSegments().get(0);
+		assertThat(reopened.readIndex(segmentId)).isEqualTo(sealed);
+		assertThat(string(new ArchiveSegmentStore(dir.resolve("segments").toString(), 1 << 20)
+				.read(segmentId, sealed.get(0).offset(), sealed.get(0).length()))).isEqualTo("payload");
+	}
+
+	@Test
+	void closeWithoutSealDeletesTemporaryFile() throws IOException {
+		ArchiveSegmentStore store = store();
+		try (ArchiveSegmentStore.SegmentWriter writer = store.create()) {
+			writer.append(1, bytes("abandoned"));
+		}
+
+		assertThat(store.listSegments()).isEmpty();
+		try (var files = Files.list(dir.resolve("segments"))) {
+			assertThat(files).isEmpty();
+		}
+	}
+
+	@Test
+	void unfinishedSegmentsAreDeletedAndIdsContinue() throws IOException {
+		Path segments = Files.createDirectories(dir.resolve("segments"));
+		try (ArchiveSegmentStore.SegmentWriter writer = store().create()) {
+			writer.append(1, bytes("kept"));
+			writer.seal();
+		}
+		// Segment ghi dở từ lần chạy trước bị crash
+		Files.write(segments.resolve("segment-0000000005.seg.tmp"), bytes("partial"));
+
+		ArchiveSegmentStore restarted = store();
+		assertThat(restarted.listSegments()).containsExactly(1L);
+		try (ArchiveSegmentStore.SegmentWriter writer = restarted.create()) {
+			assertThat(writer.getSegmentId()).isEqualTo(6);
+		}
+		assertThat(segments.resolve("segment-0000000005.seg.tmp")).doesNotExist();
+		assertThat(restarted.listSegments()).containsExactly(1L);
+	}
+
+	@Test
+	void missingDirectoryIsCreatedOnlyOnFirstWrite() throws IOException {
+		ArchiveSegmentStore store = store();
+
+		assertThat(store.listSegments()).isEmpty();
+		assertThat(dir.resolve("segments")).doesNotExist();
+
+		store.create().close();
+		assertThat(dir.resolve("segments")).isDirectory();
+	}
+
+	@Test
+	void fitsAccountsForFooter() throws IOException {
+		// 8 header + 16 trailer + 20 mỗi entry
+		ArchiveSegmentStore store = new ArchiveSegmentStore(dir.resolve("segments").toString(), 100);
+		try (ArchiveSegmentStore.SegmentWriter writer = store.create()) {
+			assertThat(writer.fits(56)).isTrue();
+			assertThat(writer.fits(57)).isFalse();
+			writer.append(1, new byte[20]);
+			assertThat(writer.fits(16)).isTrue();
+			assertThat(writer.fits(17)).isFalse();
+		}
+	}
+
+	@Test
+	void readOutsideSegmentAndDeletedSegmentsFail() throws IOException {
+		ArchiveSegmentStore store = store();
+		long segmentId;
+		try (ArchiveSegmentStore.SegmentWriter writer = store.create()) {
+			segmentId = writer.getSegmentId();
+			writer.append(1, bytes("data"));
+			writer.seal();
+		}
+
+		assertThatThrownBy(() -> store.read(segmentId, 0, 4)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> store.read(segmentId, 8, 1 << 20)).isInstanceOf(IllegalArgumentException.class);
+
+		store.delete(segmentId);
+		assertThat(store.listSegments()).isEmpty();
+		assertThat(store.sizeOf(segmentId)).isZero();
+	}
+}
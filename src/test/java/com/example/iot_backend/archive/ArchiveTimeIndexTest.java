@@ -0,0 +1,105 @@
+package com.example.iot_backend.archive;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArchiveTimeIndexTest {
+
+	private static final long T0 = Instant.parse("2025-03-01T00:00:00Z").toEpochMilli();
+
+	// 3 chunk liên tiếp: [T0, T0+999] 100 byte, [T0+1000, T0+1999] 50 byte, [T0+2000, T0+2999] 70 byte
+	private static ArchiveTimeIndex threeChunks() {
+		ArchiveTimeIndex.Builder builder = new ArchiveTimeIndex.Builder();
+		builder.add(100, T0, T0 + 999);
+		builder.add(50, T0 + 1000, T0 + 1999);
+		builder.add(70, T0 + 2000, T0 + 2999);
+		return ArchiveTimeIndex.parse(builder.toBytes());
+	}
+
+	private static Instant at(long offsetMillis) {
+		return Instant.ofEpochMilli(T0 + offsetMillis);
+	}
+
+	@Test
+	void parseRestoresChunkOffsets() {
+		ArchiveTimeIndex index = threeChunks();
+
+		assertThat(index.size()).isEqualTo(3);
+		assertThat(index.start(0)).isZero();
+		assertThat(index.end(0)).isEqualTo(100);
+		assertThat(index.start(1)).isEqualTo(100);
+		assertThat(index.end(2)).isEqualTo(220);
+	}
+
+	@Test
+	void byteRangeCoversOnlyOverlappingChunks() {
+		ArchiveTimeIndex index = threeChunks();
+
+		assertThat(index.byteRange(at(1200), at(1500))).containsExactly(100, 150);
+		assertThat(index.byteRange(at(500), at(1500))).containsExactly(0, 150);
+		assertThat(index.byteRange(at(1500), at(2500))).containsExactly(100, 220);
+		// Biên đóng: chạm đúng max của chunk đầu và min của chunk cuối
+		assertThat(index.byteRange(at(999), at(999))).containsExactly(0, 100);
+		assertThat(index.byteRange(at(1999), at(2000))).containsExactly(100, 220);
+	}
+
+	@Test
+	void byteRangeWithOpenBounds() {
+		ArchiveTimeIndex index = threeChunks();
+
+		assertThat(index.byteRange(null, null)).containsExactly(0, 220);
+		assertThat(index.byteRange(at(2500), null)).containsExactly(150, 220);
+		assertThat(index.byteRange(null, at(10))).containsExactly(0, 100);
+	}
+
+	@Test
+	void byteRangeIsNullWhenNothingOverlaps() {
+		ArchiveTimeIndex index = threeChunks();
+
+		assertThat(index.byteRange(at(3000), at(5000))).isNull();
+		assertThat(index.byteRange(at(-5000), at(-1))).isNull();
+		assertThat(ArchiveTimeIndex.parse(new ArchiveTimeIndex.Builder().toBytes()).byteRange(null, null)).isNull();
+	}
+
+	@Test
+	void subMillisecondBoundsNeverSkipRecords() {
+		ArchiveTimeIndex index = threeChunks();
+
+		// Record ở T0+999.5ms được ghi là T0+999 (làm tròn xuống) nên from trong cùng millisecond vẫn chạm chunk đầu
+		assertThat(index.byteRange(at(999).plusNanos(500_000), at(999).plusNanos(900_000))).containsExactly(0, 100);
+	}
+
+	@Test
+	void unboundedChunkIsAlwaysRead() {
+		ArchiveTimeIndex.Builder builder = new ArchiveTimeIndex.Builder();
+		builder.add(40, T0, T0 + 999);
+		builder.add(30, 1, 0); // chunk không có ts
+		builder.add(20, T0 + 5000, T0 + 5999);
+		ArchiveTimeIndex index = ArchiveTimeIndex.parse(builder.toBytes());
+
+		assertThat(index.byteRange(at(2000), at(3000))).containsExactly(40, 70);
+		assertThat(index.byteRange(at(5000), null)).containsExactly(40, 90);
+	}
+
+	@Test
+	void manyChunksWithDecreasingMinRoundTrip() {
+		ArchiveTimeIndex.Builder builder = new ArchiveTimeIndex.Builder();
+		for (int i = 0; i < 20; i++) {
+			// min giảm dần để kiểm tra delta âm (zigzag)
+			builder.add(10 + i, T0 - i * 1000L, T0 - i * 1000L + 500);
+		}
+		ArchiveTimeIndex index = ArchiveTimeIndex.parse(builder.toBytes());
+
+		assertThat(index.size()).isEqualTo(20);
+		int offset = 0;
+		for (int i = 0; i < 20; i++) {
+			assertThat(index.start(i)).isEqualTo(offset);
+			offset += 10 + i;
+			assertThat(index.overlaps(i, at(-i * 1000L + 250), at(-i * 1000L + 250))).isTrue();
+			assertThat(index.overlaps(i, at(-i * 1000L + 501), null)).isFalse();
+		}
+	}
+}
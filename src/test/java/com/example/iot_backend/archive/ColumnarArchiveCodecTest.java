@@ -0,0 +1,122 @@
+package com.example.iot_backend.archive;
+
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnarArchiveCodecTest {
+
+	private static final Instant START = Instant.parse("2025-03-01T00:00:00Z");
+
+	private static List<TelemetryArchiveDTO> records(String... payloads) {
+		List<TelemetryArchiveDTO> records = new ArrayList<>();
+		for (int i = 0; i < payloads.length; i++) {
+			records.add(new TelemetryArchiveDTO(100L + i, 7L, "sensor-7", START.plusSeconds(30L * i), payloads[i]));
+		}
+		return records;
+	}
+
+	private static void assertRoundTrip(List<TelemetryArchiveDTO> records) {
+		List<TelemetryArchiveDTO> decoded = ColumnarArchiveCodec.decode(ColumnarArchiveCodec.encode(records));
+
+		assertThat(decoded).hasSameSizeAs(records);
+		for (int i = 0; i < records.size(); i++) {
+			TelemetryArchiveDTO expected = records.get(i);
+			TelemetryArchiveDTO actual = decoded.get(i);
+			assertThat(actual.getId()).isEqualTo(expected.getId());
+			assertThat(actual.getDeviceId()).isEqualTo(expected.getDeviceId());
+			assertThat(actual.getDeviceName()).isEqualTo(expected.getDeviceName());
+			assertThat(actual.getTs()).isEqualTo(expected.getTs());
+			assertThat(actual.getData()).isEqualTo(expected.getData());
+		}
+	}
+
+	@Test
+	void flatJsonRoundTrips() {
+		assertRoundTrip(records(
+				"{\"temp\":26.5,\"hum\":70,\"ok\":true}",
+				"{\"temp\":26.7,\"hum\":71,\"ok\":false}",
+				"{\"temp\": 26.4, \"hum\": 69, \"ok\": null}",
+				"{\"temp\":-0.0,\"status\":\"ON\",\"note\":\"a\\\"b\"}",
+				"{}"));
+	}
+
+	@Test
+	void irregularDoublesFallBackToXorAndRoundTrip() {
+		// 0.1 + 0.2 không biểu diễn được bằng số thập phân đã scale nên cả cột chuyển sang XOR
+		assertRoundTrip(records(
+				"{\"v\":" + (0.1 + 0.2) + "}",
+				"{\"v\":1.0E-7}",
+				"{\"v\":1.7976931348623157E308}",
+				"{\"v\":4.9E-324}",
+				"{\"v\":1.0E-7}"));
+	}
+
+	@Test
+	void payloadsThatCannotBeRebuiltAreStoredRaw() {
+		assertRoundTrip(records(
+				"{\"temp\":26.50}",
+				"{\"temp\":2.65e1}",
+				"{ \"temp\":26.5 }",
+				"{\"nested\":{\"a\":1},\"arr\":[1,2]}",
+				"{\"big\":123456789012345678901234567890}",
+				"{\"u\":\"\\u0041\"}",
+				"[1,2,3]",
+				"not json",
+				"{\"temp\":26.5}trailing",
+				""));
+	}
+
+	@Test
+	void nonFiniteValuesRoundTrip() {
+		// NaN/Infinity không phải JSON chuẩn, 1e400 tràn thành Infinity: đều phải giữ nguyên chuỗi gốc
+		assertRoundTrip(records(
+				"{\"v\":NaN}",
+				"{\"v\":Infinity}",
+				"{\"v\":-Infinity}",
+				"{\"v\":1e400}",
+				"{\"v\":-1e400}",
+				"{\"v\":1.5}"));
+	}
+
+	@Test
+	void nullFieldsAndDataRoundTrip() {
+		List<TelemetryArchiveDTO> records = new ArrayList<>(records("{\"temp\":1.5}", null));
+		records.add(new TelemetryArchiveDTO(null, null, null, START.plusNanos(123_456_789), null));
+		records.add(new TelemetryArchiveDTO(200L, 8L, "sensor-8", START.minusMillis(1), "{\"temp\":1.5}"));
+
+		assertRoundTrip(records);
+	}
+
+	@Test
+	void emptyArchiveRoundTrips() {
+		assertRoundTrip(List.of());
+	}
+
+	@Test
+	void streamingDecodeMatchesByteArrayDecode() throws IOException {
+		List<TelemetryArchiveDTO> records = records("{\"temp\":26.5}", "{\"temp\":NaN}", "{\"temp\":27.0}");
+		byte[] encoded = ColumnarArchiveCodec.encode(records);
+		List<TelemetryArchiveDTO> streamed = new ArrayList<>();
+
+		ColumnarArchiveCodec.decode(new ByteArrayInputStream(encoded), streamed::add);
+
+		assertThat(streamed).extracting(TelemetryArchiveDTO::getData)
+				.containsExactly("{\"temp\":26.5}", "{\"temp\":NaN}", "{\"temp\":27.0}");
+	}
+
+	@Test
+	void nullTimestampIsRejected() {
+		List<TelemetryArchiveDTO> records = List.of(new TelemetryArchiveDTO(1L, 1L, "d", null, "{}"));
+
+		assertThatThrownBy(() -> ColumnarArchiveCodec.encode(records)).isInstanceOf(IllegalArgumentException.class);
+	}
+}
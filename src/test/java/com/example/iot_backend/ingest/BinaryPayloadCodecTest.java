@@ -0,0 +1,107 @@
+package com.example.iot_backend.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryPayloadCodecTest {
+
+	private static final ObjectMapper CBOR = new CBORMapper();
+
+	private static byte[] cbor(Map<String, Object> value) throws IOException {
+		return CBOR.writeValueAsBytes(value);
+	}
+
+	private static PayloadEnvelope decode(byte[] payload) throws IOException {
+		PayloadEnvelope envelope = new PayloadEnvelope();
+		BinaryPayloadCodec.decode(payload, envelope);
+		return envelope;
+	}
+
+	@Test
+	void decodesNumbersAndMetadata() throws IOException {
+		Map<String, Object> payload = new LinkedHashMap<>();
+		payload.put("temp", 26.5);
+		payload.put("hum", 70);
+		payload.put("signal", -70);
+		payload.put("battery", 88);
+		payload.put("firmware", "1.2.3");
+		payload.put("ip", "10.0.0.2");
+		payload.put("online", true);
+
+		PayloadEnvelope envelope = decode(cbor(payload));
+
+		assertThat(envelope.getTemp()).isEqualTo(26.5);
+		assertThat(envelope.getSignal()).isEqualTo(-70);
+		assertThat(envelope.getBattery()).isEqualTo(88);
+		assertThat(envelope.getFirmware()).isEqualTo("1.2.3");
+		assertThat(envelope.getIp()).isEqualTo("10.0.0.2");
+		assertThat(envelope.copyMetricNames()).containsExactly("temp", "hum", "signal", "battery");
+		assertThat(envelope.copyMetricValues()).containsExactly(26.5, 70.0, -70.0, 88.0);
+	}
+
+	@Test
+	void readsFieldsOfNestedMapsAndArrays() throws IOException {
+		Map<String, Object> payload = new LinkedHashMap<>();
+		payload.put("meta", Map.of("battery", 50));
+		payload.put("readings", List.of(Map.of("co2", 412.5), Map.of("pm25", 12)));
+
+		PayloadEnvelope envelope = decode(cbor(payload));
+
+		assertThat(envelope.getBattery()).isEqualTo(50);
+		assertThat(envelope.getMetric("co2")).isEqualTo(412.5);
+		assertThat(envelope.getMetric("pm25")).isEqualTo(12.0);
+	}
+
+	@Test
+	void numericFirmwareIsMetadataNotMetric() throws IOException {
+		PayloadEnvelope envelope = decode(cbor(Map.of("firmware", 2.5)));
+
+		assertThat(envelope.getFirmware()).isEqualTo("2.5");
+		assertThat(envelope.getMetricCount()).isZero();
+	}
+
+	@Test
+	void takesMessageIdFromPayload() throws IOException {
+		PayloadEnvelope first = decode(cbor(Map.of("seq", 41, "temp", 1.0)));
+		long firstId = first.getMessageId();
+		PayloadEnvelope second = decode(cbor(Map.of("seq", 42, "temp", 1.0)));
+
+		assertThat(first.hasMessageId()).isTrue();
+		assertThat(second.getMessageId()).isNotEqualTo(firstId);
+		assertThat(decode(cbor(Map.of("temp", 1.0))).hasMessageId()).isFalse();
+		assertThat(second.copyMetricNames()).containsExactly("temp");
+
+		PayloadEnvelope timestamped = decode(cbor(Map.of("ts", 1700000000, "temp", 1.0)));
+		assertThat(timestamped.hasMessageId()).isFalse();
+		assertThat(timestamped.copyMetricNames()).containsExactly("temp");
+	}
+
+	@Test
+	void convertsToJson() throws IOException {
+		Map<String, Object> payload = new LinkedHashMap<>();
+		payload.put("temp", 26.5);
+		payload.put("tags", List.of("a", "b"));
+
+		assertThat(BinaryPayloadCodec.toJson(cbor(payload))).isEqualTo("{\"temp\":26.5,\"tags\":[\"a\",\"b\"]}");
+	}
+
+	@Test
+	void rejectsTruncatedPayload() throws IOException {
+		byte[] payload = cbor(Map.of("temp", 26.5));
+		byte[] truncated = Arrays.copyOf(payload, payload.length - 3);
+
+		assertThatThrownBy(() -> decode(truncated)).isInstanceOf(IOException.class);
+		assertThatThrownBy(() -> BinaryPayloadCodec.toJson(truncated)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.example.iot_backend.ingest;
+
+import com.example.iot_backend.config.IngestConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeviceLaneExecutorTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<Integer> executed = new CopyOnWriteArrayList<>();
+	private DeviceLaneExecutor executor;
+
+	private DeviceLaneExecutor executor(long offerTimeoutMs) {
+		IngestConfig cfg = new IngestConfig();
+		ReflectionTestUtils.setField(cfg, "lanes", 1);
+		ReflectionTestUtils.setField(cfg, "laneQueueCapacity", 2);
+		ReflectionTestUtils.setField(cfg, "laneOfferTimeoutMs", offerTimeoutMs);
+		executor = new DeviceLaneExecutor(cfg, new MockEnvironment());
+		executor.start();
+		return executor;
+	}
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		if (executor != null) {
+			executor.stop();
+		}
+	}
+
+	private Runnable task(int i) {
+		return () -> executed.add(i);
+	}
+
+	// Lane kẹt ở task đầu, queue 2 chỗ đầy
+	private void fillLane() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		executor.execute(1, () -> {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, () -> {
+		});
+		assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+		executor.execute(1, task(1), () -> {
+		});
+		executor.execute(1, task(2), () -> {
+		});
+	}
+
+	@Test
+	void fullLaneRunsOverflowOnCallerAfterBoundedWait() throws InterruptedException {
+		executor(50);
+		fillLane();
+
+		AtomicReference<Thread> overflowThread = new AtomicReference<>();
+		long start = System.nanoTime();
+		executor.execute(1, task(3), () -> overflowThread.set(Thread.currentThread()));
+		long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertThat(overflowThread.get()).isSameAs(Thread.currentThread());
+		assertThat(waitedMs).isGreaterThanOrEqualTo(40).isLessThan(5000);
+		assertThat(executor.getMetrics()).containsEntry("overflows", 1L).containsEntry("fullWaits", 1L);
+
+		release.countDown();
+		executor.stop();
+		assertThat(executed).containsExactly(1, 2); // task 3 không vào lane
+	}
+
+	@Test
+	void taskEntersLaneWhenSpaceFreesUpWithinTimeout() throws InterruptedException {
+		executor(5000);
+		fillLane();
+
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			release.countDown();
+		});
+		releaser.start();
+		executor.execute(1, task(3), () -> executed.add(-1));
+		releaser.join();
+
+		executor.stop();
+		assertThat(executed).containsExactly(1, 2, 3);
+		assertThat(executor.getMetrics()).containsEntry("overflows", 0L);
+	}
+}
@@ -0,0 +1,114 @@
+package com.example.iot_backend.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PayloadParserTest {
+
+	private static double parseNumber(String text) {
+		byte[] buf = text.getBytes(StandardCharsets.US_ASCII);
+		return PayloadParser.parseNumber(buf, 0, buf.length);
+	}
+
+	private static PayloadEnvelope parse(String json) {
+		return new PayloadParser().parse(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "0", "26.5", "-70", "+2.5e+2", "1e3", "1.5E-3", "12.", "-.5", " 42 ",
+			// Nhiều hơn 15 chữ số có nghĩa
+			"9007199254740993", "12345678901234567890", "123456789012345678901", "0.1234567890123456789",
+			"3.141592653589793238", "99999999999999999999.5",
+			// Số mũ ngoài bảng POW10
+			"1e400", "1e-400", "6.02214076e23", "1.602176634e-19" })
+	void parseNumberMatchesDoubleParseDouble(String text) {
+		assertThat(parseNumber(text)).isEqualTo(Double.parseDouble(text.trim()));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "", ".", "-", "1e", "1e+", "abc", "12a", "1.2.3" })
+	void parseNumberReturnsNaNForInvalidInput(String text) {
+		assertThat(parseNumber(text)).isNaN();
+	}
+
+	@Test
+	void parsesMetadataAndNumericMetrics() {
+		PayloadEnvelope envelope = parse("{\"temp\": 26.5, \"hum\":70, \"firmware\":\" 1.2.3 \", \"ip\":\"10.0.0.2\","
+				+ " \"signal\":\"-70\", \"battery\":88, \"ok\":true, \"note\":\"x\"}");
+
+		assertThat(envelope.hasTemp()).isTrue();
+		assertThat(envelope.getTemp()).isEqualTo(26.5);
+		assertThat(envelope.getFirmware()).isEqualTo("1.2.3");
+		assertThat(envelope.getIp()).isEqualTo("10.0.0.2");
+		assertThat(envelope.getSignal()).isEqualTo(-70);
+		assertThat(envelope.getBattery()).isEqualTo(88);
+		assertThat(envelope.copyMetricNames()).containsExactly("temp", "hum", "signal", "battery");
+		assertThat(envelope.getMetric("hum")).isEqualTo(70.0);
+		assertThat(envelope.getMetric("note")).isNaN();
+	}
+
+	@Test
+	void readsKeysInsideNestedObjectsAndArrays() {
+		PayloadEnvelope envelope = parse("{\"meta\":{\"battery\":50,\"net\":{\"signal\":-80}},"
+				+ "\"readings\":[{\"co2\":412.5},{\"pm25\":1.2e1}]}");
+
+		assertThat(envelope.getBattery()).isEqualTo(50);
+		assertThat(envelope.getSignal()).isEqualTo(-80);
+		assertThat(envelope.getMetric("co2")).isEqualTo(412.5);
+		assertThat(envelope.getMetric("pm25")).isEqualTo(12.0);
+	}
+
+	@Test
+	void ignoresNonIntegralSignalAndBattery() {
+		PayloadEnvelope envelope = parse("{\"signal\":-70.5,\"battery\":\"abc\"}");
+
+		assertThat(envelope.hasSignal()).isFalse();
+		assertThat(envelope.hasBattery()).isFalse();
+		assertThat(envelope.hasMetadata()).isFalse();
+	}
+
+	@Test
+	void resetsEnvelopeBetweenMessages() {
+		PayloadParser parser = new PayloadParser();
+		parser.parse("{\"temp\":1,\"firmware\":\"a\",\"seq\":7}".getBytes(StandardCharsets.UTF_8));
+		PayloadEnvelope envelope = parser.parse("{\"hum\":2}".getBytes(StandardCharsets.UTF_8));
+
+		assertThat(envelope.hasTemp()).isFalse();
+		assertThat(envelope.getFirmware()).isNull();
+		assertThat(envelope.hasMessageId()).isFalse();
+		assertThat(envelope.copyMetricNames()).containsExactly("hum");
+	}
+
+	@Test
+	void prefersMsgIdOverSequence() {
+		long byMsgId = parse("{\"ts\":1700000000,\"seq\":9,\"msgId\":\"abc\"}").getMessageId();
+		long msgIdOnly = parse("{\"msgId\":\"abc\",\"temp\":20}").getMessageId();
+		long bySeq = parse("{\"seq\":9,\"ts\":1700000000}").getMessageId();
+
+		assertThat(byMsgId).isEqualTo(msgIdOnly);
+		assertThat(bySeq).isNotEqualTo(byMsgId);
+		assertThat(parse("{\"temp\":26.5,\"hum\":70}").hasMessageId()).isFalse();
+	}
+
+	@Test
+	void timestampIsNeitherMessageIdNorMetric() {
+		PayloadEnvelope envelope = parse("{\"ts\":1700000000,\"temp\":20}");
+
+		assertThat(envelope.hasMessageId()).isFalse();
+		assertThat(envelope.copyMetricNames()).containsExactly("temp");
+	}
+
+	@Test
+	void messageIdFieldsAreNotMetrics() {
+		PayloadEnvelope envelope = parse("{\"msgId\":17,\"seq\":9,\"ts\":1700000000,\"temp\":20}");
+
+		assertThat(envelope.hasMessageId()).isTrue();
+		assertThat(envelope.copyMetricNames()).containsExactly("temp");
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.example.iot_backend.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RingBufferTest {
+
+	@Test
+	void roundsCapacityUpToPowerOfTwo() {
+		assertThat(new RingBuffer<>(2).capacity()).isEqualTo(2);
+		assertThat(new RingBuffer<>(5).capacity()).isEqualTo(8);
+		assertThat(new RingBuffer<>(1024).capacity()).isEqualTo(1024);
+		assertThatThrownBy(() -> new RingBuffer<>(1)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void offerFailsWhenFullAndPollPreservesFifoOrder() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(4);
+		for (int i = 0; i < 4; i++) {
+			assertThat(buffer.offer(i)).isTrue();
+		}
+		assertThat(buffer.offer(4)).isFalse();
+		assertThat(buffer.size()).isEqualTo(4);
+
+		assertThat(buffer.poll()).isEqualTo(0);
+		assertThat(buffer.offer(4)).isTrue();
+		List<Integer> drained = new ArrayList<>();
+		assertThat(buffer.drainTo(drained, 10)).isEqualTo(4);
+		assertThat(drained).containsExactly(1, 2, 3, 4);
+		assertThat(buffer.poll()).isNull();
+		assertThat(buffer.size()).isZero();
+	}
+
+	@Test
+	void drainToRespectsMaxElements() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(8);
+		for (int i = 0; i < 6; i++) {
+			buffer.offer(i);
+		}
+		List<Integer> drained = new ArrayList<>();
+		assertThat(buffer.drainTo(drained, 4)).isEqualTo(4);
+		assertThat(drained).containsExactly(0, 1, 2, 3);
+		assertThat(buffer.size()).isEqualTo(2);
+	}
+
+	@Test
+	void rejectsNullElements() {
+		assertThatThrownBy(() -> new RingBuffer<>(4).offer(null)).isInstanceOf(NullPointerException.class);
+	}
+
+	@Test
+	void multipleProducersAndConsumersSeeEveryElementOnce() throws Exception {
+		int producers = 4;
+		int consumers = 4;
+		int perProducer = 20_000;
+		RingBuffer<Integer> buffer = new RingBuffer<>(64);
+		Set<Integer> seen = ConcurrentHashMap.newKeySet();
+		AtomicInteger duplicates = new AtomicInteger();
+		AtomicInteger remaining = new AtomicInteger(producers * perProducer);
+		CountDownLatch start = new CountDownLatch(1);
+
+		ExecutorService pool = Executors.newFixedThreadPool(producers + consumers);
+		try {
+			for (int p = 0; p < producers; p++) {
+				int base = p * perProducer;
+				pool.submit(() -> {
+					start.await();
+					for (int i = 0; i < perProducer; i++) {
+						while (!buffer.offer(base + i)) {
+							Thread.yield();
+						}
+					}
+					return null;
+				});
+			}
+			for (int c = 0; c < consumers; c++) {
+				pool.submit(() -> {
+					start.await();
+					List<Integer> batch = new ArrayList<>();
+					while (remaining.get() > 0) {
+						batch.clear();
+						int n = buffer.drainTo(batch, 16);
+						for (Integer value : batch) {
+							if (!seen.add(value)) {
+								duplicates.incrementAndGet();
+							}
+						}
+						if (n == 0) {
+							Thread.yield();
+						}
+						remaining.addAndGet(-n);
+					}
+					return null;
+				});
+			}
+			start.countDown();
+			pool.shutdown();
+			assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		assertThat(duplicates.get()).isZero();
+		assertThat(seen).hasSize(producers * perProducer);
+		assertThat(buffer.size()).isZero();
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.example.iot_backend.ingest;
+
+import com.example.iot_backend.config.IngestConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TelemetryDeduplicatorTest {
+
+	private static final long WINDOW_MS = 10_000;
+
+	private final long[] clock = { 1_700_000_000_000L };
+
+	private TelemetryDeduplicator deduplicator(boolean enabled) {
+		IngestConfig cfg = new IngestConfig();
+		ReflectionTestUtils.setField(cfg, "dedupeEnabled", enabled);
+		ReflectionTestUtils.setField(cfg, "dedupeWindowMs", WINDOW_MS);
+		ReflectionTestUtils.setField(cfg, "dedupeCapacity", 1024);
+		return new TelemetryDeduplicator(cfg) {
+			@Override
+			long now() {
+				return clock[0];
+			}
+		};
+	}
+
+	private static PayloadEnvelope envelope(String json) {
+		return new PayloadParser().parse(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void disabledOrWithoutMessageIdReturnsNoKey() {
+		assertThat(deduplicator(false).admit(1, envelope("{\"seq\":1}"))).isEqualTo(TelemetryDeduplicator.NO_KEY);
+
+		TelemetryDeduplicator deduplicator = deduplicator(true);
+		assertThat(deduplicator.admit(1, envelope("{\"temp\":26.5,\"hum\":70}"))).isEqualTo(TelemetryDeduplicator.NO_KEY);
+		assertThat(deduplicator.admit(1, envelope("{\"temp\":26.5,\"hum\":70}"))).isEqualTo(TelemetryDeduplicator.NO_KEY);
+		assertThat(deduplicator.getMetrics()).containsEntry("withoutMessageId", 2L);
+	}
+
+	@Test
+	void keyDependsOnDeviceAndMessageIdOnly() {
+		TelemetryDeduplicator deduplicator = deduplicator(true);
+		long key = deduplicator.admit(1, envelope("{\"seq\":5,\"temp\":1}"));
+		clock[0] += 5 * WINDOW_MS;
+
+		assertThat(key).isNotIn(TelemetryDeduplicator.NO_KEY, TelemetryDeduplicator.DUPLICATE);
+		assertThat(deduplicator.admit(1, envelope("{\"temp\":2,\"seq\":5}"))).isEqualTo(key);
+		assertThat(deduplicator.admit(2, envelope("{\"seq\":5}"))).isNotEqualTo(key);
+		assertThat(deduplicator.admit(1, envelope("{\"seq\":6}"))).isNotEqualTo(key);
+	}
+
+	@Test
+	void onlyCommittedKeysAreDuplicates() {
+		TelemetryDeduplicator deduplicator = deduplicator(true);
+		long key = deduplicator.admit(1, envelope("{\"msgId\":\"a\"}"));
+
+		// Batch chưa commit (hoặc lỗi): bản redeliver vẫn được nhận với cùng key
+		assertThat(deduplicator.admit(1, envelope("{\"msgId\":\"a\"}"))).isEqualTo(key);
+
+		deduplicator.committed(key);
+		assertThat(deduplicator.admit(1, envelope("{\"msgId\":\"a\"}"))).isEqualTo(TelemetryDeduplicator.DUPLICATE);
+		assertThat(deduplicator.getMetrics()).containsEntry("duplicates", 1L);
+	}
+
+	@Test
+	void committedKeysExpireAfterTwoWindows() {
+		TelemetryDeduplicator deduplicator = deduplicator(true);
+		clock[0] = (clock[0] / WINDOW_MS) * WINDOW_MS + WINDOW_MS - 1; // cuối bucket
+		long key = deduplicator.admit(1, envelope("{\"seq\":1}"));
+		deduplicator.committed(key);
+
+		clock[0] += 1; // bucket kế tiếp: key nằm ở generation trước
+		assertThat(deduplicator.admit(1, envelope("{\"seq\":1}"))).isEqualTo(TelemetryDeduplicator.DUPLICATE);
+
+		clock[0] += WINDOW_MS; // hai bucket sau: generation chứa key đã bị bỏ
+		assertThat(deduplicator.admit(1, envelope("{\"seq\":1}"))).isEqualTo(key);
+	}
+
+	@Test
+	void skippingSeveralWindowsDropsBothGenerations() {
+		TelemetryDeduplicator deduplicator = deduplicator(true);
+		long key = deduplicator.admit(1, envelope("{\"seq\":1}"));
+		deduplicator.committed(key);
+
+		clock[0] += 10 * WINDOW_MS;
+		assertThat(deduplicator.admit(1, envelope("{\"seq\":1}"))).isEqualTo(key);
+	}
+
+	@Test
+	void fullTableStopsRememberingKeys() {
+		TelemetryDeduplicator deduplicator = deduplicator(true);
+		long last = 0;
+		for (int i = 0; i < 2000; i++) {
+			last = deduplicator.admit(1, envelope("{\"seq\":" + i + "}"));
+			deduplicator.committed(last);
+		}
+
+		assertThat((Integer) deduplicator.getMetrics().get("currentWindowEntries")).isLessThanOrEqualTo(768);
+		assertThat((Long) deduplicator.getMetrics().get("overflows")).isPositive();
+		// Key không được ghi nhớ: bản trùng được cho qua để unique index ở DB chặn
+		assertThat(deduplicator.admit(1, envelope("{\"seq\":1999}"))).isEqualTo(last);
+		assertThat(deduplicator.admit(1, envelope("{\"seq\":0}"))).isEqualTo(TelemetryDeduplicator.DUPLICATE);
+	}
+
+}
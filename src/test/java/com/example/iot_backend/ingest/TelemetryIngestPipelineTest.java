@@ -0,0 +1,243 @@
+package com.example.iot_backend.ingest;
+
+import com.example.iot_backend.config.IngestConfig;
+import com.example.iot_backend.service.TelemetryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class TelemetryIngestPipelineTest {
+
+	@TempDir
+	Path dir;
+
+	private final TelemetryService telemetryService = mock(TelemetryService.class);
+	private final List<TelemetryRecord> saved = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger saveCalls = new AtomicInteger();
+	private final AtomicBoolean failing = new AtomicBoolean();
+	// Lần gọi saveBatch thứ i chờ gates[i] (nếu có)
+	private final List<CountDownLatch> gates = new ArrayList<>();
+	private final AtomicInteger acks = new AtomicInteger();
+	private TelemetryIngestPipeline pipeline;
+
+	private TelemetryIngestPipeline pipeline(int capacity, int batchSize, int highWater, int lowWater,
+			String spillDir) {
+		IngestConfig cfg = new IngestConfig();
+		ReflectionTestUtils.setField(cfg, "bufferCapacity", capacity);
+		ReflectionTestUtils.setField(cfg, "batchSize", batchSize);
+		ReflectionTestUtils.setField(cfg, "flushIntervalMs", 20L);
+		ReflectionTestUtils.setField(cfg, "flushWorkers", 1);
+		ReflectionTestUtils.setField(cfg, "highWaterMark", highWater);
+		ReflectionTestUtils.setField(cfg, "lowWaterMark", lowWater);
+		ReflectionTestUtils.setField(cfg, "flushRetries", 0);
+		ReflectionTestUtils.setField(cfg, "spillDir", spillDir);
+
+		doAnswer(invocation -> {
+			int call = saveCalls.getAndIncrement();
+			if (call < gates.size()) {
+				gates.get(call).await(10, TimeUnit.SECONDS);
+			}
+			if (failing.get())
+				throw new IllegalStateException("database unavailable");
+			// Pipeline dùng lại list batch nên phải copy
+			saved.addAll(new ArrayList<TelemetryRecord>(invocation.getArgument(0)));
+			return null;
+		}).when(telemetryService).saveBatch(any());
+
+		pipeline = new TelemetryIngestPipeline(cfg, telemetryService, new TelemetryDeduplicator(cfg),
+				new TelemetrySpillStore(spillDirConfig(spillDir)));
+		return pipeline;
+	}
+
+	private static IngestConfig spillDirConfig(String spillDir) {
+		IngestConfig cfg = new IngestConfig();
+		ReflectionTestUtils.setField(cfg, "spillDir", spillDir);
+		return cfg;
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (pipeline != null) {
+			pipeline.stop();
+		}
+	}
+
+	private void submit(int i) {
+		String json = "{\"seq\":" + i + ",\"temp\":" + (20 + i) + ".5}";
+		PayloadEnvelope envelope = new PayloadParser().parse(json.getBytes(StandardCharsets.UTF_8));
+		pipeline.submit(1L, json, null, TelemetryDeduplicator.NO_KEY, envelope, acks::incrementAndGet);
+	}
+
+	private Object metric(String name) {
+		return pipeline.getMetrics().get(name);
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline)
+				fail("Condition not reached within 10 s");
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	void fullBufferBlocksProducerInsteadOfDroppingRecords() throws Exception {
+		gates.add(new CountDownLatch(1));
+		pipeline(4, 2, 1000, 500, dir.toString()).start();
+
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < 20; i++) {
+				submit(i);
+			}
+		});
+		producer.start();
+
+		// Worker kẹt ở batch đầu (2 record), buffer 4 chỗ đầy: producer phải bị chặn
+		await(() -> (long) metric("enqueued") == 6 && producer.getState() == Thread.State.TIMED_WAITING);
+		assertThat(acks).hasValue(0);
+
+		gates.get(0).countDown();
+		producer.join(TimeUnit.SECONDS.toMillis(10));
+		await(() -> acks.get() == 20);
+
+		assertThat(saved).extracting(TelemetryRecord::getData).hasSize(20).doesNotHaveDuplicates();
+		assertThat((long) metric("rejected")).isPositive();
+		assertThat(metric("droppedRecords")).isEqualTo(0L);
+		assertThat(metric("inFlight")).isEqualTo(0L);
+	}
+
+	@Test
+	void failedBatchIsSpilledAckedAndReplayed() throws Exception {
+		failing.set(true);
+		pipeline(16, 4, 1000, 500, dir.toString());
+		for (int i = 0; i < 3; i++) {
+			submit(i);
+		}
+		pipeline.start();
+
+		await(() -> acks.get() == 3);
+		assertThat(saved).isEmpty();
+		assertThat(metric("spilledRecords")).isEqualTo(3L);
+		assertThat(metric("pendingSpillFiles")).isEqualTo(1);
+
+		// DB chưa ghi được: file được giữ lại cho lần sau
+		pipeline.replaySpilled();
+		assertThat(metric("pendingSpillFiles")).isEqualTo(1);
+
+		failing.set(false);
+		pipeline.replaySpilled();
+
+		assertThat(saved).extracting(TelemetryRecord::getData)
+				.containsExactly("{\"seq\":0,\"temp\":20.5}", "{\"seq\":1,\"temp\":21.5}", "{\"seq\":2,\"temp\":22.5}");
+		// Metric được parse lại từ payload gốc, PUBACK không gửi lại
+		assertThat(saved.get(2).getMetric("temp")).isEqualTo(22.5);
+		assertThat(saved).allMatch(r -> r.getAck() == null);
+		assertThat(acks).hasValue(3);
+		assertThat(metric("replayedRecords")).isEqualTo(3L);
+		assertThat(metric("pendingSpillFiles")).isEqualTo(0);
+	}
+
+	@Test
+	void batchIsKeptAndRetriedWhenSpillAlsoFails() throws Exception {
+		// Thư mục spill trùng tên một file thường nên không tạo được
+		Path blocked = Files.createFile(dir.resolve("not-a-directory"));
+		failing.set(true);
+		pipeline(16, 4, 1000, 500, blocked.resolve("spill").toString());
+		submit(0);
+		pipeline.start();
+
+		await(() -> saveCalls.get() >= 3);
+		assertThat(acks).hasValue(0);
+		assertThat(metric("inFlight")).isEqualTo(1L);
+
+		failing.set(false);
+		await(() -> acks.get() == 1);
+		assertThat(saved).hasSize(1);
+		assertThat(metric("droppedRecords")).isEqualTo(0L);
+		assertThat(metric("spilledRecords")).isEqualTo(0L);
+	}
+
+	@Test
+	void overflowNeverBlocksAndSpillsWhenBufferIsFull() throws Exception {
+		pipeline(2, 2, 1000, 500, dir.toString());
+		submit(0);
+		submit(1);
+
+		// Buffer đầy (pipeline chưa chạy): record overflow đi thẳng vào spill file và được ack ngay
+		String json = "{\"seq\":2,\"temp\":22.5}";
+		PayloadEnvelope envelope = new PayloadParser().parse(json.getBytes(StandardCharsets.UTF_8));
+		assertThat(pipeline.submitOverflow(1L, json, null, TelemetryDeduplicator.NO_KEY, envelope,
+				acks::incrementAndGet)).isTrue();
+		assertThat(acks).hasValue(1);
+		assertThat(metric("spilledRecords")).isEqualTo(1L);
+		assertThat(metric("rejected")).isEqualTo(0L);
+
+		pipeline.start();
+		await(() -> acks.get() == 3);
+		pipeline.replaySpilled();
+		assertThat(saved).extracting(TelemetryRecord::getData).hasSize(3).contains(json);
+		assertThat(metric("inFlight")).isEqualTo(0L);
+	}
+
+	@Test
+	void overflowIsDroppedWhenBufferIsFullAndSpillFails() throws Exception {
+		Path blocked = Files.createFile(dir.resolve("not-a-directory"));
+		pipeline(2, 2, 1000, 500, blocked.resolve("spill").toString());
+		submit(0);
+		submit(1);
+
+		String json = "{\"seq\":2,\"temp\":22.5}";
+		PayloadEnvelope envelope = new PayloadParser().parse(json.getBytes(StandardCharsets.UTF_8));
+		assertThat(pipeline.submitOverflow(1L, json, null, TelemetryDeduplicator.NO_KEY, envelope,
+				acks::incrementAndGet)).isFalse();
+		assertThat(acks).hasValue(0);
+		assertThat(metric("droppedRecords")).isEqualTo(1L);
+		assertThat(metric("inFlight")).isEqualTo(2L);
+	}
+
+	@Test
+	void acksAreDeferredAboveHighWaterAndReleasedBelowLowWater() throws Exception {
+		gates.add(new CountDownLatch(1));
+		gates.add(new CountDownLatch(1));
+		pipeline(16, 2, 4, 1, dir.toString());
+		for (int i = 0; i < 8; i++) {
+			submit(i);
+		}
+		pipeline.start();
+
+		// Batch 1 commit khi queue còn 6 (>= high-water 4): PUBACK bị giữ, worker đã sang batch 2
+		await(() -> saveCalls.get() == 1);
+		gates.get(0).countDown();
+		await(() -> saveCalls.get() == 2);
+		assertThat(metric("throttled")).isEqualTo(true);
+		assertThat(metric("deferredAcks")).isEqualTo(2);
+		assertThat(acks).hasValue(0);
+
+		gates.get(1).countDown();
+		await(() -> acks.get() == 8);
+		assertThat(metric("throttled")).isEqualTo(false);
+		assertThat(metric("deferredAcks")).isEqualTo(0);
+		assertThat(metric("throttleEvents")).isEqualTo(1L);
+		assertThat(metric("inFlight")).isEqualTo(0L);
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.iot_backend.mqtt;
+
+import com.hivemq.client.mqtt.mqtt3.message.publish.Mqtt3Publish;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeviceTopicRouterTest {
+
+	private final List<String> calls = new ArrayList<>();
+	private DeviceTopicRouter router;
+
+	@BeforeEach
+	void setUp() {
+		router = new DeviceTopicRouter()
+				.register("telemetry", (id, publish) -> calls.add("telemetry:" + id))
+				.register("telemetry/bin", (id, publish) -> calls.add("bin:" + id))
+				.register("status", (id, publish) -> calls.add("status:" + id))
+				.registerTopic("iot/demo/temp", publish -> calls.add("demo"));
+	}
+
+	private static Mqtt3Publish publish(String topic) {
+		return Mqtt3Publish.builder().topic(topic).build();
+	}
+
+	@Test
+	void routesByKindWithParsedDeviceId() {
+		assertThat(router.route(publish("iot/device/42/telemetry"))).isTrue();
+		assertThat(router.route(publish("iot/device/7/telemetry/bin"))).isTrue();
+		assertThat(router.route(publish("iot/device/123456789012345678/status"))).isTrue();
+		assertThat(router.route(publish("iot/demo/temp"))).isTrue();
+
+		assertThat(calls).containsExactly("telemetry:42", "bin:7", "status:123456789012345678", "demo");
+		assertThat(router.getRoutedCount()).isEqualTo(4);
+		assertThat(router.getCountsByKind()).isEqualTo(Map.of("telemetry", 1L, "telemetry/bin", 1L, "status", 1L));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "iot/device/42/unknown", "iot/device/42", "iot/device/42/", "iot/device//telemetry",
+			"iot/device/4x2/telemetry", "iot/device/-1/telemetry", "iot/device/1234567890123456789/telemetry",
+			"iot/device/42/telemetry/extra", "iot/devices/42/telemetry", "other/topic" })
+	void rejectsTopicsWithoutRoute(String topic) {
+		assertThat(router.route(publish(topic))).isFalse();
+
+		assertThat(calls).isEmpty();
+		assertThat(router.getUnroutedCount()).isEqualTo(1);
+	}
+
+	@Test
+	void buildsTopicFiltersWithOptionalSharedGroup() {
+		assertThat(router.topicFilters()).containsExactly("iot/demo/temp", "iot/device/+/telemetry",
+				"iot/device/+/telemetry/bin", "iot/device/+/status");
+		assertThat(router.topicFilters(kind -> kind.startsWith("telemetry") ? "ingest" : null)).containsExactly(
+				"iot/demo/temp", "$share/ingest/iot/device/+/telemetry", "$share/ingest/iot/device/+/telemetry/bin",
+				"iot/device/+/status");
+		assertThat(router.kinds()).containsExactly("telemetry", "telemetry/bin", "status");
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.archive.ArchiveSegmentStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Đối chiếu segment trên đĩa với DB (reconcile) ở đầu mỗi lần chạy tiering; DB được mock, chưa có archive
+ * nào đủ tuổi để chuyển
+ */
+class ArchiveTieringServiceTest {
+
+	@TempDir
+	Path dir;
+
+	private ArchiveSegmentStore store;
+	private JdbcTemplate jdbcTemplate;
+	private ArchiveTieringService service;
+	private final List<Long> pointedArchives = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		store = new ArchiveSegmentStore(dir.toString(), 1 << 20);
+		jdbcTemplate = mock(JdbcTemplate.class);
+		service = new ArchiveTieringService(store, jdbcTemplate, mock(PlatformTransactionManager.class), true, 90,
+				500);
+	}
+
+	private long sealSegment(long... archiveIds) throws IOException {
+		try (ArchiveSegmentStore.SegmentWriter writer = store.create()) {
+			for (long archiveId : archiveIds) {
+				writer.append(archiveId, new byte[] { 1, 2, 3 });
+			}
+			writer.seal();
+			return writer.getSegmentId();
+		}
+	}
+
+	// MOVE_SQL trả về số hàng cập nhật cho mỗi entry
+	@SuppressWarnings("unchecked")
+	private void databaseMoves(int rowsPerEntry) {
+		when(jdbcTemplate.batchUpdate(startsWith("WITH moved"), any(Collection.class), anyInt(), any()))
+				.thenAnswer(invocation -> {
+					Collection<ArchiveSegmentStore.Entry> entries = invocation.getArgument(1);
+					int[] counts = new int[entries.size()];
+					for (ArchiveSegmentStore.Entry entry : entries) {
+						pointedArchives.add(entry.archiveId());
+					}
+					Arrays.fill(counts, rowsPerEntry);
+					return new int[][] { counts };
+				});
+	}
+
+	@Test
+	void unreferencedSegmentIsAdoptedFromFooter() throws IOException {
+		long segmentId = sealSegment(21, 22);
+		databaseMoves(1);
+
+		Map<String, Object> result = service.run();
+
+		assertThat(pointedArchives).containsExactly(21L, 22L);
+		assertThat(result).containsEntry("archivesRecovered", 2).containsEntry("segmentsDeleted", 0);
+		assertThat(store.listSegments()).containsExactly(segmentId);
+	}
+
+	@Test
+	void segmentWithNoArchiveLeftIsDeleted() throws IOException {
+		sealSegment(31);
+		databaseMoves(0); // archive đã bị xóa hoặc đã trỏ sang segment khác
+
+		Map<String, Object> result = service.run();
+
+		assertThat(result).containsEntry("archivesRecovered", 0).containsEntry("segmentsDeleted", 1);
+		assertThat(store.listSegments()).isEmpty();
+	}
+
+	@Test
+	void referencedSegmentIsLeftAlone() throws Exception {
+		long segmentId = sealSegment(41);
+		ResultSet row = mock(ResultSet.class);
+		when(row.getLong(1)).thenReturn(segmentId);
+		when(row.getLong(2)).thenReturn(1L);
+		when(row.getLong(3)).thenReturn(3L);
+		doAnswer(invocation -> {
+			invocation.<RowCallbackHandler>getArgument(1).processRow(row);
+			return null;
+		}).when(jdbcTemplate).query(startsWith("SELECT segment_id"), any(RowCallbackHandler.class));
+
+		Map<String, Object> result = service.run();
+
+		verify(jdbcTemplate, never()).batchUpdate(anyString(), any(Collection.class), anyInt(), any());
+		assertThat(result).containsEntry("archivesRecovered", 0).containsEntry("segmentsDeleted", 0);
+		assertThat(store.listSegments()).containsExactly(segmentId);
+	}
+}
@@ -0,0 +1,136 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.dto.TelemetryArchiveDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecodedArchiveCacheTest {
+
+	private static final Instant DAY = Instant.parse("2025-03-01T00:00:00Z");
+
+	// 4 record * (176 overhead + 24 byte data) + 16 + 4 * 4 = 832 byte mỗi archive
+	private static final long ENTRY_BYTES = 832;
+
+	private static TelemetryArchiveDTO[] records(int count) {
+		TelemetryArchiveDTO[] records = new TelemetryArchiveDTO[count];
+		for (int i = 0; i < count; i++) {
+			records[i] = new TelemetryArchiveDTO((long) i, 1L, null, DAY.plusSeconds(60L * i), "x".repeat(24));
+		}
+		return records;
+	}
+
+	private static void put(DecodedArchiveCache cache, long archiveId) {
+		cache.put(archiveId, 1L, DAY, DAY.plusSeconds(86400), records(4));
+	}
+
+	private static boolean cached(DecodedArchiveCache cache, long archiveId) {
+		return cache.read(archiveId, null, null, dto -> {
+		});
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedWhenOverByteBudget() {
+		DecodedArchiveCache cache = new DecodedArchiveCache(4000);
+		for (long id = 1; id <= 4; id++) {
+			put(cache, id);
+		}
+		assertThat(cache.getMetrics()).containsEntry("estimatedBytes", 4 * ENTRY_BYTES);
+
+		// Đọc archive 1 để nó thành mới dùng nhất, archive 2 thành cũ nhất
+		assertThat(cached(cache, 1)).isTrue();
+		put(cache, 5);
+
+		assertThat(cached(cache, 2)).isFalse();
+		assertThat(cached(cache, 1)).isTrue();
+		assertThat(cached(cache, 5)).isTrue();
+		assertThat(cache.getMetrics())
+				.containsEntry("entries", 4)
+				.containsEntry("estimatedBytes", 4 * ENTRY_BYTES)
+				.containsEntry("evictions", 1L);
+	}
+
+	@Test
+	void replacingAnEntryDoesNotDoubleCountBytes() {
+		DecodedArchiveCache cache = new DecodedArchiveCache(4000);
+		put(cache, 1);
+		put(cache, 1);
+
+		assertThat(cache.getMetrics())
+				.containsEntry("entries", 1)
+				.containsEntry("estimatedBytes", ENTRY_BYTES)
+				.containsEntry("evictions", 0L);
+	}
+
+	@Test
+	void entryLargerThanQuarterOfCacheIsRejected() {
+		DecodedArchiveCache cache = new DecodedArchiveCache(4000);
+
+		cache.put(1, 1L, DAY, DAY.plusSeconds(86400), records(5)); // 16 + 20 + 5 * 200 = 1036 > 1000
+
+		assertThat(cached(cache, 1)).isFalse();
+		assertThat(cache.getMetrics())
+				.containsEntry("entries", 0)
+				.containsEntry("estimatedBytes", 0L)
+				.containsEntry("rejected", 1L);
+	}
+
+	@Test
+	void partialReadsLoadOnlyOnSecondMiss() {
+		DecodedArchiveCache cache = new DecodedArchiveCache(4000);
+
+		assertThat(cache.shouldLoad(1, false, 4)).isFalse();
+		assertThat(cache.shouldLoad(1, false, 4)).isTrue();
+		// Doorkeeper đã được dùng, lần kế tiếp lại phải miss hai lần
+		assertThat(cache.shouldLoad(1, false, 4)).isFalse();
+		assertThat(cache.shouldLoad(2, true, 4)).isTrue();
+		// 6 record * 176 = 1056 > 1000: chắc chắn không vừa một entry
+		assertThat(cache.shouldLoad(3, true, 6)).isFalse();
+		assertThat(new DecodedArchiveCache(0).shouldLoad(4, true, 1)).isFalse();
+	}
+
+	@Test
+	void readEmitsOnlyRecordsInsideWindow() {
+		DecodedArchiveCache cache = new DecodedArchiveCache(4000);
+		put(cache, 1); // ts = DAY + 0, 60, 120, 180 giây
+		List<Long> ids = new ArrayList<>();
+
+		cache.read(1, DAY.plusSeconds(60), DAY.plusSeconds(120), dto -> ids.add(dto.getId()));
+		assertThat(ids).containsExactly(1L, 2L);
+
+		ids.clear();
+		cache.read(1, DAY.plusSeconds(61), null, dto -> ids.add(dto.getId()));
+		assertThat(ids).containsExactly(2L, 3L);
+
+		ids.clear();
+		cache.read(1, null, DAY.minusSeconds(1), dto -> ids.add(dto.getId()));
+		assertThat(ids).isEmpty();
+	}
+
+	@Test
+	void invalidateReleasesBytes() {
+		DecodedArchiveCache cache = new DecodedArchiveCache(4000);
+		put(cache, 1);
+		cache.put(2, 2L, DAY, DAY.plusSeconds(86400), records(4));
+		cache.put(3, 1L, DAY.plusSeconds(86400), DAY.plusSeconds(2 * 86400), records(4));
+
+		cache.invalidate(1);
+		assertThat(cached(cache, 1)).isFalse();
+		assertThat(cache.getMetrics()).containsEntry("estimatedBytes", 2 * ENTRY_BYTES);
+
+		// Archive lại ngày thứ hai của device 1: chỉ archive 3 bị bỏ
+		cache.invalidateOverlapping(1L, DAY.plusSeconds(86400), DAY.plusSeconds(2 * 86400));
+		assertThat(cached(cache, 3)).isFalse();
+		assertThat(cached(cache, 2)).isTrue();
+
+		cache.clear();
+		assertThat(cache.getMetrics())
+				.containsEntry("entries", 0)
+				.containsEntry("estimatedBytes", 0L)
+				.containsEntry("invalidations", 3L);
+	}
+}
@@ -0,0 +1,129 @@
+package com.example.iot_backend.service;
+
+import com.example.iot_backend.model.TelemetryRollup.Granularity;
+import com.example.iot_backend.model.TelemetryRollupState;
+import com.example.iot_backend.repository.TelemetryRollupStateRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class TelemetryRollupServiceTest {
+
+	private static Instant at(String ts) {
+		return Instant.parse(ts);
+	}
+
+	@Test
+	void floorHourAndDay() {
+		assertThat(TelemetryRollupService.floor(at("2025-03-01T13:59:59.999Z"), Granularity.HOURLY))
+				.isEqualTo(at("2025-03-01T13:00:00Z"));
+		assertThat(TelemetryRollupService.floor(at("2025-03-01T23:59:59.999Z"), Granularity.DAILY))
+				.isEqualTo(at("2025-03-01T00:00:00Z"));
+	}
+
+	@Test
+	void floorWeekStartsOnMondayUtc() {
+		// 2025-03-03 là thứ Hai
+		assertThat(TelemetryRollupService.floor(at("2025-03-03T00:00:00Z"), Granularity.WEEKLY))
+				.isEqualTo(at("2025-03-03T00:00:00Z"));
+		assertThat(TelemetryRollupService.floor(at("2025-03-09T23:59:59Z"), Granularity.WEEKLY))
+				.isEqualTo(at("2025-03-03T00:00:00Z"));
+		assertThat(TelemetryRollupService.floor(at("2025-03-02T23:59:59Z"), Granularity.WEEKLY))
+				.isEqualTo(at("2025-02-24T00:00:00Z"));
+		// Tuần vắt qua năm mới
+		assertThat(TelemetryRollupService.floor(at("2025-01-01T12:00:00Z"), Granularity.WEEKLY))
+				.isEqualTo(at("2024-12-30T00:00:00Z"));
+	}
+
+	@Test
+	void floorMonth() {
+		assertThat(TelemetryRollupService.floor(at("2025-03-31T23:59:59Z"), Granularity.MONTHLY))
+				.isEqualTo(at("2025-03-01T00:00:00Z"));
+		assertThat(TelemetryRollupService.floor(at("2024-02-29T10:00:00Z"), Granularity.MONTHLY))
+				.isEqualTo(at("2024-02-01T00:00:00Z"));
+		assertThat(TelemetryRollupService.floor(at("2025-01-01T00:00:00Z"), Granularity.MONTHLY))
+				.isEqualTo(at("2025-01-01T00:00:00Z"));
+	}
+
+	@Test
+	void advanceWeeks() {
+		assertThat(TelemetryRollupService.advance(at("2024-12-30T00:00:00Z"), Granularity.WEEKLY, 1))
+				.isEqualTo(at("2025-01-06T00:00:00Z"));
+		assertThat(TelemetryRollupService.advance(at("2025-02-24T00:00:00Z"), Granularity.WEEKLY, 12))
+				.isEqualTo(at("2025-05-19T00:00:00Z"));
+	}
+
+	@Test
+	void advanceMonthsFollowsCalendarLength() {
+		assertThat(TelemetryRollupService.advance(at("2025-01-01T00:00:00Z"), Granularity.MONTHLY, 1))
+				.isEqualTo(at("2025-02-01T00:00:00Z"));
+		assertThat(TelemetryRollupService.advance(at("2024-02-01T00:00:00Z"), Granularity.MONTHLY, 1))
+				.isEqualTo(at("2024-03-01T00:00:00Z"));
+		assertThat(TelemetryRollupService.advance(at("2025-11-01T00:00:00Z"), Granularity.MONTHLY, 12))
+				.isEqualTo(at("2026-11-01T00:00:00Z"));
+	}
+
+	@Test
+	void advanceHoursAndDays() {
+		assertThat(TelemetryRollupService.advance(at("2025-03-01T23:00:00Z"), Granularity.HOURLY, 24))
+				.isEqualTo(at("2025-03-02T23:00:00Z"));
+		assertThat(TelemetryRollupService.advance(at("2025-02-28T00:00:00Z"), Granularity.DAILY, 1))
+				.isEqualTo(at("2025-03-01T00:00:00Z"));
+	}
+
+	@ParameterizedTest
+	@EnumSource(Granularity.class)
+	void advancedBucketStartIsAlreadyFloored(Granularity granularity) {
+		Instant bucket = TelemetryRollupService.floor(at("2024-12-31T17:45:12Z"), granularity);
+		for (int i = 0; i < 40; i++) {
+			Instant next = TelemetryRollupService.advance(bucket, granularity, 1);
+			assertThat(next).isAfter(bucket);
+			assertThat(TelemetryRollupService.floor(next, granularity)).isEqualTo(next);
+			assertThat(TelemetryRollupService.floor(next.minusNanos(1), granularity)).isEqualTo(bucket);
+			bucket = next;
+		}
+	}
+
+	@Test
+	void expirePointsStopsAtHourlyWatermarkAndDeletesInChunks() {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		TelemetryRollupStateRepository stateRepo = mock(TelemetryRollupStateRepository.class);
+		Instant watermark = at("2020-01-01T05:00:00Z"); // rollup tụt xa hơn retention
+		when(stateRepo.findById(Granularity.HOURLY))
+				.thenReturn(Optional.of(new TelemetryRollupState(Granularity.HOURLY, watermark)));
+		when(jdbcTemplate.update(anyString(), eq(Timestamp.from(watermark)), anyInt())).thenReturn(10000, 10000, 7);
+		TelemetryRollupService service = new TelemetryRollupService(jdbcTemplate, stateRepo,
+				mock(PlatformTransactionManager.class), true, 10, 30);
+
+		assertThat(service.expirePoints()).isEqualTo(20007);
+		verify(jdbcTemplate, times(3)).update(anyString(), eq(Timestamp.from(watermark)), anyInt());
+	}
+
+	@Test
+	void expirePointsKeepsEverythingBeforeFirstRollup() {
+		JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+		TelemetryRollupStateRepository stateRepo = mock(TelemetryRollupStateRepository.class);
+		when(stateRepo.findById(Granularity.HOURLY)).thenReturn(Optional.empty());
+		TelemetryRollupService service = new TelemetryRollupService(jdbcTemplate, stateRepo,
+				mock(PlatformTransactionManager.class), true, 10, 30);
+
+		assertThat(service.expirePoints()).isZero();
+		verifyNoInteractions(jdbcTemplate);
+	}
+}